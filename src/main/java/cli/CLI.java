@@ -18,12 +18,17 @@ package cli;
 
 import static utility.FileUtils.fileExists;
 
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 import model.GenericModule;
@@ -31,18 +36,37 @@ import model.Part;
 import model.Profile;
 import model.ProfileTemplate;
 import modules.AbstractModule;
+import storage.BlobStore;
+import storage.CompactionReport;
+import storage.Compression;
 import storage.ConfigSaver;
+import storage.MetricStore;
+import storage.RetentionCompactor;
+import storage.ResultTable;
+import storage.RetentionPolicies;
+import storage.SearchHit;
+import storage.TimeSeries;
+import storage.WriteBehindQueue;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.base.Joiner;
 
+import controller.EventProcessorInterface;
+import controller.EventQueue;
+import controller.ExtractionCache;
 import controller.ExtractionController;
 import controller.ModuleController;
+import controller.StorageController;
 
 /**
  * This class provides an interactive command line interface for the user. It
  * uses the {@link CLIParser} class for parsing the user input.
  */
 public class CLI implements Runnable {
+	private static final int MAX_SEARCH_HITS = 100;
+	private static final int MAX_SQL_ROWS = 100;
+	private static final int MAX_METRIC_SAMPLES = 60;
+	private static final int MAX_EVENTS = 100;
 	private final Scanner scanner;
 	protected final ExtractionController controller;
 
@@ -102,6 +126,250 @@ public class CLI implements Runnable {
 				+ controller.extractor.getUpdateExtraction());
 		System.out.println("Environment monitor daemons running: "
 				+ controller.extractor.getDaemonsRunning());
+		System.out.println("Extraction threads: "
+				+ controller.extractor.getThreads());
+		System.out.println("Storage format: "
+				+ (StorageController.storage.isBinaryFormat() ? "smile"
+						: "json"));
+		Compression compression = StorageController.storage.getCompression();
+		if (compression != Compression.NONE) {
+			System.out.println("Compression: "
+					+ compression.name().toLowerCase()
+					+ (StorageController.storage
+							.isSnapshotCompressionSupported() ? ""
+							: " (events only)"));
+		}
+		if (StorageController.storage.getStorageRoots().size() > 1) {
+			System.out.println("Storage roots: "
+					+ StorageController.storage.getStorageRoots());
+		}
+		System.out.println("Event log: "
+				+ StorageController.storage.getEventWriter());
+		List<EventQueue> eventQueues = ExtractionController.eventq.getQueues();
+		for (int i = 0; i < eventQueues.size(); i++) {
+			System.out.println("Event partition " + (i + 1) + ": "
+					+ eventQueues.get(i));
+		}
+		for (Map.Entry<EventProcessorInterface, EventQueue> entry : ExtractionController.eventq
+				.getProcessorQueues().entrySet()) {
+			System.out.println("Event processor "
+					+ entry.getKey().getClass().getSimpleName() + ": "
+					+ entry.getValue());
+		}
+		WriteBehindQueue writeBehind = StorageController.storage
+				.getWriteBehind();
+		if (writeBehind != null) {
+			System.out.println("Storage writers: "
+					+ writeBehind.getWriterCount() + ", "
+					+ writeBehind.getQueued() + " queued, "
+					+ writeBehind.getWritten() + " written, "
+					+ writeBehind.getProducerWaits() + " waits for full queues");
+		}
+		RetentionCompactor compactor = StorageController.storage
+				.getCompactor();
+		if (compactor != null && compactor.getLastReport() != null) {
+			System.out.println("Retention compaction: "
+					+ compactor.getTotalReport());
+		}
+		BlobStore blobs = StorageController.storage.getBlobStore();
+		System.out.println("External data: " + blobs.getBlobCount()
+				+ " blobs, " + blobs.getBlobBytes() + " bytes, "
+				+ blobs.getDeduplicatedPuts() + " duplicates ("
+				+ blobs.getDeduplicatedBytes() + " bytes) not stored again");
+		System.out.println("Result cache: "
+				+ StorageController.storage.getResultCache());
+		ExtractionCache cache = controller.extractor.getCache();
+		System.out.println("Extraction cache: " + cache.getHits() + " hits, "
+				+ cache.getMisses() + " misses, " + cache.size()
+				+ " cached extractions");
+	}
+
+	/**
+	 * Method executed, if the "clearCache" command was entered: The next
+	 * extraction will extract all files again, even if they didn't change.
+	 */
+	protected void clearCache() {
+		controller.extractor.getCache().clear();
+		System.out.println("Extraction cache cleared.");
+	}
+
+	/**
+	 * Method executed, if the "convert" command was entered: Converts the
+	 * stored extraction results into the given format, which is used for new
+	 * results, too.
+	 * 
+	 * @param format
+	 *            "json" or "smile"
+	 */
+	protected void convert(String format) {
+		boolean binary = format.equalsIgnoreCase("smile");
+		if (!binary && !format.equalsIgnoreCase("json")) {
+			System.out.println("Unknown format: " + format);
+			return;
+		}
+		if (!StorageController.storage.isConversionSupported()) {
+			System.out.println(StorageController.storage.getClass()
+					.getSimpleName()
+					+ " doesn't support the conversion of stored data");
+			return;
+		}
+		try {
+			int converted = StorageController.storage
+					.convertStoredData(binary);
+			StorageController.storage.setBinaryFormat(binary);
+			System.out.println(converted + " stored results converted to "
+					+ format);
+		} catch (IOException e) {
+			System.out.println("Conversion failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method executed, if the "compact" command was entered: Deletes the
+	 * stored snapshots and events, that the retention policies don't keep.
+	 */
+	protected void compact() {
+		RetentionCompactor compactor = StorageController.storage
+				.getCompactor();
+		CompactionReport report = compactor != null ? compactor.compact()
+				: StorageController.storage.compact(RetentionPolicies.load());
+		if (report != null) {
+			System.out.println("Compaction: " + report);
+		}
+		if (!StorageController.storage.isCompactionSupported()) {
+			System.out.println(StorageController.storage.getClass()
+					.getSimpleName()
+					+ " keeps all snapshots, only the events are compacted.");
+		}
+	}
+
+	/**
+	 * Method executed, if the "rebalance" command was entered: Moves the
+	 * stored results to the storage roots they are placed on, e.g. after a
+	 * root was added.
+	 */
+	protected void rebalance() {
+		if (!StorageController.storage.isShardingSupported()) {
+			System.out.println(StorageController.storage.getClass()
+					.getSimpleName()
+					+ " doesn't support several storage roots");
+			return;
+		}
+		try {
+			int moved = StorageController.storage.rebalance();
+			System.out.println(moved + " histories moved, storage roots: "
+					+ StorageController.storage.getStorageRoots());
+		} catch (IOException e) {
+			System.out.println("Rebalancing failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method executed, if the "search" command was entered: Prints the
+	 * extraction results matching the query.
+	 * 
+	 * @param query
+	 *            query in Lucene syntax
+	 */
+	protected void search(String query) {
+		try {
+			List<SearchHit> hits = StorageController.storage.search(query,
+					MAX_SEARCH_HITS);
+			for (SearchHit hit : hits) {
+				System.out.println(hit);
+			}
+			System.out.println(hits.size() + " hits");
+		} catch (IllegalArgumentException e) {
+			System.out.println("Invalid query: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method executed, if the "reindex" command was entered: Rebuilds the
+	 * search index from the stored results of the profiles.
+	 */
+	protected void reindex() {
+		int indexed = StorageController.storage
+				.reindex(controller.profileController.getProfiles());
+		System.out.println(indexed + " stored snapshots indexed");
+	}
+
+	/**
+	 * Method executed, if the "sql" command was entered: Prints the rows of a
+	 * read-only SQL query on the stored results.
+	 * 
+	 * @param sql
+	 *            SELECT statement
+	 */
+	protected void sql(String sql) {
+		if (!StorageController.storage.isQuerySupported()) {
+			System.out.println(StorageController.storage.getClass()
+					.getSimpleName() + " doesn't support SQL queries");
+			return;
+		}
+		try {
+			ResultTable table = StorageController.storage.query(sql,
+					MAX_SQL_ROWS);
+			System.out.println(Joiner.on('\t').join(table.header));
+			for (List<String> row : table.rows) {
+				System.out.println(Joiner.on('\t').join(row));
+			}
+			System.out.println(table.rows.size() + " rows");
+		} catch (SQLException e) {
+			System.out.println("Invalid query: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method executed, if the "metrics" command was entered: Prints the
+	 * sampled system metrics, or the samples of one metric.
+	 * 
+	 * @param metric
+	 *            name of the metric, or null to list all metrics
+	 * @param minutes
+	 *            time range until now
+	 */
+	protected void metrics(String metric, int minutes) {
+		MetricStore store = StorageController.storage.getMetricStore();
+		if (metric == null) {
+			for (String name : store.getMetrics()) {
+				System.out.println(name + " (last sample "
+						+ new Date(store.getLastTime(name)) + ")");
+			}
+			return;
+		}
+		long now = System.currentTimeMillis();
+		List<TimeSeries.Sample> samples = store.query(metric, now - minutes
+				* 60 * 1000L, now, MAX_METRIC_SAMPLES);
+		for (TimeSeries.Sample sample : samples) {
+			System.out.println(new Date(sample.time) + "\tavg "
+					+ sample.average + "\tmin " + sample.min + "\tmax "
+					+ sample.max);
+		}
+		System.out.println(samples.size() + " samples");
+	}
+
+	/**
+	 * Method executed, if the "events" command was entered: Prints the
+	 * logged events of the last hours.
+	 * 
+	 * @param hours
+	 *            time range until now
+	 * @param reporterName
+	 *            name of the reporting module, or null for all
+	 */
+	protected void events(int hours, String reporterName) {
+		long now = System.currentTimeMillis();
+		List<String> events = StorageController.storage.queryEventData(now
+				- hours * 60 * 60 * 1000L, now, reporterName, null, MAX_EVENTS);
+		if (events == null) {
+			System.out.println("The events couldn't be read.");
+			return;
+		}
+		for (String event : events) {
+			System.out.println(event);
+		}
+		System.out.println(events.size() + " events");
 	}
 
 	/**
@@ -32,6 +32,24 @@ public class CLIHelp {
 		out("start", "Start continuous extraction");
 		out("stop", "Stop continuous extraction");
 		out("extract", "Start a single extraction");
+		out("clearCache",
+				"Extract also unchanged files at the next extraction");
+		out("convert [json|smile]",
+				"Convert the stored results into the text or binary format");
+		out("compact",
+				"Delete stored results and events according to config/retention.json");
+		out("rebalance",
+				"Move the stored results to their roots after roots were added with --roots");
+		out("search [QUERY]",
+				"Search extraction results, e.g. search moduleName:X AND key:value");
+		out("reindex",
+				"Rebuild the search index from the stored results of the profiles");
+		out("metrics [METRIC] [MINUTES]",
+				"List the sampled system metrics, or the samples of the last minutes (default 60)");
+		out("events [HOURS] [REPORTER]",
+				"List the logged events of the last hours (default 1), optionally of one reporting module");
+		out("sql [QUERY]",
+				"Read-only SQL query on the results, with --storage SQLStorageInterface");
 		out("gui", "Start GUI");
 		out("exit", "Exit the tool");
 
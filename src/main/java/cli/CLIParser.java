@@ -63,6 +63,58 @@ public class CLIParser {
 		case "gui":
 			cli.controller.startGui();
 			break;
+		case "clearcache":
+			cli.clearCache();
+			break;
+		case "convert": // convert [FORMAT]
+			if (args.length == 2) {
+				cli.convert(args[1]);
+			}
+			break;
+		case "compact":
+			cli.compact();
+			break;
+		case "rebalance":
+			cli.rebalance();
+			break;
+		case "search": // search [QUERY]
+			if (args.length >= 2) {
+				String query = args[1];
+				if (args.length > 2) {
+					query = getWholeName(args, query);
+				}
+				cli.search(query);
+			}
+			break;
+		case "reindex":
+			cli.reindex();
+			break;
+
+		case "metrics": // metrics [METRIC] [MINUTES]
+			try {
+				cli.metrics(args.length >= 2 ? args[1] : null,
+						args.length >= 3 ? Integer.parseInt(args[2]) : 60);
+			} catch (NumberFormatException e) {
+				System.out.println("Invalid number of minutes: " + args[2]);
+			}
+			break;
+		case "events": // events [HOURS] [REPORTER]
+			try {
+				cli.events(args.length >= 2 ? Integer.parseInt(args[1]) : 1,
+						args.length >= 3 ? getWholeName(args, "").trim() : null);
+			} catch (NumberFormatException e) {
+				System.out.println("Invalid number of hours: " + args[1]);
+			}
+			break;
+		case "sql": // sql [QUERY]
+			if (args.length >= 2) {
+				String query = args[1];
+				if (args.length > 2) {
+					query = getWholeName(args, query);
+				}
+				cli.sql(query);
+			}
+			break;
 
 		case "add": // add [FILE]
 			if (args.length >= 2) {
@@ -37,6 +37,7 @@ public class Constants {
 	public static String EXTRACTION_PREFERENCES_FILE;
 	public static String SI_LOCK_FILE;
 	public static String EVENT_STORAGE_FILE;
+	public static String EXTRACTION_CACHE_FILE;
 
 	/**
 	 * Configures the constants of the projects directories and configuration
@@ -67,6 +68,7 @@ public class Constants {
 				+ "extractionPreferences";
 		SI_LOCK_FILE = CONFIG_DIRECTORY + "lockfile.running";
 		EVENT_STORAGE_FILE = OUTPUT_DIRECTORY + "events.json";
+		EXTRACTION_CACHE_FILE = OUTPUT_DIRECTORY + "extraction_cache";
 		createProjectDirectories();
 	}
 
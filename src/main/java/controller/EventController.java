@@ -16,103 +16,237 @@
 */
 package controller;
 
+import static configuration.Log.EXCEPTION_LOGGER;
+
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 
 import model.Event;
 import model.Profile;
-import configuration.Log;
 
+/**
+ * Dispatches the events of the monitoring daemons.
+ * <p>
+ * The events are partitioned by their file name over several worker
+ * threads, each with its own {@link EventQueue}. All events of a file are
+ * handled by the same worker, so that they stay in order, while the events
+ * of different files are handled in parallel. Events without a file name are
+ * partitioned by their reporter.
+ * <p>
+ * Each registered {@link EventProcessorInterface} has its own queue and
+ * thread, so that a slow processor doesn't stall the workers or the other
+ * processors. If a processor falls behind, its oldest events are dropped.
+ */
 public class EventController {
-	private final LinkedBlockingQueue<Event> theQueue = new LinkedBlockingQueue<Event>();
+	/** Maximal number of events kept for the GUI, until it is opened */
+	public static final int MAX_LATE_EVENTS = 1000;
+	/** Capacity of the queue of each registered processor */
+	public static final int PROCESSOR_QUEUE_CAPACITY = 1000;
+
+	private final List<EventQueue> partitions = new ArrayList<EventQueue>();
 	ExtractionController ec;
-	private final Thread eventThread;
 	StorageEventProcessor store = new StorageEventProcessor();
-	private final LinkedList<EventProcessorInterface> eventProcessors = new LinkedList<EventProcessorInterface>();
+	private final CopyOnWriteArrayList<ProcessorChannel> eventProcessors = new CopyOnWriteArrayList<ProcessorChannel>();
 	LinkedList<Event> late = new LinkedList<Event>();
 
 	public EventController(ExtractionController ec) {
+		this(ec, EventQueue.DEFAULT_CAPACITY, OverloadPolicy.BLOCK, Runtime
+				.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param ec
+	 * @param capacity
+	 *            maximal number of queued events, shared by the partitions
+	 * @param policy
+	 *            behavior if the daemons submit events faster than they are
+	 *            processed
+	 * @param workers
+	 *            number of partitions with a worker thread
+	 */
+	public EventController(ExtractionController ec, int capacity,
+			OverloadPolicy policy, int workers) {
 		super();
 		this.ec = ec;
-		eventThread = new Thread(new EventProcessor(), "EventPocessor");
-		eventThread.setDaemon(true);
-		eventThread.start();
+		workers = Math.max(1, workers);
+		for (int i = 0; i < workers; i++) {
+			EventQueue queue = new EventQueue(Math.max(1, capacity / workers),
+					policy);
+			partitions.add(queue);
+			Thread worker = new Thread(new EventProcessor(queue),
+					"EventPocessor " + (i + 1));
+			worker.setDaemon(true);
+			worker.start();
+		}
 	}
 
 	public void submitEvent(Event e) {
-		theQueue.add(e);
+		try {
+			partitions.get(getPartition(e)).submit(e);
+		} catch (InterruptedException x) {
+			// the daemon is stopped while waiting for space
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @param e
+	 * @return index of the partition of the event
+	 */
+	int getPartition(Event e) {
+		String key = e.fileName != null ? e.fileName : e.reporterName;
+		if (key == null) {
+			return 0;
+		}
+		return (key.hashCode() & Integer.MAX_VALUE) % partitions.size();
+	}
+
+	/**
+	 * @return the queues of the partitions, with their overload counters
+	 */
+	public List<EventQueue> getQueues() {
+		return Collections.unmodifiableList(partitions);
+	}
+
+	/**
+	 * @return the queues of the registered processors
+	 */
+	public Map<EventProcessorInterface, EventQueue> getProcessorQueues() {
+		Map<EventProcessorInterface, EventQueue> queues = new LinkedHashMap<EventProcessorInterface, EventQueue>();
+		for (ProcessorChannel channel : eventProcessors) {
+			queues.put(channel.processor, channel.queue);
+		}
+		return queues;
 	}
 
 	public void addProcessor(EventProcessorInterface p) {
-		eventProcessors.add(p);
+		eventProcessors.add(new ProcessorChannel(p));
 	}
 
 	public void removeProcessor(EventProcessorInterface p) {
-		eventProcessors.remove(p);
+		for (ProcessorChannel channel : eventProcessors) {
+			if (channel.processor == p) {
+				channel.thread.interrupt();
+				eventProcessors.remove(channel);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Queue and thread of a registered processor.
+	 */
+	private static class ProcessorChannel implements Runnable {
+		final EventProcessorInterface processor;
+		final EventQueue queue = new EventQueue(PROCESSOR_QUEUE_CAPACITY,
+				OverloadPolicy.DROP_OLDEST);
+		final Thread thread;
+
+		ProcessorChannel(EventProcessorInterface processor) {
+			this.processor = processor;
+			thread = new Thread(this, "EventProcessor "
+					+ processor.getClass().getSimpleName());
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		@Override
+		public void run() {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					Event e = queue.take();
+					processor.processevent(e);
+				} catch (InterruptedException e) {
+					break;
+				} catch (RuntimeException e) {
+					EXCEPTION_LOGGER.log(Level.SEVERE,
+							"Exception in the event processor "
+									+ processor.getClass().getSimpleName(), e);
+				}
+			}
+		}
 	}
 
 	private class EventProcessor implements Runnable {
+		private final EventQueue queue;
+
+		EventProcessor(EventQueue queue) {
+			this.queue = queue;
+		}
 
 		@Override
 		public void run() {
 			while (true) {
 				try {
-					Event e = theQueue.take();
-
-					// Report event to the GUI
-					if (ec.gui != null && ec.gui.eventTab != null) {
-						for (Event t : late)
-							ec.gui.eventTab.appendEvent(t.toString() + "\n");
-						ec.gui.eventTab.appendEvent(e.toString() + "\n");
-					} else {
-						late.add(e);
+					process(queue.take());
+				} catch (InterruptedException e) {
+					break;
+				} catch (RuntimeException e) {
+					EXCEPTION_LOGGER.log(Level.SEVERE,
+							"Exception while processing an event", e);
+				}
+			}
+		}
+	}
+
+	private void process(Event e) throws InterruptedException {
+		// Report event to the GUI
+		synchronized (late) {
+			if (ec != null && ec.gui != null && ec.gui.eventTab != null) {
+				for (Event t : late)
+					ec.gui.eventTab.appendEvent(t.toString() + "\n");
+				late.clear();
+				ec.gui.eventTab.appendEvent(e.toString() + "\n");
+			} else {
+				if (late.size() >= MAX_LATE_EVENTS) {
+					late.removeFirst();
+				}
+				late.add(e);
+			}
+		}
+		if (e.reporter != null) {
+			// First we check if we need to record the event
+			if (e.reporter.getConfig().recordEvents || e.record) {
+				store.processevent(e);
+			}
+			// finally we look if we need to add the file to a profile
+			String profileName = e.reporter.getConfig().eventAddToProfile;
+			if (e.fileName != null && profileName != null
+					&& profileName.trim().length() > 0 && ec != null) {
+				HashSet<Profile> pp = ec.profileController.getProfiles();
+				Path dest = Paths.get(e.fileName);
+				try {
+					Profile p = null;
+					for (Profile a : pp) {
+						if (a.getName().equals(profileName))
+							p = a;
 					}
-					if ( e.reporter != null) {
-						// First we check if we need to record the event
-						if (e.reporter.getConfig().recordEvents || e.record) {
-							store.processevent(e);
+					if (p != null) {
+						HashSet<Path> paths = new HashSet<Path>();
+						paths.add(dest);
+						// the workers of other partitions may add parts too
+						synchronized (p) {
+							p.addAllPartsFromPaths(paths, true);
 						}
-						// finally we look if we need to add the file to a profile
-						String profileName = e.reporter.getConfig().eventAddToProfile;
-						if (e.fileName != null && profileName != null
-								&& profileName.trim().length() > 0) {
-							HashSet<Profile> pp = ec.profileController
-									.getProfiles();
-							Path dest = Paths.get(e.fileName);
-							try {
-								Profile p = null;
-								for (Profile a:pp){
-									if (a.getName().equals(profileName))
-										p = a;
-								}
-								if (p != null) {
-									HashSet<Path> paths = new HashSet<Path>();
-									paths.add(dest);
-									p.addAllPartsFromPaths(paths, true);
-									// System.out.println("Adding part " + dest);
-								}
-							} catch (Exception x) {
-								Log.EXCEPTION_LOGGER.log(
-										Level.SEVERE,
-										"Error adding file from Event"
-												+ e.toString(), x);
-							}
-						}
-					}
-					// then we look up other event processors
-					for (EventProcessorInterface p : eventProcessors) {
-						p.processevent(e);
 					}
-
-				} catch (InterruptedException e) {
-					break;
+				} catch (Exception x) {
+					EXCEPTION_LOGGER.log(Level.SEVERE,
+							"Error adding file from Event" + e.toString(), x);
 				}
 			}
 		}
+		// then we hand the event to the other event processors
+		for (ProcessorChannel channel : eventProcessors) {
+			channel.queue.submit(e);
+		}
 	}
 }
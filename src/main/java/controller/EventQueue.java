@@ -0,0 +1,270 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package controller;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import model.Event;
+
+/**
+ * Bounded queue between the daemons and the {@link EventController}, so that
+ * an event storm, e.g. at a bulk copy, doesn't fill the heap.
+ * <p>
+ * If the queue is full, the {@link OverloadPolicy} decides whether the
+ * daemon waits or events are discarded. {@link OverloadPolicy#SAMPLE} and
+ * {@link OverloadPolicy#COALESCE} discard events before the queue is full;
+ * if it gets full anyway, the oldest event is dropped like with
+ * {@link OverloadPolicy#DROP_OLDEST}. The discarded events are counted.
+ */
+public class EventQueue {
+	/** Default number of queued events */
+	public static final int DEFAULT_CAPACITY = 10000;
+	/** Every how many events of a reporter one is queued when sampling */
+	public static final int SAMPLE_RATE = 10;
+
+	private final int capacity;
+	private final OverloadPolicy policy;
+	private final ArrayDeque<Event> events = new ArrayDeque<Event>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	/** Queued events by coalescing key */
+	private final Map<String, Event> pending = new HashMap<String, Event>();
+	/** Events per reporter while sampling */
+	private final Map<String, Long> reporterCounts = new HashMap<String, Long>();
+	private long submitted;
+	private long dropped;
+	private long sampled;
+	private long coalesced;
+	private long producerWaits;
+
+	/**
+	 * @param capacity
+	 *            maximal number of queued events
+	 * @param policy
+	 *            behavior when the queue is full
+	 */
+	public EventQueue(int capacity, OverloadPolicy policy) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Invalid capacity " + capacity);
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+	}
+
+	/**
+	 * Queues an event, or discards it according to the policy.
+	 * 
+	 * @param event
+	 * @return false, if the event was discarded
+	 * @throws InterruptedException
+	 *             if the producer was interrupted while waiting for space
+	 */
+	public boolean submit(Event event) throws InterruptedException {
+		lock.lock();
+		try {
+			submitted++;
+			switch (policy) {
+			case BLOCK:
+				if (events.size() >= capacity) {
+					producerWaits++;
+					while (events.size() >= capacity) {
+						notFull.await();
+					}
+				}
+				break;
+			case SAMPLE:
+				if (events.size() >= capacity / 2 && !sample(event)) {
+					sampled++;
+					return false;
+				}
+				break;
+			case COALESCE:
+				String key = getKey(event);
+				if (key != null) {
+					if (pending.containsKey(key)) {
+						coalesced++;
+						return false;
+					}
+					pending.put(key, event);
+				}
+				break;
+			default:
+				break;
+			}
+			if (events.size() >= capacity) {
+				remove(events.poll());
+				dropped++;
+			}
+			events.add(event);
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean sample(Event event) {
+		String reporter = String.valueOf(event.reporterName);
+		Long count = reporterCounts.get(reporter);
+		count = count == null ? 0 : count;
+		reporterCounts.put(reporter, count + 1);
+		return count % SAMPLE_RATE == 0;
+	}
+
+	/**
+	 * @return the key of events that can be coalesced, or null if the event
+	 *         has no file name
+	 */
+	private static String getKey(Event event) {
+		if (event.fileName == null) {
+			return null;
+		}
+		return event.reporterName + "|" + event.type + "|" + event.fileName;
+	}
+
+	private void remove(Event event) {
+		if (policy == OverloadPolicy.COALESCE) {
+			String key = getKey(event);
+			if (key != null && pending.get(key) == event) {
+				pending.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the next event.
+	 * 
+	 * @return the oldest queued event
+	 * @throws InterruptedException
+	 */
+	public Event take() throws InterruptedException {
+		lock.lock();
+		try {
+			while (events.isEmpty()) {
+				notEmpty.await();
+			}
+			Event event = events.poll();
+			remove(event);
+			if (events.size() < capacity / 2) {
+				reporterCounts.clear();
+			}
+			notFull.signal();
+			return event;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public OverloadPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return number of queued events
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return events.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of submitted events, including the discarded ones
+	 */
+	public long getSubmitted() {
+		lock.lock();
+		try {
+			return submitted;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of queued events dropped for newer ones
+	 */
+	public long getDropped() {
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of events not queued because of the sampling
+	 */
+	public long getSampled() {
+		lock.lock();
+		try {
+			return sampled;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of events not queued, because the same event was queued
+	 */
+	public long getCoalesced() {
+		lock.lock();
+		try {
+			return coalesced;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of times a producer waited for a full queue
+	 */
+	public long getProducerWaits() {
+		lock.lock();
+		try {
+			return producerWaits;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		lock.lock();
+		try {
+			return policy.name().toLowerCase() + ", " + events.size() + "/"
+					+ capacity + " queued, " + submitted + " submitted, "
+					+ dropped + " dropped, " + sampled + " sampled out, "
+					+ coalesced + " coalesced, " + producerWaits
+					+ " waits for full queue";
+		} finally {
+			lock.unlock();
+		}
+	}
+}
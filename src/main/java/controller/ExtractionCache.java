@@ -0,0 +1,317 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package controller;
+
+import static configuration.Log.EXCEPTION_LOGGER;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import modules.AbstractFileDependentModule;
+
+/**
+ * Persistent cache of the file-dependent extractions that were already done.
+ * An extraction of a {@link model.Part} with an
+ * {@link AbstractFileDependentModule} is skipped by the {@link Extractor}, if
+ * neither the file (file key, size, last modification time) nor the module
+ * (class, configuration hash) changed since the last extraction for the same
+ * profile. The entries are kept per module class and configuration, so
+ * that several configured instances of a module don't replace each other's
+ * entries.
+ * <p>
+ * The cache is kept in memory and persisted as append-only journal, that is
+ * compacted when it is loaded at the application start. The recorded
+ * extractions are only written to the journal by {@link #write(List)}, after
+ * their results were stored, so that after a crash no file is skipped whose
+ * results are missing. The results are only in the storage backend they were
+ * written to, so each backend has its own journal.
+ */
+public class ExtractionCache {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char SEPARATOR = '\t';
+
+	private final Map<String, String> fingerprints = new ConcurrentHashMap<String, String>();
+	private final File journalFile;
+	private BufferedWriter journal;
+	private List<Key> pending = new ArrayList<Key>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Loads the cache from its journal file.
+	 * 
+	 * @param journalFile
+	 *            file to persist the cache
+	 */
+	public ExtractionCache(File journalFile) {
+		this.journalFile = journalFile;
+		load();
+	}
+
+	/**
+	 * Identifies the extraction of a file with a module for a profile, and the
+	 * state of the file and module configuration at the time of the check.
+	 */
+	public static class Key {
+		final String key;
+		final String fingerprint;
+
+		private Key(String key, String fingerprint) {
+			this.key = key;
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	/**
+	 * Checks if a file was already extracted with a module for a profile, and
+	 * neither the file nor the module configuration changed since then. Counts
+	 * the cache hits and misses.
+	 * 
+	 * @param profileUUID
+	 *            UUID of the profile the file belongs to
+	 * @param file
+	 *            the extracted file
+	 * @param module
+	 *            the extraction module
+	 * @return the key to record the extraction with
+	 *         {@link #put(ExtractionCache.Key)} after a cache miss, or null if
+	 *         the extraction is up to date. If the file attributes cannot be
+	 *         read, a key is returned that is not recorded.
+	 */
+	public Key check(String profileUUID, Path file,
+			AbstractFileDependentModule module) {
+		Key key = createKey(profileUUID, file, module);
+		if (key == null) {
+			return new Key(null, null);
+		}
+		if (key.fingerprint.equals(fingerprints.get(key.key))) {
+			hits.incrementAndGet();
+			return null;
+		}
+		misses.incrementAndGet();
+		return key;
+	}
+
+	/**
+	 * Records a successful extraction. It is persisted with
+	 * {@link #write(List)}, once its results are stored.
+	 * 
+	 * @param key
+	 *            key returned by
+	 *            {@link #check(String, Path, AbstractFileDependentModule)}
+	 */
+	public void put(Key key) {
+		if (key == null || key.key == null) {
+			return;
+		}
+		fingerprints.put(key.key, key.fingerprint);
+		synchronized (this) {
+			pending.add(key);
+		}
+	}
+
+	/**
+	 * @return the extractions recorded since the last call, to be written
+	 *         with {@link #write(List)} after their results were stored
+	 */
+	public synchronized List<Key> takePending() {
+		List<Key> taken = pending;
+		pending = new ArrayList<Key>();
+		return taken;
+	}
+
+	/**
+	 * Writes recorded extractions to the journal file. This is called by the
+	 * {@link Extractor} after the extraction results were stored.
+	 * 
+	 * @param keys
+	 *            keys returned by {@link #takePending()}
+	 */
+	public synchronized void write(List<Key> keys) {
+		if (keys.isEmpty()) {
+			return;
+		}
+		try {
+			if (journal == null) {
+				journalFile.getParentFile().mkdirs();
+				journal = Files.newBufferedWriter(journalFile.toPath(), UTF8,
+						StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			}
+			for (Key key : keys) {
+				journal.write(key.key + SEPARATOR + key.fingerprint + "\n");
+			}
+			journal.flush();
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at writing the extraction cache", e);
+		}
+	}
+
+	/**
+	 * Writes all recorded extractions to the journal file, when their results
+	 * are stored.
+	 */
+	public void flush() {
+		write(takePending());
+	}
+
+	/**
+	 * Closes the journal file. Extractions that weren't written are not
+	 * persisted.
+	 */
+	public synchronized void close() {
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception at closing the extraction cache", e);
+			}
+			journal = null;
+		}
+	}
+
+	/**
+	 * Forgets all recorded extractions, so that the next extraction run will
+	 * extract all files again.
+	 */
+	public synchronized void clear() {
+		close();
+		fingerprints.clear();
+		pending.clear();
+		journalFile.delete();
+	}
+
+	/**
+	 * @return number of extractions that were skipped
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of extractions that had to be executed
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of recorded extractions
+	 */
+	public int size() {
+		return fingerprints.size();
+	}
+
+	/**
+	 * Creates the cache key and the fingerprint of the current file and module
+	 * state.
+	 * 
+	 * @return the key, or null if the file attributes cannot be read
+	 */
+	private static Key createKey(String profileUUID, Path file,
+			AbstractFileDependentModule module) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(file,
+					BasicFileAttributes.class);
+			// instances of a module class with different configurations
+			// have their own entries
+			String key = profileUUID + SEPARATOR + module.getClass().getName()
+					+ SEPARATOR + module.getHash() + SEPARATOR
+					+ file.toAbsolutePath();
+			String fingerprint = attributes.fileKey() + ":"
+					+ attributes.size() + ":"
+					+ attributes.lastModifiedTime().toMillis();
+			if (key.indexOf('\n') >= 0 || fingerprint.indexOf('\n') >= 0) {
+				return null;
+			}
+			return new Key(key, fingerprint);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the journal. The last line of a key wins. If the journal contains
+	 * many outdated lines, it is rewritten.
+	 */
+	private void load() {
+		if (!journalFile.isFile()) {
+			return;
+		}
+		int lines = 0;
+		try (BufferedReader reader = Files.newBufferedReader(
+				journalFile.toPath(), UTF8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int separator = line.lastIndexOf(SEPARATOR);
+				if (separator > 0) {
+					fingerprints.put(line.substring(0, separator),
+							line.substring(separator + 1));
+					lines++;
+				}
+			}
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at loading the extraction cache", e);
+		}
+		if (lines > 2 * fingerprints.size() + 1000) {
+			compact();
+		}
+	}
+
+	/**
+	 * Rewrites the journal with only the current entries.
+	 */
+	private void compact() {
+		File compacted = new File(journalFile.getPath() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(
+				compacted.toPath(), UTF8)) {
+			for (Entry<String, String> entry : fingerprints.entrySet()) {
+				writer.write(entry.getKey() + SEPARATOR + entry.getValue()
+						+ "\n");
+			}
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at compacting the extraction cache", e);
+			return;
+		}
+		try {
+			Files.move(compacted.toPath(), journalFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at compacting the extraction cache", e);
+		}
+	}
+}
@@ -17,6 +17,7 @@
 package controller;
 
 import static configuration.Constants.EXTRACTION_PREFERENCES_FILE;
+import static configuration.Log.EXCEPTION_LOGGER;
 import static configuration.Log.FLOW_LOGGER;
 import gui.GUI;
 import gui.StartupWindow;
@@ -25,9 +26,13 @@ import gui.SystemTrayIcon;
 import java.awt.Dimension;
 import java.awt.GraphicsEnvironment;
 import java.awt.Point;
+import java.io.File;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.logging.Level;
 
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
@@ -35,6 +40,8 @@ import javax.swing.UnsupportedLookAndFeelException;
 
 import model.Part;
 import model.Profile;
+import storage.Compression;
+import storage.EventLogWriter;
 import utility.PropertiesSaverAndLoader;
 import cli.CLI;
 import controller.ProfileController.ProfilePart;
@@ -77,8 +84,55 @@ public class ExtractionController {
 	public ExtractionController(ExtractionControllerBuilder builder) {
 		// Warning: the order of init is important.
 		storageController = new StorageController(builder.storageSystem);
-		extractor = new Extractor(builder.updateExtraction, this);
-		eventq = new EventController(this);
+		if ("smile".equalsIgnoreCase(builder.storageFormat)) {
+			StorageController.storage.setBinaryFormat(true);
+		}
+		if (builder.storageCompression != null) {
+			try {
+				StorageController.storage.setCompression(Compression
+						.parse(builder.storageCompression));
+			} catch (IllegalArgumentException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE, "Unknown compression "
+						+ builder.storageCompression, e);
+			}
+		}
+		if (builder.storageRoots != null) {
+			List<File> roots = new ArrayList<File>();
+			for (String root : builder.storageRoots.split(",")) {
+				if (!root.trim().isEmpty()) {
+					roots.add(new File(root.trim()));
+				}
+			}
+			StorageController.storage.setStorageRoots(roots);
+		}
+		if (builder.eventSync != null) {
+			try {
+				StorageController.storage.getEventWriter().setSync(
+						EventLogWriter.Sync.parse(builder.eventSync));
+			} catch (IllegalArgumentException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE, "Unknown event sync "
+						+ builder.eventSync, e);
+			}
+		}
+		if (builder.storageWriters > 0) {
+			StorageController.storage.startWriteBehind(builder.storageWriters);
+		}
+		StorageController.storage.startCompactor();
+		extractor = new Extractor(builder.updateExtraction, this,
+				builder.extractionThreads);
+		OverloadPolicy eventPolicy = OverloadPolicy.BLOCK;
+		if (builder.eventPolicy != null) {
+			try {
+				eventPolicy = OverloadPolicy.parse(builder.eventPolicy);
+			} catch (IllegalArgumentException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE, "Unknown event policy "
+						+ builder.eventPolicy, e);
+			}
+		}
+		eventq = new EventController(this,
+				Math.max(1, builder.eventQueueCapacity), eventPolicy,
+				builder.eventWorkers > 0 ? builder.eventWorkers : Runtime
+						.getRuntime().availableProcessors());
 		fileMonitorDaemon = new FileMonitorDaemon(this);
 		profileController = new ProfileController(this);
 		new CLI(this);
@@ -146,6 +200,7 @@ public class ExtractionController {
 	 * storage will be deleted!
 	 */
 	public void deleteAllMetadata() {
+		extractor.getCache().clear();
 		storageController.deleteAllMetadata();
 		profileController.deleteAllMetadata();
 		gui.update();
@@ -201,6 +256,7 @@ public class ExtractionController {
 	public void saveConfigs() {
 		FLOW_LOGGER.info("Save configurations");
 		profileController.saveConfig();
+		extractor.getCache().close();
 		this.saveConfig();
 	}
 
@@ -28,7 +28,21 @@ public class ExtractionControllerBuilder {
 	boolean graphic = true;
 	protected boolean updateExtraction = true;
 	public String storageSystem;
+	/** "smile" stores the results in the binary format, if supported */
+	public String storageFormat;
+	/** "gzip" or "lz4" compresses the stored results and events */
+	public String storageCompression;
+	/** Comma separated directories to spread the stored results over */
+	public String storageRoots;
+	/** Overload policy of the event queue, see {@link OverloadPolicy} */
+	public String eventPolicy;
+	/** "interval" or "batch" forces the logged events to the disk */
+	public String eventSync;
 	public boolean firstStart = false;
+	protected int extractionThreads = 1;
+	protected int storageWriters = 0;
+	protected int eventQueueCapacity = EventQueue.DEFAULT_CAPACITY;
+	protected int eventWorkers = 0;
 
 	/**
 	 * This function has to be called as the last function of the chain. It will
@@ -53,6 +67,60 @@ public class ExtractionControllerBuilder {
 		return this;
 	}
 
+	/**
+	 * Call this function to extract with a pool of worker threads. The
+	 * (file x module) extractions of a profile are then executed in parallel.
+	 * 
+	 * @param threads
+	 *            number of extraction threads, 1 extracts sequentially and 0
+	 *            uses one thread per available processor
+	 * @return The altered builder.
+	 */
+	public ExtractionControllerBuilder threads(int threads) {
+		this.extractionThreads = threads;
+		return this;
+	}
+
+	/**
+	 * Call this function to write the extraction results in background
+	 * threads, while the extraction continues.
+	 * 
+	 * @param writers
+	 *            number of writer threads, 0 writes synchronously
+	 * @return The altered builder.
+	 */
+	public ExtractionControllerBuilder writers(int writers) {
+		this.storageWriters = writers;
+		return this;
+	}
+
+	/**
+	 * Call this function to change the number of events of the monitoring
+	 * daemons, that can be queued before the {@link OverloadPolicy} applies.
+	 * 
+	 * @param capacity
+	 *            maximal number of queued events
+	 * @return The altered builder.
+	 */
+	public ExtractionControllerBuilder eventQueue(int capacity) {
+		this.eventQueueCapacity = capacity;
+		return this;
+	}
+
+	/**
+	 * Call this function to process the events of different files in
+	 * parallel. The events of the same file are processed in order.
+	 * 
+	 * @param workers
+	 *            number of event threads, 0 uses one thread per available
+	 *            processor
+	 * @return The altered builder.
+	 */
+	public ExtractionControllerBuilder eventWorkers(int workers) {
+		this.eventWorkers = workers;
+		return this;
+	}
+
 	/**
 	 * Call this function to start the PET without any graphic. This will
 	 * disable the GUI and the system tray icon. The GUI can be started
@@ -20,13 +20,20 @@ import static configuration.Log.EXCEPTION_LOGGER;
 import static configuration.Log.FLOW_LOGGER;
 import static utility.FileUtils.fileExists;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import javax.swing.SwingUtilities;
@@ -38,17 +45,31 @@ import model.Profile;
 import modules.AbstractEnvironmentModule;
 import modules.AbstractFileDependentModule;
 import modules.AbstractModule;
+import configuration.Constants;
 
 /**
  * This information extractor extracts information from the computer system
  * environment. This information can be file-independent, and therewith valid
  * for the whole environment, or file-dependent information.
+ * <p>
+ * Extraction runs are queued on a single thread. If more than one extraction
+ * thread is configured, each run fans out its (part x module) work items to a
+ * bounded pool of worker threads and waits for them, before the results are
+ * saved. The {@link ModuleConcurrencyLimiter} ensures that modules which are
+ * not thread-safe are never called concurrently.
  */
 public class Extractor {
 	private final ExtractionController controller;
 	private boolean updateExtraction;
 	private boolean daemonsRunning;
+	private final int threads;
 	ExecutorService STE;
+	/** Worker pool for parallel extraction, null for sequential extraction */
+	ExecutorService workers;
+	/** Limits the parallel extraction of each module */
+	ModuleConcurrencyLimiter limiter;
+	/** Skips the extraction of unchanged files */
+	private final ExtractionCache cache;
 
 	/**
 	 * Construct an Extractor. This will be called by the
@@ -59,9 +80,37 @@ public class Extractor {
 	 */
 	protected Extractor(boolean updateExtraction,
 			ExtractionController controller) {
+		this(updateExtraction, controller, 1);
+	}
+
+	/**
+	 * Construct an Extractor with a pool of extraction worker threads. This
+	 * will be called by the {@link ExtractionController}.
+	 * 
+	 * @param updateExtraction
+	 * @param controller
+	 * @param threads
+	 *            number of extraction worker threads, 1 for sequential
+	 *            extraction and 0 or less for one thread per available
+	 *            processor
+	 */
+	protected Extractor(boolean updateExtraction,
+			ExtractionController controller, int threads) {
 		this.updateExtraction = updateExtraction;
 		this.controller = controller;
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		this.threads = threads;
+		// the stored results are only in the backend they were written to
+		cache = new ExtractionCache(new File(Constants.EXTRACTION_CACHE_FILE
+				+ "_" + StorageController.storage.getClass().getSimpleName()));
 		STE = Executors.newSingleThreadExecutor();
+		if (threads > 1) {
+			workers = Executors.newFixedThreadPool(threads,
+					new WorkerThreadFactory());
+			limiter = new ModuleConcurrencyLimiter(threads);
+		}
 	}
 
 	/**
@@ -150,20 +199,10 @@ public class Extractor {
 					if (!profile.isEnabled()) {
 						continue;
 					}
-					for (final Part part : parts) {
-						SwingUtilities.invokeLater(new Runnable() {
-							@Override
-							public void run() {
-								controller.updateDoing(profile.getName() + ": "
-										+ part.fileName);
-							}
-						});
-						for (AbstractModule module : profile.getModules()) {
-							extract(part, module, profile);
-						}
-					}
+					extractParts(profile, Arrays.asList(parts));
 					try {
 						StorageController.storage.save(profile);
+						flushCacheAfterWrites();
 					} catch (Exception e) {
 						EXCEPTION_LOGGER.log(Level.SEVERE,
 								"Exception while saving results", e);
@@ -195,6 +234,20 @@ public class Extractor {
 		return future;
 	}
 
+	/**
+	 * Persists the extraction cache, once the saved results are written, so
+	 * that no file is marked as extracted while its results are still queued.
+	 */
+	private void flushCacheAfterWrites() {
+		final List<ExtractionCache.Key> extracted = cache.takePending();
+		StorageController.storage.afterWrites(new Runnable() {
+			@Override
+			public void run() {
+				cache.write(extracted);
+			}
+		});
+	}
+
 	/**
 	 * Starts extraction of a {@link Profile}
 	 * 
@@ -206,18 +259,7 @@ public class Extractor {
 	private void extract(final Profile profile, boolean partsOnly) {
 		if (!profile.isEnabled())
 			return;// don't extract disabled profiles
-		for (final Part part : profile.getParts()) {
-			SwingUtilities.invokeLater(new Runnable() {
-				@Override
-				public void run() {
-					controller.updateDoing(profile.getName() + ": "
-							+ part.fileName);
-				}
-			});
-			for (AbstractModule module : profile.getModules()) {
-				extract(part, module, profile);
-			}
-		}
+		extractParts(profile, new ArrayList<Part>(profile.getParts()));
 		if (!partsOnly) {
 			SwingUtilities.invokeLater(new Runnable() {
 				@Override
@@ -226,18 +268,167 @@ public class Extractor {
 							+ profile.getName());
 				}
 			});
-			for (AbstractModule module : profile.getModules()) {
-				extract(module, profile.getEnvironment());
-			}
+			extractEnvironment(profile);
 		}
 		try {
 			StorageController.storage.save(profile);
+			flushCacheAfterWrites();
 		} catch (Exception e) {
 			EXCEPTION_LOGGER.log(Level.SEVERE,
 					"Exception while saving results", e);
 		}
 	}
 
+	/**
+	 * Extracts the file-dependent information of a set of {@link Part}s
+	 * belonging to a {@link Profile}. Without a worker pool the parts are
+	 * extracted one after another, otherwise each (part x module) combination
+	 * is submitted as work item to the pool and this method waits until all
+	 * work items are done.
+	 * 
+	 * @param profile
+	 *            the parts belong to this Profile
+	 * @param parts
+	 *            parts to be extracted
+	 */
+	private void extractParts(final Profile profile, Collection<Part> parts) {
+		List<AbstractModule> modules = new ArrayList<AbstractModule>(
+				profile.getModules());
+		if (workers == null) {
+			for (final Part part : parts) {
+				showDoing(profile, part);
+				for (AbstractModule module : modules) {
+					extract(part, module, profile);
+				}
+			}
+			return;
+		}
+		List<Future<?>> pending = new LinkedList<Future<?>>();
+		for (final Part part : parts) {
+			boolean first = true;
+			for (final AbstractModule module : modules) {
+				if (!isExtractableModule(module)
+						|| !(module instanceof AbstractFileDependentModule)) {
+					continue;
+				}
+				final boolean report = first;
+				first = false;
+				pending.add(workers.submit(new Runnable() {
+					@Override
+					public void run() {
+						if (report) {
+							showDoing(profile, part);
+						}
+						AbstractModule instance = acquire(module);
+						if (instance != null) {
+							try {
+								extract(part, instance, profile);
+							} finally {
+								limiter.release(module, instance);
+							}
+						}
+					}
+				}));
+			}
+		}
+		awaitAll(pending);
+	}
+
+	/**
+	 * Extracts the file-independent information of a {@link Profile} into its
+	 * {@link Environment}, in parallel if a worker pool is configured.
+	 * 
+	 * @param profile
+	 *            Profile to extract the environment for
+	 */
+	private void extractEnvironment(Profile profile) {
+		final Environment environment = profile.getEnvironment();
+		List<AbstractModule> modules = new ArrayList<AbstractModule>(
+				profile.getModules());
+		if (workers == null) {
+			for (AbstractModule module : modules) {
+				extract(module, environment);
+			}
+			return;
+		}
+		List<Future<?>> pending = new LinkedList<Future<?>>();
+		for (final AbstractModule module : modules) {
+			if (!isExtractableModule(module)
+					|| !(module instanceof AbstractEnvironmentModule)) {
+				continue;
+			}
+			pending.add(workers.submit(new Runnable() {
+				@Override
+				public void run() {
+					AbstractModule instance = acquire(module);
+					if (instance != null) {
+						try {
+							extract(instance, environment);
+						} finally {
+							limiter.release(module, instance);
+						}
+					}
+				}
+			}));
+		}
+		awaitAll(pending);
+	}
+
+	/**
+	 * Waits until the module may be extracted by the current worker thread,
+	 * according to the modules thread-safety and maximum parallelism.
+	 * 
+	 * @param module
+	 *            module of the profile
+	 * @return the module instance to be used, or null if interrupted
+	 */
+	private AbstractModule acquire(AbstractModule module) {
+		try {
+			return limiter.acquire(module);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Waits until all submitted work items are done. Exceptions of single
+	 * work items are logged and don't stop the extraction of the others.
+	 * 
+	 * @param pending
+	 *            futures of the submitted work items
+	 */
+	private static void awaitAll(List<Future<?>> pending) {
+		for (Future<?> future : pending) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Interrupted while waiting for extraction", e);
+				return;
+			} catch (ExecutionException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception at parallel extraction", e);
+			}
+		}
+	}
+
+	/**
+	 * Shows the currently extracted part at the user interface.
+	 * 
+	 * @param profile
+	 * @param part
+	 */
+	private void showDoing(final Profile profile, final Part part) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				controller.updateDoing(profile.getName() + ": " + part.fileName);
+			}
+		});
+	}
+
 	/**
 	 * Starts the extraction of file-dependent information for a specific
 	 * (mostly new added) {@link Part} belonging to a {@link Profile} with a
@@ -254,10 +445,20 @@ public class Extractor {
 		if (isExtractableModule(module)
 				&& module instanceof AbstractFileDependentModule) {
 			if (fileExists(part.getFile())) {
+				AbstractFileDependentModule fileModule = (AbstractFileDependentModule) module;
+				ExtractionCache.Key cacheKey = null;
+				if (fileModule.isCacheable()) {
+					cacheKey = cache.check(profile.getUUID(), part.getFile(),
+							fileModule);
+					if (cacheKey == null) {
+						return;// unchanged since the last extraction
+					}
+				}
 				try {
-					ExtractionResult result = ((AbstractFileDependentModule) module)
+					ExtractionResult result = fileModule
 							.extractFileDependentInformation(part.getFile());
 					part.addExtractionResult(result);
+					cache.put(cacheKey);
 					FLOW_LOGGER.info("Part extraction with module: "
 							+ module.getConfig().moduleDisplayName + " and part: "
 							+ part.getPath());
@@ -332,6 +533,25 @@ public class Extractor {
 		return updateExtraction;
 	}
 
+	/**
+	 * Get the number of extraction worker threads. One means that all modules
+	 * are extracted sequentially.
+	 * 
+	 * @return number of extraction threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Get the cache of already extracted files.
+	 * 
+	 * @return extraction cache
+	 */
+	public ExtractionCache getCache() {
+		return cache;
+	}
+
 	/**
 	 * Get the status, if the environment monitor daemons are running.
 	 * 
@@ -362,4 +582,20 @@ public class Extractor {
 		}
 		daemonsRunning = true;
 	}
+
+	/**
+	 * Creates named daemon threads for the extraction worker pool, so that the
+	 * pool doesn't keep the application alive.
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Extraction worker "
+					+ count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
 }
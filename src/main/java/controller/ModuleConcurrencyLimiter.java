@@ -0,0 +1,150 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package controller;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import modules.AbstractModule;
+
+/**
+ * Limits the parallel extraction of each {@link AbstractModule} according to
+ * its {@link AbstractModule#isThreadSafe()} and
+ * {@link AbstractModule#getMaxParallelism()} declarations. It is used by the
+ * {@link Extractor}, if extraction worker threads are configured.
+ * <p>
+ * Thread-safe modules are called concurrently, up to their maximum
+ * parallelism. Modules that are not thread-safe are either serialized, or
+ * extracted with a pool of module copies that share the configuration of the
+ * original module.
+ */
+public class ModuleConcurrencyLimiter {
+	private final Map<AbstractModule, Slot> slots = new WeakHashMap<AbstractModule, Slot>();
+	private final int threads;
+
+	/**
+	 * @param threads
+	 *            number of extraction worker threads, used as upper bound of
+	 *            the parallelism of each module
+	 */
+	public ModuleConcurrencyLimiter(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Waits until the module may be extracted by the calling thread, and
+	 * returns the module instance to be used. This can be the module itself,
+	 * or a copy of it. The instance has to be given back with
+	 * {@link #release(AbstractModule, AbstractModule)}.
+	 * 
+	 * @param module
+	 *            the module of the profile
+	 * @return module instance to be used for the extraction
+	 * @throws InterruptedException
+	 */
+	public AbstractModule acquire(AbstractModule module)
+			throws InterruptedException {
+		Slot slot = getSlot(module);
+		slot.permits.acquire();
+		if (slot.idle == null) {
+			return module;
+		}
+		return slot.idle.take();
+	}
+
+	/**
+	 * Gives back a module instance after the extraction.
+	 * 
+	 * @param module
+	 *            the module of the profile
+	 * @param instance
+	 *            the instance returned by {@link #acquire(AbstractModule)}
+	 */
+	public void release(AbstractModule module, AbstractModule instance) {
+		Slot slot = getSlot(module);
+		if (slot.idle != null) {
+			slot.idle.add(instance);
+		}
+		slot.permits.release();
+	}
+
+	/**
+	 * Returns the extraction permits of a module. At the first call for a
+	 * module that is not thread-safe, but allows parallel extraction, the
+	 * module copies are created.
+	 * 
+	 * @param module
+	 * @return the modules slot
+	 */
+	private synchronized Slot getSlot(AbstractModule module) {
+		Slot slot = slots.get(module);
+		if (slot == null) {
+			int max = module.getMaxParallelism();
+			if (max <= 0 || max > threads) {
+				max = threads;
+			}
+			LinkedBlockingQueue<AbstractModule> idle = null;
+			if (!module.isThreadSafe() && max > 1) {
+				idle = new LinkedBlockingQueue<AbstractModule>();
+				idle.add(module);
+				while (idle.size() < max) {
+					AbstractModule copy = createCopy(module);
+					if (copy == null) {
+						break;
+					}
+					idle.add(copy);
+				}
+				max = idle.size();
+			}
+			slot = new Slot(max, idle);
+			slots.put(module, slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * Creates a copy of a module, that shares the configuration of the
+	 * original module.
+	 * 
+	 * @param module
+	 * @return the module copy, or null if the module cannot be instantiated
+	 */
+	private static AbstractModule createCopy(AbstractModule module) {
+		AbstractModule copy = ModuleController.getModuleInstance(module
+				.getClass());
+		if (copy != null) {
+			copy.setConfig(module.getConfig());
+		}
+		return copy;
+	}
+
+	/**
+	 * Extraction permits of one module, and the idle module instances if the
+	 * module is extracted with copies.
+	 */
+	private static class Slot {
+		final Semaphore permits;
+		final LinkedBlockingQueue<AbstractModule> idle;
+
+		Slot(int max, LinkedBlockingQueue<AbstractModule> idle) {
+			this.permits = new Semaphore(max, true);
+			this.idle = idle;
+		}
+	}
+}
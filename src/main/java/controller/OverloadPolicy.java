@@ -0,0 +1,49 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package controller;
+
+/**
+ * Behavior of the {@link EventQueue}, when the daemons submit events faster
+ * than they are processed.
+ */
+public enum OverloadPolicy {
+	/** The submitting daemon waits until there is space in the queue */
+	BLOCK,
+	/** The oldest queued event is dropped for the new one */
+	DROP_OLDEST,
+	/**
+	 * Above half of the capacity only every {@link EventQueue#SAMPLE_RATE}th
+	 * event of each reporter is queued
+	 */
+	SAMPLE,
+	/**
+	 * An event with the same reporter, type and file name as a queued event
+	 * is dropped
+	 */
+	COALESCE;
+
+	/**
+	 * @param name
+	 *            name of the policy, case insensitive, with '-' or '_'
+	 * @return the policy
+	 * @throws IllegalArgumentException
+	 *             if there is no policy with this name
+	 */
+	public static OverloadPolicy parse(String name) {
+		return valueOf(name.trim().toUpperCase().replace('-', '_'));
+	}
+}
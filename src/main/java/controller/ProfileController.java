@@ -294,10 +294,22 @@ public class ProfileController {
 	 * application shutdown.
 	 */
 	public void saveConfig() {
-		deleteDirectory(EXTRACTION_PROFILES_DIRECTORY);
 		createDirectory(EXTRACTION_PROFILES_DIRECTORY);
+		HashSet<String> saved = new HashSet<String>();
 		for (Profile profile : profiles) {
 			profile.save();
+			saved.add(profile.getUUID());
+		}
+		// remove the configurations of removed profiles
+		String[] directories = new File(EXTRACTION_PROFILES_DIRECTORY).list();
+		if (directories != null) {
+			for (String directory : directories) {
+				if (!saved.contains(directory)
+						&& new File(EXTRACTION_PROFILES_DIRECTORY + directory)
+								.isDirectory()) {
+					deleteDirectory(EXTRACTION_PROFILES_DIRECTORY + directory);
+				}
+			}
 		}
 		for (ProfileTemplate template : templates) {
 			template.save();
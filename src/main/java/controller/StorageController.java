@@ -72,6 +72,7 @@ public class StorageController {
 	 * Deletes all extracted data from the storage.
 	 */
 	public void deleteAllMetadata() {
+		storage.deleteSearchIndex();
 		storage.deleteAllMetadata();
 	}
 }
@@ -16,34 +16,27 @@
 */
 package controller;
 
-import java.nio.charset.Charset;
+import java.util.Arrays;
 
 import model.Event;
+import storage.JsonMappers;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 
 public class StorageEventProcessor implements EventProcessorInterface {
-	ObjectMapper mapper;
-
 	public StorageEventProcessor() {
-		mapper = new ObjectMapper();
-		mapper.disable(SerializationFeature.INDENT_OUTPUT);
-		mapper.enable(SerializationFeature.CLOSE_CLOSEABLE);
-		mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-
 	}
 
 	@Override
 	public boolean processevent(Event e) {
 		// if (e.reporter instanceof LSOFMonitoringDaemon || e.reporter
 		// instanceof HandleMonitorModule) {
-		String s;
 		try {
-			s = mapper.writeValueAsString(e) + "\n";
-			StorageController.storage.storeEventData(s.getBytes(Charset
-					.forName("UTF-8")));
+			// the writer encodes UTF-8
+			byte[] json = JsonMappers.COMPACT.writeValueAsBytes(e);
+			byte[] line = Arrays.copyOf(json, json.length + 1);
+			line[json.length] = '\n';
+			StorageController.storage.storeEventData(line);
 		} catch (JsonProcessingException e1) {
 			e1.printStackTrace();
 		}
@@ -29,7 +29,7 @@ import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.logging.Level;
 
 import javax.swing.BorderFactory;
@@ -50,9 +50,9 @@ import jxl.write.WritableWorkbook;
 import jxl.write.WriteException;
 import model.ExtractionResultCollection;
 import model.Part;
-import name.fraser.neil.plaintext.diff_match_patch;
-import name.fraser.neil.plaintext.diff_match_patch.Diff;
-import name.fraser.neil.plaintext.diff_match_patch.Operation;
+import storage.ResultTable;
+import storage.SnapshotDiff;
+import storage.SnapshotDiff.Change;
 import controller.StorageController;
 
 /**
@@ -225,11 +225,10 @@ public class InformationChangeTable extends JPanel {
 	 */
 	private JScrollPane getTablePane(ExtractionResultCollection collection,
 			String moduleName, GridBagConstraints constraints) {
-		ArrayList<ArrayList<String>> data = null;
-		String[] header = null;
-		header = StorageController.storage.getResultsHeader(collection,
-				moduleName);
-		data = StorageController.storage.getResults(collection, moduleName);
+		ResultTable resultTable = StorageController.storage.getResultTable(
+				collection, moduleName);
+		ArrayList<ArrayList<String>> data = resultTable.rows;
+		String[] header = resultTable.header;
 		if (data != null && header != null) {
 			TableModel model = new TableModel(data, header);
 			currentModel = model;
@@ -267,41 +266,47 @@ public class InformationChangeTable extends JPanel {
 		textArea.setWrapStyleWord(true);
 		textArea.setMinimumSize(new Dimension(200, 100));
 		textArea.setEditable(false);
-		String[] results = StorageController.storage.getRawResults(collection);
-		diff_match_patch d = new diff_match_patch();
+		String[] results = StorageController.storage.getSnapshots(collection);
+		List<SnapshotDiff> diffs = StorageController.storage
+				.getDiffs(collection);
 		StringBuilder sb = new StringBuilder();
 		sb.append("<html>");
-		sb.append("<h2> Diff between first and second extractions </h2>");
 		if (results.length < 2) {
+			sb.append("<h2> Only one extraction </h2>");
 			sb.append("<pre><code>");
-			sb.append(
-					results[0].replace("&", "&amp;").replace("<", "&lt;")
-							.replace(">", "&gt;").replace("\n", "<br>"))
-					.append('\n');
+			if (results.length > 0) {
+				sb.append(escape(results[0])).append('\n');
+			}
 			sb.append("</code></pre>");
 		} else {
-			LinkedList<Diff> l2 = d.diff_main(results[0], results[0 + 1]);
-			d.diff_cleanupEfficiency(l2);
-			sb.append(d.diff_prettyHtml(l2));
-			// System.out.println(d.diff_prettyHtml(l2));
-			for (int c = 0; c < results.length - 1; c++) {
-				sb.append("<h2> Other differences between " + (c + 1) + " and "
+			for (int c = 0; c < diffs.size(); c++) {
+				SnapshotDiff diff = diffs.get(c);
+				sb.append("<h2> Differences between " + (c + 1) + " and "
 						+ (c + 2) + "</h2>");
-				LinkedList<Diff> l = d.diff_main(results[c], results[c + 1]);
-				d.diff_cleanupEfficiency(l);
-				sb.append("<pre><code>");
-				for (Diff f : l)
-					if (f.operation != Operation.EQUAL) {
-						sb.append(
-								f.operation
-										+ ": "
-										+ f.text.replace("&", "&amp;")
-												.replace("<", "&lt;")
-												.replace(">", "&gt;")
-												.replace("\n", "<br>")).append(
-								'\n');
+				if (diff.extractionDate != null) {
+					sb.append("<p>Extraction on "
+							+ escape(diff.extractionDate) + "</p>");
+				}
+				if (diff.isEmpty()) {
+					sb.append("<p>No differences</p>");
+					continue;
+				}
+				sb.append("<table>");
+				for (Change change : diff.changes) {
+					sb.append("<tr><td>" + change.kind + "</td><td><b>"
+							+ escape(change.module) + "</b> "
+							+ escape(change.path) + "</td><td>");
+					if (change.oldValue != null) {
+						sb.append("<span style=\"background:#ffe6e6;\">"
+								+ escape(change.oldValue) + "</span> ");
+					}
+					if (change.newValue != null) {
+						sb.append("<span style=\"background:#e6ffe6;\">"
+								+ escape(change.newValue) + "</span>");
 					}
-				sb.append("</code></pre>");
+					sb.append("</td></tr>");
+				}
+				sb.append("</table>");
 			}
 		}
 		sb.append("</html>");
@@ -318,6 +323,11 @@ public class InformationChangeTable extends JPanel {
 		add(scrollPane, BorderLayout.CENTER);
 	}
 
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;")
+				.replace(">", "&gt;").replace("\n", "<br>");
+	}
+
 	/**
 	 * TableModel for the entry management of the information change table.
 	 */
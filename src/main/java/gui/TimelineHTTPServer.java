@@ -19,9 +19,15 @@ package gui;
 import java.io.IOException;
 import java.net.URL;
 import java.util.List;
+import java.util.Map;
 
 import main.StartCommands;
 import storage.FileStorageInterface;
+import storage.JsonMappers;
+import storage.MetricStore;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
 import configuration.Constants;
 import controller.StorageController;
 import fi.iki.elonen.NanoHTTPD;
@@ -30,6 +36,9 @@ import fi.iki.elonen.NanoHTTPD.Response.Status;
 public class TimelineHTTPServer extends NanoHTTPD {
 
 	private static final int PORT = 7774;
+	private static final int DEFAULT_POINTS = 600;
+	private static final long DEFAULT_EVENT_DAYS = 7;
+	private static final int MAX_EVENTS = 10000;
 	private static TimelineHTTPServer s;
 
 	private TimelineHTTPServer(int port) {
@@ -57,6 +66,10 @@ public class TimelineHTTPServer extends NanoHTTPD {
 			if (session.getUri().equalsIgnoreCase("/")) {
 				r = getIndex();
 
+			} else if (session.getUri().endsWith("metrics.json")) {
+				r = getMetrics(session.getParms());
+			} else if (session.getUri().endsWith("events.json")) {
+				r = getEvents(session.getParms());
 			} else {
 				r = getFile(session.getUri());
 			}
@@ -73,8 +86,6 @@ public class TimelineHTTPServer extends NanoHTTPD {
 		} else if (uri.endsWith(".html")) {
 			mime = "text/html";
 		}
-		if (uri.endsWith("events.json"))
-			return getEvents();
 		URL u = this.getClass().getResource("/httpdata" + uri);
 		Response r;
 		try {
@@ -85,14 +96,30 @@ public class TimelineHTTPServer extends NanoHTTPD {
 		return r;
 	}
 
-	private Response getEvents() {
+	/**
+	 * Returns the events as script for the timeline. The optional parameters
+	 * "from" and "to" are milliseconds since the epoch, the default is the
+	 * last week, "reporter" and "type" select the events of a reporting module
+	 * or of a type, and "limit" is the maximal number of events.
+	 */
+	private Response getEvents(Map<String, String> parameters) {
 		String mime = "application/javascript";
+		List<String> l;
+		try {
+			long to = getLong(parameters, "to", System.currentTimeMillis());
+			long from = getLong(parameters, "from", to - DEFAULT_EVENT_DAYS
+					* 24 * 60 * 60 * 1000);
+			int limit = (int) getLong(parameters, "limit", MAX_EVENTS);
+			l = StorageController.storage.queryEventData(from, to,
+					parameters.get("reporter"), parameters.get("type"), limit);
+		} catch (NumberFormatException e) {
+			return new Response(Status.BAD_REQUEST, "text/plain",
+					e.getMessage());
+		}
 		StringBuffer sb = new StringBuffer("var mydata = JSON.parse('[");
-		List<String> l = StorageController.storage.readEventData();
-		if (l != null) {
+		if (l != null && !l.isEmpty()) {
 			for (int c = 0; c < l.size() - 1; c++) {
 				sb.append(l.get(c)).append(",");
-				// System.out.println(l.get(c));
 			}
 			sb.append(l.get(l.size() - 1));
 		}
@@ -100,6 +127,41 @@ public class TimelineHTTPServer extends NanoHTTPD {
 		return new Response(Status.OK, mime, sb.toString());
 	}
 
+	/**
+	 * Returns the names of all sampled metrics, or with the parameter
+	 * "metric" the samples of a metric. The optional parameters "from" and
+	 * "to" are milliseconds since the epoch, the default is the last hour.
+	 * "points" is the maximal number of samples, which determines the
+	 * resolution.
+	 */
+	private Response getMetrics(Map<String, String> parameters) {
+		String mime = "application/json";
+		MetricStore store = StorageController.storage.getMetricStore();
+		try {
+			String metric = parameters.get("metric");
+			if (metric == null) {
+				return new Response(Status.OK, mime,
+						JsonMappers.COMPACT.writeValueAsString(store
+								.getMetrics()));
+			}
+			long to = getLong(parameters, "to", System.currentTimeMillis());
+			long from = getLong(parameters, "from", to - 60 * 60 * 1000);
+			int points = (int) getLong(parameters, "points", DEFAULT_POINTS);
+			return new Response(Status.OK, mime,
+					JsonMappers.COMPACT.writeValueAsString(store.query(metric,
+							from, to, points)));
+		} catch (NumberFormatException | JsonProcessingException e) {
+			return new Response(Status.BAD_REQUEST, "text/plain",
+					e.getMessage());
+		}
+	}
+
+	private static long getLong(Map<String, String> parameters, String name,
+			long defaultValue) {
+		String value = parameters.get(name);
+		return value == null ? defaultValue : Long.parseLong(value);
+	}
+
 	private Response getIndex() {
 		return getFile("/documentationEvents.html");
 	}
@@ -117,6 +117,9 @@ public class ExtractionMain {
 			@Override
 			public void run() {
 				controller.saveConfigs();
+				StorageController.storage.stopCompactor();
+				StorageController.storage.stopWriteBehind();
+				StorageController.storage.closeSearchIndex();
 				StorageController.storage.finalize();
 			}
 		});
@@ -139,8 +142,49 @@ public class ExtractionMain {
 		if (optionIsTrue("version", userInput)) {
 			printVersionAndExit();
 		}
+		if (userInput.getProperty("threads") != null) {
+			try {
+				builder.threads(Integer.parseInt(userInput
+						.getProperty("threads")));
+			} catch (NumberFormatException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Invalid number of extraction threads", e);
+			}
+		}
+		if (userInput.getProperty("writers") != null) {
+			try {
+				builder.writers(Integer.parseInt(userInput
+						.getProperty("writers")));
+			} catch (NumberFormatException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Invalid number of storage writers", e);
+			}
+		}
+		if (userInput.getProperty("eventQueue") != null) {
+			try {
+				builder.eventQueue(Integer.parseInt(userInput
+						.getProperty("eventQueue")));
+			} catch (NumberFormatException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Invalid capacity of the event queue", e);
+			}
+		}
+		if (userInput.getProperty("eventWorkers") != null) {
+			try {
+				builder.eventWorkers(Integer.parseInt(userInput
+						.getProperty("eventWorkers")));
+			} catch (NumberFormatException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Invalid number of event workers", e);
+			}
+		}
 		builder.firstStart = firstStart;
 		builder.storageSystem = userInput.getProperty("storage");
+		builder.storageFormat = userInput.getProperty("format");
+		builder.storageCompression = userInput.getProperty("compression");
+		builder.storageRoots = userInput.getProperty("roots");
+		builder.eventPolicy = userInput.getProperty("eventPolicy");
+		builder.eventSync = userInput.getProperty("eventSync");
 		return builder.create();
 	}
 
@@ -63,6 +63,24 @@ public class StartCommands {
 		public String storage = "elasticsearch";
 		@Parameter(names = { "-d", "--destination" }, description = "Default folder location for the PET data;  default: PET.jar folder")
 		public String destination = null;
+		@Parameter(names = { "-t", "--threads" }, description = "Number of parallel extraction threads; 0 uses one thread per processor. Default: 1")
+		public Integer threads = null;
+		@Parameter(names = { "-f", "--format" }, description = "Format of the stored extraction results, json or smile (binary), if supported by the storage system. Default: json")
+		public String format = null;
+		@Parameter(names = { "-w", "--writers" }, description = "Number of background threads writing the results to the storage; 0 writes them synchronously. Default: 0")
+		public Integer writers = null;
+		@Parameter(names = { "-c", "--compression" }, description = "Compression of the stored results and events: none, gzip or lz4. Default: none")
+		public String compression = null;
+		@Parameter(names = { "-r", "--roots" }, description = "Comma separated directories, e.g. on other disks, to spread the stored results over in addition to the PET data folder. The results are stored in a pet-snapshots subdirectory of each. Default: the roots of the last start")
+		public String roots = null;
+		@Parameter(names = { "-q", "--event-queue" }, description = "Maximal number of queued events of the monitoring daemons. Default: 10000")
+		public Integer eventQueue = null;
+		@Parameter(names = { "-e", "--event-policy" }, description = "Behavior if the daemons report events faster than they are processed: block, drop-oldest, sample or coalesce. Default: block")
+		public String eventPolicy = null;
+		@Parameter(names = { "-j", "--event-workers" }, description = "Number of threads processing the events in parallel, the events of a file stay in order; 0 uses one thread per processor. Default: 0")
+		public Integer eventWorkers = null;
+		@Parameter(names = { "-y", "--event-sync" }, description = "When the logged events are forced to the disk: never, interval (once per second) or batch. Default: never")
+		public String eventSync = null;
 	}
 
 	public CliParameters options;
@@ -37,4 +37,9 @@ public class Environment extends ExtractionResultCollection {
 	@Deprecated
 	public Environment() {
 	}
+
+	@Override
+	protected ExtractionResultCollection createEmptyCopy() {
+		return new Environment(profileUUID);
+	}
 }
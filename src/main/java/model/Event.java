@@ -93,7 +93,7 @@ public class Event {
 		this.data = data;
 		this.record = record;
 		this.reporter = null;
-		reporterName = reporterName;
+		this.reporterName = reporterName;
 		timestamp = System.currentTimeMillis();
 		this.fileName = fileName;
 	}
@@ -73,17 +73,40 @@ public class ExtractionResultCollection {
 	}
 
 	/**
-	 * Add an {@link ExtractionResult} to this collection.
+	 * Add an {@link ExtractionResult} to this collection. Synchronized, as the
+	 * modules of a parallel extraction add their results concurrently.
 	 * 
 	 * @param result
 	 *            the extracted information to be added
 	 */
-	public void addExtractionResult(ExtractionResult result) {
+	public synchronized void addExtractionResult(ExtractionResult result) {
 		if (result != null) {
 			extractionResults.add(result);
 		}
 	}
 
+	/**
+	 * Moves the extracted information into a new collection with the same
+	 * properties, so that it can be stored in the background while new
+	 * information is added to this collection.
+	 * 
+	 * @return collection with the extracted information of this collection
+	 */
+	public synchronized ExtractionResultCollection detachResults() {
+		ExtractionResultCollection copy = createEmptyCopy();
+		copy.petVersion = petVersion;
+		copy.extractionResults = extractionResults;
+		extractionResults = new LinkedList<>();
+		return copy;
+	}
+
+	/**
+	 * @return empty collection of the same class and with the same properties
+	 */
+	protected ExtractionResultCollection createEmptyCopy() {
+		return new ExtractionResultCollection(profileUUID);
+	}
+
 	/** Deletes all extracted information */
 	public void deleteExtractedInformation() {
 		extractionResults.clear();
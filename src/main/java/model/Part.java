@@ -93,6 +93,15 @@ public class Part extends ExtractionResultCollection {
 		return file;
 	}
 
+	@Override
+	protected ExtractionResultCollection createEmptyCopy() {
+		Part part = new Part(profileUUID);
+		part.file = file;
+		part.path = path;
+		part.fileName = fileName;
+		return part;
+	}
+
 	private void setFile(Path file) {
 		this.file = file;
 		path = file.toAbsolutePath().toString();
@@ -19,19 +19,20 @@ package model;
 import static configuration.Constants.EXTRACTION_PROFILES_DIRECTORY;
 import static configuration.Log.EXCEPTION_LOGGER;
 import static utility.FileUtils.createDirectory;
-import static utility.FileUtils.deleteDirectory;
 import static utility.FileUtils.fileExists;
 import static utility.FileUtils.isDirectory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.logging.Level;
 
 import modules.AbstractDaemonModule;
@@ -52,6 +53,16 @@ import controller.ProfileController;
  * shown at the user interfaces.
  */
 public class Profile {
+	/** Files in the profile directory, that aren't module configurations */
+	private static final Set<String> PROFILE_FILES = new HashSet<String>(
+			Arrays.asList("PARTS", "PARTS" + ConfigSaver.JOURNAL_SUFFIX,
+					"properties"));
+	/**
+	 * Size of the parts journal, above which the PARTS file is rewritten
+	 * instead
+	 */
+	private static final long MAX_JOURNAL_BYTES = 64 * 1024;
+
 	private final HashSet<Part> parts = new HashSet<Part>();
 	private final HashSet<AbstractModule> modules = new HashSet<AbstractModule>();
 	private final String UUID;
@@ -59,6 +70,10 @@ public class Profile {
 	private final ProfileController profileController;
 	private final Environment environment;
 	private boolean enabled = true;
+	/** Paths of the parts as they are saved, null if they aren't saved yet */
+	private HashSet<Path> savedPaths;
+	/** Properties as they are saved, null if they aren't saved yet */
+	private Properties savedProperties;
 
 	/**
 	 * Profile constructor, if no name is given.
@@ -99,10 +114,10 @@ public class Profile {
 		if (!fileExists(getOutputDirectory() + "properties"))
 			return;
 		Properties properties = new Properties();
-		try {
-			FileInputStream inputStream = new FileInputStream(
-					getOutputDirectory() + "properties");
+		try (FileInputStream inputStream = new FileInputStream(
+				getOutputDirectory() + "properties")) {
 			properties.loadFromXML(inputStream);
+			savedProperties = properties;
 		} catch (Exception e) {
 			EXCEPTION_LOGGER.log(Level.SEVERE,
 					"Exception at loadProperties() of profile: " + UUID, e);
@@ -133,8 +148,7 @@ public class Profile {
 		if (fileNames == null)
 			return;
 		for (String name : fileNames) {
-			if (name.equals("PARTS") || name.equals("properties")
-					|| name.startsWith(".")) {
+			if (PROFILE_FILES.contains(name) || name.startsWith(".")) {
 				continue;
 			}
 			ModuleConfiguration moduleConfig = ConfigSaver
@@ -164,35 +178,72 @@ public class Profile {
 	 */
 	protected void loadParts() {
 		String partsFile = getOutputDirectory() + "PARTS";
-		if (!fileExists(partsFile))
+		if (!fileExists(partsFile)
+				&& !fileExists(partsFile + ConfigSaver.JOURNAL_SUFFIX))
 			return;
-		addAllPartsFromPaths(ConfigSaver.loadPathSet(partsFile), false);
+		HashSet<Path> paths = ConfigSaver.loadPathSet(partsFile);
+		savedPaths = new HashSet<Path>(paths);
+		addAllPartsFromPaths(paths, false);
 	}
 
 	/**
-	 * Saves the complete Profile during application shutdown.
+	 * Saves the Profile during application shutdown. Only what changed since
+	 * the last save is written: new module configurations, the changes of the
+	 * parts and changed properties. Each file is replaced atomically.
 	 */
 	public void save() {
 		String outputDirectory = getOutputDirectory();
-		deleteDirectory(outputDirectory);
 		createDirectory(outputDirectory);
-		for (AbstractModule module : modules) {
-			File outputFile = new File(outputDirectory, module.moduleName + "_"
-					+ module.getHash());
-			ConfigSaver.saveModuleConfiguration(outputFile, module.getConfig());
+		ConfigSaver.saveModuleConfigurations(new File(outputDirectory),
+				modules, PROFILE_FILES);
+		saveParts(outputDirectory + "PARTS");
+		saveProperties(outputDirectory + "properties");
+	}
+
+	/**
+	 * Appends the added and removed parts to the journal of the PARTS file.
+	 * The PARTS file is rewritten, if the journal became too big.
+	 */
+	private void saveParts(String partsFile) {
+		HashSet<Path> paths = new HashSet<Path>();
+		for (Part part : parts) {
+			paths.add(part.getFile());
+		}
+		File journal = new File(partsFile + ConfigSaver.JOURNAL_SUFFIX);
+		if (savedPaths == null || !fileExists(partsFile)
+				|| journal.length() > Math.max(MAX_JOURNAL_BYTES, new File(
+						partsFile).length())) {
+			ConfigSaver.savePathSet(paths, partsFile);
+		} else {
+			HashSet<Path> added = new HashSet<Path>(paths);
+			added.removeAll(savedPaths);
+			HashSet<Path> removed = new HashSet<Path>(savedPaths);
+			removed.removeAll(paths);
+			if (added.isEmpty() && removed.isEmpty()) {
+				return;
+			}
+			ConfigSaver.appendPathChanges(added, removed, partsFile);
 		}
-		ConfigSaver.savePartSet(parts, outputDirectory + File.separator
-				+ "PARTS");
+		savedPaths = paths;
+	}
+
+	private void saveProperties(String propertiesFile) {
 		Properties profileProperties = new Properties();
 		profileProperties.put("name", name);
 		if (this.equals(profileController.getDefaultProfile())) {
 			profileProperties.put("defaultProfile", "true");
 		}
 		profileProperties.put("enabled", "" + isEnabled());
+		if (profileProperties.equals(savedProperties)
+				&& fileExists(propertiesFile)) {
+			return;
+		}
 		try {
-			FileOutputStream outputStream = new FileOutputStream(
-					outputDirectory + "properties");
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 			profileProperties.storeToXML(outputStream, UUID);
+			ConfigSaver.writeAtomically(new File(propertiesFile),
+					outputStream.toByteArray());
+			savedProperties = profileProperties;
 		} catch (IOException e) {
 			EXCEPTION_LOGGER.log(Level.SEVERE, "Exception at save of profile: "
 					+ UUID, e);
@@ -18,11 +18,10 @@ package model;
 
 import static configuration.Constants.TEMPLATES_DIRECTORY;
 import static utility.FileUtils.createDirectory;
-import static utility.FileUtils.deleteDirectory;
-import static utility.FileUtils.deleteFile;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import modules.AbstractModule;
@@ -62,16 +61,9 @@ public class ProfileTemplate {
 	 */
 	public void save() {
 		String outputDirectory = TEMPLATES_DIRECTORY + name;
-		deleteDirectory(outputDirectory);
 		createDirectory(outputDirectory);
-		for (File file : new File(outputDirectory).listFiles()) {
-			// remove "old" modules from fewer templates:
-			deleteFile(file.toPath());
-		}
-		for (AbstractModule module : moduleList) {
-			File outputFile = new File(outputDirectory, module.moduleName + "_"
-					+ module.getHash());
-			ConfigSaver.saveModuleConfiguration(outputFile, module.getConfig());
-		}
+		// writes only new configurations and removes "old" modules
+		ConfigSaver.saveModuleConfigurations(new File(outputDirectory),
+				moduleList, Collections.<String> emptySet());
 	}
 }
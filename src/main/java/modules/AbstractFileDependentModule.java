@@ -27,6 +27,19 @@ public abstract class AbstractFileDependentModule extends AbstractModule {
 
 	abstract public ExtractionResult extractInformation(Path path);
 
+	/**
+	 * Returns if the extraction results of this module only depend on the
+	 * file and the module configuration. In this case the extraction is
+	 * skipped, if neither the file nor the configuration changed since the
+	 * last extraction. Override this method and return false, if the results
+	 * also depend on other environment information.
+	 * 
+	 * @return True, if unchanged files don't have to be extracted again.
+	 */
+	public boolean isCacheable() {
+		return true;
+	}
+
 	public ExtractionResult extractFileDependentInformation(Path path) {
 		ExtractionResult result = null;
 		if (config != null && config.fileFilter!=null) {
@@ -92,6 +92,36 @@ public abstract class AbstractModule {
 		return false;
 	}
 
+	/**
+	 * Returns if the extraction method of this module instance can be called
+	 * by several extraction threads at the same time. Override this method and
+	 * return true, if the module has no mutable instance or static state.
+	 * 
+	 * The default is false: The parallel extraction will then never call the
+	 * same module instance concurrently.
+	 * 
+	 * @return True, if the module can be extracted concurrently.
+	 */
+	public boolean isThreadSafe() {
+		return false;
+	}
+
+	/**
+	 * Returns the maximum number of parallel extractions of this module. For
+	 * thread-safe modules this limits the concurrent calls of this module
+	 * instance. For modules that are not thread-safe, the parallel extraction
+	 * creates up to this number of module copies sharing the same
+	 * configuration, so the module must not keep state in static fields, if
+	 * this is more than 1.
+	 * 
+	 * The default is no limit for thread-safe modules and 1 otherwise.
+	 * 
+	 * @return maximum number of parallel extractions, 0 for no limit
+	 */
+	public int getMaxParallelism() {
+		return isThreadSafe() ? 0 : 1;
+	}
+
 	public String getHash() {
 		return ConfigSaver.hash(getConfig());
 	}
@@ -79,6 +79,20 @@ public class ApacheTikaExtractionModule extends AbstractFileDependentModule {
 		version = "1.0";
 	}
 
+	/**
+	 * The Tika facade is thread-safe, but parsing is memory and CPU heavy, so
+	 * the parallel extraction is limited to one parse per processor.
+	 */
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	@Override
+	public int getMaxParallelism() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
 	@Override
 	public String getModuleDescription() {
 		return "Apache Tika extractor";
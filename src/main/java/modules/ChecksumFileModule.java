@@ -90,6 +90,11 @@ public class ChecksumFileModule extends AbstractFileDependentModule {
 		return result;
 	}
 
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
 	@Override
 	public String getModuleDescription() {
 		StringBuilder sb = new StringBuilder();
@@ -46,6 +46,19 @@ public class FileStoreModule extends AbstractFileDependentModule {
 		return moduleResults;
 	}
 
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	/**
+	 * The free space of the file store changes independently of the file.
+	 */
+	@Override
+	public boolean isCacheable() {
+		return false;
+	}
+
 	@Override
 	public String getModuleDescription() {
 		String description = "This module extracts the following information about a file:"
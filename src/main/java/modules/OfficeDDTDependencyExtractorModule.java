@@ -43,7 +43,11 @@ public class OfficeDDTDependencyExtractorModule extends
 	// private final Logger logger = LogManager
 	// .getLogger(OfficeDDTDependencyExtractorModule.class.getName());
 
-	private static List<FileProcessor> processors;
+	/**
+	 * The processors collect the found links in mutable lists, so they are
+	 * kept per module instance.
+	 */
+	private List<FileProcessor> processors;
 
 	@Override
 	public void setModuleName() {
@@ -131,6 +135,15 @@ public class OfficeDDTDependencyExtractorModule extends
 		version = "1.0";
 	}
 
+	/**
+	 * The module is not thread-safe, but copies of the module don't share
+	 * state, so the parallel extraction can use one copy per processor.
+	 */
+	@Override
+	public int getMaxParallelism() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
 	@Override
 	public String getModuleDescription() {
 		return "Office document dependencies";
@@ -63,6 +63,11 @@ public class PosixModule extends AbstractFileDependentModule {
 		return moduleResults;
 	}
 
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
 	@Override
 	public String getModuleDescription() {
 		String description = "This module extracts the following Posix file information:"
@@ -0,0 +1,172 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package modules;
+
+import static configuration.Log.MODULE_LOGGER;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+import modules.configuration.SigarMetricsConfig;
+
+import org.hyperic.sigar.CpuPerc;
+import org.hyperic.sigar.Mem;
+import org.hyperic.sigar.NetInterfaceStat;
+import org.hyperic.sigar.ProcStat;
+import org.hyperic.sigar.Sigar;
+import org.hyperic.sigar.SigarException;
+
+import storage.MetricStore;
+import controller.StorageController;
+
+/**
+ * Daemon that samples system metrics with Sigar at a configurable rate into
+ * the {@link MetricStore} of the storage, instead of storing a JSON snapshot
+ * of the environment per sample like the {@link SigarEnvironmentModules}.
+ * <p>
+ * The Sigar instance isn't cached like {@link SigarEnvironmentModules#proxy},
+ * so that each sample is current. The network counters are stored as bytes
+ * per second since the last sample.
+ */
+public class SigarMetricsDaemon extends AbstractDaemonModule {
+	private Sigar sigar;
+	private long lastFlush;
+	private long lastSample;
+	private final Map<String, long[]> lastNetworkCounters = new HashMap<String, long[]>();
+
+	public SigarMetricsDaemon() {
+		super();
+		setConfig(new SigarMetricsConfig());
+		getConfig().enabled = false;
+	}
+
+	@Override
+	public SigarMetricsConfig getConfig() {
+		return (SigarMetricsConfig) super.getConfig();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				long start = System.currentTimeMillis();
+				observe();
+				long wait = getConfig().samplingInterval
+						- (System.currentTimeMillis() - start);
+				if (wait > 0) {
+					Thread.sleep(wait);
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		} finally {
+			if (sigar != null) {
+				sigar.close();
+				sigar = null;
+			}
+			StorageController.storage.getMetricStore().flush();
+		}
+	}
+
+	@Override
+	protected void observe() throws InterruptedException {
+		MetricStore store = StorageController.storage.getMetricStore();
+		long time = System.currentTimeMillis();
+		try {
+			if (sigar == null) {
+				sigar = new Sigar();
+			}
+			sample(store, time);
+		} catch (SigarException e) {
+			MODULE_LOGGER.log(Level.SEVERE, "Sigar exception", e);
+		} catch (LinkageError e) {
+			MODULE_LOGGER.log(Level.SEVERE,
+					"Sigar native library is missing, sampling is stopped", e);
+			Thread.currentThread().interrupt();
+			return;
+		}
+		if (time - lastFlush >= getConfig().flushInterval) {
+			store.flush();
+			lastFlush = time;
+		}
+	}
+
+	private void sample(MetricStore store, long time) throws SigarException {
+		CpuPerc cpu = sigar.getCpuPerc();
+		store.add("cpu.combined", time, cpu.getCombined());
+		store.add("cpu.user", time, cpu.getUser());
+		store.add("cpu.sys", time, cpu.getSys());
+		store.add("cpu.wait", time, cpu.getWait());
+		Mem mem = sigar.getMem();
+		store.add("mem.used_percent", time, mem.getUsedPercent());
+		store.add("mem.actual_used", time, mem.getActualUsed());
+		store.add("mem.actual_free", time, mem.getActualFree());
+		store.add("swap.used", time, sigar.getSwap().getUsed());
+		ProcStat procStat = sigar.getProcStat();
+		store.add("proc.total", time, procStat.getTotal());
+		store.add("proc.running", time, procStat.getRunning());
+		store.add("proc.threads", time, procStat.getThreads());
+		store.add("tcp.curr_estab", time, sigar.getTcp().getCurrEstab());
+		if (getConfig().networkInterfaces) {
+			for (String name : sigar.getNetInterfaceList()) {
+				sampleNetworkInterface(store, time, name);
+			}
+		}
+		lastSample = time;
+	}
+
+	private void sampleNetworkInterface(MetricStore store, long time,
+			String name) throws SigarException {
+		NetInterfaceStat stat = sigar.getNetInterfaceStat(name);
+		long[] counters = { stat.getRxBytes(), stat.getTxBytes() };
+		long[] last = lastNetworkCounters.put(name, counters);
+		if (last == null || time <= lastSample) {
+			return;
+		}
+		String metric = "net." + name.replaceAll("[^A-Za-z0-9_-]", "_");
+		double seconds = (time - lastSample) / 1000.0;
+		// counters are reset e.g. when the interface is restarted
+		if (counters[0] >= last[0]) {
+			store.add(metric + ".rx_bytes_per_s", time,
+					(counters[0] - last[0]) / seconds);
+		}
+		if (counters[1] >= last[1]) {
+			store.add(metric + ".tx_bytes_per_s", time,
+					(counters[1] - last[1]) / seconds);
+		}
+	}
+
+	@Override
+	public String getModuleDescription() {
+		return "This daemon uses the sigar library to sample system metrics "
+				+ "at a configurable rate (samplingInterval in milliseconds). "
+				+ "The samples are kept at a resolution of seconds, minutes "
+				+ "and hours in fixed-size files of the metrics directory, "
+				+ "instead of storing a result per sample."
+				+ "\n\n- CPU usage (combined, user, sys, wait)"
+				+ "\n- Memory usage and swap"
+				+ "\n- Number of processes and threads"
+				+ "\n- Established TCP connections"
+				+ "\n- Received and sent bytes per second of each network interface";
+	}
+
+	@Override
+	public void setModuleName() {
+		moduleName = "Sigar metrics sampling daemon";
+	}
+}
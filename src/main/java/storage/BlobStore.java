@@ -0,0 +1,392 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static configuration.Log.EXCEPTION_LOGGER;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import utility.FileUtils;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Content-addressed store for external data, such as screenshots.
+ * <p>
+ * Each blob is stored once under the SHA-256 hash of its content, in
+ * subdirectories by the first characters of the hash, e.g.
+ * <code>blobs/3f/a2/3fa2...</code>. Storing the same content again only
+ * increments its reference count. The references are released by the
+ * retention, when the snapshots referencing a blob are deleted, and the blob
+ * is deleted with its last reference.
+ * <p>
+ * The reference counts are kept in a journal of changes, that is rewritten
+ * when it has grown much larger than the number of blobs.
+ */
+public class BlobStore {
+	/** Prefix of the ids of the blobs */
+	public static final String ID_PREFIX = "sha256-";
+	/** Pattern to find blob ids in stored results */
+	public static final Pattern ID_PATTERN = Pattern.compile(ID_PREFIX
+			+ "[0-9a-f]{64}");
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String JOURNAL = "references.log";
+
+	private final File directory;
+	private Map<String, Integer> references;
+	private int journalEntries;
+	private long blobBytes;
+	private long deduplicatedPuts;
+	private long deduplicatedBytes;
+
+	/**
+	 * @param directory
+	 *            root directory of the blobs
+	 */
+	public BlobStore(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Stores the content of a stream, reading it only once.
+	 * 
+	 * @param in
+	 *            content of the blob, is closed
+	 * @return id of the blob
+	 * @throws IOException
+	 */
+	public String put(InputStream in) throws IOException {
+		File temp = new File(getTempDirectory(), UUID.randomUUID().toString());
+		MessageDigest digest = createDigest();
+		long size = 0;
+		try (InputStream digestIn = new DigestInputStream(in, digest);
+				OutputStream out = new FileOutputStream(temp)) {
+			byte[] buffer = new byte[1 << 16];
+			int read;
+			while ((read = digestIn.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+				size += read;
+			}
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+		String hash = BaseEncoding.base16().lowerCase()
+				.encode(digest.digest());
+		synchronized (this) {
+			open();
+			File blob = getFile(hash);
+			if (blob.exists()) {
+				temp.delete();
+				deduplicatedPuts++;
+				deduplicatedBytes += size;
+			} else {
+				blob.getParentFile().mkdirs();
+				Files.move(temp.toPath(), blob.toPath(),
+						StandardCopyOption.ATOMIC_MOVE);
+				blobBytes += size;
+			}
+			changeReferences(hash, 1);
+		}
+		return ID_PREFIX + hash;
+	}
+
+	/**
+	 * @param data
+	 * @return id of the blob
+	 * @throws IOException
+	 */
+	public String put(byte[] data) throws IOException {
+		return put(new ByteArrayInputStream(data));
+	}
+
+	/**
+	 * @param id
+	 * @return stream of the blob content, or null if there is no such blob
+	 * @throws IOException
+	 */
+	public InputStream open(String id) throws IOException {
+		File blob = getFile(id);
+		return blob == null || !blob.isFile() ? null : new FileInputStream(
+				blob);
+	}
+
+	/**
+	 * @param id
+	 * @return channel to read the blob content, or null if there is no such
+	 *         blob
+	 * @throws IOException
+	 */
+	public FileChannel openChannel(String id) throws IOException {
+		File blob = getFile(id);
+		return blob == null || !blob.isFile() ? null : FileChannel.open(
+				blob.toPath(), StandardOpenOption.READ);
+	}
+
+	/**
+	 * @param id
+	 * @return true, if the id belongs to a blob of this store
+	 */
+	public boolean contains(String id) {
+		File blob = getFile(id);
+		return blob != null && blob.isFile();
+	}
+
+	/**
+	 * Releases a reference to a blob, and deletes the blob if it was the last
+	 * reference.
+	 * 
+	 * @param id
+	 */
+	public synchronized void release(String id) {
+		String hash = getHash(id);
+		if (hash == null) {
+			return;
+		}
+		open();
+		Integer count = references.get(hash);
+		if (count == null) {
+			return;
+		}
+		changeReferences(hash, -1);
+		if (count <= 1) {
+			File blob = getFile(hash);
+			long size = blob.length();
+			if (blob.delete()) {
+				blobBytes -= size;
+			}
+		}
+	}
+
+	/**
+	 * Releases the references to all blobs, whose ids appear in a text.
+	 * 
+	 * @param text
+	 *            stored results
+	 * @return number of released references
+	 */
+	public int releaseAll(String text) {
+		int released = 0;
+		Matcher matcher = ID_PATTERN.matcher(text);
+		while (matcher.find()) {
+			release(matcher.group());
+			released++;
+		}
+		return released;
+	}
+
+	/**
+	 * @return number of stored blobs
+	 */
+	public synchronized int getBlobCount() {
+		open();
+		return references.size();
+	}
+
+	/**
+	 * @return size of the stored blobs
+	 */
+	public synchronized long getBlobBytes() {
+		open();
+		return blobBytes;
+	}
+
+	/**
+	 * @return number of stored blobs, that were already stored
+	 */
+	public synchronized long getDeduplicatedPuts() {
+		return deduplicatedPuts;
+	}
+
+	/**
+	 * @return bytes, that weren't stored again because of deduplication
+	 */
+	public synchronized long getDeduplicatedBytes() {
+		return deduplicatedBytes;
+	}
+
+	/**
+	 * Writes the current reference counts to the journal.
+	 */
+	public synchronized void close() {
+		if (references != null && journalEntries > references.size()) {
+			rewriteJournal();
+		}
+		references = null;
+	}
+
+	/**
+	 * Deletes all blobs.
+	 */
+	public synchronized void clear() {
+		references = null;
+		FileUtils.deleteDirectory(directory.getPath());
+		blobBytes = 0;
+	}
+
+	/**
+	 * Reads the reference counts and the size of the blobs at the first
+	 * access.
+	 */
+	private void open() {
+		if (references != null) {
+			return;
+		}
+		references = new HashMap<String, Integer>();
+		journalEntries = 0;
+		File journal = new File(directory, JOURNAL);
+		if (journal.exists()) {
+			try (BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(journal), UTF8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] entry = line.split(" ");
+					if (entry.length != 2) {
+						continue;// incomplete last entry
+					}
+					journalEntries++;
+					Integer count = references.get(entry[0]);
+					int changed = (count == null ? 0 : count)
+							+ Integer.parseInt(entry[1]);
+					if (changed > 0) {
+						references.put(entry[0], changed);
+					} else {
+						references.remove(entry[0]);
+					}
+				}
+			} catch (IOException | NumberFormatException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception while reading the blob references", e);
+			}
+		}
+		blobBytes = 0;
+		for (String hash : references.keySet()) {
+			blobBytes += getFile(hash).length();
+		}
+		if (journalEntries > 2 * references.size() + 1000) {
+			rewriteJournal();
+		}
+	}
+
+	private void changeReferences(String hash, int delta) {
+		Integer count = references.get(hash);
+		int changed = (count == null ? 0 : count) + delta;
+		if (changed > 0) {
+			references.put(hash, changed);
+		} else {
+			references.remove(hash);
+		}
+		File journal = new File(directory, JOURNAL);
+		try (OutputStream out = new FileOutputStream(journal, true)) {
+			out.write((hash + " " + delta + "\n").getBytes(UTF8));
+			journalEntries++;
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception while writing the blob references", e);
+		}
+	}
+
+	/**
+	 * Replaces the journal by the current reference counts.
+	 */
+	private void rewriteJournal() {
+		File journal = new File(directory, JOURNAL);
+		File temp = new File(directory, JOURNAL + ".tmp");
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(
+				temp), UTF8)) {
+			for (Entry<String, Integer> entry : references.entrySet()) {
+				out.write(entry.getKey() + " " + entry.getValue() + "\n");
+			}
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception while writing the blob references", e);
+			return;
+		}
+		try {
+			Files.move(temp.toPath(), journal.toPath(),
+					StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			journalEntries = references.size();
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception while writing the blob references", e);
+		}
+	}
+
+	private File getTempDirectory() {
+		File temp = new File(directory, "tmp");
+		temp.mkdirs();
+		return temp;
+	}
+
+	/**
+	 * @return the hash of a blob id, or null if it isn't a blob id
+	 */
+	private static String getHash(String id) {
+		if (id == null) {
+			return null;
+		}
+		String hash = id.startsWith(ID_PREFIX) ? id.substring(ID_PREFIX
+				.length()) : id;
+		return hash.matches("[0-9a-f]{64}") ? hash : null;
+	}
+
+	/**
+	 * @return the file of a blob, or null if the id is no blob id
+	 */
+	private File getFile(String id) {
+		String hash = getHash(id);
+		if (hash == null) {
+			return null;
+		}
+		return new File(new File(new File(directory, hash.substring(0, 2)),
+				hash.substring(2, 4)), hash);
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+/**
+ * What a compaction of the stored data reclaimed.
+ */
+public class CompactionReport {
+	public long started = System.currentTimeMillis();
+	public long finished;
+	public int histories;
+	public int deletedSnapshots;
+	public int rewrittenSnapshots;
+	public int removedResults;
+	public long reclaimedBytes;
+	public int deletedEvents;
+	public long reclaimedEventBytes;
+
+	/**
+	 * Adds the numbers of another report.
+	 * 
+	 * @param report
+	 */
+	public synchronized void add(CompactionReport report) {
+		histories += report.histories;
+		deletedSnapshots += report.deletedSnapshots;
+		rewrittenSnapshots += report.rewrittenSnapshots;
+		removedResults += report.removedResults;
+		reclaimedBytes += report.reclaimedBytes;
+		deletedEvents += report.deletedEvents;
+		reclaimedEventBytes += report.reclaimedEventBytes;
+		finished = Math.max(finished, report.finished);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return histories + " histories checked, " + deletedSnapshots
+				+ " snapshots deleted, " + rewrittenSnapshots
+				+ " snapshots rewritten without " + removedResults
+				+ " module results, " + reclaimedBytes + " bytes reclaimed; "
+				+ deletedEvents + " events deleted, " + reclaimedEventBytes
+				+ " event bytes reclaimed";
+	}
+}
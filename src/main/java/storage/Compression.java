@@ -0,0 +1,144 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHashFactory;
+
+/**
+ * Compression of the stored snapshots and of the event log. Compressed files
+ * are marked by the suffix of the compression.
+ * <p>
+ * LZ4 uses the pure Java implementation of lz4-java, it compresses less than
+ * gzip but several times faster.
+ */
+public enum Compression {
+	NONE(""), GZIP(".gz"), LZ4(".lz4");
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int LZ4_SEED = 0x9747b28c;
+
+	/** Suffix of the files with this compression */
+	public final String suffix;
+
+	private Compression(String suffix) {
+		this.suffix = suffix;
+	}
+
+	/**
+	 * @param out
+	 * @return stream, that writes the compressed data to out. It must be
+	 *         closed to complete the compressed data.
+	 * @throws IOException
+	 */
+	public OutputStream compress(OutputStream out) throws IOException {
+		switch (this) {
+		case GZIP:
+			return new GZIPOutputStream(out, BUFFER_SIZE);
+		case LZ4:
+			return new LZ4BlockOutputStream(out, BUFFER_SIZE, LZ4Factory
+					.fastestJavaInstance().fastCompressor(), XXHashFactory
+					.fastestJavaInstance().newStreamingHash32(LZ4_SEED)
+					.asChecksum(), false);
+		default:
+			return out;
+		}
+	}
+
+	/**
+	 * @param in
+	 *            compressed data
+	 * @return stream, that decompresses the data while it is read
+	 * @throws IOException
+	 */
+	public InputStream decompress(InputStream in) throws IOException {
+		switch (this) {
+		case GZIP:
+			return new GZIPInputStream(in, BUFFER_SIZE);
+		case LZ4:
+			return new LZ4BlockInputStream(in, LZ4Factory
+					.fastestJavaInstance().fastDecompressor(), XXHashFactory
+					.fastestJavaInstance().newStreamingHash32(LZ4_SEED)
+					.asChecksum());
+		default:
+			return in;
+		}
+	}
+
+	/**
+	 * @param data
+	 * @return the compressed data
+	 * @throws IOException
+	 */
+	public byte[] compress(byte[] data) throws IOException {
+		if (this == NONE) {
+			return data;
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+				data.length / 4 + 64);
+		try (OutputStream out = compress(buffer)) {
+			out.write(data);
+		}
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * @param fileName
+	 * @return the compression of a file, by the suffix of its name
+	 */
+	public static Compression forFile(String fileName) {
+		for (Compression compression : values()) {
+			if (compression != NONE && fileName.endsWith(compression.suffix)) {
+				return compression;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * @param fileName
+	 * @return the file name without the suffix of its compression
+	 */
+	public static String stripSuffix(String fileName) {
+		Compression compression = forFile(fileName);
+		return fileName.substring(0,
+				fileName.length() - compression.suffix.length());
+	}
+
+	/**
+	 * @param name
+	 *            "none", "gzip" or "lz4", or null for no compression
+	 * @return the compression with this name
+	 * @throws IllegalArgumentException
+	 *             if there is no such compression
+	 */
+	public static Compression parse(String name) {
+		if (name == null) {
+			return NONE;
+		}
+		return valueOf(name.trim().toUpperCase());
+	}
+}
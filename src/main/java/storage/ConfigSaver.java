@@ -23,23 +23,27 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.logging.Level;
 
 import model.ExtractionResult;
 import model.Part;
+import modules.AbstractModule;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
@@ -56,6 +60,9 @@ import controller.ExtractionController;
  * @see ExtractionController
  */
 public class ConfigSaver {
+	/** Suffix of the journal of changes to a saved path set */
+	public static final String JOURNAL_SUFFIX = ".log";
+
 	private ConfigSaver() {
 	};
 
@@ -74,45 +81,169 @@ public class ConfigSaver {
 	}
 
 	/**
-	 * Saves a set of Paths to file.
+	 * Saves a set of Paths to file. The file is replaced atomically, and the
+	 * journal of changes to the previous set is deleted.
 	 * 
 	 * @param paths
 	 * @param fileName
 	 */
 	public static void savePathSet(HashSet<Path> paths, String fileName) {
 		try {
-			FileWriter fWriter = new FileWriter(fileName);
+			File temp = getTempFile(new File(fileName));
+			FileWriter fWriter = new FileWriter(temp);
 			BufferedWriter writer = new BufferedWriter(fWriter);
 			for (Path path : paths) {
 				writer.write(path + "\n");
 			}
 			writer.close();
+			Files.move(temp.toPath(), Paths.get(fileName),
+					StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			Files.deleteIfExists(Paths.get(fileName + JOURNAL_SUFFIX));
 		} catch (IOException e) {
 			EXCEPTION_LOGGER.log(Level.SEVERE, "Exception at savePathSet()", e);
 		}
 	}
 
 	/**
-	 * Loads a set of Paths from file.
+	 * Appends the changes of a set of Paths to the journal of the saved set,
+	 * instead of saving the whole set again. The changes are applied when the
+	 * set is loaded.
+	 * 
+	 * @param added
+	 * @param removed
+	 * @param fileName
+	 *            file of the saved set
+	 */
+	public static void appendPathChanges(Collection<Path> added,
+			Collection<Path> removed, String fileName) {
+		StringBuilder lines = new StringBuilder();
+		for (Path path : removed) {
+			lines.append('-').append(path).append('\n');
+		}
+		for (Path path : added) {
+			lines.append('+').append(path).append('\n');
+		}
+		try {
+			Files.write(Paths.get(fileName + JOURNAL_SUFFIX), lines.toString()
+					.getBytes(StandardCharsets.UTF_8),
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND,
+					StandardOpenOption.SYNC);
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at appendPathChanges()", e);
+		}
+	}
+
+	/**
+	 * Loads a set of Paths from file, and applies the changes in its journal.
 	 * 
 	 * @param fileName
 	 * @return Path set
 	 */
 	public static HashSet<Path> loadPathSet(String fileName) {
 		HashSet<Path> data = new HashSet<Path>();
-		try {
-			Scanner scanner = new Scanner(new File(fileName));
-			while (scanner.hasNext()) {
-				Path path = Paths.get(scanner.nextLine());
-				data.add(path);
+		if (new File(fileName).isFile()) {
+			try {
+				Scanner scanner = new Scanner(new File(fileName));
+				while (scanner.hasNext()) {
+					Path path = Paths.get(scanner.nextLine());
+					data.add(path);
+				}
+				scanner.close();
+			} catch (FileNotFoundException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception at loadPathSet()", e);
+			}
+		}
+		File journal = new File(fileName + JOURNAL_SUFFIX);
+		if (journal.isFile()) {
+			try {
+				for (String line : Files.readAllLines(journal.toPath(),
+						StandardCharsets.UTF_8)) {
+					// a line cut by a crash is incomplete and ignored
+					if (line.length() < 2) {
+						continue;
+					}
+					Path path = Paths.get(line.substring(1));
+					if (line.charAt(0) == '+') {
+						data.add(path);
+					} else if (line.charAt(0) == '-') {
+						data.remove(path);
+					}
+				}
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception at loadPathSet()", e);
 			}
-			scanner.close();
-		} catch (FileNotFoundException e) {
-			EXCEPTION_LOGGER.log(Level.SEVERE, "Exception at loadPathSet()", e);
 		}
 		return data;
 	}
 
+	/**
+	 * Writes the configurations of modules, that aren't saved yet in a
+	 * directory, and deletes the files of modules, that were removed or
+	 * changed. The file names contain the hash of the configuration, so an
+	 * existing file doesn't need to be written again.
+	 * 
+	 * @param directory
+	 * @param modules
+	 * @param otherFiles
+	 *            names of files in the directory, that aren't module
+	 *            configurations
+	 * @return number of written configurations
+	 */
+	public static int saveModuleConfigurations(File directory,
+			Collection<AbstractModule> modules, Set<String> otherFiles) {
+		Set<String> names = new HashSet<String>();
+		int written = 0;
+		for (AbstractModule module : modules) {
+			String name = module.moduleName + "_" + module.getHash();
+			names.add(name);
+			File file = new File(directory, name);
+			if (!file.isFile()) {
+				saveModuleConfiguration(file, module.getConfig());
+				written++;
+			}
+		}
+		String[] existing = directory.list();
+		if (existing != null) {
+			for (String name : existing) {
+				if (!names.contains(name) && !otherFiles.contains(name)
+						&& !name.startsWith(".")) {
+					new File(directory, name).delete();
+				}
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Writes a file with a temporary file and an atomic rename, so that a
+	 * crash leaves either the old or the new file.
+	 * 
+	 * @param destination
+	 * @param data
+	 * @throws IOException
+	 */
+	public static void writeAtomically(File destination, byte[] data)
+			throws IOException {
+		File temp = getTempFile(destination);
+		Files.write(temp.toPath(), data);
+		Files.move(temp.toPath(), destination.toPath(),
+				StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Temporary files start with a dot, so that they aren't loaded as module
+	 * configurations.
+	 */
+	private static File getTempFile(File destination) {
+		return new File(destination.getParentFile(), "."
+				+ destination.getName() + ".tmp");
+	}
+
 	/**
 	 * Loads a ModuleConfiguration from File
 	 * 
@@ -137,8 +268,8 @@ public class ConfigSaver {
 	 */
 	public static ModuleConfiguration loadModuleConfiguration(InputStream source) {
 		try {
-			ModuleConfiguration config = initMapper().readValue(source,
-					ModuleConfiguration.class);
+			ModuleConfiguration config = JsonMappers.reader(
+					ModuleConfiguration.class).readValue(source);
 			return config;
 		} catch (IOException e) {
 			EXCEPTION_LOGGER.log(Level.SEVERE,
@@ -155,8 +286,8 @@ public class ConfigSaver {
 	 */
 	public static ModuleConfiguration loadModuleConfiguration(String source) {
 		try {
-			ModuleConfiguration config = initMapper().readValue(source,
-					ModuleConfiguration.class);
+			ModuleConfiguration config = JsonMappers.reader(
+					ModuleConfiguration.class).readValue(source);
 			return config;
 		} catch (IOException e) {
 			EXCEPTION_LOGGER.log(Level.SEVERE,
@@ -173,9 +304,13 @@ public class ConfigSaver {
 	 */
 	public static void saveModuleConfiguration(File destination,
 			ModuleConfiguration conf) {
+		if (conf == null) {
+			return;
+		}
 		try {
-			saveModuleConfiguration(new FileOutputStream(destination), conf);
-		} catch (FileNotFoundException e) {
+			writeAtomically(destination,
+					JsonMappers.PRETTY.writeValueAsBytes(conf));
+		} catch (IOException e) {
 			EXCEPTION_LOGGER.log(Level.SEVERE,
 					"Exception at saveComplexConfiguration()", e);
 		}
@@ -192,7 +327,7 @@ public class ConfigSaver {
 			if (config != null) {
 				ByteArrayOutputStream byteArray = new ByteArrayOutputStream(
 						1200);
-				initMapper().writeValue(byteArray, config);
+				JsonMappers.PRETTY.writeValue(byteArray, config);
 				HashFunction hashFunction = Hashing.md5();
 				HashCode hashCode = hashFunction.newHasher()
 						.putBytes(byteArray.toByteArray()).hash();
@@ -214,7 +349,7 @@ public class ConfigSaver {
 			ModuleConfiguration config) {
 		try {
 			if (config != null) {
-				initMapper().writeValue(destiantion, config);
+				JsonMappers.PRETTY.writeValue(destiantion, config);
 			}
 		} catch (IOException e) {
 			EXCEPTION_LOGGER.log(Level.SEVERE,
@@ -224,7 +359,7 @@ public class ConfigSaver {
 	public static String saveModuleConfiguration(ModuleConfiguration config) throws JsonProcessingException  {
 
 		if (config != null) {
-			return initMapper().writeValueAsString(config);
+			return JsonMappers.PRETTY.writeValueAsString(config);
 
 		}
 		return null;
@@ -232,19 +367,8 @@ public class ConfigSaver {
 	
 	public static String getSerializedResult(ExtractionResult result) throws JsonProcessingException  {
 		if (result != null) {
-			return initMapper().writeValueAsString(result);
+			return JsonMappers.PRETTY.writeValueAsString(result);
 		}
 		return null;
 	}
-	
-	private static ObjectMapper initMapper() {
-		if (mapper == null) {
-			mapper = new ObjectMapper();
-			mapper.enable(SerializationFeature.INDENT_OUTPUT);
-			mapper.enable(SerializationFeature.CLOSE_CLOSEABLE);
-			mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-		}
-		return mapper;
-	}
-	static ObjectMapper mapper ;
 }
@@ -0,0 +1,921 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static configuration.Log.EXCEPTION_LOGGER;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.logging.Level;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Log of the events, one JSON object per line.
+ * <p>
+ * The events are partitioned by the hour (UTC) of their timestamp into
+ * segments, which are files named after the hour in a directory next to the
+ * log file. Without compression the lines are appended to the text file of
+ * the segment. With compression every append is compressed on its own and
+ * written as a frame of its length and the compressed lines to a file with
+ * the suffix of the compression. The frames can be appended without reading
+ * the file. An incomplete frame or line at the end of the file, that was left
+ * by an interrupted append, is cut off before the next append. The log file itself is read as the oldest segment, if it
+ * still exists from an older version.
+ * <p>
+ * Each segment has a sparse index with an {@link IndexEntry} per append,
+ * that records where the lines are, their time range, reporters and types.
+ * {@link #query} reads only the entries that can match, so that its cost
+ * depends on the result and not on the size of the log. A missing or stale
+ * index, e.g. after a crash, is rebuilt from its segment.
+ * <p>
+ * The log is read and compacted from the oldest to the newest event. The
+ * segment of the last append is kept open, until the log is compacted, its
+ * compression changes or it is closed.
+ */
+public class EventLog {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long HOUR = 60L * 60 * 1000;
+	private static final long DAY = 24 * HOUR;
+	private static final String INDEX_SUFFIX = ".idx";
+	private static final String SEGMENT_SUFFIX = ".json";
+	// lines per index entry of a rebuilt uncompressed segment
+	private static final int REBUILD_LINES = 512;
+	// hour of a log file of an older version
+	private static final long NO_HOUR = Long.MIN_VALUE;
+
+	/**
+	 * Lines of a segment, that were appended together.
+	 */
+	public static class IndexEntry {
+		/** position in the segment */
+		public long offset;
+		/** length in the segment, of the frame if it is compressed */
+		public int length;
+		/** number of events */
+		public int count;
+		/** oldest timestamp */
+		public long min = Long.MAX_VALUE;
+		/** newest timestamp */
+		public long max = Long.MIN_VALUE;
+		/** names of the reporters */
+		public Set<String> reporters = new TreeSet<String>();
+		/** types of the events */
+		public Set<String> types = new TreeSet<String>();
+	}
+
+	/**
+	 * Indexed fields of an event.
+	 */
+	private static class EventInfo {
+		long timestamp;
+		String reporterName;
+		String type;
+	}
+
+	private final File file;
+	private final File directory;
+	private final SimpleDateFormat hourFormat = new SimpleDateFormat(
+			"yyyy-MM-dd-HH");
+	private Compression compression = Compression.NONE;
+	private final Map<File, List<IndexEntry>> indexes = new HashMap<File, List<IndexEntry>>();
+	// segments whose incomplete frame was already cut off
+	private final Set<File> checkedTails = new HashSet<File>();
+	private File current;
+	private FileChannel channel;
+
+	/**
+	 * @param file
+	 *            file of the log, the segments are written to a directory with
+	 *            its name without the extension
+	 */
+	public EventLog(File file) {
+		this.file = file;
+		String name = file.getName();
+		int extension = name.lastIndexOf('.');
+		directory = new File(file.getAbsoluteFile().getParentFile(),
+				extension > 0 ? name.substring(0, extension) : name + ".d");
+		hourFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	/**
+	 * @param compression
+	 *            compression of the appended events
+	 */
+	public synchronized void setCompression(Compression compression) {
+		if (compression != this.compression) {
+			try {
+				closeChannel();
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception while closing the event log", e);
+			}
+		}
+		this.compression = compression;
+	}
+
+	public synchronized Compression getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Appends the lines to the segments of the hours of their events.
+	 * 
+	 * @param lines
+	 *            UTF-8 encoded events, each ending with a line break
+	 * @throws IOException
+	 */
+	public synchronized void append(byte[] lines) throws IOException {
+		int start = 0;
+		long hour = 0;
+		IndexEntry entry = null;
+		int position = 0;
+		while (position < lines.length) {
+			int end = position;
+			while (end < lines.length && lines[end++] != '\n') {
+				// finds the end of the line
+			}
+			EventInfo info = parse(lines, position, end - position);
+			long lineHour = getHour(info.timestamp);
+			if (entry != null && lineHour != hour) {
+				write(hour, lines, start, position, entry);
+				entry = null;
+			}
+			if (entry == null) {
+				entry = new IndexEntry();
+				start = position;
+				hour = lineHour;
+			}
+			add(entry, info);
+			position = end;
+		}
+		if (entry != null) {
+			write(hour, lines, start, lines.length, entry);
+		}
+	}
+
+	private void write(long hour, byte[] lines, int start, int end,
+			IndexEntry entry) throws IOException {
+		File segment = getSegment(hour, compression);
+		if (!segment.equals(current)) {
+			openSegment(segment);
+		}
+		ByteBuffer data;
+		if (compression == Compression.NONE) {
+			data = ByteBuffer.wrap(lines, start, end - start);
+		} else {
+			byte[] compressed = compression.compress(Arrays.copyOfRange(
+					lines, start, end));
+			data = ByteBuffer.allocate(4 + compressed.length);
+			data.putInt(compressed.length).put(compressed);
+			data.flip();
+		}
+		entry.offset = channel.size();
+		entry.length = data.remaining();
+		while (data.hasRemaining()) {
+			channel.write(data);
+		}
+		Files.write(getIndexFile(segment).toPath(), Arrays.asList(JsonMappers
+				.COMPACT.writeValueAsString(entry)), UTF8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		indexes.get(segment).add(entry);
+	}
+
+	private void openSegment(File segment) throws IOException {
+		closeChannel();
+		directory.mkdirs();
+		if (checkedTails.add(segment)) {
+			if (compression == Compression.NONE) {
+				cutIncompleteLine(segment);
+			} else {
+				cutIncompleteFrame(segment);
+			}
+		}
+		// rebuilds a stale index before it is appended to
+		getIndex(segment);
+		channel = FileChannel.open(segment.toPath(),
+				StandardOpenOption.APPEND, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE);
+		current = segment;
+	}
+
+	/**
+	 * Forces the appended events to the disk.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+		if (channel != null) {
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Closes the segment, it is opened again by the next append.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		closeChannel();
+	}
+
+	private void closeChannel() throws IOException {
+		if (channel != null) {
+			try {
+				channel.close();
+			} finally {
+				channel = null;
+				current = null;
+			}
+		}
+	}
+
+	/**
+	 * @return all events from the oldest to the newest, or null if no events
+	 *         were logged
+	 * @throws IOException
+	 */
+	public synchronized List<String> readLines() throws IOException {
+		List<File> segments = getSegments();
+		if (segments.isEmpty()) {
+			return null;
+		}
+		List<String> lines = new ArrayList<String>();
+		for (File segment : segments) {
+			try (BufferedReader reader = new BufferedReader(
+					new InputStreamReader(open(segment), UTF8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					lines.add(line);
+				}
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Reads the events of a time range, only the segments of its hours and
+	 * the lines of the index entries, that can contain matching events, are
+	 * read.
+	 * 
+	 * @param from
+	 *            oldest timestamp
+	 * @param to
+	 *            newest timestamp
+	 * @param reporterName
+	 *            name of the reporter of the events, or null for all
+	 * @param type
+	 *            type of the events, or null for all
+	 * @param limit
+	 *            maximal number of events, 0 for no limit
+	 * @return the matching events from the oldest to the newest
+	 * @throws IOException
+	 */
+	public synchronized List<String> query(long from, long to,
+			String reporterName, String type, int limit) throws IOException {
+		List<String> result = new ArrayList<String>();
+		for (File segment : getSegments()) {
+			long hour = getSegmentHour(segment);
+			if (hour != NO_HOUR && (hour + HOUR <= from || hour > to)) {
+				continue;
+			}
+			Compression segmentCompression = Compression.forFile(segment
+					.getName());
+			List<IndexEntry> index = getIndex(segment);
+			try (FileChannel in = FileChannel.open(segment.toPath(),
+					StandardOpenOption.READ)) {
+				for (IndexEntry entry : index) {
+					if (entry.max < from
+							|| entry.min > to
+							|| (reporterName != null && !entry.reporters
+									.contains(reporterName))
+							|| (type != null && !entry.types.contains(type))) {
+						continue;
+					}
+					byte[] lines = new byte[entry.length];
+					ByteBuffer range = ByteBuffer.wrap(lines);
+					while (range.hasRemaining()
+							&& in.read(range,
+									entry.offset + range.position()) != -1) {
+						// reads the lines or the frame of the entry
+					}
+					if (segmentCompression != Compression.NONE) {
+						lines = readFrame(new DataInputStream(
+								new ByteArrayInputStream(lines)),
+								entry.length, segmentCompression).lines;
+					}
+					int position = 0;
+					while (position < lines.length) {
+						int end = position;
+						while (end < lines.length && lines[end++] != '\n') {
+							// finds the end of the line
+						}
+						EventInfo info = parse(lines, position, end - position);
+						if (info.timestamp >= from
+								&& info.timestamp <= to
+								&& (reporterName == null || reporterName
+										.equals(info.reporterName))
+								&& (type == null || type.equals(info.type))) {
+							int length = end - position;
+							while (length > 0
+									&& (lines[position + length - 1] == '\n' || lines[position
+											+ length - 1] == '\r')) {
+								length--;
+							}
+							result.add(new String(lines, position, length,
+									UTF8));
+							if (limit > 0 && result.size() >= limit) {
+								return result;
+							}
+						}
+						position = end;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Deletes the oldest events, that are too old or exceed the maximal size
+	 * of the log. Whole segments are deleted, if their newest event is too
+	 * old or the newer segments reach the maximal size, the newest segment is
+	 * only cut.
+	 * 
+	 * @param policies
+	 * @param report
+	 *            collects what was reclaimed
+	 * @throws IOException
+	 */
+	public synchronized void compact(RetentionPolicies policies,
+			CompactionReport report) throws IOException {
+		// a cut segment is replaced by a new file
+		closeChannel();
+		long oldest = policies.maxEventAgeDays > 0 ? System
+				.currentTimeMillis() - policies.maxEventAgeDays * DAY : 0;
+		List<File> segments = getSegments();
+		long total = 0;
+		for (File segment : segments) {
+			total += segment.length();
+		}
+		for (int i = 0; i < segments.size(); i++) {
+			File segment = segments.get(i);
+			long length = segment.length();
+			long others = total - length;
+			List<IndexEntry> index = getIndex(segment);
+			boolean newest = i == segments.size() - 1;
+			if (!newest
+					&& ((oldest > 0 && getMax(index) < oldest) || (policies.maxEventBytes > 0 && others >= policies.maxEventBytes))) {
+				for (IndexEntry entry : index) {
+					report.deletedEvents += entry.count;
+				}
+				indexes.remove(segment);
+				getIndexFile(segment).delete();
+				if (segment.delete()) {
+					report.reclaimedEventBytes += length;
+					total = others;
+				}
+				continue;
+			}
+			long maxBytes = policies.maxEventBytes > 0 ? policies.maxEventBytes
+					- others
+					: Long.MAX_VALUE;
+			if (getMin(index) < oldest || length > maxBytes) {
+				cutPrefix(segment, Math.max(0, maxBytes), oldest, report);
+				indexes.remove(segment);
+				getIndex(segment);
+			}
+			// the newer segments are within the limits
+			break;
+		}
+	}
+
+	/**
+	 * Deletes the oldest lines or frames of a segment.
+	 */
+	private void cutPrefix(File log, long maxBytes, long oldest,
+			CompactionReport report) throws IOException {
+		Compression logCompression = Compression.forFile(log.getName());
+		long length = log.length();
+		long offset = 0;
+		int deleted = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(log)))) {
+			while (offset < length) {
+				Frame unit;
+				if (logCompression == Compression.NONE) {
+					byte[] line = readLine(in);
+					unit = line.length == 0 ? null : new Frame(line,
+							line.length);
+				} else {
+					unit = readFrame(in, length - offset, logCompression);
+				}
+				if (unit == null) {
+					break;
+				}
+				boolean tooLarge = length - offset > maxBytes;
+				boolean tooOld = oldest > 0
+						&& getLastTimestamp(unit.lines) < oldest;
+				if (!tooLarge && !tooOld) {
+					break;
+				}
+				offset += unit.length;
+				deleted += countLines(unit.lines);
+			}
+		}
+		if (deleted == 0) {
+			return;
+		}
+		File temp = new File(log.getPath() + ".tmp");
+		try (FileChannel source = new FileInputStream(log).getChannel();
+				FileChannel target = new FileOutputStream(temp).getChannel()) {
+			long position = offset;
+			while (position < length) {
+				position += source.transferTo(position, length - position,
+						target);
+			}
+		}
+		Files.move(temp.toPath(), log.toPath(),
+				StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		report.deletedEvents += deleted;
+		report.reclaimedEventBytes += offset;
+	}
+
+	/**
+	 * @return the index of a segment, rebuilt if it doesn't cover the segment
+	 */
+	private List<IndexEntry> getIndex(File segment) throws IOException {
+		List<IndexEntry> index = indexes.get(segment);
+		if (index == null) {
+			index = readIndex(segment);
+		}
+		if (getEnd(index) != segment.length()) {
+			index = rebuildIndex(segment);
+		}
+		indexes.put(segment, index);
+		return index;
+	}
+
+	private List<IndexEntry> readIndex(File segment) throws IOException {
+		List<IndexEntry> index = new ArrayList<IndexEntry>();
+		File indexFile = getIndexFile(segment);
+		if (!indexFile.exists()) {
+			return index;
+		}
+		try (BufferedReader reader = Files.newBufferedReader(
+				indexFile.toPath(), UTF8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				index.add(JsonMappers.reader(IndexEntry.class)
+						.<IndexEntry> readValue(line));
+			}
+		} catch (IOException e) {
+			// a partially written entry leaves the index stale
+		}
+		return index;
+	}
+
+	/**
+	 * Indexes the frames of a compressed segment, or batches of lines of an
+	 * uncompressed segment, and replaces the index file.
+	 */
+	private List<IndexEntry> rebuildIndex(File segment) throws IOException {
+		List<IndexEntry> index = new ArrayList<IndexEntry>();
+		Compression segmentCompression = Compression.forFile(segment
+				.getName());
+		long length = segment.length();
+		long offset = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(segment)))) {
+			while (offset < length) {
+				Frame unit;
+				if (segmentCompression == Compression.NONE) {
+					ByteArrayOutputStream batch = new ByteArrayOutputStream();
+					for (int i = 0; i < REBUILD_LINES; i++) {
+						byte[] line = readLine(in);
+						if (line.length == 0) {
+							break;
+						}
+						batch.write(line);
+					}
+					unit = batch.size() == 0 ? null : new Frame(
+							batch.toByteArray(), batch.size());
+				} else {
+					unit = readFrame(in, length - offset, segmentCompression);
+				}
+				if (unit == null) {
+					break;
+				}
+				IndexEntry entry = new IndexEntry();
+				int position = 0;
+				while (position < unit.lines.length) {
+					int end = position;
+					while (end < unit.lines.length
+							&& unit.lines[end++] != '\n') {
+						// finds the end of the line
+					}
+					add(entry, parse(unit.lines, position, end - position));
+					position = end;
+				}
+				entry.offset = offset;
+				entry.length = (int) unit.length;
+				index.add(entry);
+				offset += unit.length;
+			}
+		}
+		File indexFile = getIndexFile(segment);
+		File temp = new File(indexFile.getPath() + ".tmp");
+		List<String> lines = new ArrayList<String>();
+		for (IndexEntry entry : index) {
+			lines.add(JsonMappers.COMPACT.writeValueAsString(entry));
+		}
+		Files.write(temp.toPath(), lines, UTF8);
+		Files.move(temp.toPath(), indexFile.toPath(),
+				StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		return index;
+	}
+
+	private static void add(IndexEntry entry, EventInfo info) {
+		entry.count++;
+		entry.min = Math.min(entry.min, info.timestamp);
+		entry.max = Math.max(entry.max, info.timestamp);
+		if (info.reporterName != null) {
+			entry.reporters.add(info.reporterName);
+		}
+		if (info.type != null) {
+			entry.types.add(info.type);
+		}
+	}
+
+	private static long getEnd(List<IndexEntry> index) {
+		if (index.isEmpty()) {
+			return 0;
+		}
+		IndexEntry last = index.get(index.size() - 1);
+		return last.offset + last.length;
+	}
+
+	private static long getMin(List<IndexEntry> index) {
+		long min = Long.MAX_VALUE;
+		for (IndexEntry entry : index) {
+			min = Math.min(min, entry.min);
+		}
+		return min;
+	}
+
+	private static long getMax(List<IndexEntry> index) {
+		long max = Long.MIN_VALUE;
+		for (IndexEntry entry : index) {
+			max = Math.max(max, entry.max);
+		}
+		return max;
+	}
+
+	/**
+	 * Decompressed lines of a frame, or a line of an uncompressed log.
+	 */
+	private static class Frame {
+		final byte[] lines;
+		// length in the log
+		final long length;
+
+		Frame(byte[] lines, long length) {
+			this.lines = lines;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * @return the next frame, or null if there is no complete frame
+	 */
+	private static Frame readFrame(DataInputStream in, long remaining,
+			Compression frameCompression) throws IOException {
+		if (remaining < 4) {
+			return null;
+		}
+		int length = in.readInt();
+		if (length < 0 || length > remaining - 4) {
+			return null;
+		}
+		byte[] compressed = new byte[length];
+		in.readFully(compressed);
+		ByteArrayOutputStream lines = new ByteArrayOutputStream(length * 4);
+		try (InputStream frame = frameCompression
+				.decompress(new ByteArrayInputStream(compressed))) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = frame.read(buffer)) != -1) {
+				lines.write(buffer, 0, read);
+			}
+		}
+		return new Frame(lines.toByteArray(), 4 + length);
+	}
+
+	/**
+	 * @return the next line with its line break, empty at the end
+	 */
+	private static byte[] readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int c;
+		while ((c = in.read()) != -1) {
+			line.write(c);
+			if (c == '\n') {
+				break;
+			}
+		}
+		return line.toByteArray();
+	}
+
+	/**
+	 * Cuts off an incomplete frame at the end of a compressed log, that was
+	 * left by an interrupted append.
+	 */
+	private static void cutIncompleteFrame(File log) throws IOException {
+		if (!log.exists()) {
+			return;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+			long length = raf.length();
+			long position = 0;
+			while (position + 4 <= length) {
+				raf.seek(position);
+				int frame = raf.readInt();
+				if (frame < 0 || position + 4 + frame > length) {
+					break;
+				}
+				position += 4 + frame;
+			}
+			if (position < length) {
+				raf.setLength(position);
+			}
+		}
+	}
+
+	/**
+	 * Cuts off an incomplete line at the end of an uncompressed log, that was
+	 * left by an interrupted append, so that it isn't merged with the first
+	 * line of the next append.
+	 */
+	private static void cutIncompleteLine(File log) throws IOException {
+		if (!log.exists()) {
+			return;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+			long length = raf.length();
+			long end = length;
+			byte[] buffer = new byte[8192];
+			boolean found = false;
+			while (end > 0 && !found) {
+				int read = (int) Math.min(buffer.length, end);
+				raf.seek(end - read);
+				raf.readFully(buffer, 0, read);
+				int i = read;
+				while (i > 0 && buffer[i - 1] != '\n') {
+					i--;
+				}
+				found = i > 0;
+				end -= read - i;
+			}
+			if (end < length) {
+				raf.setLength(end);
+			}
+		}
+	}
+
+	/**
+	 * @return a stream of the uncompressed lines of a log
+	 */
+	private InputStream open(final File log) throws IOException {
+		final Compression logCompression = Compression.forFile(log.getName());
+		if (logCompression == Compression.NONE) {
+			return new FileInputStream(log);
+		}
+		final long length = log.length();
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(log)));
+		// decompresses one frame after the other
+		return new InputStream() {
+			private byte[] lines = new byte[0];
+			private int position = 0;
+			private long offset = 0;
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				while (position == lines.length) {
+					Frame next;
+					try {
+						next = readFrame(in, length - offset, logCompression);
+					} catch (EOFException e) {
+						next = null;
+					}
+					if (next == null) {
+						return -1;
+					}
+					offset += next.length;
+					lines = next.lines;
+					position = 0;
+				}
+				int read = Math.min(len, lines.length - position);
+				System.arraycopy(lines, position, b, off, read);
+				position += read;
+				return read;
+			}
+
+			@Override
+			public void close() throws IOException {
+				in.close();
+			}
+		};
+	}
+
+	/**
+	 * @return the existing segments, the oldest first: the log files of older
+	 *         versions, then the segments by their hour
+	 */
+	private List<File> getSegments() {
+		List<File> logs = new ArrayList<File>();
+		for (Compression logCompression : Compression.values()) {
+			File log = new File(file.getPath() + logCompression.suffix);
+			if (log.exists()) {
+				logs.add(log);
+			}
+		}
+		Collections.sort(logs, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		List<File> segments = new ArrayList<File>();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File segment : files) {
+				if (getSegmentHour(segment) != NO_HOUR) {
+					segments.add(segment);
+				}
+			}
+		}
+		Collections.sort(segments, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				int hour = Long.compare(getSegmentHour(o1),
+						getSegmentHour(o2));
+				return hour != 0 ? hour : Long.compare(o1.lastModified(),
+						o2.lastModified());
+			}
+		});
+		logs.addAll(segments);
+		return logs;
+	}
+
+	/**
+	 * @param timestamp
+	 *            timestamp of an event
+	 * @param segmentCompression
+	 * @return the segment of the hour of the event
+	 */
+	File getSegment(long timestamp, Compression segmentCompression) {
+		return new File(directory, hourFormat.format(getHour(timestamp))
+				+ SEGMENT_SUFFIX + segmentCompression.suffix);
+	}
+
+	/**
+	 * @return the first millisecond of the hour of a segment, or
+	 *         {@link #NO_HOUR} if the file is no segment
+	 */
+	private long getSegmentHour(File segment) {
+		if (!segment.getParentFile().equals(directory)) {
+			return NO_HOUR;
+		}
+		String name = Compression.stripSuffix(segment.getName());
+		if (!name.endsWith(SEGMENT_SUFFIX)) {
+			return NO_HOUR;
+		}
+		try {
+			return hourFormat.parse(
+					name.substring(0,
+							name.length() - SEGMENT_SUFFIX.length()))
+					.getTime();
+		} catch (ParseException e) {
+			return NO_HOUR;
+		}
+	}
+
+	private static File getIndexFile(File segment) {
+		return new File(segment.getPath() + INDEX_SUFFIX);
+	}
+
+	private static long getHour(long timestamp) {
+		long time = timestamp % HOUR;
+		return timestamp - (time < 0 ? time + HOUR : time);
+	}
+
+	private static int countLines(byte[] lines) {
+		int count = 0;
+		for (byte b : lines) {
+			if (b == '\n') {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the timestamp, reporter and type of an event, an invalid line
+	 *         counts as an event without them
+	 */
+	private static EventInfo parse(byte[] lines, int start, int length) {
+		EventInfo info = new EventInfo();
+		try (JsonParser parser = JsonMappers.createParser(new String(lines,
+				start, length, UTF8))) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				return info;
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				parser.nextToken();
+				if (name.equals("timestamp")) {
+					info.timestamp = parser.getValueAsLong();
+				} else if (name.equals("reporterName")) {
+					info.reporterName = parser.getValueAsString();
+				} else if (name.equals("type")) {
+					info.type = parser.getValueAsString();
+				} else {
+					parser.skipChildren();
+				}
+			}
+		} catch (IOException e) {
+			// keeps the fields parsed so far
+		}
+		return info;
+	}
+
+	/**
+	 * @return the timestamp of the last event of the lines, or 0 if it has
+	 *         none
+	 */
+	private static long getLastTimestamp(byte[] lines) {
+		int end = lines.length;
+		while (end > 0 && (lines[end - 1] == '\n' || lines[end - 1] == '\r')) {
+			end--;
+		}
+		int start = end;
+		while (start > 0 && lines[start - 1] != '\n') {
+			start--;
+		}
+		return parse(lines, start, end - start).timestamp;
+	}
+}
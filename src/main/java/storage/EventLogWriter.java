@@ -0,0 +1,192 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static configuration.Log.EXCEPTION_LOGGER;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+
+/**
+ * Buffers the events of the monitoring daemons and appends them to the
+ * {@link EventLog} in batches, after {@link #BATCH_EVENTS} events,
+ * {@link #BATCH_BYTES} bytes or {@link #MAX_DELAY} milliseconds. A
+ * compressed log gets one frame per batch instead of one per event, which
+ * also compresses much better.
+ * <p>
+ * The {@link Sync} policy decides when the appended batches are forced to
+ * the disk. Events that are still buffered are lost if the process is
+ * killed, at most those of the last {@link #MAX_DELAY} milliseconds.
+ */
+public class EventLogWriter {
+	/** Number of events after which the buffer is appended */
+	public static final int BATCH_EVENTS = 512;
+	/** Size after which the buffer is appended */
+	public static final int BATCH_BYTES = 1 << 16;
+	/** Maximal milliseconds an event is buffered */
+	public static final long MAX_DELAY = 1000;
+	/** Milliseconds between the syncs of {@link Sync#INTERVAL} */
+	public static final long SYNC_INTERVAL = 1000;
+
+	/**
+	 * When the appended events are forced to the disk.
+	 */
+	public enum Sync {
+		/** Left to the operating system */
+		NEVER,
+		/** At most once per {@link EventLogWriter#SYNC_INTERVAL} */
+		INTERVAL,
+		/** After each appended batch */
+		BATCH;
+
+		/**
+		 * @param name
+		 *            case insensitive name of the policy
+		 * @return the policy
+		 * @throws IllegalArgumentException
+		 *             if there is no policy with this name
+		 */
+		public static Sync parse(String name) {
+			return valueOf(name.trim().toUpperCase());
+		}
+	}
+
+	private final EventLog log;
+	private final Timer flushTimer;
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+			BATCH_BYTES);
+	private Sync sync = Sync.NEVER;
+	private int bufferedEvents = 0;
+	private long firstBuffered = 0;
+	private long lastSync = 0;
+	private long events = 0;
+	private long batches = 0;
+	private long syncs = 0;
+
+	/**
+	 * @param log
+	 *            log to append the batches to
+	 */
+	public EventLogWriter(EventLog log) {
+		this.log = log;
+		flushTimer = new Timer("Event log writer", true);
+		flushTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				flushIfDue();
+			}
+		}, MAX_DELAY / 2, MAX_DELAY / 2);
+	}
+
+	public synchronized void setSync(Sync sync) {
+		this.sync = sync;
+	}
+
+	public synchronized Sync getSync() {
+		return sync;
+	}
+
+	/**
+	 * Buffers events, the buffer is appended if the batch is full.
+	 * 
+	 * @param lines
+	 *            UTF-8 encoded events, each ending with a line break
+	 * @throws IOException
+	 */
+	public synchronized void append(byte[] lines) throws IOException {
+		if (bufferedEvents == 0) {
+			firstBuffered = System.currentTimeMillis();
+		}
+		buffer.write(lines, 0, lines.length);
+		for (byte b : lines) {
+			if (b == '\n') {
+				bufferedEvents++;
+				events++;
+			}
+		}
+		if (bufferedEvents >= BATCH_EVENTS || buffer.size() >= BATCH_BYTES) {
+			flush();
+		}
+	}
+
+	/**
+	 * Appends the buffered events to the log.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		if (buffer.size() == 0) {
+			return;
+		}
+		byte[] lines = buffer.toByteArray();
+		buffer.reset();
+		bufferedEvents = 0;
+		log.append(lines);
+		batches++;
+		long now = System.currentTimeMillis();
+		if (sync == Sync.BATCH
+				|| (sync == Sync.INTERVAL && now - lastSync >= SYNC_INTERVAL)) {
+			log.sync();
+			lastSync = now;
+			syncs++;
+		}
+	}
+
+	private synchronized void flushIfDue() {
+		if (bufferedEvents > 0
+				&& System.currentTimeMillis() - firstBuffered >= MAX_DELAY) {
+			try {
+				flush();
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception while writing the events", e);
+			}
+		}
+	}
+
+	/**
+	 * Appends the buffered events, forces them to the disk and closes the
+	 * log.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		flushTimer.cancel();
+		flush();
+		if (sync != Sync.NEVER) {
+			log.sync();
+		}
+		log.close();
+	}
+
+	/**
+	 * @return number of buffered events
+	 */
+	public synchronized int getBuffered() {
+		return bufferedEvents;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return events + " events in " + batches + " batches, "
+				+ bufferedEvents + " buffered, sync "
+				+ sync.name().toLowerCase() + " (" + syncs + " syncs)";
+	}
+}
@@ -18,23 +18,42 @@ package storage;
 
 import static configuration.Log.EXCEPTION_LOGGER;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 import model.Environment;
 import model.ExtractionResultCollection;
 import model.Part;
+
+import org.apache.commons.io.IOUtils;
+
 import utility.FileUtils;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 
 import configuration.Constants;
 
@@ -44,94 +63,132 @@ import configuration.Constants;
  */
 public class FileStorageInterface extends GeneralStorage {
 
+	private static final String ENVIRONMENT_PREFIX = "environment";
+	private static final String FILE_PREFIX = "file";
+	private static final String JSON_SUFFIX = ".json";
+	private static final String SMILE_SUFFIX = ".smile";
+
 	// maps file paths to UUIDs used to store the extractions.
-	private Map<String, String> pathToId;
+	private final PathIdIndex pathToId;
 	// maps to last used environment file number
 	private final Map<String, Integer> lastEnv = new HashMap<String, Integer>();
 	// maps to last used file part (profile UUID+ file UUID) tp file number
 	private final Map<String, Integer> lastFile = new HashMap<String, Integer>();
+	// roots the histories are spread over
+	private volatile ShardLayout layout;
+	// maps histories to the directories of their snapshots
+	private final Map<String, File> locations = new ConcurrentHashMap<String, File>();
 
 	
 	public FileStorageInterface() {
+		pathToId = new PathIdIndex(new File(Constants.OUTPUT_DIRECTORY,
+				"filetoid.journal"));
+		layout = ShardLayout.load(new File(Constants.OUTPUT_DIRECTORY));
 		initPathToId();
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Imports the mapping of file paths to ids from the JSON file written by
+	 * older versions into the journal of the {@link PathIdIndex}.
+	 */
 	public void initPathToId() {
+		File legacy = new File(Constants.OUTPUT_DIRECTORY, "filetoidmap.json");
+		if (!legacy.isFile()) {
+			return;
+		}
 		try {
 			// we must store and read the mapping of file paths to ids
 			// (althought it could be reconstructed from the extraction data
 			// themselves)
-			pathToId = initMapper().readValue(
-					new File(Constants.OUTPUT_DIRECTORY, "filetoidmap.json"),
-					HashMap.class);
+			pathToId.putAll(JsonMappers.reader(HashMap.class)
+					.<Map<String, String>> readValue(legacy));
+			legacy.delete();
 		} catch (IOException e) {
-			pathToId = new HashMap<String, String>();
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at importing filetoidmap.json", e);
 		}
 	}
 	
 
 	@Override
 	public void finalize() {
+		pathToId.close();
+		closePayloadStore();
+		closeBlobStore();
+		closeMetricStore();
+		closeEventLog();
+	}
+
+	@Override
+	public void save(String collection, String profileUUID, String type,
+			String path) {
+		Compression compression = getCompression();
+		File env = getNextFile(profileUUID, path, JSON_SUFFIX
+				+ compression.suffix);
 		try {
-			// we must store and read the mapping of file paths to ids
-			// (althought it could be reconstructed from the extraction data
-			// themselves)
-			initMapper().writeValue(
-					new File(Constants.OUTPUT_DIRECTORY, "filetoidmap.json"),
-					pathToId);
+			writeRecord(env, collection.getBytes(), compression);
 		} catch (IOException e) {
-			EXCEPTION_LOGGER.log(Level.SEVERE, "Exception at finalize()", e);
+			EXCEPTION_LOGGER.log(Level.SEVERE, "Exception at save", e);
 		}
 	}
 
 	@Override
-	public void save(String collection, String profileUUID, String type,
+	protected void save(byte[] collection, String profileUUID, String type,
 			String path) {
-		File out = new File(Constants.OUTPUT_DIRECTORY, profileUUID);
-		FileUtils.createDirectory(out.toPath());
+		Compression compression = getCompression();
+		File env = getNextFile(profileUUID, path, SMILE_SUFFIX
+				+ compression.suffix);
+		try {
+			writeRecord(env, collection, compression);
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE, "Exception at save", e);
+		}
+	}
+
+	@Override
+	public boolean isBinaryFormatSupported() {
+		return true;
+	}
+
+	/**
+	 * Returns the file for the next snapshot of an environment or a part.
+	 * 
+	 * @param profileUUID
+	 * @param path
+	 *            path of the part, or null for the environment
+	 * @param suffix
+	 *            file name suffix of the format
+	 * @return file to write the snapshot to
+	 */
+	private synchronized File getNextFile(String profileUUID, String path,
+			String suffix) {
 		if (path == null) {
+			File out = getEnvironmentDirectory(profileUUID);
+			FileUtils.createDirectory(out.toPath());
 			int le = 0;
 			if (lastEnv.containsKey(profileUUID)) {
 				le = lastEnv.get(profileUUID);
 				le++;
 				lastEnv.put(profileUUID, le);
 			} else {
-				String[] envs = out.list(new FilenameFilter() {
-					@Override
-					public boolean accept(File dir, String name) {
-						if (name.startsWith("environment"))
-							return true;
-						return false;
-					}
-				});
+				String[] envs = listRecords(out, ENVIRONMENT_PREFIX);
 				if (envs.length > 0) {
-					Arrays.sort(envs);
-					le = Integer
-							.parseInt(envs[envs.length - 1].substring(
-									"environment".length(),
-									"environment".length() + 8));
+					le = getNumber(envs[envs.length - 1], ENVIRONMENT_PREFIX);
 					le++;
 				} else {
 					le = 0;
 				}
 				lastEnv.put(profileUUID, le);
 			}
-			File env = new File(out, "environment" + String.format("%08d", le)
-					+ ".json");
-			try {
-				org.apache.commons.io.FileUtils.writeStringToFile(env,
-						collection);
-			} catch (IOException e) {
-				EXCEPTION_LOGGER.log(Level.SEVERE, "Exception at save", e);
-			}
+			return new File(out, ENVIRONMENT_PREFIX
+					+ String.format("%08d", le) + suffix);
 		} else {
 			String id = pathToId.get(path);
 			if (id == null) {
 				id = UUID.randomUUID().toString();
 				pathToId.put(path, id);
 			}
-			File partOut = new File(out, id);
+			File partOut = getPartDirectory(profileUUID, id);
 			FileUtils.createDirectory(partOut.toPath());
 
 			int le;
@@ -140,40 +197,222 @@ public class FileStorageInterface extends GeneralStorage {
 				le++;
 				lastFile.put(profileUUID + id, le);
 			} else {
-				String[] envs = partOut.list(new FilenameFilter() {
-					@Override
-					public boolean accept(File dir, String name) {
-						if (name.startsWith("file"))
-							return true;
-						return false;
-					}
-				});
+				String[] envs = listRecords(partOut, FILE_PREFIX);
 				if (envs.length > 0) {
-					Arrays.sort(envs);
-					String string = envs[envs.length - 1]
-							.replaceAll("file", "").replaceAll(".json", "");
-					le = Integer.parseInt(string);
+					le = getNumber(envs[envs.length - 1], FILE_PREFIX);
 					le++;
 				} else {
 					le = 0;
 				}
 				lastFile.put(profileUUID + id, le);
 			}
-			File env = new File(partOut, "file" + String.format("%08d", le)
-					+ ".json");
-			try {
-				org.apache.commons.io.FileUtils.writeStringToFile(env,
-						collection);
-			} catch (IOException e) {
-				EXCEPTION_LOGGER.log(Level.SEVERE, "Exception at save", e);
-			}
+			return new File(partOut, FILE_PREFIX + String.format("%08d", le)
+					+ suffix);
 		}
 	}
 
 	@Override
 	public void deleteAllMetadata() {
+		pathToId.clear();
+		resetPayloadStore();
+		resetBlobStore();
+		resetMetricStore();
+		resetEventLog();
 		FileUtils.deleteDirectory(Constants.OUTPUT_DIRECTORY);
 		FileUtils.createDirectory(Constants.OUTPUT_DIRECTORY);
+		ShardLayout current = layout;
+		// only the snapshot directories, the other roots may hold other data
+		List<File> directories = current.getSnapshotDirectories();
+		for (File directory : directories.subList(1, directories.size())) {
+			FileUtils.deleteDirectory(directory.getPath());
+			FileUtils.createDirectory(directory.toPath());
+		}
+		saveLayout(current);
+		locations.clear();
+		resetCodec();
+		invalidateResultCache();
+	}
+
+	@Override
+	public boolean isShardingSupported() {
+		return true;
+	}
+
+	@Override
+	public List<File> getStorageRoots() {
+		return layout.getRoots();
+	}
+
+	/**
+	 * The histories that are already stored stay at their roots, until the
+	 * storage is rebalanced.
+	 */
+	@Override
+	public synchronized void setStorageRoots(List<File> roots) {
+		List<File> all = new ArrayList<File>();
+		all.add(layout.getPrimary());
+		all.addAll(roots);
+		ShardLayout changed = new ShardLayout(all);
+		for (File directory : changed.getSnapshotDirectories()) {
+			FileUtils.createDirectory(directory.toPath());
+		}
+		saveLayout(changed);
+		layout = changed;
+		locations.clear();
+	}
+
+	private static void saveLayout(ShardLayout layout) {
+		try {
+			layout.save();
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at saving the storage roots", e);
+		}
+	}
+
+	/**
+	 * Moves each history, that isn't stored at the root it is placed on, to
+	 * that root. New snapshots can't be saved meanwhile.
+	 */
+	@Override
+	public synchronized int rebalance() throws IOException {
+		ShardLayout current = layout;
+		int moved = 0;
+		for (File profile : getProfileDirectories()) {
+			String profileUUID = profile.getName();
+			if (listRecords(profile, ENVIRONMENT_PREFIX).length > 0) {
+				File target = new File(current.place(profileUUID),
+						profileUUID);
+				if (!target.equals(profile)
+						&& moveRecords(profile, target, ENVIRONMENT_PREFIX)) {
+					moved++;
+				}
+			}
+			for (File part : profile.listFiles()) {
+				if (!part.isDirectory()
+						|| listRecords(part, FILE_PREFIX).length == 0) {
+					continue;
+				}
+				File target = new File(new File(current.place(profileUUID
+						+ "/" + part.getName()), profileUUID), part.getName());
+				if (!target.equals(part)
+						&& moveRecords(part, target, FILE_PREFIX)) {
+					part.delete();
+					moved++;
+				}
+			}
+			if (!profile.getParentFile().equals(current.getPrimary())) {
+				// only succeeds if nothing is left
+				profile.delete();
+			}
+		}
+		locations.clear();
+		invalidateResultCache();
+		return moved;
+	}
+
+	/**
+	 * Copies the snapshot files of a history to another directory and deletes
+	 * them afterwards. The copies get their final names only after all files
+	 * were copied.
+	 * 
+	 * @return false, if the target has snapshots already
+	 */
+	private boolean moveRecords(File source, File target, final String prefix)
+			throws IOException {
+		if (listRecords(target, prefix).length > 0) {
+			EXCEPTION_LOGGER.log(Level.WARNING, "Not moving " + source
+					+ ", " + target + " has snapshots already");
+			return false;
+		}
+		FileUtils.createDirectory(target.toPath());
+		String[] names = source.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(prefix) && !name.endsWith(".tmp");
+			}
+		});
+		for (String name : names) {
+			Files.copy(new File(source, name).toPath(), new File(target,
+					name + ".tmp").toPath(),
+					StandardCopyOption.COPY_ATTRIBUTES,
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		for (String name : names) {
+			Files.move(new File(target, name + ".tmp").toPath(), new File(
+					target, name).toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		for (String name : names) {
+			Files.delete(new File(source, name).toPath());
+		}
+		return true;
+	}
+
+	/**
+	 * @return the directories of the profiles at all roots
+	 */
+	private List<File> getProfileDirectories() {
+		List<File> profiles = new ArrayList<File>();
+		for (File directory : layout.getSnapshotDirectories()) {
+			File[] files = directory.listFiles();
+			if (files == null) {
+				continue;
+			}
+			for (File file : files) {
+				if (file.isDirectory()) {
+					profiles.add(file);
+				}
+			}
+		}
+		return profiles;
+	}
+
+	/**
+	 * @return directory of the environment snapshots of a profile
+	 */
+	private File getEnvironmentDirectory(String profileUUID) {
+		return locate(profileUUID, profileUUID, ENVIRONMENT_PREFIX);
+	}
+
+	/**
+	 * @return directory of the snapshots of a part
+	 */
+	private File getPartDirectory(String profileUUID, String id) {
+		return locate(profileUUID + File.separator + id, profileUUID + "/"
+				+ id, FILE_PREFIX);
+	}
+
+	/**
+	 * Finds the directory of a history. A history stays at the root its
+	 * snapshots were written to first, until the storage is rebalanced.
+	 * 
+	 * @param relativePath
+	 *            directory of the history relative to the root
+	 * @param history
+	 *            key of the placement
+	 * @param prefix
+	 *            prefix of the snapshot files
+	 * @return directory of the history
+	 */
+	private File locate(String relativePath, String history, String prefix) {
+		File located = locations.get(history);
+		if (located != null) {
+			return located;
+		}
+		ShardLayout current = layout;
+		located = new File(current.place(history), relativePath);
+		if (current.isSharded() && listRecords(located, prefix).length == 0) {
+			for (File snapshots : current.getSnapshotDirectories()) {
+				File directory = new File(snapshots, relativePath);
+				if (listRecords(directory, prefix).length > 0) {
+					located = directory;
+					break;
+				}
+			}
+		}
+		locations.put(history, located);
+		return located;
 	}
 
 	/**
@@ -185,65 +424,594 @@ public class FileStorageInterface extends GeneralStorage {
 	public String[] getRawResults(ExtractionResultCollection coll) {
 		LinkedList<String> res = new LinkedList<String>();
 
-		File out = new File(Constants.OUTPUT_DIRECTORY, coll.profileUUID);
-		FileUtils.createDirectory(out.toPath());
+		File directory;
+		String[] envs;
 		if (coll instanceof Part) {
-			if (pathToId.size()==0)
-				initPathToId();
 			Part part = (Part) coll;
 			String path = part.getPath();
 			String id = pathToId.get(path);
 			if (id == null)
 				return new String[0];
-			File partOut = new File(out, id);
-			FileUtils.createDirectory(partOut.toPath());
-			String[] envs = partOut.list(new FilenameFilter() {
-				@Override
-				public boolean accept(File dir, String name) {
-					if (name.startsWith("file"))
-						return true;
-					return false;
+			directory = getPartDirectory(coll.profileUUID, id);
+			envs = listRecords(directory, FILE_PREFIX);
+		} else if (coll instanceof Environment) {
+			directory = getEnvironmentDirectory(coll.profileUUID);
+			envs = listRecords(directory, ENVIRONMENT_PREFIX);
+		} else
+			return null;
+		for (String e : envs) {
+			try {
+				res.add(readRecord(new File(directory, e)));
+			} catch (IOException e1) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception at getRawResults", e1);
+			}
+		}
+		return resolvePayloads(res.toArray(new String[0]));
+	}
+
+	/**
+	 * Converts all snapshot files into the JSON or into the binary Smile
+	 * format. Each file is converted with a temporary file and an atomic
+	 * rename, before the original file is deleted.
+	 */
+	@Override
+	public synchronized int convertStoredData(boolean binary)
+			throws IOException {
+		int converted = 0;
+		for (File profile : getProfileDirectories()) {
+			converted += convertRecords(profile, ENVIRONMENT_PREFIX, binary);
+			File[] parts = profile.listFiles();
+			for (File part : parts) {
+				if (part.isDirectory()) {
+					converted += convertRecords(part, FILE_PREFIX, binary);
 				}
-			});
-			Arrays.sort(envs);
-			for (String e : envs) {
+			}
+		}
+		return converted;
+	}
+
+	private int convertRecords(File directory, String prefix, boolean binary)
+			throws IOException {
+		int converted = 0;
+		String suffix = binary ? SMILE_SUFFIX : JSON_SUFFIX;
+		Compression compression = getCompression();
+		for (String name : listRecords(directory, prefix)) {
+			String uncompressedName = Compression.stripSuffix(name);
+			if (uncompressedName.endsWith(suffix)) {
+				continue;
+			}
+			File source = new File(directory, name);
+			File target = new File(directory, uncompressedName.substring(0,
+					uncompressedName.lastIndexOf('.'))
+					+ suffix + compression.suffix);
+			File temp = new File(directory, target.getName() + ".tmp");
+			if (binary) {
+				writeRecord(temp, getCodec().encode(readRecord(source)),
+						compression);
+			} else {
+				writeRecord(temp, readRecord(source).getBytes(), compression);
+			}
+			// the modification time is the time of the snapshot
+			temp.setLastModified(source.lastModified());
+			Files.move(temp.toPath(), target.toPath(),
+					StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			Files.delete(source.toPath());
+			converted++;
+		}
+		return converted;
+	}
+
+	@Override
+	public boolean isConversionSupported() {
+		return true;
+	}
+
+	@Override
+	public boolean isSnapshotCompressionSupported() {
+		return true;
+	}
+
+	@Override
+	public boolean isCompactionSupported() {
+		return true;
+	}
+
+	/**
+	 * The snapshots of an environment or a part. Their documents in the
+	 * search index are replaced, after snapshots were deleted or rewritten.
+	 */
+	private class History {
+		final File directory;
+		final String prefix;
+		// the newest snapshot, to read the path of a part from
+		final File newest;
+		String path;
+		boolean changed;
+
+		History(File directory, String prefix, File newest) {
+			this.directory = directory;
+			this.prefix = prefix;
+			this.newest = newest;
+		}
+
+		/**
+		 * Marks the history as changed, before a snapshot is deleted or
+		 * rewritten.
+		 */
+		void change() {
+			if (!changed && isPart()) {
+				path = readPath(newest);
+			}
+			changed = true;
+		}
+
+		boolean isPart() {
+			return prefix.equals(FILE_PREFIX);
+		}
+
+		String getProfileUUID() {
+			return (isPart() ? directory.getParentFile() : directory)
+					.getName();
+		}
+	}
+
+	/**
+	 * A snapshot file, that may be deleted to reduce the total size.
+	 */
+	private static class SnapshotFile {
+		final File file;
+		final long time;
+		final long size;
+		// hashes of the referenced module results, null if unknown
+		Set<String> payloads;
+		History history;
+
+		SnapshotFile(File file) {
+			this.file = file;
+			this.time = file.lastModified();
+			this.size = file.length();
+		}
+	}
+
+	/**
+	 * Applies the policies to each history of snapshot files, and deletes the
+	 * oldest snapshots afterwards, if they and the module results they
+	 * reference exceed the maximal total size. Finally the module results,
+	 * that no kept snapshot references, are removed from the payload store,
+	 * and the changed histories are indexed again. The storage is only locked
+	 * while a single history is compacted.
+	 */
+	@Override
+	protected void compactSnapshots(RetentionPolicies policies,
+			CompactionReport report) {
+		startPayloadCollection();
+		List<History> histories = new ArrayList<History>();
+		List<SnapshotFile> kept = new ArrayList<SnapshotFile>();
+		List<SnapshotFile> removable = new ArrayList<SnapshotFile>();
+		long now = System.currentTimeMillis();
+		for (File profile : getProfileDirectories()) {
+			RetentionPolicy policy = policies.getPolicy(profile.getName());
+			histories.add(compactHistory(profile, ENVIRONMENT_PREFIX, policy,
+					policies, now, report, kept, removable));
+			File[] parts = profile.listFiles();
+			for (File part : parts) {
+				if (part.isDirectory()) {
+					histories.add(compactHistory(part, FILE_PREFIX, policy,
+							policies, now, report, kept, removable));
+				}
+			}
+		}
+		// hash of the module results -> number of kept snapshots referencing
+		// them
+		Map<String, Integer> references = new HashMap<String, Integer>();
+		long totalBytes = 0;
+		for (SnapshotFile snapshot : kept) {
+			totalBytes += snapshot.size;
+			if (snapshot.payloads == null) {
+				// the stored results can't be collected safely
+				references = null;
+			} else if (references != null) {
+				for (String hash : snapshot.payloads) {
+					Integer count = references.get(hash);
+					references.put(hash, count == null ? 1 : count + 1);
+				}
+			}
+		}
+		Map<String, Long> payloadBytes = new HashMap<String, Long>();
+		if (references != null) {
+			for (String hash : references.keySet()) {
 				try {
-					res.add(org.apache.commons.io.FileUtils
-							.readFileToString(new File(partOut, e)));
-				} catch (IOException e1) {
+					long bytes = getPayloadStore().getRecordLength(hash);
+					payloadBytes.put(hash, bytes);
+					totalBytes += bytes;
+				} catch (IOException e) {
 					EXCEPTION_LOGGER.log(Level.SEVERE,
-							"Exception at getRawResults", e1);
+							"Exception while reading the stored results", e);
 				}
 			}
-		} else if (coll instanceof Environment) {
-			String[] envs = out.list(new FilenameFilter() {
+		} else {
+			totalBytes += getPayloadFile().length();
+		}
+		if (policies.maxTotalBytes > 0 && totalBytes > policies.maxTotalBytes) {
+			Collections.sort(removable, new Comparator<SnapshotFile>() {
 				@Override
-				public boolean accept(File dir, String name) {
-					if (name.startsWith("environment"))
-						return true;
-					return false;
+				public int compare(SnapshotFile o1, SnapshotFile o2) {
+					return Long.compare(o1.time, o2.time);
 				}
 			});
-			Arrays.sort(envs);
-			for (String e : envs) {
-				try {
-					res.add(org.apache.commons.io.FileUtils
-							.readFileToString(new File(out, e)));
-				} catch (IOException e1) {
-					EXCEPTION_LOGGER.log(Level.SEVERE,
-							"Exception at getRawResults", e1);
+			for (SnapshotFile snapshot : removable) {
+				if (totalBytes <= policies.maxTotalBytes) {
+					break;
+				}
+				if (delete(snapshot, report)) {
+					totalBytes -= snapshot.size;
+					totalBytes -= release(snapshot, references, payloadBytes);
 				}
 			}
-		} else
+		}
+		if (references != null) {
+			report.reclaimedBytes += collectPayloadGarbage(references.keySet());
+		}
+		boolean reindexed = false;
+		for (History history : histories) {
+			if (history.changed) {
+				reindex(history);
+				reindexed = true;
+			}
+		}
+		if (reindexed) {
+			commitSearchIndex();
+		}
+	}
+
+	/**
+	 * Replaces the documents of a changed history in the search index.
+	 */
+	private synchronized void reindex(History history) {
+		if (history.isPart() && history.path == null) {
+			EXCEPTION_LOGGER.log(Level.WARNING, "Not indexing "
+					+ history.directory + " again, its path is unknown");
+			return;
+		}
+		List<String> snapshots = new ArrayList<String>();
+		for (String name : listRecords(history.directory, history.prefix)) {
+			try {
+				snapshots.add(readRecord(new File(history.directory, name)));
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE, "Exception while reading "
+						+ name, e);
+			}
+		}
+		reindex(history.getProfileUUID(), history.isPart() ? "file-dependent"
+				: "environment", history.path,
+				resolvePayloads(snapshots.toArray(new String[0])));
+	}
+
+	/**
+	 * @return the path of the part of a snapshot, or null if it can't be read
+	 */
+	private String readPath(File file) {
+		try {
+			JsonNode path = JsonMappers.TREE.<JsonNode> readValue(
+					readRecord(file)).get("path");
+			return path == null || path.isNull() ? null : path.asText();
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE, "Exception while reading "
+					+ file, e);
 			return null;
-		return res.toArray(new String[0]);
+		}
+	}
+
+	/**
+	 * Removes the references of a deleted snapshot.
+	 * 
+	 * @return size of the module results, that are no longer referenced
+	 */
+	private static long release(SnapshotFile snapshot,
+			Map<String, Integer> references, Map<String, Long> payloadBytes) {
+		if (references == null) {
+			return 0;
+		}
+		long released = 0;
+		for (String hash : snapshot.payloads) {
+			int count = references.get(hash) - 1;
+			if (count > 0) {
+				references.put(hash, count);
+			} else {
+				references.remove(hash);
+				Long bytes = payloadBytes.get(hash);
+				released += bytes == null ? 0 : bytes;
+			}
+		}
+		return released;
+	}
+
+	/**
+	 * Compacts the snapshots of one environment or part.
+	 * 
+	 * @param kept
+	 *            collects the kept snapshots with their references
+	 * @param removable
+	 *            collects the kept snapshots, except the newest
+	 * @return the history
+	 */
+	private synchronized History compactHistory(File directory,
+			String prefix, RetentionPolicy policy, RetentionPolicies policies,
+			long now, CompactionReport report, List<SnapshotFile> kept,
+			List<SnapshotFile> removable) {
+		report.histories++;
+		String[] names = listRecords(directory, prefix);
+		History history = new History(directory, prefix,
+				names.length == 0 ? null : new File(directory,
+						names[names.length - 1]));
+		List<SnapshotFile> snapshots = new ArrayList<SnapshotFile>();
+		for (String name : names) {
+			SnapshotFile snapshot = new SnapshotFile(new File(directory, name));
+			snapshot.history = history;
+			snapshots.add(snapshot);
+		}
+		boolean[] keep = policy.select(getTimes(snapshots), now);
+		List<SnapshotFile> remaining = new ArrayList<SnapshotFile>();
+		for (int i = 0; i < snapshots.size(); i++) {
+			if (keep[i] || !delete(snapshots.get(i), report)) {
+				remaining.add(snapshots.get(i));
+			}
+		}
+		if (!policies.modules.isEmpty()) {
+			remaining = removeModuleResults(remaining, policies, now, report);
+		}
+		for (int i = 0; i < remaining.size(); i++) {
+			SnapshotFile snapshot = remaining.get(i);
+			snapshot.payloads = getPayloads(snapshot.file);
+			kept.add(snapshot);
+			if (i < remaining.size() - 1) {
+				removable.add(snapshot);
+			}
+		}
+		return history;
+	}
+
+	/**
+	 * Removes the results of modules with own policies from the snapshots,
+	 * that the module policy doesn't keep. Snapshots without results are
+	 * deleted.
+	 * 
+	 * @return the remaining snapshots
+	 */
+	private List<SnapshotFile> removeModuleResults(
+			List<SnapshotFile> snapshots, RetentionPolicies policies,
+			long now, CompactionReport report) {
+		// module name -> indices of the snapshots with results of the module
+		Map<String, List<Integer>> moduleSnapshots = new HashMap<String, List<Integer>>();
+		for (int i = 0; i < snapshots.size(); i++) {
+			for (String module : getModuleNames(snapshots.get(i).file)) {
+				if (policies.getModulePolicy(module) == null) {
+					continue;
+				}
+				List<Integer> indices = moduleSnapshots.get(module);
+				if (indices == null) {
+					indices = new ArrayList<Integer>();
+					moduleSnapshots.put(module, indices);
+				}
+				indices.add(i);
+			}
+		}
+		// snapshot index -> modules to remove from it
+		Map<Integer, Set<String>> removals = new HashMap<Integer, Set<String>>();
+		for (Entry<String, List<Integer>> entry : moduleSnapshots.entrySet()) {
+			List<Integer> indices = entry.getValue();
+			long[] times = new long[indices.size()];
+			for (int i = 0; i < times.length; i++) {
+				times[i] = snapshots.get(indices.get(i)).time;
+			}
+			boolean[] keep = policies.getModulePolicy(entry.getKey()).select(
+					times, now);
+			for (int i = 0; i < keep.length; i++) {
+				if (!keep[i]) {
+					Set<String> modules = removals.get(indices.get(i));
+					if (modules == null) {
+						modules = new HashSet<String>();
+						removals.put(indices.get(i), modules);
+					}
+					modules.add(entry.getKey());
+				}
+			}
+		}
+		List<SnapshotFile> remaining = new ArrayList<SnapshotFile>();
+		for (int i = 0; i < snapshots.size(); i++) {
+			SnapshotFile snapshot = snapshots.get(i);
+			Set<String> modules = removals.get(i);
+			if (modules == null) {
+				remaining.add(snapshot);
+				continue;
+			}
+			try {
+				snapshot = removeResults(snapshot, modules, report);
+				if (snapshot != null) {
+					remaining.add(snapshot);
+				}
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception while compacting " + snapshot.file, e);
+				remaining.add(snapshot);
+			}
+		}
+		return remaining;
+	}
+
+	/**
+	 * Rewrites a snapshot without the results of some modules, or deletes it
+	 * if no results remain.
+	 * 
+	 * @return the rewritten snapshot, or null if it was deleted
+	 */
+	private SnapshotFile removeResults(SnapshotFile snapshot,
+			Set<String> modules, CompactionReport report) throws IOException {
+		JsonNode tree = JsonMappers.TREE.readValue(readRecord(snapshot.file));
+		int remaining = 0;
+		Iterator<JsonNode> results = tree.path("extractionResults")
+				.elements();
+		StringBuilder removed = new StringBuilder();
+		while (results.hasNext()) {
+			JsonNode result = results.next();
+			if (modules.contains(result.path("moduleName").asText())) {
+				results.remove();
+				removed.append(result.toString());
+				report.removedResults++;
+			} else {
+				remaining++;
+			}
+		}
+		if (remaining == 0) {
+			return delete(snapshot, report) ? null : snapshot;
+		}
+		snapshot.history.change();
+		File temp = new File(snapshot.file.getPath() + ".tmp");
+		String name = snapshot.file.getName();
+		Compression compression = Compression.forFile(name);
+		if (Compression.stripSuffix(name).endsWith(SMILE_SUFFIX)) {
+			writeRecord(temp, getCodec().encode(tree), compression);
+		} else {
+			writeRecord(temp, JsonMappers.writer(isIndentedOutput())
+					.writeValueAsBytes(tree), compression);
+		}
+		// the modification time is the time of the snapshot
+		temp.setLastModified(snapshot.time);
+		Files.move(temp.toPath(), snapshot.file.toPath(),
+				StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		releaseExternalData(removed.toString());
+		SnapshotFile rewritten = new SnapshotFile(snapshot.file);
+		rewritten.history = snapshot.history;
+		report.rewrittenSnapshots++;
+		report.reclaimedBytes += snapshot.size - rewritten.size;
+		return rewritten;
+	}
+
+	/**
+	 * @return the names of the modules with results in a snapshot
+	 */
+	private Set<String> getModuleNames(File file) {
+		Set<String> names = new HashSet<String>();
+		try {
+			ResultStreamReader.readModuleNames(readRecord(file), names);
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE, "Exception while reading "
+					+ file, e);
+		}
+		return names;
+	}
+
+	/**
+	 * @return the hashes of the module results referenced by a snapshot, or
+	 *         null if it can't be read
+	 */
+	private Set<String> getPayloads(File file) {
+		Set<String> hashes = new HashSet<String>();
+		try {
+			PayloadStore.collectReferences(readRecord(file), hashes);
+			return hashes;
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE, "Exception while reading "
+					+ file, e);
+			return null;
+		}
+	}
+
+	private static long[] getTimes(List<SnapshotFile> snapshots) {
+		long[] times = new long[snapshots.size()];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = snapshots.get(i).time;
+		}
+		return times;
+	}
+
+	/**
+	 * Deletes a snapshot and releases the external data it references.
+	 */
+	private boolean delete(SnapshotFile snapshot, CompactionReport report) {
+		String json = null;
+		if (getBlobStore().getBlobCount() > 0) {
+			try {
+				json = readRecord(snapshot.file);
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE, "Exception while reading "
+						+ snapshot.file, e);
+			}
+		}
+		snapshot.history.change();
+		if (snapshot.file.delete()) {
+			report.deletedSnapshots++;
+			report.reclaimedBytes += snapshot.size;
+			if (json != null) {
+				releaseExternalData(json);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Writes a snapshot file.
+	 */
+	private static void writeRecord(File file, byte[] data,
+			Compression compression) throws IOException {
+		try (OutputStream out = compression.compress(new BufferedOutputStream(
+				new FileOutputStream(file)))) {
+			out.write(data);
+		}
+	}
+
+	/**
+	 * Reads a snapshot file of any format and compression as JSON. The file
+	 * is decompressed while it is read.
+	 */
+	private String readRecord(File file) throws IOException {
+		Compression compression = Compression.forFile(file.getName());
+		try (InputStream in = compression.decompress(new BufferedInputStream(
+				new FileInputStream(file)))) {
+			if (Compression.stripSuffix(file.getName()).endsWith(SMILE_SUFFIX)) {
+				return getCodec().toJson(IOUtils.toByteArray(in),
+						isIndentedOutput());
+			}
+			return IOUtils.toString(in);
+		}
+	}
+
+	/**
+	 * Lists the snapshot files of a directory in chronological order. If a
+	 * snapshot exists in both formats, because a conversion was interrupted,
+	 * it is listed only once.
+	 */
+	private static String[] listRecords(File directory, final String prefix) {
+		String[] names = directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				String uncompressedName = Compression.stripSuffix(name);
+				return name.startsWith(prefix)
+						&& (uncompressedName.endsWith(JSON_SUFFIX) || uncompressedName
+								.endsWith(SMILE_SUFFIX));
+			}
+		});
+		if (names == null) {
+			return new String[0];
+		}
+		Arrays.sort(names);
+		LinkedList<String> records = new LinkedList<String>();
+		for (String name : names) {
+			if (records.isEmpty()
+					|| getNumber(records.getLast(), prefix) != getNumber(name,
+							prefix)) {
+				records.add(name);
+			}
+		}
+		return records.toArray(new String[0]);
 	}
 
-	private static ObjectMapper initMapper() {
-		ObjectMapper mapper = new ObjectMapper();
-		mapper.enable(SerializationFeature.INDENT_OUTPUT);
-		mapper.enable(SerializationFeature.CLOSE_CLOSEABLE);
-		mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-		return mapper;
+	private static int getNumber(String name, String prefix) {
+		return Integer.parseInt(name.substring(prefix.length(),
+				prefix.length() + 8));
 	}
 }
@@ -18,21 +18,27 @@ package storage;
 
 import static configuration.Log.EXCEPTION_LOGGER;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 
 import javax.swing.tree.DefaultMutableTreeNode;
@@ -43,10 +49,14 @@ import model.KeyValueResult;
 import model.Part;
 import model.Profile;
 
+import org.apache.commons.io.IOUtils;
+
+import utility.FileUtils;
+
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.StdDateFormat;
 
 import configuration.Constants;
 import configuration.Log;
@@ -83,99 +93,836 @@ public abstract class GeneralStorage {
 	 */
 	public ExtractionResultCollection[] getResults(
 			ExtractionResultCollection coll) {
-		String[] raw = getRawResults(coll);
+		String[] raw = getSnapshots(coll);
 		LinkedList<ExtractionResultCollection> l = convertRawResults(raw);
 		return l.toArray(new ExtractionResultCollection[0]);
 
 	}
 
-	public void storeEventData(byte[] lines) {
-
-		File file = new File(Constants.EVENT_STORAGE_FILE);
+	/**
+	 * Cached variant of {@link #getRawResults}, used by the views that read
+	 * the same collection again and again.
+	 * 
+	 * @param coll
+	 * @return raw string results
+	 */
+	public String[] getSnapshots(ExtractionResultCollection coll) {
+		return getCacheEntry(coll).snapshots;
+	}
+
+	/**
+	 * @param coll
+	 * @return the cached snapshots of the collection, read from the backend
+	 *         if they aren't cached
+	 */
+	protected ResultCache.Entry getCacheEntry(ExtractionResultCollection coll) {
+		String key = ResultCache.key(coll);
+		ResultCache.Entry entry = resultCache.getIfPresent(key);
+		if (entry == null) {
+			long generation = resultCache.getGeneration();
+			String[] snapshots = getRawResults(coll);
+			entry = resultCache.put(key, snapshots == null ? new String[0]
+					: snapshots, generation);
+		}
+		return entry;
+	}
+
+	/**
+	 * Structural differences between the successive snapshots of a collection,
+	 * for the change view. The differences are cached and extended at each
+	 * save, instead of being computed again.
+	 * 
+	 * @param coll
+	 * @return one difference per snapshot after the first, oldest first
+	 */
+	public List<SnapshotDiff> getDiffs(ExtractionResultCollection coll) {
+		try {
+			return getCacheEntry(coll).getDiffs();
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at comparing the snapshots", e);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * @return the cache of the read snapshots and their projections
+	 */
+	public ResultCache getResultCache() {
+		return resultCache;
+	}
+
+	/**
+	 * Empties the cache of the read snapshots, must be called when snapshots
+	 * are deleted or changed by other means than {@link #save}.
+	 */
+	public void invalidateResultCache() {
+		resultCache.invalidateAll();
+	}
+
+	/**
+	 * Buffers events, they are appended to the log in batches by the
+	 * {@link EventLogWriter}.
+	 * 
+	 * @param lines
+	 *            UTF-8 encoded events, each ending with a line break
+	 */
+	public void storeEventData(byte[] lines) {
+		try {
+			getEventWriter().append(lines);
+		} catch (IOException e) {
+			Log.EXCEPTION_LOGGER.log(Level.SEVERE, "Error writing file", e);
+		}
+	}
+
+	/**
+	 * Reads the events, decompressing one line or frame after the other.
+	 * 
+	 * @return the logged events, or null if no events were logged
+	 */
+	public List<String> readEventData() {
+		try {
+			getEventWriter().flush();
+			return getEventLog().readLines();
+		} catch (IOException e) {
+			Log.EXCEPTION_LOGGER.log(Level.SEVERE, "Error reading file", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the events of a time range from the index of the event log, the
+	 * cost depends on the number of matching events.
+	 * 
+	 * @param from
+	 *            oldest timestamp
+	 * @param to
+	 *            newest timestamp
+	 * @param reporterName
+	 *            name of the reporter of the events, or null for all
+	 * @param type
+	 *            type of the events, or null for all
+	 * @param limit
+	 *            maximal number of events, 0 for no limit
+	 * @return the matching events from the oldest to the newest, or null if
+	 *         they couldn't be read
+	 */
+	public List<String> queryEventData(long from, long to,
+			String reporterName, String type, int limit) {
+		try {
+			getEventWriter().flush();
+			return getEventLog().query(from, to, reporterName, type, limit);
+		} catch (IOException e) {
+			Log.EXCEPTION_LOGGER.log(Level.SEVERE, "Error reading file", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the log of the events
+	 */
+	protected synchronized EventLog getEventLog() {
+		if (eventLog == null) {
+			eventLog = new EventLog(new File(Constants.EVENT_STORAGE_FILE));
+			eventLog.setCompression(compression);
+		}
+		return eventLog;
+	}
+
+	/**
+	 * @return the writer buffering the events for the log
+	 */
+	public synchronized EventLogWriter getEventWriter() {
+		if (eventWriter == null) {
+			eventWriter = new EventLogWriter(getEventLog());
+		}
+		return eventWriter;
+	}
+
+	/**
+	 * Appends the buffered events and closes the event log, called by
+	 * {@link #finalize()}.
+	 */
+	protected synchronized void closeEventLog() {
+		if (eventWriter != null) {
+			try {
+				eventWriter.close();
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception while closing the event log", e);
+			}
+			eventWriter = null;
+		}
+	}
+
+	/**
+	 * Appends the buffered events, closes the event log and drops it with its
+	 * cached indexes, called by {@link #deleteAllMetadata()} before the log
+	 * is deleted. The next event opens a new log with the same sync policy.
+	 */
+	protected synchronized void resetEventLog() {
+		EventLogWriter.Sync sync = eventWriter != null ? eventWriter.getSync()
+				: null;
+		closeEventLog();
+		if (eventLog != null) {
+			try {
+				eventLog.close();
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception while closing the event log", e);
+			}
+			eventLog = null;
+		}
+		if (sync != null) {
+			getEventWriter().setSync(sync);
+		}
+	}
+
+	/**
+	 * Backends that can compress their snapshots return true here, and
+	 * compress them with {@link #getCompression()}.
+	 * 
+	 * @return true, if the snapshots are compressed, too
+	 */
+	public boolean isSnapshotCompressionSupported() {
+		return false;
+	}
+
+	/**
+	 * Selects the compression of the new events and, if supported, of the new
+	 * snapshots. Stored data is read in any compression.
+	 * 
+	 * @param compression
+	 */
+	public synchronized void setCompression(Compression compression) {
+		this.compression = compression;
+		getEventLog().setCompression(compression);
+	}
+
+	public synchronized Compression getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Stores external data, like a screenshot, in the {@link BlobStore}.
+	 * Identical data is stored only once.
+	 * 
+	 * @param data
+	 * @return id of the data, to be referenced by the extraction results
+	 */
+	public String storeExternalData(byte[] data) {
+		if (data == null) {
+			return null;
+		}
+		return storeExternalData(new ByteArrayInputStream(data));
+	}
+
+	/**
+	 * Stores external data from a stream, without holding it in memory.
+	 * 
+	 * @param data
+	 *            stream of the data, is closed
+	 * @return id of the data, or null if it couldn't be stored
+	 */
+	public String storeExternalData(InputStream data) {
+		try {
+			return getBlobStore().put(data);
+		} catch (IOException e) {
+			Log.EXCEPTION_LOGGER.log(Level.SEVERE, "Error writing file", e);
+			return null;
+		}
+	}
+
+	public byte[] readExternalData(String id) {
+		try (InputStream in = openExternalData(id)) {
+			if (in != null) {
+				return IOUtils.toByteArray(in);
+			}
+		} catch (IOException e) {
+			Log.EXCEPTION_LOGGER.log(Level.SEVERE, "Error reading file", e);
+		}
+		return null;
+	}
+
+	/**
+	 * @param id
+	 * @return stream of the external data, or null if there is no data with
+	 *         this id
+	 * @throws IOException
+	 */
+	public InputStream openExternalData(String id) throws IOException {
+		InputStream in = getBlobStore().open(id);
+		if (in == null) {
+			// data stored by older versions, named by a random UUID
+			File legacy = new File(Constants.OUTPUT_DIRECTORY, id);
+			if (legacy.isFile()) {
+				in = new FileInputStream(legacy);
+			}
+		}
+		return in;
+	}
+
+	/**
+	 * @return the file to store the external data
+	 */
+	protected File getBlobDirectory() {
+		return new File(Constants.OUTPUT_DIRECTORY, "blobs");
+	}
+
+	/**
+	 * @return the store of the external data
+	 */
+	public synchronized BlobStore getBlobStore() {
+		if (blobStore == null) {
+			blobStore = new BlobStore(getBlobDirectory());
+		}
+		return blobStore;
+	}
+
+	/**
+	 * Deletes the stored external data, must be called before the stored
+	 * data is deleted.
+	 */
+	protected synchronized void resetBlobStore() {
+		getBlobStore().clear();
+		blobStore = null;
+	}
+
+	/**
+	 * Closes the store of the external data, called by {@link #finalize()}.
+	 */
+	protected synchronized void closeBlobStore() {
+		if (blobStore != null) {
+			blobStore.close();
+		}
+	}
+
+	/**
+	 * @return the directory of the sampled system metrics
+	 */
+	protected File getMetricDirectory() {
+		return new File(Constants.OUTPUT_DIRECTORY, "metrics");
+	}
+
+	/**
+	 * @return the store of the sampled system metrics
+	 */
+	public synchronized MetricStore getMetricStore() {
+		if (metricStore == null) {
+			metricStore = new MetricStore(getMetricDirectory());
+		}
+		return metricStore;
+	}
+
+	/**
+	 * Deletes the sampled system metrics.
+	 */
+	protected synchronized void resetMetricStore() {
+		getMetricStore().clear();
+		metricStore = null;
+	}
+
+	/**
+	 * Writes and closes the sampled system metrics, called by
+	 * {@link #finalize()}.
+	 */
+	protected synchronized void closeMetricStore() {
+		if (metricStore != null) {
+			metricStore.close();
+		}
+	}
+
+	/**
+	 * Releases the external data referenced by a deleted snapshot, or by
+	 * removed results, so that it is deleted with its last reference.
+	 * 
+	 * @param json
+	 *            deleted results, with references to stored module results
+	 */
+	protected void releaseExternalData(String json) {
+		try {
+			getBlobStore().releaseAll(getPayloadStore().resolve(json));
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception while releasing external data", e);
+		}
+	}
+
+	private LinkedList<ExtractionResultCollection> convertRawResults(
+			String[] raw) {
+		LinkedList<ExtractionResultCollection> l = new LinkedList<ExtractionResultCollection>();
+		for (String r : raw) {
+			try {
+				l.add(getExtractionResultCollection(r));
+			} catch (IOException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}
+		return l;
+	}
+
+	private SearchIndex searchIndex;
+	private boolean binaryFormat = false;
+	private SmileCodec codec;
+	private PayloadStore payloadStore;
+	private final ReentrantReadWriteLock payloadLock = new ReentrantReadWriteLock();
+	private BlobStore blobStore;
+	private MetricStore metricStore;
+	private boolean searchIndexFailed = false;
+	private volatile WriteBehindQueue writeBehind;
+	private RetentionCompactor compactor;
+	private EventLog eventLog;
+	private EventLogWriter eventWriter;
+	private Compression compression = Compression.NONE;
+	private final ResultCache resultCache = new ResultCache();
+
+	public GeneralStorage() {
+	}
+
+	/**
+	 * The search index is opened at the first use.
+	 * 
+	 * @return index over the saved extraction results, or null if it can't be
+	 *         opened
+	 */
+	public synchronized SearchIndex getSearchIndex() {
+		if (searchIndex == null && !searchIndexFailed) {
+			try {
+				searchIndex = new SearchIndex(new File(
+						Constants.OUTPUT_DIRECTORY, "search_index"));
+			} catch (IOException e) {
+				searchIndexFailed = true;
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception at opening the search index", e);
+			}
+		}
+		return searchIndex;
+	}
+
+	/**
+	 * Searches the saved extraction results.
+	 * 
+	 * @param query
+	 *            query in Lucene syntax, see {@link SearchIndex}
+	 * @param maxHits
+	 *            maximal number of hits
+	 * @return hits ordered by relevance
+	 * @throws IllegalArgumentException
+	 *             if the query can't be parsed
+	 */
+	public List<SearchHit> search(String query, int maxHits) {
+		return search(query, null, null, maxHits);
+	}
+
+	/**
+	 * Searches the saved extraction results of a time range.
+	 * 
+	 * @param query
+	 *            query in Lucene syntax, see {@link SearchIndex}
+	 * @param from
+	 *            earliest extraction date, or null
+	 * @param to
+	 *            latest extraction date, or null
+	 * @param maxHits
+	 *            maximal number of hits
+	 * @return hits ordered by relevance
+	 * @throws IllegalArgumentException
+	 *             if the query can't be parsed
+	 */
+	public List<SearchHit> search(String query, Date from, Date to,
+			int maxHits) {
+		SearchIndex index = getSearchIndex();
+		if (index == null) {
+			return new ArrayList<SearchHit>();
+		}
+		return index.search(query, from, to, maxHits);
+	}
+
+	/**
+	 * Searches the paths of the parts with matching extraction results.
+	 * 
+	 * @param query
+	 *            query in Lucene syntax, see {@link SearchIndex}
+	 * @param maxHits
+	 *            maximal number of searched extraction results
+	 * @return paths of the matching parts
+	 */
+	public Set<String> searchPaths(String query, int maxHits) {
+		Set<String> paths = new LinkedHashSet<String>();
+		for (SearchHit hit : search(query, maxHits)) {
+			if (hit.path != null) {
+				paths.add(hit.path);
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * Commits and closes the search index.
+	 */
+	public synchronized void closeSearchIndex() {
+		if (searchIndex != null) {
+			searchIndex.close();
+			searchIndex = null;
+		}
+	}
+
+	/**
+	 * Deletes the search index. It is recreated at the next use.
+	 */
+	public synchronized void deleteSearchIndex() {
+		closeSearchIndex();
+		FileUtils.deleteDirectory(new File(Constants.OUTPUT_DIRECTORY,
+				"search_index").getPath());
+		searchIndexFailed = false;
+	}
+
+	/**
+	 * Adds the results of a saved collection to the search index.
+	 */
+	private void index(ExtractionResultCollection collection,
+			String profileUUID, String type, String path) {
+		SearchIndex index = getSearchIndex();
+		if (index != null) {
+			index.add(collection, profileUUID, type, path);
+		}
+	}
+
+	/**
+	 * Replaces the documents of a part or an environment in the search index
+	 * with the results of its remaining snapshots, after snapshots of it were
+	 * deleted or rewritten. The index is committed by the caller.
+	 * 
+	 * @param snapshots
+	 *            the remaining resolved snapshots
+	 * @return number of indexed snapshots
+	 */
+	protected int reindex(String profileUUID, String type, String path,
+			String[] snapshots) {
+		SearchIndex index = getSearchIndex();
+		if (index == null) {
+			return 0;
+		}
+		index.delete(profileUUID, type, path);
+		int indexed = 0;
+		for (String snapshot : snapshots) {
+			try {
+				index.add(getExtractionResultCollection(snapshot),
+						profileUUID, type, path);
+				indexed++;
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception at indexing extraction results", e);
+			}
+		}
+		return indexed;
+	}
+
+	/**
+	 * Rebuilds the search index from the stored snapshots of the profiles,
+	 * e.g. to index the snapshots that were stored before the index existed.
+	 * 
+	 * @param profiles
+	 * @return number of indexed snapshots
+	 */
+	public int reindex(Collection<Profile> profiles) {
+		SearchIndex index = getSearchIndex();
+		if (index == null) {
+			return 0;
+		}
+		index.deleteAll();
+		int indexed = 0;
+		for (Profile profile : profiles) {
+			indexed += reindex(profile.getUUID(), "environment", null,
+					getSnapshots(profile.getEnvironment()));
+			for (Part part : profile.getParts()) {
+				indexed += reindex(profile.getUUID(), "file-dependent",
+						part.getPath(), getSnapshots(part));
+			}
+		}
+		index.commit();
+		return indexed;
+	}
+
+	/**
+	 * Commits the search index, if it is open.
+	 */
+	protected synchronized void commitSearchIndex() {
+		if (searchIndex != null) {
+			searchIndex.commit();
+		}
+	}
+
+	/**
+	 * Backends that store the collections in a compact format can return false
+	 * here, to save them without indentation.
+	 * 
+	 * @return true, if the saved collections should be indented
+	 */
+	protected boolean isIndentedOutput() {
+		return true;
+	}
+
+	/**
+	 * Backends that can store binary records return true here, and override
+	 * {@link #save(byte[], String, String, String)}.
+	 * 
+	 * @return true, if the backend supports the binary Smile format
+	 */
+	public boolean isBinaryFormatSupported() {
+		return false;
+	}
+
+	/**
+	 * @return true, if new collections are stored in the binary Smile format
+	 */
+	public boolean isBinaryFormat() {
+		return binaryFormat;
+	}
+
+	/**
+	 * Selects the format of newly stored collections. Stored records of both
+	 * formats can be read in any case.
+	 * 
+	 * @param binary
+	 *            true for the binary Smile format, false for JSON
+	 */
+	public void setBinaryFormat(boolean binary) {
+		if (binary && !isBinaryFormatSupported()) {
+			EXCEPTION_LOGGER.log(Level.WARNING, getClass().getSimpleName()
+					+ " doesn't support the binary format, using JSON");
+			return;
+		}
+		binaryFormat = binary;
+	}
+
+	/**
+	 * Saves a snapshot in the configured format. Backends that key the
+	 * snapshots by their values can override this, to read them from the
+	 * tree instead of parsing the serialized snapshot again.
+	 * 
+	 * @param snapshot
+	 *            the collection with its module results replaced by
+	 *            references, see {@link PayloadStore}
+	 * @param profileUUID
+	 * @param type
+	 * @param path
+	 * @throws Exception
+	 */
+	protected void save(JsonNode snapshot, String profileUUID, String type,
+			String path) throws Exception {
+		if (binaryFormat) {
+			save(getCodec().encode(snapshot), profileUUID, type, path);
+		} else {
+			save(JsonMappers.writer(isIndentedOutput()).writeValueAsString(
+					snapshot), profileUUID, type, path);
+		}
+	}
+
+	/**
+	 * Saves a collection, that is encoded in the binary Smile format.
+	 * Backends without binary records save it as JSON.
+	 * 
+	 * @param collection
+	 *            encoded collection, see {@link SmileCodec}
+	 * @param profileUUID
+	 * @param type
+	 * @param path
+	 * @throws Exception
+	 */
+	protected void save(byte[] collection, String profileUUID, String type,
+			String path) throws Exception {
+		save(getCodec().toJson(collection, isIndentedOutput()), profileUUID,
+				type, path);
+	}
+
+	/**
+	 * @return true, if the snapshots can be spread over several roots
+	 */
+	public boolean isShardingSupported() {
+		return false;
+	}
+
+	/**
+	 * @return the directories the snapshots are stored in, the primary root
+	 *         first
+	 */
+	public List<File> getStorageRoots() {
+		return Collections.singletonList(new File(Constants.OUTPUT_DIRECTORY));
+	}
+
+	/**
+	 * Spreads new snapshots over the primary root and the given roots. The
+	 * roots are kept for the next start.
+	 * 
+	 * @param roots
+	 *            directories in addition to the primary root
+	 */
+	public void setStorageRoots(List<File> roots) {
+		EXCEPTION_LOGGER.log(Level.WARNING, getClass().getSimpleName()
+				+ " doesn't support several storage roots");
+	}
+
+	/**
+	 * Moves the stored snapshots to the roots they are placed on, after roots
+	 * were added. Backends without sharding have nothing to move.
+	 * 
+	 * @return number of moved histories
+	 * @throws IOException
+	 */
+	public int rebalance() throws IOException {
+		return 0;
+	}
+
+	/**
+	 * @return true, if the backend supports {@link #query(String, int)}
+	 */
+	public boolean isQuerySupported() {
+		return false;
+	}
+
+	/**
+	 * Runs a read-only SQL query on the stored results. Backends that don't
+	 * support queries, see {@link #isQuerySupported()}, return an empty
+	 * table.
+	 * 
+	 * @param sql
+	 *            SELECT statement
+	 * @param maxRows
+	 *            maximal number of returned rows
+	 * @return column names and rows
+	 * @throws SQLException
+	 *             if the query is invalid or not allowed
+	 */
+	public ResultTable query(String sql, int maxRows) throws SQLException {
+		return new ResultTable(new String[0],
+				new ArrayList<ArrayList<String>>());
+	}
+
+	/**
+	 * @return true, if the backend supports {@link #convertStoredData}
+	 */
+	public boolean isConversionSupported() {
+		return false;
+	}
+
+	/**
+	 * Converts all stored collections into the JSON or into the binary Smile
+	 * format. Backends that don't support the conversion, see
+	 * {@link #isConversionSupported()}, convert nothing.
+	 * 
+	 * @param binary
+	 *            true to convert into the binary format
+	 * @return number of converted collections
+	 * @throws IOException
+	 */
+	public int convertStoredData(boolean binary) throws IOException {
+		return 0;
+	}
+
+	/**
+	 * File of the type name dictionary of the binary format. The file must be
+	 * deleted together with the stored data.
+	 * 
+	 * @return dictionary file
+	 */
+	protected File getTypeDictionaryFile() {
+		return new File(Constants.OUTPUT_DIRECTORY, "typenames.dict");
+	}
 
-		try {
-			if (!file.exists()) {
-				file.getParentFile().mkdirs();
-				file.createNewFile();
-			}
-			Files.write(file.toPath(), lines, StandardOpenOption.APPEND,
-					StandardOpenOption.WRITE, StandardOpenOption.CREATE);
-		} catch (IOException e) {
-			Log.EXCEPTION_LOGGER.log(Level.SEVERE, "Error writing file", e);
+	/**
+	 * @return the codec for the binary format
+	 */
+	protected synchronized SmileCodec getCodec() {
+		if (codec == null) {
+			codec = new SmileCodec(getTypeDictionaryFile());
 		}
+		return codec;
 	}
 
-	public List<String> readEventData() {
+	/**
+	 * Forgets the loaded type name dictionary, must be called if the stored
+	 * data was deleted.
+	 */
+	protected synchronized void resetCodec() {
+		codec = null;
+	}
 
-		File file = new File(Constants.EVENT_STORAGE_FILE);
-		try {
-			if (!file.exists())
-				return null;
-			return Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
-		} catch (IOException e) {
-			Log.EXCEPTION_LOGGER.log(Level.SEVERE, "Error reading file", e);
-			return null;
-		}
+	/**
+	 * @return the file to store the results of the modules once, referenced
+	 *         by the saved snapshots
+	 */
+	protected File getPayloadFile() {
+		return new File(Constants.OUTPUT_DIRECTORY, "payloads.log");
+	}
 
+	/**
+	 * @return the store of the module results
+	 */
+	protected synchronized PayloadStore getPayloadStore() {
+		if (payloadStore == null) {
+			payloadStore = new PayloadStore(getPayloadFile());
+		}
+		return payloadStore;
 	}
 
-	public String storeExternalData(byte[] data) {
-		String id = UUID.randomUUID().toString();
-		File out = new File(Constants.OUTPUT_DIRECTORY, id);
-		try {
-			Files.write(out.toPath(), data, StandardOpenOption.CREATE_NEW);
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			Log.EXCEPTION_LOGGER.log(Level.SEVERE, "Error writing file", e);
+	/**
+	 * Deletes the stored module results, must be called before the stored
+	 * data is deleted.
+	 */
+	protected synchronized void resetPayloadStore() {
+		if (payloadStore != null) {
+			payloadStore.clear();
+			payloadStore = null;
+		} else {
+			new PayloadStore(getPayloadFile()).clear();
 		}
-		return id;
 	}
 
-	public byte[] readExternalData(String id) {
-		File out = new File(Constants.OUTPUT_DIRECTORY, id);
-		try {
-			return Files.readAllBytes(out.toPath());
-		} catch (IOException e) {
-			Log.EXCEPTION_LOGGER.log(Level.SEVERE, "Error reading file", e);
+	/**
+	 * Closes the store of the module results, called by {@link #finalize()}.
+	 */
+	protected synchronized void closePayloadStore() {
+		if (payloadStore != null) {
+			payloadStore.close();
 		}
-		return null;
 	}
 
-	private LinkedList<ExtractionResultCollection> convertRawResults(
-			String[] raw) {
-		LinkedList<ExtractionResultCollection> l = new LinkedList<ExtractionResultCollection>();
-		for (String r : raw) {
+	/**
+	 * Replaces the references to stored module results in the read
+	 * snapshots, must be called by {@link #getRawResults}.
+	 * 
+	 * @param snapshots
+	 *            read snapshots, they are resolved in place
+	 * @return the resolved snapshots
+	 */
+	protected String[] resolvePayloads(String[] snapshots) {
+		PayloadStore store = getPayloadStore();
+		for (int i = 0; i < snapshots.length; i++) {
 			try {
-				l.add(getExtractionResultCollection(r));
+				snapshots[i] = store.resolve(snapshots[i]);
 			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception while reading the stored results", e);
 			}
 		}
-		return l;
-	}
-
-	public GeneralStorage() {
+		return snapshots;
 	}
 
 	public void save(Part part, Profile profile) throws Exception {
-		ObjectMapper mapper = initMapper();
-		String collectionAsString;
 		if (part.extractionResults.size() > 0) {
 			part.sortResults();
-			collectionAsString = mapper.writeValueAsString(part);
-			save(collectionAsString, profile.getUUID(), "file-dependent",
-					part.getPath());
-			part.extractionResults.clear();
+			store(part, profile.getUUID(), "file-dependent", part.getPath());
 		}
 		if (profile.getEnvironment().extractionResults.size() > 0) {
 			profile.getEnvironment().sortResults();
-			collectionAsString = mapper.writeValueAsString(profile
-					.getEnvironment());
-			save(collectionAsString, profile.getUUID(), "environment", null);
-			profile.getEnvironment().extractionResults.clear();
+			store(profile.getEnvironment(), profile.getUUID(), "environment",
+					null);
+		}
+		if (writeBehind == null) {
+			flushWrites();
 		}
-
 	}
 
 	/**
@@ -190,203 +937,385 @@ public abstract class GeneralStorage {
 	 * @throws Exception
 	 */
 	public void save(Profile profile) throws Exception {
-		ObjectMapper mapper = initMapper();
-		String collectionAsString;
 		for (Part part : profile.getParts()) {
 			if (part.extractionResults.size() > 0) {
-				collectionAsString = mapper.writeValueAsString(part);
-				save(collectionAsString, profile.getUUID(), "file-dependent",
+				store(part, profile.getUUID(), "file-dependent",
 						part.getPath());
-				part.extractionResults.clear();
 			}
 		}
 		if (profile.getEnvironment().extractionResults.size() > 0) {
-			collectionAsString = mapper.writeValueAsString(profile
-					.getEnvironment());
-			save(collectionAsString, profile.getUUID(), "environment", null);
-			profile.getEnvironment().extractionResults.clear();
+			store(profile.getEnvironment(), profile.getUUID(), "environment",
+					null);
+		}
+		if (writeBehind == null) {
+			flushWrites();
 		}
 	}
 
 	/**
-	 * Logic to create the InformationTree from ExtractionResultCollection.
+	 * Takes the results out of the collection and writes them, or queues them
+	 * for the writer threads if write-behind is started.
+	 */
+	private void store(ExtractionResultCollection collection,
+			String profileUUID, String type, String path) throws Exception {
+		ExtractionResultCollection snapshot = collection.detachResults();
+		WriteBehindQueue queue = writeBehind;
+		if (queue != null) {
+			queue.put(snapshot, profileUUID, type, path);
+		} else {
+			write(snapshot, profileUUID, type, path);
+		}
+	}
+
+	/**
+	 * Serializes a collection in the configured format, saves it at the
+	 * backend and adds it to the search index.
+	 */
+	void write(ExtractionResultCollection collection, String profileUUID,
+			String type, String path) throws Exception {
+		ResultCache.Write cacheWrite = resultCache.beginWrite(ResultCache.key(
+				profileUUID, type, path));
+		// the snapshot exists, before the garbage collection of the payload
+		// store can start
+		payloadLock.readLock().lock();
+		try {
+			save(getPayloadStore().deduplicate(collection), profileUUID, type,
+					path);
+		} finally {
+			payloadLock.readLock().unlock();
+		}
+		if (cacheWrite.isCached()) {
+			String resolved = JsonMappers.writer(isIndentedOutput())
+					.writeValueAsString(collection);
+			resultCache.endWrite(cacheWrite, resolved,
+					JsonMappers.TREE.<JsonNode> readValue(resolved));
+		} else {
+			resultCache.endWrite(cacheWrite, null, null);
+		}
+		index(collection, profileUUID, type, path);
+	}
+
+	/**
+	 * Called after a batch of collections was saved. Backends that buffer
+	 * their writes can flush them here, instead of after each save.
+	 */
+	protected void flushWrites() {
+	}
+
+	/**
+	 * Starts writing the saved collections in background threads. The
+	 * extraction continues while the results are written, until the queues
+	 * of the writers are full.
 	 * 
-	 * @param coll
-	 * @param root
+	 * @param writers
+	 *            number of writer threads
 	 */
-	public void createResultTree(ExtractionResultCollection coll,
-			DefaultMutableTreeNode root) {
-		String[] response = getRawResults(coll);
-		searchAndAddHits(response, root);
+	public synchronized void startWriteBehind(int writers) {
+		if (writeBehind == null) {
+			writeBehind = new WriteBehindQueue(this, writers);
+		}
 	}
 
 	/**
-	 * Logic to get the header for the InformationChangeTable
+	 * Writes all queued collections and stops the writer threads. Saving
+	 * continues synchronously afterwards.
+	 */
+	public synchronized void stopWriteBehind() {
+		if (writeBehind != null) {
+			writeBehind.stop();
+			writeBehind = null;
+		}
+	}
+
+	/**
+	 * @return the queue of the writer threads, or null if the collections are
+	 *         written synchronously
+	 */
+	public WriteBehindQueue getWriteBehind() {
+		return writeBehind;
+	}
+
+	/**
+	 * Runs an action after all collections saved so far are written. Without
+	 * write-behind the action runs immediately.
 	 * 
-	 * @param coll
-	 * @param moduleName
-	 * @return header
+	 * @param action
 	 */
-	public String[] getResultsHeader(ExtractionResultCollection coll,
-			String moduleName) {
-		String[] response = getRawResults(coll);
-		return getArrayFromList(getTableHeaderStrings(moduleName, response));
+	public void afterWrites(Runnable action) {
+		WriteBehindQueue queue = writeBehind;
+		if (queue != null) {
+			try {
+				queue.afterWrites(action);
+				return;
+			} catch (InterruptedException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Interrupted while waiting for the storage writers", e);
+			}
+		}
+		action.run();
 	}
 
 	/**
-	 * Logic to get the names of all used modules for an Environment, to fill
-	 * the GUI ComboBox.
+	 * Backends that can delete single snapshots return true here, and
+	 * implement {@link #compactSnapshots}.
 	 * 
-	 * @param collection
-	 * @return name set of all used modules
+	 * @return true, if the retention policies are enforced for the snapshots
 	 */
-	public HashSet<String> getAllUsedModules(
-			ExtractionResultCollection collection) {
-		HashSet<String> moduleNames = new HashSet<String>();
-		for (String hit : getRawResults(collection)) {
-			ObjectMapper mapper = new ObjectMapper();
+	public boolean isCompactionSupported() {
+		return false;
+	}
+
+	/**
+	 * Deletes the snapshots and events, that the policies don't keep.
+	 * 
+	 * @param policies
+	 * @return what was reclaimed
+	 */
+	public CompactionReport compact(RetentionPolicies policies) {
+		CompactionReport report = new CompactionReport();
+		if (!policies.keepsAllSnapshots() && isCompactionSupported()) {
+			compactSnapshots(policies, report);
+			resultCache.invalidateAll();
+		}
+		if (!policies.keepsAllEvents()) {
 			try {
-				JsonNode jsonRoot = mapper.readTree(hit);
-				moduleNames.addAll(recursiveGetModules(jsonRoot));
+				getEventWriter().flush();
+				getEventLog().compact(policies, report);
 			} catch (IOException e) {
 				EXCEPTION_LOGGER.log(Level.SEVERE,
-						"Exception at creation of JSON tree", e);
+						"Exception while compacting the events", e);
 			}
 		}
-		return moduleNames;
+		report.finished = System.currentTimeMillis();
+		return report;
+	}
 
+	/**
+	 * Deletes the snapshots, that the policies don't keep. Must not block the
+	 * saving of new snapshots for long.
+	 * 
+	 * @param policies
+	 * @param report
+	 *            collects what was reclaimed
+	 */
+	protected void compactSnapshots(RetentionPolicies policies,
+			CompactionReport report) {
 	}
 
-	private static ObjectMapper initMapper() {
-		ObjectMapper mapper = new ObjectMapper();
-		mapper.enable(SerializationFeature.INDENT_OUTPUT);
-		mapper.enable(SerializationFeature.CLOSE_CLOSEABLE);
-		mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-		return mapper;
+	/**
+	 * Starts a garbage collection of the stored module results, must be
+	 * called before the referenced results are collected from the snapshots.
+	 * Results stored from now on are kept.
+	 */
+	protected void startPayloadCollection() {
+		payloadLock.writeLock().lock();
+		try {
+			getPayloadStore().startTracking();
+		} finally {
+			payloadLock.writeLock().unlock();
+		}
 	}
 
-	private static HashSet<String> recursiveGetModules(JsonNode jsonParent) {
-		HashSet<String> moduleNames = new HashSet<String>();
-		Iterator<Entry<String, JsonNode>> jsonFields = jsonParent.fields();
-		while (jsonFields.hasNext()) {
-			Entry<String, JsonNode> jsonField = jsonFields.next();
-			if (jsonField.getKey().equals("moduleName")) {
-				moduleNames.add(jsonField.getValue().asText());
-			}
+	/**
+	 * Removes the stored module results, that no snapshot references.
+	 * 
+	 * @param referenced
+	 *            hashes referenced by the kept snapshots
+	 * @return number of reclaimed bytes
+	 */
+	protected long collectPayloadGarbage(Set<String> referenced) {
+		payloadLock.writeLock().lock();
+		try {
+			return getPayloadStore().collectGarbage(referenced);
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception while compacting the stored results", e);
+			return 0;
+		} finally {
+			payloadLock.writeLock().unlock();
 		}
-		Iterator<JsonNode> jsonChildren = jsonParent.elements();
-		while (jsonChildren.hasNext()) {
-			moduleNames.addAll(recursiveGetModules(jsonChildren.next()));
+	}
+
+	/**
+	 * Starts enforcing the retention policies in the background, if the
+	 * storage supports it.
+	 */
+	public synchronized void startCompactor() {
+		if (compactor == null) {
+			compactor = new RetentionCompactor(this);
+			compactor.start();
 		}
-		return moduleNames;
 	}
 
-	private static ArrayList<String> getTableHeaderStrings(String moduleName,
-			String[] response) {
-		ArrayList<String> headerStrings = new ArrayList<String>();
-		headerStrings.add("Extraction Date");
-		for (String hit : response) {
-			ObjectMapper mapper = new ObjectMapper();
-			try {
-				JsonNode jsonRoot = mapper.readTree(hit);
-				headerStrings.addAll(getHeader(moduleName, jsonRoot));
-				return headerStrings;
-			} catch (IOException e) {
-				EXCEPTION_LOGGER.log(Level.SEVERE,
-						"Exception at creation of JSON tree", e);
-			}
+	/**
+	 * Stops the background compaction.
+	 */
+	public synchronized void stopCompactor() {
+		if (compactor != null) {
+			compactor.stop();
 		}
-		return null;
 	}
 
-	private static String[] getArrayFromList(ArrayList<String> list) {
-		String[] array = new String[list.size()];
-		for (int i = 0; i < list.size(); i++) {
-			array[i] = list.get(i);
+	/**
+	 * @return the background compactor, or null if it wasn't started
+	 */
+	public synchronized RetentionCompactor getCompactor() {
+		return compactor;
+	}
+
+	/**
+	 * Logic to create the InformationTree from ExtractionResultCollection.
+	 * 
+	 * @param coll
+	 * @param root
+	 */
+	public void createResultTree(ExtractionResultCollection coll,
+			DefaultMutableTreeNode root) {
+		try {
+			addHits(getCacheEntry(coll).getCollections(), root);
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at creation of JSON tree", e);
 		}
-		return array;
 	}
 
-	private static ArrayList<ArrayList<String>> getTableData(String moduleName,
-			String[] response) {
+	/**
+	 * Logic to get the header for the InformationChangeTable
+	 * 
+	 * @param coll
+	 * @param moduleName
+	 * @return header
+	 */
+	public String[] getResultsHeader(ExtractionResultCollection coll,
+			String moduleName) {
+		return getResultTable(coll, moduleName).header;
+	}
+
+	/**
+	 * Logic to get the header and the data for the InformationChangeTable,
+	 * reading each snapshot only once.
+	 * 
+	 * @param coll
+	 * @param moduleName
+	 * @return header and rows
+	 */
+	public ResultTable getResultTable(ExtractionResultCollection coll,
+			String moduleName) {
+		ResultCache.Entry entry = getCacheEntry(coll);
+		String projection = "table|" + moduleName;
+		ResultTable table = (ResultTable) entry.getProjection(projection);
+		if (table == null) {
+			table = createResultTable(entry.snapshots, moduleName);
+			entry.putProjection(projection, table);
+		}
+		return table;
+	}
+
+	static ResultTable createResultTable(String[] response,
+			String moduleName) {
+		ArrayList<String> headerStrings = null;
 		ArrayList<ArrayList<String>> tableData = new ArrayList<ArrayList<String>>();
 		for (String hit : response) {
-			ArrayList<String> column = new ArrayList<String>();
-			ObjectMapper mapper = new ObjectMapper();
 			try {
-				JsonNode jsonRoot = mapper.readTree(hit);
-				column = getColumn(moduleName, jsonRoot);
+				for (ObjectNode result : ResultStreamReader.readModuleResults(
+						hit, moduleName)) {
+					if (headerStrings == null) {
+						headerStrings = new ArrayList<String>();
+						headerStrings.add("Extraction Date");
+						headerStrings.addAll(getHeader(result));
+					}
+					tableData.add(getColumn(result));
+				}
 			} catch (IOException e) {
 				EXCEPTION_LOGGER.log(Level.SEVERE,
-						"Exception at creation of JSON tree", e);
-			}
-			if (column.size() > 0) {
-				tableData.add(column);
+						"Exception at reading the results", e);
 			}
 		}
-		return tableData;
+		if (headerStrings == null && response.length > 0) {
+			headerStrings = new ArrayList<String>();
+			headerStrings.add("Extraction Date");
+		}
+		return new ResultTable(headerStrings == null ? null
+				: getArrayFromList(headerStrings), tableData);
 	}
 
-	private static ArrayList<String> getHeader(String moduleName,
-			JsonNode jsonParent) {
-		ArrayList<String> header = new ArrayList<String>();
-		Iterator<Entry<String, JsonNode>> jsonFields = jsonParent.fields();
-		while (jsonFields.hasNext()) {
-			Entry<String, JsonNode> jsonField = jsonFields.next();
-			if (jsonField.getKey().equals("moduleName")) {
-				if (!jsonField.getValue().toString()
-						.equals('"' + moduleName + '"')) {
-					break;// Wrong module
-				}
-				while (jsonFields.hasNext()) {
-					Iterator<JsonNode> resultChildren = jsonParent.elements();
-					while (resultChildren.hasNext()) {
-						header.addAll(recursiveAddResultKeys(resultChildren
-								.next()));
-					}
-					return header;
+	/**
+	 * Logic to get the names of all used modules for an Environment, to fill
+	 * the GUI ComboBox.
+	 * 
+	 * @param collection
+	 * @return name set of all used modules
+	 */
+	public HashSet<String> getAllUsedModules(
+			ExtractionResultCollection collection) {
+		ResultCache.Entry entry = getCacheEntry(collection);
+		@SuppressWarnings("unchecked")
+		HashSet<String> moduleNames = (HashSet<String>) entry
+				.getProjection("modules");
+		if (moduleNames == null) {
+			moduleNames = new HashSet<String>();
+			for (String hit : entry.snapshots) {
+				try {
+					ResultStreamReader.readModuleNames(hit, moduleNames);
+				} catch (IOException e) {
+					EXCEPTION_LOGGER.log(Level.SEVERE,
+							"Exception at creation of JSON tree", e);
 				}
 			}
+			entry.putProjection("modules", moduleNames);
 		}
-		// The module extraction wasn't found yet:
-		Iterator<JsonNode> jsonChildren = jsonParent.elements();
-		while (jsonChildren.hasNext()) {
-			header.addAll(getHeader(moduleName, jsonChildren.next()));
+		return new HashSet<String>(moduleNames);
+
+	}
+
+	private static String[] getArrayFromList(ArrayList<String> list) {
+		String[] array = new String[list.size()];
+		for (int i = 0; i < list.size(); i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	static ArrayList<String> getHeader(JsonNode result) {
+		ArrayList<String> header = new ArrayList<String>();
+		Iterator<JsonNode> resultChildren = result.elements();
+		while (resultChildren.hasNext()) {
+			header.addAll(recursiveAddResultKeys(resultChildren.next()));
 		}
 		return header;
 	}
 
-	private static ArrayList<String> getColumn(String moduleName,
-			JsonNode jsonParent) {
+	static ArrayList<String> getColumn(JsonNode result) {
 		ArrayList<String> column = new ArrayList<String>();
-		Iterator<Entry<String, JsonNode>> jsonFields = jsonParent.fields();
-		while (jsonFields.hasNext()) {
-			Entry<String, JsonNode> jsonField = jsonFields.next();
-			if (jsonField.getKey().equals("moduleName")) {
-				if (!jsonField.getValue().toString()
-						.equals('"' + moduleName + '"')) {
-					break;// Wrong module
-				}
-				while (jsonFields.hasNext()) {
-					column.add(getTimestamp(jsonParent.fields()));
-					// All children are the results for the module!
-					Iterator<JsonNode> resultChildren = jsonParent.elements();
-					while (resultChildren.hasNext()) {
-						column.addAll(recursiveAddResults(resultChildren.next()));
-					}
-					return column;
-				}
-			}
-		}
-		// The module extraction wasn't found yet:
-		Iterator<JsonNode> jsonChildren = jsonParent.elements();
-		while (jsonChildren.hasNext()) {
-			column.addAll(getColumn(moduleName, jsonChildren.next()));
+		column.add(getTimestamp(result.fields()));
+		// All children are the results for the module!
+		Iterator<JsonNode> resultChildren = result.elements();
+		while (resultChildren.hasNext()) {
+			column.addAll(recursiveAddResults(resultChildren.next()));
 		}
 		return column;
 	}
 
-	private static String getTimestamp(
+	/**
+	 * @param date
+	 *            serialized date, ISO-8601 or milliseconds
+	 * @return the date, or null if it is missing or invalid
+	 */
+	static Date parseDate(JsonNode date) {
+		if (date == null || date.isNull()) {
+			return null;
+		}
+		if (date.isNumber()) {
+			return new Date(date.asLong());
+		}
+		try {
+			return new StdDateFormat().parse(date.asText());
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+
+	static String getTimestamp(
 			Iterator<Entry<String, JsonNode>> iterator) {
 		while (iterator.hasNext()) {
 			Entry<String, JsonNode> entry = iterator.next();
@@ -406,19 +1335,29 @@ public abstract class GeneralStorage {
 	 */
 	public String getStringResults(ExtractionResultCollection collection,
 			String moduleName) {
+		ResultCache.Entry entry = getCacheEntry(collection);
+		String projection = "json|" + moduleName;
+		String cached = (String) entry.getProjection(projection);
+		if (cached != null) {
+			return cached;
+		}
 		StringBuffer data = new StringBuffer();
-		String[] response = getRawResults(collection); // probably not best way?
-		for (String hit : response) {
-			ObjectMapper mapper = new ObjectMapper();
+		for (String hit : entry.snapshots) {
 			try {
-				JsonNode root = mapper.readTree(hit);
-				addHitIfRightModule(root, moduleName, data);
+				for (ObjectNode result : ResultStreamReader.readModuleResults(
+						hit, moduleName)) {
+					data.append(getTimestamp(result.fields()) + " : ");
+					data.append(JsonMappers.PRETTY.writeValueAsString(result));
+					data.append(",\n");
+				}
 			} catch (IOException e) {
 				EXCEPTION_LOGGER.log(Level.SEVERE,
 						"Exception at creation of JSON tree", e);
 			}
 		}
-		return data.toString();
+		cached = data.toString();
+		entry.putProjection(projection, cached);
+		return cached;
 	}
 
 	/**
@@ -434,9 +1373,8 @@ public abstract class GeneralStorage {
 			String moduleName, String extractionDate) {
 		try {
 			// all results for collection:
-			String[] response = getRawResults(collection);
-			for (String hit : response) {
-				ExtractionResultCollection deserializedCollection = getExtractionResultCollection(hit);
+			for (ExtractionResultCollection deserializedCollection : getCacheEntry(
+					collection).getCollections()) {
 				for (ExtractionResult result : deserializedCollection.extractionResults) {
 					if (extractionDate.equals(result.extractionDate.toString())
 							&& result.moduleName.equals(moduleName)) {
@@ -450,36 +1388,6 @@ public abstract class GeneralStorage {
 		return "No extraction result found.";
 	}
 
-	private void addHitIfRightModule(JsonNode jsonParent, String moduleName,
-			StringBuffer data) {
-		Iterator<Entry<String, JsonNode>> jsonFields = jsonParent.fields();
-		while (jsonFields.hasNext()) {
-			Entry<String, JsonNode> jsonField = jsonFields.next();
-			if (jsonField.getKey().equals("moduleName")) {
-				if (!jsonField.getValue().toString()
-						.equals('"' + moduleName + '"')) {
-					break;// Wrong module
-				}
-				try {
-					data.append(getTimestamp(jsonFields) + " : ");
-					data.append(ConfigSaver.mapper
-							.writeValueAsString(jsonParent));
-					data.append(",\n");
-				} catch (JsonProcessingException e) {
-					EXCEPTION_LOGGER.log(Level.SEVERE,
-							"Exception at addHitIfRightModule", e);
-				}
-				return;
-			}
-		}
-		// The module extraction wasn't found yet:
-		Iterator<JsonNode> jsonChildren = jsonParent.elements();
-		while (jsonChildren.hasNext()) {
-			addHitIfRightModule(jsonChildren.next(), moduleName, data);
-		}
-		return;
-	}
-
 	/**
 	 * Logic to get the data to fill the InformationChangeTable.
 	 * 
@@ -489,8 +1397,7 @@ public abstract class GeneralStorage {
 	 */
 	public ArrayList<ArrayList<String>> getResults(
 			ExtractionResultCollection coll, String moduleName) {
-		String[] response = getRawResults(coll);
-		return getTableData(moduleName, response);
+		return getResultTable(coll, moduleName).rows;
 	}
 
 	private static ArrayList<String> recursiveAddResultKeys(JsonNode resultNode) {
@@ -533,14 +1440,17 @@ public abstract class GeneralStorage {
 		return resultStrings;
 	}
 
-	private void searchAndAddHits(String[] response, DefaultMutableTreeNode root) {
+	private void addHits(ExtractionResultCollection[] collections,
+			DefaultMutableTreeNode root) {
 		root.setUserObject("Results");
-		for (String hit : response) {
+		for (ExtractionResultCollection c : collections) {
 			try {
-				ExtractionResultCollection c = getExtractionResultCollection(hit);
 				DefaultMutableTreeNode current = new DefaultMutableTreeNode();
 				root.add(current);
-				Collections.sort(c.extractionResults,
+				// the cached collection is shared, so a copy is sorted
+				List<ExtractionResult> sorted = new ArrayList<ExtractionResult>(
+						c.extractionResults);
+				Collections.sort(sorted,
 						new Comparator<ExtractionResult>() {
 							@Override
 							public int compare(ExtractionResult o1,
@@ -548,7 +1458,7 @@ public abstract class GeneralStorage {
 								return o1.moduleName.compareTo(o2.moduleName);
 							}
 						});
-				for (ExtractionResult r : c.extractionResults) {
+				for (ExtractionResult r : sorted) {
 					current.setUserObject("Extraction on " + r.extractionDate);
 					DefaultMutableTreeNode result = new DefaultMutableTreeNode(
 							r.moduleDisplayName);
@@ -569,7 +1479,7 @@ public abstract class GeneralStorage {
 							continue;
 						}
 						StringWriter w = new StringWriter();
-						initMapper().writeValue(w, r.results);
+						JsonMappers.PRETTY.writeValue(w, r.results);
 						result.add(new DefaultMutableTreeNode(w.toString()));
 					}
 				}
@@ -589,6 +1499,6 @@ public abstract class GeneralStorage {
 	 */
 	public static ExtractionResultCollection getExtractionResultCollection(
 			String f) throws IOException {
-		return initMapper().readValue(f, ExtractionResultCollection.class);
+		return JsonMappers.reader(ExtractionResultCollection.class).readValue(f);
 	}
 }
\ No newline at end of file
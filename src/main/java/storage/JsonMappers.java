@@ -0,0 +1,132 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Central registry of the preconfigured Jackson readers and writers used by
+ * the storage, configuration and event code.
+ * <p>
+ * All instances share one {@link ObjectMapper}, so that its serializer and
+ * deserializer caches stay warm. The mapper itself is not exposed, because
+ * it is mutable; {@link ObjectWriter} and {@link ObjectReader} are immutable
+ * and thread-safe.
+ */
+public class JsonMappers {
+	private static final ObjectMapper mapper = createMapper();
+
+	/** Writer producing JSON without whitespace, for storage records */
+	public static final ObjectWriter COMPACT = mapper.writer().without(
+			SerializationFeature.INDENT_OUTPUT);
+
+	/** Writer producing indented JSON, for files and displays */
+	public static final ObjectWriter PRETTY = mapper.writer().with(
+			SerializationFeature.INDENT_OUTPUT);
+
+	/** Reader for JSON trees */
+	public static final ObjectReader TREE = mapper.reader(JsonNode.class);
+
+	private static final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<Class<?>, ObjectReader>();
+
+	private JsonMappers() {
+	}
+
+	private static ObjectMapper createMapper() {
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.enable(SerializationFeature.CLOSE_CLOSEABLE);
+		mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+		return mapper;
+	}
+
+	/**
+	 * @param pretty
+	 *            true for indented JSON
+	 * @return the compact or pretty writer
+	 */
+	public static ObjectWriter writer(boolean pretty) {
+		return pretty ? PRETTY : COMPACT;
+	}
+
+	/**
+	 * @param type
+	 *            class to deserialize
+	 * @return the cached reader for the class
+	 */
+	public static ObjectReader reader(Class<?> type) {
+		ObjectReader reader = readers.get(type);
+		if (reader == null) {
+			reader = mapper.reader(type);
+			ObjectReader existing = readers.putIfAbsent(type, reader);
+			if (existing != null) {
+				reader = existing;
+			}
+		}
+		return reader;
+	}
+
+	/**
+	 * Creates a streaming parser, which can read trees with
+	 * {@link JsonParser#readValueAsTree()}.
+	 * 
+	 * @param content
+	 *            JSON String
+	 * @return parser
+	 * @throws IOException
+	 */
+	public static JsonParser createParser(String content) throws IOException {
+		return mapper.getFactory().createParser(content);
+	}
+
+	/**
+	 * @param out
+	 * @return a compact generator writing to out
+	 * @throws IOException
+	 */
+	public static JsonGenerator createGenerator(Writer out) throws IOException {
+		return mapper.getFactory().createGenerator(out);
+	}
+
+	/**
+	 * @return new empty JSON object node
+	 */
+	public static ObjectNode createObjectNode() {
+		return mapper.createObjectNode();
+	}
+
+	/**
+	 * Converts an object to a JSON tree, without serializing it to a String.
+	 * 
+	 * @param value
+	 * @return JSON tree of the value
+	 */
+	public static JsonNode valueToTree(Object value) {
+		return mapper.valueToTree(value);
+	}
+}
@@ -1,112 +1,201 @@
-///**
-//* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
-//* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
-//* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
-//*
-//* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
-//* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
-//* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
-//* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
-//* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
-//* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
-//* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
-//* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
-//* License or out of the use or inability to use the Work.
-//* See the License for the specific language governing permissions and limitation under the License.
-//*/
-//package storage;
-//
-//import java.io.File;
-//import java.util.NavigableSet;
-//import java.util.regex.Pattern;
-//
-//import model.Environment;
-//import model.ExtractionResultCollection;
-//import model.Part;
-//
-//import org.mapdb.DB;
-//import org.mapdb.DBMaker;
-//import org.mapdb.Fun;
-//
-//import com.google.common.base.Predicates;
-//import com.google.common.collect.Iterables;
-//
-//import configuration.Constants;
-//
-///**
-// * Class to start Elasticsearch queries. Can be replaced by another storage
-// * backend.
-// */
-//public class MAPDBStorageInterface extends GeneralStorage {
-//
-//	public MAPDBStorageInterface() {
-//		getClient();
-//	}
-//
-//	DB client;
-//	NavigableSet<Fun.Tuple2<String, String>> mapParts;
-//	NavigableSet<Fun.Tuple2<String, String>> mapEnvironment;
-//
-//	private DB getClient() {
-//		if (client == null) {
-//			client = DBMaker
-//					.newFileDB(
-//							new File(Constants.PROJECT_HOME
-//									+ File.pathSeparator + "metadata.mapdb"))
-//					.closeOnJvmShutdown().make();
-//			mapParts = client.getTreeSet("parts");
-//			mapEnvironment = client.getTreeSet("environment");
-//		}
-//		return client;
-//	}
-//
-//	@Override
-//	public void finalize() {
-//		if (!client.isClosed()) {
-//			client.commit();
-//			client.close();
-//		}
-//	}
-//
-//	@Override
-//	public void save(String collection, String profileUUID, String type,
-//			String path) {
-//		if (path == null) {
-//			mapEnvironment.add(Fun.t2(profileUUID, collection));
-//		} else {
-//			mapParts.add(Fun.t2(path, collection));
-//		}
-//		client.commit();
-//
-//	}
-//
-//	@Override
-//	public void deleteAllMetadata() {
-//		mapEnvironment.clear();
-//		mapParts.clear();
-//	}
-//
-//	/**
-//	 * Logic to get the data to fill the InformationChangeTable.
-//	 * 
-//	 * @return data to fill the InformationChangeTable
-//	 */
-//	@Override
-//	public String[] getRawResults(ExtractionResultCollection coll) {
-//		Iterable<String> response = null;
-//		if (coll instanceof Part) {
-//			Part part = (Part) coll;
-//			response = Fun.filter(mapParts, part.getPath());
-//
-//			response = Iterables.filter(response,
-//					Predicates.contains(Pattern.compile(part.profileUUID)));
-//
-//		} else if (coll instanceof Environment) {
-//			Environment environment = (Environment) coll;
-//			response = Fun.filter(mapEnvironment, environment.profileUUID);
-//		} else
-//			return null;
-//		return Iterables.toArray(response, String.class);
-//	}
-//
-//}
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import model.Environment;
+import model.ExtractionResultCollection;
+import model.Part;
+
+import org.mapdb.BTreeKeySerializer;
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Fun;
+import org.mapdb.Serializer;
+
+import utility.FileUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import configuration.Constants;
+
+/**
+ * Embedded MapDB storage backend, which doesn't need a running service.
+ * <p>
+ * The collections are stored in a B-tree with the composite key (profile
+ * UUID, path, extraction date), where the path of an environment is the empty
+ * String and the extraction date is the newest one of the results of the
+ * collection, or the save time if it has none. A date that is already taken
+ * by another snapshot is incremented by a millisecond. The snapshots of a
+ * part or environment are read with a range scan in chronological order. Commits are grouped: after {@link #COMMIT_BATCH}
+ * saves, or by a timer every {@link #COMMIT_INTERVAL} milliseconds.
+ */
+public class MAPDBStorageInterface extends GeneralStorage {
+	/** Number of saves after which the changes are committed */
+	public static final int COMMIT_BATCH = 100;
+	/** Milliseconds after which uncommitted changes are committed */
+	public static final long COMMIT_INTERVAL = 5000;
+
+	private final DB client;
+	private final BTreeMap<Fun.Tuple3<String, String, Long>, String> results;
+	private final Timer commitTimer;
+	private int uncommitted = 0;
+
+	public MAPDBStorageInterface() {
+		this(new File(Constants.OUTPUT_DIRECTORY, "metadata.mapdb"));
+	}
+
+	/**
+	 * @param file
+	 *            database file
+	 */
+	public MAPDBStorageInterface(File file) {
+		FileUtils.createDirectory(file.getAbsoluteFile().getParentFile()
+				.toPath());
+		// not closed on JVM shutdown, the shutdown hook of the application
+		// commits the pending writes in finalize()
+		client = DBMaker.newFileDB(file).make();
+		results = client.createTreeMap("results")
+				.keySerializer(BTreeKeySerializer.TUPLE3)
+				.valueSerializer(Serializer.STRING).valuesOutsideNodesEnable()
+				.makeOrGet();
+		commitTimer = new Timer("MapDB commit", true);
+		commitTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				commit();
+			}
+		}, COMMIT_INTERVAL, COMMIT_INTERVAL);
+	}
+
+	@Override
+	public synchronized void finalize() {
+		commitTimer.cancel();
+		closePayloadStore();
+		closeBlobStore();
+		closeMetricStore();
+		closeEventLog();
+		if (!client.isClosed()) {
+			client.commit();
+			client.close();
+		}
+	}
+
+	@Override
+	public synchronized void save(String collection, String profileUUID,
+			String type, String path) {
+		JsonNode tree = null;
+		try {
+			tree = JsonMappers.TREE.<JsonNode> readValue(collection);
+		} catch (IOException e) {
+			// the collection is keyed by the save time
+		}
+		put(collection, profileUUID, path, getExtractionDate(tree));
+	}
+
+	/**
+	 * Takes the extraction date from the tree that was serialized already.
+	 */
+	@Override
+	protected synchronized void save(JsonNode snapshot, String profileUUID,
+			String type, String path) throws Exception {
+		put(JsonMappers.writer(isIndentedOutput()).writeValueAsString(
+				snapshot), profileUUID, path, getExtractionDate(snapshot));
+	}
+
+	private void put(String collection, String profileUUID, String path,
+			long extractionDate) {
+		path = path == null ? "" : path;
+		// keeps snapshots of the same millisecond
+		while (results.containsKey(Fun.t3(profileUUID, path, extractionDate))) {
+			extractionDate++;
+		}
+		results.put(Fun.t3(profileUUID, path, extractionDate), collection);
+		if (++uncommitted >= COMMIT_BATCH) {
+			commit();
+		}
+	}
+
+	/**
+	 * @param tree
+	 *            the collection, or null if it can't be parsed
+	 * @return the newest extraction date of the results of a collection, or
+	 *         the current time if it has none
+	 */
+	private static long getExtractionDate(JsonNode tree) {
+		long newest = 0;
+		if (tree != null) {
+			for (JsonNode result : tree.path("extractionResults")) {
+				Date date = parseDate(result.get("extractionDate"));
+				if (date != null) {
+					newest = Math.max(newest, date.getTime());
+				}
+			}
+		}
+		return newest > 0 ? newest : System.currentTimeMillis();
+	}
+
+	@Override
+	public synchronized void deleteAllMetadata() {
+		results.clear();
+		resetPayloadStore();
+		resetBlobStore();
+		resetMetricStore();
+		resetEventLog();
+		invalidateResultCache();
+		client.commit();
+		uncommitted = 0;
+		client.compact();
+	}
+
+	/**
+	 * Logic to get the data to fill the InformationChangeTable.
+	 * 
+	 * @return data to fill the InformationChangeTable
+	 */
+	@Override
+	public synchronized String[] getRawResults(ExtractionResultCollection coll) {
+		String path;
+		if (coll instanceof Part) {
+			path = ((Part) coll).getPath();
+		} else if (coll instanceof Environment) {
+			path = "";
+		} else
+			return null;
+		Collection<String> response = results.subMap(
+				Fun.t3(coll.profileUUID, path, (Long) null),
+				Fun.t3(coll.profileUUID, path, Fun.<Long> HI())).values();
+		return resolvePayloads(response.toArray(new String[0]));
+	}
+
+	/**
+	 * Commits the changes, if there are uncommitted saves.
+	 */
+	private synchronized void commit() {
+		if (uncommitted > 0 && !client.isClosed()) {
+			client.commit();
+			uncommitted = 0;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static configuration.Log.EXCEPTION_LOGGER;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+
+import utility.FileUtils;
+
+/**
+ * Store of sampled system metrics, e.g. the CPU usage, with one
+ * {@link TimeSeries} file per metric, named by the metric.
+ * <p>
+ * The samples are added in memory and written by {@link #flush()}, which
+ * only writes the buckets changed since the last flush. The files have a
+ * fixed size, so the store doesn't grow with the sampling time.
+ */
+public class MetricStore {
+	/** Pattern of valid metric names */
+	public static final Pattern NAME_PATTERN = Pattern
+			.compile("[A-Za-z0-9._-]+");
+	private static final String SUFFIX = ".tsdb";
+
+	private final File directory;
+	private final ConcurrentHashMap<String, TimeSeries> series = new ConcurrentHashMap<String, TimeSeries>();
+	private final Map<String, FileChannel> channels = new HashMap<String, FileChannel>();
+
+	/**
+	 * Creates the store and reads the series of the directory.
+	 * 
+	 * @param directory
+	 *            directory of the series files
+	 */
+	public MetricStore(File directory) {
+		this.directory = directory;
+		FileUtils.createDirectory(directory.toPath());
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.endsWith(SUFFIX)) {
+					load(name.substring(0, name.length() - SUFFIX.length()));
+				}
+			}
+		}
+	}
+
+	private void load(String metric) {
+		try {
+			FileChannel channel = open(metric);
+			TimeSeries loaded = TimeSeries.read(channel);
+			if (loaded == null) {
+				EXCEPTION_LOGGER.log(Level.WARNING,
+						"Invalid metric file, the metric is restarted: "
+								+ metric);
+			} else {
+				series.put(metric, loaded);
+			}
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception while reading the metric " + metric, e);
+		}
+	}
+
+	private synchronized FileChannel open(String metric) throws IOException {
+		FileChannel channel = channels.get(metric);
+		if (channel == null) {
+			channel = FileChannel.open(
+					new File(directory, metric + SUFFIX).toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			channels.put(metric, channel);
+		}
+		return channel;
+	}
+
+	/**
+	 * Adds a sample of a metric.
+	 * 
+	 * @param metric
+	 *            name matching {@link #NAME_PATTERN}
+	 * @param time
+	 *            milliseconds since the epoch
+	 * @param value
+	 */
+	public void add(String metric, long time, double value) {
+		TimeSeries timeSeries = series.get(metric);
+		if (timeSeries == null) {
+			if (!NAME_PATTERN.matcher(metric).matches()) {
+				throw new IllegalArgumentException("Invalid metric name: "
+						+ metric);
+			}
+			series.putIfAbsent(metric, new TimeSeries());
+			timeSeries = series.get(metric);
+		}
+		timeSeries.add(time, value);
+	}
+
+	/**
+	 * Returns the aggregated samples of a metric in a time range.
+	 * 
+	 * @param metric
+	 * @param from
+	 *            start of the range in milliseconds since the epoch
+	 * @param to
+	 *            end of the range
+	 * @param maxPoints
+	 *            maximal number of samples, determines the resolution
+	 * @return samples in chronological order, empty for unknown metrics
+	 * @see TimeSeries#query(long, long, int)
+	 */
+	public List<TimeSeries.Sample> query(String metric, long from, long to,
+			int maxPoints) {
+		TimeSeries timeSeries = series.get(metric);
+		if (timeSeries == null) {
+			return Collections.emptyList();
+		}
+		return timeSeries.query(from, to, maxPoints);
+	}
+
+	/**
+	 * @param metric
+	 * @return time of the last sample of the metric, or -1
+	 */
+	public long getLastTime(String metric) {
+		TimeSeries timeSeries = series.get(metric);
+		return timeSeries == null ? -1 : timeSeries.getLastTime();
+	}
+
+	/**
+	 * @return the names of all metrics, sorted
+	 */
+	public Set<String> getMetrics() {
+		return new TreeSet<String>(series.keySet());
+	}
+
+	/**
+	 * Writes the changed buckets of all metrics.
+	 */
+	public synchronized void flush() {
+		for (Entry<String, TimeSeries> entry : series.entrySet()) {
+			try {
+				entry.getValue().write(open(entry.getKey()));
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception while writing the metric " + entry.getKey(),
+						e);
+			}
+		}
+	}
+
+	/**
+	 * Flushes and closes the files.
+	 */
+	public synchronized void close() {
+		flush();
+		closeChannels();
+	}
+
+	private void closeChannels() {
+		for (FileChannel channel : channels.values()) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception while closing a metric file", e);
+			}
+		}
+		channels.clear();
+	}
+
+	/**
+	 * Deletes all metrics.
+	 */
+	public synchronized void clear() {
+		closeChannels();
+		series.clear();
+		FileUtils.deleteDirectory(directory.getPath());
+		FileUtils.createDirectory(directory.toPath());
+	}
+}
@@ -0,0 +1,275 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static configuration.Log.EXCEPTION_LOGGER;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Durable mapping of file paths to the ids under which their extraction
+ * results are stored.
+ * <p>
+ * Every new mapping is appended to a journal file immediately, so that no
+ * mapping is lost if the process is killed. Only a 64 bit hash of each path
+ * and the journal offset of its entry are kept on the heap, the paths and ids
+ * are read from the journal on lookup. The journal is read at the first
+ * access, and an incomplete entry at its end is cut off.
+ * <p>
+ * Mappings are never changed or removed, therefore the journal has no
+ * outdated entries and does not need to be compacted.
+ */
+public class PathIdIndex {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final File journal;
+	private RandomAccessFile file;
+	// open addressing hash table: path hash -> journal offset + 1, 0 is empty
+	private long[] hashes;
+	private long[] offsets;
+	private int size;
+
+	/**
+	 * @param journal
+	 *            file to store the mappings
+	 */
+	public PathIdIndex(File journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @param path
+	 * @return the id of the path, or null if the path has no id yet
+	 */
+	public synchronized String get(String path) {
+		if (!open()) {
+			return null;
+		}
+		long hash = hash(path);
+		int mask = hashes.length - 1;
+		for (int i = (int) hash & mask; offsets[i] != 0; i = (i + 1) & mask) {
+			if (hashes[i] == hash) {
+				String[] entry = readEntry(offsets[i] - 1);
+				if (entry != null && entry[0].equals(path)) {
+					return entry[1];
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the id of a path. The mapping is written to the journal before
+	 * this method returns.
+	 * 
+	 * @param path
+	 * @param id
+	 */
+	public synchronized void put(String path, String id) {
+		if (!open()) {
+			return;
+		}
+		try {
+			long offset = file.length();
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+					path.length() + id.length() + 8);
+			DataOutputStream entry = new DataOutputStream(buffer);
+			entry.writeUTF(path);
+			entry.writeUTF(id);
+			entry.flush();
+			file.seek(offset);
+			file.write(buffer.toByteArray());
+			insert(hash(path), offset);
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE, "Exception at storing the id of "
+					+ path, e);
+		}
+	}
+
+	/**
+	 * Adds all mappings of a map, e.g. of an old full dump of the index.
+	 * 
+	 * @param pathToId
+	 */
+	public synchronized void putAll(Map<String, String> pathToId) {
+		for (Entry<String, String> entry : pathToId.entrySet()) {
+			if (get(entry.getKey()) == null) {
+				put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @return number of stored mappings
+	 */
+	public synchronized int size() {
+		open();
+		return size;
+	}
+
+	/**
+	 * Closes the journal. The index is reopened at the next access.
+	 */
+	public synchronized void close() {
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception at closing the path index", e);
+			}
+			file = null;
+			hashes = null;
+			offsets = null;
+			size = 0;
+		}
+	}
+
+	/**
+	 * Removes all mappings and deletes the journal.
+	 */
+	public synchronized void clear() {
+		close();
+		journal.delete();
+	}
+
+	/**
+	 * Opens the journal and reads the hashes of all entries, if this was not
+	 * done before.
+	 * 
+	 * @return true, if the index can be used
+	 */
+	private boolean open() {
+		if (file != null) {
+			return true;
+		}
+		hashes = new long[INITIAL_CAPACITY];
+		offsets = new long[INITIAL_CAPACITY];
+		size = 0;
+		try {
+			journal.getAbsoluteFile().getParentFile().mkdirs();
+			file = new RandomAccessFile(journal, "rw");
+			long validEnd = 0;
+			// read sequentially through a buffer, the journal can be large
+			try (DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(journal)))) {
+				try {
+					while (true) {
+						String path = in.readUTF();
+						String id = in.readUTF();
+						insert(hash(path), validEnd);
+						validEnd += 4 + utfLength(path) + utfLength(id);
+					}
+				} catch (EOFException e) {
+					// end of the journal, or an incomplete last entry
+				} catch (IOException e) {
+					// a corrupt last entry, e.g. a torn UTF-8 sequence
+					EXCEPTION_LOGGER.log(Level.WARNING,
+							"Cutting the path index after a corrupt entry at "
+									+ validEnd, e);
+				}
+			}
+			if (file.length() > validEnd) {
+				file.setLength(validEnd);
+			}
+			return true;
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at opening the path index", e);
+			close();
+			return false;
+		}
+	}
+
+	private String[] readEntry(long offset) {
+		try {
+			file.seek(offset);
+			return new String[] { file.readUTF(), file.readUTF() };
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at reading the path index", e);
+			return null;
+		}
+	}
+
+	private void insert(long hash, long offset) {
+		if (2 * (size + 1) > hashes.length) {
+			long[] oldHashes = hashes;
+			long[] oldOffsets = offsets;
+			hashes = new long[oldHashes.length * 2];
+			offsets = new long[oldOffsets.length * 2];
+			for (int i = 0; i < oldHashes.length; i++) {
+				if (oldOffsets[i] != 0) {
+					insertSlot(oldHashes[i], oldOffsets[i]);
+				}
+			}
+		}
+		insertSlot(hash, offset + 1);
+		size++;
+	}
+
+	private void insertSlot(long hash, long storedOffset) {
+		int mask = hashes.length - 1;
+		int i = (int) hash & mask;
+		while (offsets[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		hashes[i] = hash;
+		offsets[i] = storedOffset;
+	}
+
+	private static long hash(String path) {
+		return HASH_FUNCTION.hashString(path, UTF8).asLong();
+	}
+
+	/**
+	 * Length of a String in modified UTF-8, as written by writeUTF, without
+	 * its two length bytes. Shared by the stores of this package that
+	 * validate the records they wrote.
+	 */
+	static int utfLength(String s) {
+		int length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x0001 && c <= 0x007F) {
+				length++;
+			} else if (c > 0x07FF) {
+				length += 3;
+			} else {
+				length += 2;
+			}
+		}
+		return length;
+	}
+}
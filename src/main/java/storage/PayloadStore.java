@@ -0,0 +1,475 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static configuration.Log.EXCEPTION_LOGGER;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.logging.Level;
+
+import model.ExtractionResultCollection;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Content-addressed store for the results of the extraction modules.
+ * <p>
+ * Most modules return the same results at every extraction. Before a
+ * collection is saved, the results of each module are hashed and stored once
+ * in a journal file, and the snapshot only keeps a reference
+ * <code>{"@payload":"&lt;hash&gt;"}</code> instead of the results. The
+ * references are replaced by the stored results again, when the snapshots
+ * are read.
+ * <p>
+ * The journal is read at the first access and only the hashes and the
+ * offsets of the results are kept on the heap. An incomplete record at the
+ * end of the journal is cut off. Results, that are no longer referenced by
+ * any snapshot, are removed by {@link #collectGarbage}, which rewrites the
+ * journal.
+ */
+public class PayloadStore {
+	/** Field name of the reference, that replaces the results */
+	public static final String PAYLOAD_REFERENCE = "@payload";
+	private static final String RESULTS_FIELD = "results";
+	private static final String REFERENCE_TEXT = "\"" + PAYLOAD_REFERENCE
+			+ "\"";
+	private static final int RECORD_MAGIC = 0x50415931;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final HashFunction HASH_FUNCTION = Hashing.sha1();
+	private static final int CACHE_SIZE = 256;
+
+	private final File journal;
+	private RandomAccessFile file;
+	private Map<String, Long> offsets;
+	// hashes stored since the start of a garbage collection
+	private Set<String> tracked;
+	// recently read results, the same results are referenced by many
+	// snapshots
+	private final Map<String, String> cache = new LinkedHashMap<String, String>(
+			CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * @param journal
+	 *            file to store the results
+	 */
+	public PayloadStore(File journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Converts a collection to a JSON tree, in which the results of each
+	 * module are replaced by a reference to the stored results.
+	 * 
+	 * @param collection
+	 * @return JSON tree to save instead of the collection
+	 * @throws IOException
+	 */
+	public JsonNode deduplicate(ExtractionResultCollection collection)
+			throws IOException {
+		JsonNode tree = JsonMappers.valueToTree(collection);
+		for (JsonNode result : tree.path("extractionResults")) {
+			JsonNode results = result.get(RESULTS_FIELD);
+			if (result.isObject() && results != null
+					&& results.isContainerNode()) {
+				ObjectNode reference = JsonMappers.createObjectNode();
+				reference.put(PAYLOAD_REFERENCE,
+						put(JsonMappers.COMPACT.writeValueAsString(results)));
+				((ObjectNode) result).set(RESULTS_FIELD, reference);
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Stores results, if they aren't stored yet.
+	 * 
+	 * @param payload
+	 *            serialized results
+	 * @return hash of the results
+	 * @throws IOException
+	 */
+	public synchronized String put(String payload) throws IOException {
+		byte[] bytes = payload.getBytes(UTF8);
+		String hash = HASH_FUNCTION.hashBytes(bytes).toString();
+		if (!open()) {
+			throw new IOException("Can't open the payload journal " + journal);
+		}
+		if (tracked != null) {
+			tracked.add(hash);
+		}
+		if (offsets.containsKey(hash)) {
+			return hash;
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+				bytes.length + 64);
+		DataOutputStream record = new DataOutputStream(buffer);
+		record.writeInt(RECORD_MAGIC);
+		record.writeUTF(hash);
+		record.writeInt(bytes.length);
+		int headerLength = record.size();
+		record.write(bytes);
+		record.flush();
+		long offset = file.length();
+		file.seek(offset);
+		file.write(buffer.toByteArray());
+		offsets.put(hash, offset + headerLength);
+		return hash;
+	}
+
+	/**
+	 * @param hash
+	 * @return the stored results, or null if there are no results with this
+	 *         hash
+	 * @throws IOException
+	 */
+	public synchronized String get(String hash) throws IOException {
+		String payload = cache.get(hash);
+		if (payload != null) {
+			return payload;
+		}
+		if (!open()) {
+			return null;
+		}
+		Long offset = offsets.get(hash);
+		if (offset == null) {
+			return null;
+		}
+		file.seek(offset - 4);
+		byte[] bytes = new byte[file.readInt()];
+		file.readFully(bytes);
+		payload = new String(bytes, UTF8);
+		cache.put(hash, payload);
+		return payload;
+	}
+
+	/**
+	 * Replaces the references in a snapshot by the stored results. Snapshots
+	 * without references are returned unchanged.
+	 * 
+	 * @param snapshot
+	 *            JSON of a saved collection
+	 * @return JSON of the saved collection with all results
+	 * @throws IOException
+	 */
+	public String resolve(String snapshot) throws IOException {
+		if (snapshot == null || !snapshot.contains(REFERENCE_TEXT)) {
+			return snapshot;
+		}
+		StringWriter out = new StringWriter(snapshot.length() * 2);
+		try (JsonParser parser = JsonMappers.createParser(snapshot);
+				JsonGenerator generator = JsonMappers.createGenerator(out)) {
+			JsonToken token;
+			while ((token = parser.nextToken()) != null) {
+				if (token == JsonToken.FIELD_NAME
+						&& RESULTS_FIELD.equals(parser.getCurrentName())) {
+					generator.copyCurrentEvent(parser);
+					if (parser.nextToken() == JsonToken.START_OBJECT) {
+						resolveResults(parser, generator);
+					} else {
+						generator.copyCurrentEvent(parser);
+					}
+				} else {
+					generator.copyCurrentEvent(parser);
+				}
+			}
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Writes the stored results if the current object is a reference, or
+	 * else starts to copy the object.
+	 */
+	private void resolveResults(JsonParser parser, JsonGenerator generator)
+			throws IOException {
+		JsonToken token = parser.nextToken();
+		if (token == JsonToken.FIELD_NAME
+				&& PAYLOAD_REFERENCE.equals(parser.getCurrentName())) {
+			parser.nextToken();
+			String hash = parser.getText();
+			parser.skipChildren();
+			while (parser.nextToken() != JsonToken.END_OBJECT) {
+				parser.nextToken();
+				parser.skipChildren();
+			}
+			String payload = get(hash);
+			if (payload == null) {
+				EXCEPTION_LOGGER.log(Level.WARNING, "Missing stored results "
+						+ hash);
+				generator.writeNull();
+			} else {
+				generator.writeRawValue(payload);
+			}
+		} else {
+			generator.writeStartObject();
+			if (token == JsonToken.END_OBJECT) {
+				generator.writeEndObject();
+			} else {
+				generator.copyCurrentEvent(parser);
+			}
+		}
+	}
+
+	/**
+	 * Adds the hashes of the results, that a snapshot references.
+	 * 
+	 * @param snapshot
+	 *            JSON of a saved collection
+	 * @param hashes
+	 *            collects the hashes
+	 * @throws IOException
+	 */
+	public static void collectReferences(String snapshot, Set<String> hashes)
+			throws IOException {
+		if (snapshot == null || !snapshot.contains(REFERENCE_TEXT)) {
+			return;
+		}
+		try (JsonParser parser = JsonMappers.createParser(snapshot)) {
+			JsonToken token;
+			while ((token = parser.nextToken()) != null) {
+				if (token == JsonToken.FIELD_NAME
+						&& PAYLOAD_REFERENCE.equals(parser.getCurrentName())
+						&& parser.nextToken() == JsonToken.VALUE_STRING) {
+					hashes.add(parser.getText());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param hash
+	 * @return the size of the record of the results in the journal, or 0 if
+	 *         there are no results with this hash
+	 * @throws IOException
+	 */
+	public synchronized long getRecordLength(String hash) throws IOException {
+		if (!open()) {
+			return 0;
+		}
+		Long offset = offsets.get(hash);
+		if (offset == null) {
+			return 0;
+		}
+		file.seek(offset - 4);
+		return getHeaderLength(hash) + file.readInt();
+	}
+
+	/**
+	 * Starts a garbage collection: the results stored from now on are kept by
+	 * {@link #collectGarbage}, because the snapshots referencing them may not
+	 * have been seen by the caller.
+	 */
+	public synchronized void startTracking() {
+		tracked = new HashSet<String>();
+	}
+
+	/**
+	 * Rewrites the journal with the referenced results and the results
+	 * stored since {@link #startTracking()}, in their order.
+	 * 
+	 * @param referenced
+	 *            hashes referenced by the stored snapshots
+	 * @return number of reclaimed bytes
+	 * @throws IOException
+	 */
+	public synchronized long collectGarbage(Set<String> referenced)
+			throws IOException {
+		Set<String> live = new HashSet<String>(referenced);
+		if (tracked != null) {
+			live.addAll(tracked);
+			tracked = null;
+		}
+		if (!open() || live.containsAll(offsets.keySet())) {
+			return 0;
+		}
+		List<Entry<String, Long>> records = new ArrayList<Entry<String, Long>>(
+				offsets.entrySet());
+		Collections.sort(records, new Comparator<Entry<String, Long>>() {
+			@Override
+			public int compare(Entry<String, Long> o1, Entry<String, Long> o2) {
+				return Long.compare(o1.getValue(), o2.getValue());
+			}
+		});
+		long before = file.length();
+		File temp = new File(journal.getPath() + ".tmp");
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(
+				temp))) {
+			for (Entry<String, Long> record : records) {
+				if (!live.contains(record.getKey())) {
+					continue;
+				}
+				long headerLength = getHeaderLength(record.getKey());
+				file.seek(record.getValue() - 4);
+				byte[] bytes = new byte[(int) headerLength + file.readInt()];
+				file.seek(record.getValue() - headerLength);
+				file.readFully(bytes);
+				out.write(bytes);
+			}
+		}
+		close();
+		Files.move(temp.toPath(), journal.toPath(),
+				StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		return before - journal.length();
+	}
+
+	/**
+	 * @return length of the magic number, hash and payload length of a
+	 *         record
+	 */
+	private static long getHeaderLength(String hash) {
+		return 4 + 2 + PathIdIndex.utfLength(hash) + 4;
+	}
+
+	/**
+	 * @return number of stored results
+	 */
+	public synchronized int size() {
+		return open() ? offsets.size() : 0;
+	}
+
+	/**
+	 * Closes the journal. It is opened again at the next access.
+	 */
+	public synchronized void close() {
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception while closing the payload journal", e);
+			}
+		}
+		file = null;
+		offsets = null;
+		cache.clear();
+	}
+
+	/**
+	 * Closes and deletes the journal.
+	 */
+	public synchronized void clear() {
+		close();
+		if (journal.exists() && !journal.delete()) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Can't delete the payload journal " + journal);
+		}
+	}
+
+	/**
+	 * Reads the journal at the first access.
+	 * 
+	 * @return true, if the journal is open
+	 */
+	private boolean open() {
+		if (file != null) {
+			return true;
+		}
+		try {
+			File parent = journal.getAbsoluteFile().getParentFile();
+			if (parent != null) {
+				parent.mkdirs();
+			}
+			offsets = new HashMap<String, Long>();
+			long valid = load();
+			file = new RandomAccessFile(journal, "rw");
+			if (file.length() > valid) {
+				file.setLength(valid);
+			}
+			return true;
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception while opening the payload journal", e);
+			offsets = null;
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the hashes and offsets of the stored results.
+	 * 
+	 * @return length of the complete records
+	 */
+	private long load() throws IOException {
+		if (!journal.exists()) {
+			return 0;
+		}
+		long length = journal.length();
+		long position = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(journal)))) {
+			while (true) {
+				try {
+					if (in.readInt() != RECORD_MAGIC) {
+						break;
+					}
+					String hash = in.readUTF();
+					int payloadLength = in.readInt();
+					long headerLength = getHeaderLength(hash);
+					long end = position + headerLength + payloadLength;
+					if (payloadLength < 0 || end > length
+							|| in.skipBytes(payloadLength) != payloadLength) {
+						break;
+					}
+					offsets.put(hash, position + headerLength);
+					position = end;
+				} catch (EOFException e) {
+					break;
+				}
+			}
+		}
+		return position;
+	}
+}
@@ -0,0 +1,377 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import model.Environment;
+import model.ExtractionResultCollection;
+import model.Part;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Bounded cache of the snapshots of parts and environments, together with
+ * their parsed collections, the differences between them and the per-module
+ * projections shown at the GUI.
+ * <p>
+ * The entries are weighed by the size of their snapshots and the least
+ * recently used entries are evicted, when the maximal weight is exceeded. When
+ * a new snapshot of a cached collection is written, its entry is taken out of
+ * the cache during the write, and the snapshot is appended to it afterwards,
+ * so that only its difference to the previous snapshot is computed. All
+ * entries are invalidated when snapshots are compacted or deleted.
+ */
+public class ResultCache {
+	/** Default maximal weight, about 64 MB */
+	public static final long DEFAULT_MAXIMUM_WEIGHT = 64L * 1024 * 1024;
+
+	private final Cache<String, Entry> cache;
+	private final long maximumWeight;
+	/**
+	 * Incremented at each invalidation, so that snapshots read before an
+	 * invalidation are not cached after it.
+	 */
+	private final AtomicLong generation = new AtomicLong();
+	/** Incremented when all entries are invalidated */
+	private long clears;
+
+	/**
+	 * A write of a snapshot, see {@link #beginWrite(String)}.
+	 */
+	public static class Write {
+		final String key;
+		final Entry entry;
+		final long clears;
+
+		Write(String key, Entry entry, long clears) {
+			this.key = key;
+			this.entry = entry;
+			this.clears = clears;
+		}
+
+		/**
+		 * @return true, if the collection was cached before the write
+		 */
+		public boolean isCached() {
+			return entry != null;
+		}
+	}
+
+	/**
+	 * Snapshots of one collection, parsed and projected on demand.
+	 */
+	public static class Entry {
+		/** The resolved snapshots, oldest first */
+		public final String[] snapshots;
+		private volatile ExtractionResultCollection[] collections;
+		private List<SnapshotDiff> diffs;
+		private JsonNode last;
+		private final ConcurrentMap<String, Object> projections = new ConcurrentHashMap<String, Object>();
+
+		Entry(String[] snapshots) {
+			this.snapshots = snapshots;
+		}
+
+		/**
+		 * @return the differences between each snapshot and its predecessor,
+		 *         oldest first
+		 * @throws IOException
+		 */
+		public synchronized List<SnapshotDiff> getDiffs() throws IOException {
+			if (diffs == null) {
+				List<SnapshotDiff> result = new ArrayList<SnapshotDiff>();
+				JsonNode previous = null;
+				for (String snapshot : snapshots) {
+					JsonNode current = JsonMappers.TREE.readValue(snapshot);
+					if (previous != null) {
+						result.add(SnapshotDiff.compare(previous, current));
+					}
+					previous = current;
+				}
+				last = previous;
+				diffs = Collections.unmodifiableList(result);
+			}
+			return diffs;
+		}
+
+		/**
+		 * @return a new entry with the snapshot appended, and the differences
+		 *         extended by one, if they were already computed
+		 */
+		synchronized Entry append(String snapshot, JsonNode tree) {
+			String[] extended = Arrays.copyOf(snapshots, snapshots.length + 1);
+			extended[snapshots.length] = snapshot;
+			Entry entry = new Entry(extended);
+			if (diffs != null) {
+				List<SnapshotDiff> result = new ArrayList<SnapshotDiff>(diffs);
+				if (last != null) {
+					result.add(SnapshotDiff.compare(last, tree));
+				}
+				entry.diffs = Collections.unmodifiableList(result);
+				entry.last = tree;
+			}
+			return entry;
+		}
+
+		/**
+		 * @return the deserialized snapshots, shared by all callers and not to
+		 *         be modified
+		 * @throws IOException
+		 */
+		public ExtractionResultCollection[] getCollections()
+				throws IOException {
+			ExtractionResultCollection[] result = collections;
+			if (result == null) {
+				result = new ExtractionResultCollection[snapshots.length];
+				for (int i = 0; i < snapshots.length; i++) {
+					result[i] = GeneralStorage
+							.getExtractionResultCollection(snapshots[i]);
+				}
+				collections = result;
+			}
+			return result;
+		}
+
+		/**
+		 * @param key
+		 *            name of the projection, e.g. the view and the module
+		 * @return the cached projection, or null
+		 */
+		public Object getProjection(String key) {
+			return projections.get(key);
+		}
+
+		/**
+		 * Caches a projection of the snapshots. Projections are shared by all
+		 * callers and must not be modified.
+		 * 
+		 * @param key
+		 * @param projection
+		 */
+		public void putProjection(String key, Object projection) {
+			if (projection != null) {
+				projections.put(key, projection);
+			}
+		}
+
+		int weight() {
+			long chars = 0;
+			for (String snapshot : snapshots) {
+				chars += snapshot.length();
+			}
+			// two bytes per character, the parsed collections and projections
+			// are counted as being about as big again
+			return (int) Math.min(Integer.MAX_VALUE, chars * 4 + 64);
+		}
+	}
+
+	public ResultCache() {
+		this(DEFAULT_MAXIMUM_WEIGHT);
+	}
+
+	/**
+	 * @param maximumWeight
+	 *            maximal estimated size of the entries in bytes, 0 disables
+	 *            the cache
+	 */
+	public ResultCache(long maximumWeight) {
+		this.maximumWeight = maximumWeight;
+		cache = CacheBuilder.newBuilder().concurrencyLevel(1)
+				.maximumWeight(maximumWeight)
+				.weigher(new Weigher<String, Entry>() {
+					@Override
+					public int weigh(String key, Entry value) {
+						return value.weight();
+					}
+				}).recordStats().build();
+	}
+
+	/**
+	 * @param coll
+	 * @return the key of a part or an environment, or null if the collection
+	 *         is of another kind and is not cached
+	 */
+	public static String key(ExtractionResultCollection coll) {
+		if (coll instanceof Part) {
+			return key(coll.profileUUID, "file-dependent",
+					((Part) coll).getPath());
+		} else if (coll instanceof Environment) {
+			return key(coll.profileUUID, "environment", null);
+		}
+		return null;
+	}
+
+	/**
+	 * @param profileUUID
+	 * @param type
+	 *            "file-dependent" or "environment"
+	 * @param path
+	 *            path of the part, or null for an environment
+	 * @return the key of the collection
+	 */
+	public static String key(String profileUUID, String type, String path) {
+		return type + "|" + profileUUID + "|" + (path == null ? "" : path);
+	}
+
+	/**
+	 * @param key
+	 * @return the cached entry, or null
+	 */
+	public Entry getIfPresent(String key) {
+		return key == null ? null : cache.getIfPresent(key);
+	}
+
+	/**
+	 * @return token to pass to {@link #put}, taken before reading the
+	 *         snapshots from the backend
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Caches the snapshots read from the backend, unless the cache was
+	 * invalidated since they were read.
+	 * 
+	 * @param key
+	 * @param snapshots
+	 * @param generation
+	 *            value of {@link #getGeneration()} before the read
+	 * @return the entry, that is cached if possible
+	 */
+	public Entry put(String key, String[] snapshots, long generation) {
+		Entry entry = new Entry(snapshots);
+		if (key != null && snapshots != null && maximumWeight > 0) {
+			synchronized (this) {
+				if (generation == this.generation.get()) {
+					cache.put(key, entry);
+				}
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Takes the entry of a collection out of the cache, before a snapshot of
+	 * it is written. Snapshots that are read during the write are not cached,
+	 * as they may or may not contain the new snapshot.
+	 * 
+	 * @param key
+	 * @return the write to pass to {@link #endWrite}
+	 */
+	public synchronized Write beginWrite(String key) {
+		generation.incrementAndGet();
+		return new Write(key, cache.asMap().remove(key), clears);
+	}
+
+	/**
+	 * Appends the written snapshot to the entry taken out before the write.
+	 * The entry is dropped, if the cache was invalidated or the collection
+	 * was cached again meanwhile.
+	 * 
+	 * @param write
+	 *            the write returned by {@link #beginWrite(String)}
+	 * @param snapshot
+	 *            the resolved snapshot
+	 * @param tree
+	 *            the parsed snapshot
+	 */
+	public synchronized void endWrite(Write write, String snapshot,
+			JsonNode tree) {
+		generation.incrementAndGet();
+		Entry cached = cache.asMap().remove(write.key);
+		if (cached == null && write.entry != null && write.clears == clears
+				&& maximumWeight > 0) {
+			cache.put(write.key, write.entry.append(snapshot, tree));
+		}
+	}
+
+	/**
+	 * Removes the entry of a collection, after a snapshot was written.
+	 * 
+	 * @param key
+	 */
+	public synchronized void invalidate(String key) {
+		generation.incrementAndGet();
+		cache.invalidate(key);
+	}
+
+	/**
+	 * Removes all entries, after snapshots were deleted.
+	 */
+	public synchronized void invalidateAll() {
+		generation.incrementAndGet();
+		clears++;
+		cache.invalidateAll();
+	}
+
+	/**
+	 * @return keys of the cached collections
+	 */
+	public Set<String> keys() {
+		return Collections.unmodifiableSet(new HashSet<String>(cache.asMap()
+				.keySet()));
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	/**
+	 * @return the estimated weight of all entries
+	 */
+	public long getWeight() {
+		long weight = 0;
+		for (Entry entry : cache.asMap().values()) {
+			weight += entry.weight();
+		}
+		return weight;
+	}
+
+	public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	@Override
+	public String toString() {
+		CacheStats stats = cache.stats();
+		return String.format(
+				"%d collections, %d/%d KB, %d hits, %d misses, "
+						+ "hit rate %.1f%%, %d evictions", cache.size(),
+				getWeight() / 1024, maximumWeight / 1024, stats.hitCount(),
+				stats.missCount(), stats.hitRate() * 100,
+				stats.evictionCount());
+	}
+}
@@ -0,0 +1,130 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Streaming reader for stored snapshots of an
+ * {@link model.ExtractionResultCollection}, based on the Jackson
+ * {@link JsonParser}.
+ * <p>
+ * The snapshots are read token by token. Only the extraction results of the
+ * requested module are built as JSON tree, the results of all other modules
+ * are skipped.
+ */
+public class ResultStreamReader {
+	private static final String MODULE_NAME = "moduleName";
+	private static final String RESULTS = "results";
+
+	private ResultStreamReader() {
+	}
+
+	/**
+	 * Reads the extraction results of a module from a snapshot.
+	 * 
+	 * @param snapshot
+	 *            serialized ExtractionResultCollection
+	 * @param moduleName
+	 *            name of the module
+	 * @return the serialized {@link model.ExtractionResult}s of the module
+	 * @throws IOException
+	 */
+	public static List<ObjectNode> readModuleResults(String snapshot,
+			String moduleName) throws IOException {
+		List<ObjectNode> results = new ArrayList<ObjectNode>();
+		try (JsonParser parser = JsonMappers.createParser(snapshot)) {
+			parser.nextToken();
+			readValue(parser, moduleName, results);
+		}
+		return results;
+	}
+
+	/**
+	 * Adds the names of all modules with results in a snapshot to a set.
+	 * 
+	 * @param snapshot
+	 *            serialized ExtractionResultCollection
+	 * @param moduleNames
+	 *            set to add the names to
+	 * @throws IOException
+	 */
+	public static void readModuleNames(String snapshot, Set<String> moduleNames)
+			throws IOException {
+		try (JsonParser parser = JsonMappers.createParser(snapshot)) {
+			JsonToken token;
+			while ((token = parser.nextToken()) != null) {
+				if (token == JsonToken.FIELD_NAME
+						&& parser.getCurrentName().equals(MODULE_NAME)
+						&& parser.nextToken().isScalarValue()) {
+					moduleNames.add(parser.getText());
+				}
+			}
+		}
+	}
+
+	private static void readValue(JsonParser parser, String moduleName,
+			List<ObjectNode> results) throws IOException {
+		JsonToken token = parser.getCurrentToken();
+		if (token == JsonToken.START_OBJECT) {
+			readObject(parser, moduleName, results);
+		} else if (token == JsonToken.START_ARRAY) {
+			while (parser.nextToken() != JsonToken.END_ARRAY) {
+				readValue(parser, moduleName, results);
+			}
+		}
+	}
+
+	/**
+	 * Reads an object. If it has a matching module name, it is the wanted
+	 * extraction result and is added to the results. Otherwise nested values
+	 * are searched, except for the result objects of other modules.
+	 */
+	private static void readObject(JsonParser parser, String moduleName,
+			List<ObjectNode> results) throws IOException {
+		ObjectNode fields = JsonMappers.createObjectNode();
+		String name = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String key = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if (name != null && !name.equals(moduleName)) {
+				// results of another module
+				parser.skipChildren();
+			} else if (token.isScalarValue()) {
+				if (key.equals(MODULE_NAME)) {
+					name = parser.getText();
+				}
+				fields.set(key, (JsonNode) parser.readValueAsTree());
+			} else if (name != null || key.equals(RESULTS)) {
+				fields.set(key, (JsonNode) parser.readValueAsTree());
+			} else {
+				readValue(parser, moduleName, results);
+			}
+		}
+		if (name != null && name.equals(moduleName)) {
+			results.add(fields);
+		}
+	}
+}
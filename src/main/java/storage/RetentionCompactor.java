@@ -0,0 +1,120 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static configuration.Log.EXCEPTION_LOGGER;
+import static configuration.Log.FLOW_LOGGER;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+
+/**
+ * Enforces the {@link RetentionPolicies} in the background.
+ * <p>
+ * A compaction pass runs in a low priority daemon thread in the configured
+ * interval. It works through the histories one by one and doesn't lock the
+ * storage, so the extraction continues while the old snapshots are deleted.
+ * The policies are read again at every pass.
+ */
+public class RetentionCompactor {
+	private static final long MINUTE = 60 * 1000;
+
+	private final GeneralStorage storage;
+	private final CompactionReport total = new CompactionReport();
+	private volatile CompactionReport lastReport;
+	private final Object passLock = new Object();
+	private Timer timer;
+
+	/**
+	 * @param storage
+	 *            storage to compact
+	 */
+	public RetentionCompactor(GeneralStorage storage) {
+		this.storage = storage;
+	}
+
+	/**
+	 * Starts the compaction in the interval of the current policies.
+	 */
+	public synchronized void start() {
+		if (timer != null) {
+			return;
+		}
+		long interval = Math.max(1,
+				RetentionPolicies.load().compactionIntervalMinutes)
+				* MINUTE;
+		timer = new Timer("Retention compactor", true);
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+				compact();
+			}
+		}, interval, interval);
+	}
+
+	/**
+	 * Stops the background compaction. A running pass is finished.
+	 */
+	public synchronized void stop() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+	}
+
+	/**
+	 * Runs a compaction pass with the current policies.
+	 * 
+	 * @return what the pass reclaimed
+	 */
+	public CompactionReport compact() {
+		RetentionPolicies policies = RetentionPolicies.load();
+		CompactionReport report;
+		synchronized (passLock) {
+			try {
+				report = storage.compact(policies);
+			} catch (RuntimeException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception while compacting the stored results", e);
+				return null;
+			}
+		}
+		total.add(report);
+		lastReport = report;
+		if (report.deletedSnapshots > 0 || report.rewrittenSnapshots > 0
+				|| report.deletedEvents > 0) {
+			FLOW_LOGGER.info("Compaction: " + report);
+		}
+		return report;
+	}
+
+	/**
+	 * @return the report of the last pass, or null if no pass ran yet
+	 */
+	public CompactionReport getLastReport() {
+		return lastReport;
+	}
+
+	/**
+	 * @return the sum of all passes
+	 */
+	public CompactionReport getTotalReport() {
+		return total;
+	}
+}
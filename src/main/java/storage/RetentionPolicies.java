@@ -0,0 +1,136 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static configuration.Log.EXCEPTION_LOGGER;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+import configuration.Constants;
+
+/**
+ * Configuration of the retention of the stored extraction results and events,
+ * read from the file retention.json in the configuration directory:
+ * 
+ * <pre>
+ * {
+ *   "defaultPolicy" : { "keepLast" : 0, "dailyAfterDays" : 30 },
+ *   "profiles" : { "&lt;profile UUID&gt;" : { "keepLast" : 100 } },
+ *   "modules" : { "&lt;module name&gt;" : { "keepLast" : 10 } },
+ *   "maxTotalBytes" : 1073741824,
+ *   "maxEventBytes" : 104857600,
+ *   "maxEventAgeDays" : 90,
+ *   "compactionIntervalMinutes" : 60
+ * }
+ * </pre>
+ * 
+ * Profile policies replace the default policy for the snapshots of a
+ * profile. Module policies additionally remove older results of single
+ * modules from the kept snapshots. A value of 0 disables a limit.
+ */
+public class RetentionPolicies {
+	public static final String FILE_NAME = "retention.json";
+
+	public RetentionPolicy defaultPolicy = new RetentionPolicy();
+	public Map<String, RetentionPolicy> profiles = new HashMap<String, RetentionPolicy>();
+	public Map<String, RetentionPolicy> modules = new HashMap<String, RetentionPolicy>();
+	/**
+	 * Maximal size of all snapshots and the module results they reference,
+	 * the oldest snapshots are deleted first
+	 */
+	public long maxTotalBytes = 0;
+	/** Maximal size of the event log, the oldest events are deleted first */
+	public long maxEventBytes = 0;
+	/** Events older than this number of days are deleted */
+	public int maxEventAgeDays = 0;
+	public int compactionIntervalMinutes = 60;
+
+	/**
+	 * @return the configured policies, or policies that keep everything if
+	 *         there is no configuration
+	 */
+	public static RetentionPolicies load() {
+		return load(new File(Constants.CONFIG_DIRECTORY, FILE_NAME));
+	}
+
+	/**
+	 * @param file
+	 * @return the policies of the file, or policies that keep everything if
+	 *         the file doesn't exist or can't be read
+	 */
+	public static RetentionPolicies load(File file) {
+		if (file.exists()) {
+			try {
+				return JsonMappers.reader(RetentionPolicies.class).readValue(
+						file);
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception while reading the retention policies", e);
+			}
+		}
+		return new RetentionPolicies();
+	}
+
+	/**
+	 * @param profileUUID
+	 * @return the policy for the snapshots of the profile
+	 */
+	public RetentionPolicy getPolicy(String profileUUID) {
+		RetentionPolicy policy = profiles.get(profileUUID);
+		return policy != null ? policy : defaultPolicy;
+	}
+
+	/**
+	 * @param moduleName
+	 * @return the policy for the results of the module, or null if the
+	 *         results are kept with their snapshots
+	 */
+	public RetentionPolicy getModulePolicy(String moduleName) {
+		return modules.get(moduleName);
+	}
+
+	/**
+	 * @return true, if no snapshots are deleted
+	 */
+	public boolean keepsAllSnapshots() {
+		if (!defaultPolicy.keepsAll() || maxTotalBytes > 0) {
+			return false;
+		}
+		for (RetentionPolicy policy : profiles.values()) {
+			if (!policy.keepsAll()) {
+				return false;
+			}
+		}
+		for (RetentionPolicy policy : modules.values()) {
+			if (!policy.keepsAll()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true, if no events are deleted
+	 */
+	public boolean keepsAllEvents() {
+		return maxEventBytes <= 0 && maxEventAgeDays <= 0;
+	}
+}
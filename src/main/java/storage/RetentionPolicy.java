@@ -0,0 +1,83 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import java.util.TimeZone;
+
+/**
+ * Rule which stored snapshots of a history are kept. A history is the
+ * sequence of snapshots of one part or one environment, or of the results of
+ * one module.
+ * <p>
+ * The newest snapshot is always kept. A value of 0 disables the rule.
+ */
+public class RetentionPolicy {
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	/** Number of newest snapshots to keep */
+	public int keepLast = 0;
+	/** Snapshots older than this number of days are reduced to one per day */
+	public int dailyAfterDays = 0;
+
+	public RetentionPolicy() {
+	}
+
+	public RetentionPolicy(int keepLast, int dailyAfterDays) {
+		this.keepLast = keepLast;
+		this.dailyAfterDays = dailyAfterDays;
+	}
+
+	/**
+	 * @return true, if the policy keeps all snapshots
+	 */
+	public boolean keepsAll() {
+		return keepLast <= 0 && dailyAfterDays <= 0;
+	}
+
+	/**
+	 * Selects the snapshots to keep.
+	 * 
+	 * @param times
+	 *            times of the snapshots in chronological order
+	 * @param now
+	 *            current time
+	 * @return for each snapshot, if it is kept
+	 */
+	public boolean[] select(long[] times, long now) {
+		int n = times.length;
+		boolean[] keep = new boolean[n];
+		long oldest = now - dailyAfterDays * DAY;
+		TimeZone zone = TimeZone.getDefault();
+		for (int i = 0; i < n; i++) {
+			keep[i] = true;
+			if (keepLast > 0 && i < n - keepLast) {
+				keep[i] = false;
+			} else if (dailyAfterDays > 0 && times[i] < oldest && i < n - 1) {
+				// keep the last snapshot of each day
+				keep[i] = getDay(times[i], zone) != getDay(times[i + 1], zone);
+			}
+		}
+		if (n > 0) {
+			keep[n - 1] = true;
+		}
+		return keep;
+	}
+
+	private static long getDay(long time, TimeZone zone) {
+		return (time + zone.getOffset(time)) / DAY;
+	}
+}
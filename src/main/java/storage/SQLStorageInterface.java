@@ -0,0 +1,537 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static configuration.Log.EXCEPTION_LOGGER;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.logging.Level;
+
+import model.Environment;
+import model.ExtractionResultCollection;
+import model.Part;
+
+import utility.FileUtils;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import configuration.Constants;
+
+/**
+ * Embedded H2 storage backend, which stores the results in normalized tables
+ * for analytical queries.
+ * <p>
+ * Each saved collection is a row of the table <code>snapshots</code>, each
+ * of its extraction results a row of <code>results</code> and the scalar
+ * values of the results rows of <code>key_values</code>. The path of an
+ * environment is the empty String. The header and the row of a result at the
+ * InformationChangeTable are computed once at saving, so that the tables
+ * are read with an indexed query instead of walking the JSON trees of all
+ * snapshots. Commits are grouped like at the {@link MAPDBStorageInterface}.
+ * <p>
+ * {@link #query(String, int)} runs on a second connection of a user that is
+ * only allowed to read the three tables.
+ */
+public class SQLStorageInterface extends GeneralStorage {
+	/** Number of saves after which the changes are committed */
+	public static final int COMMIT_BATCH = 100;
+	/** Seconds after which a query of {@link #query(String, int)} is canceled */
+	public static final int QUERY_TIMEOUT = 60;
+
+	private static final String READER = "RESULT_READER";
+	private static final TypeReference<ArrayList<String>> STRING_LIST = new TypeReference<ArrayList<String>>() {
+	};
+	private static final String[] SCHEMA = {
+			"CREATE TABLE IF NOT EXISTS snapshots ("
+					+ "id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+					+ "profile_uuid VARCHAR NOT NULL, "
+					+ "path VARCHAR NOT NULL, type VARCHAR NOT NULL, "
+					+ "saved TIMESTAMP NOT NULL, snapshot CLOB NOT NULL)",
+			"CREATE INDEX IF NOT EXISTS snapshots_history "
+					+ "ON snapshots(profile_uuid, path, id)",
+			"CREATE TABLE IF NOT EXISTS results ("
+					+ "id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+					+ "snapshot_id BIGINT NOT NULL, "
+					+ "profile_uuid VARCHAR NOT NULL, path VARCHAR NOT NULL, "
+					+ "module_name VARCHAR, module_version VARCHAR, "
+					+ "extraction_date TIMESTAMP, header VARCHAR, "
+					+ "row_values CLOB, result CLOB)",
+			"CREATE INDEX IF NOT EXISTS results_module "
+					+ "ON results(profile_uuid, path, module_name, snapshot_id)",
+			"CREATE INDEX IF NOT EXISTS results_module_date "
+					+ "ON results(module_name, extraction_date)",
+			"CREATE INDEX IF NOT EXISTS results_date "
+					+ "ON results(extraction_date)",
+			"CREATE TABLE IF NOT EXISTS key_values ("
+					+ "result_id BIGINT NOT NULL, "
+					+ "result_key VARCHAR NOT NULL, result_value VARCHAR)",
+			"CREATE INDEX IF NOT EXISTS key_values_result "
+					+ "ON key_values(result_id)",
+			"CREATE INDEX IF NOT EXISTS key_values_key "
+					+ "ON key_values(result_key, result_value)" };
+
+	private final String url;
+	private final Connection client;
+	private Connection reader;
+	private String readerPassword;
+	private int uncommitted = 0;
+
+	public SQLStorageInterface() {
+		this(new File(Constants.OUTPUT_DIRECTORY, "metadata"));
+	}
+
+	/**
+	 * @param file
+	 *            database file, without the extension added by H2
+	 */
+	public SQLStorageInterface(File file) {
+		FileUtils.createDirectory(file.getAbsoluteFile().getParentFile()
+				.toPath());
+		url = "jdbc:h2:" + file.getAbsolutePath();
+		try {
+			client = DriverManager.getConnection(url, "sa", "");
+			try (Statement statement = client.createStatement()) {
+				for (String sql : SCHEMA) {
+					statement.execute(sql);
+				}
+			}
+			client.setAutoCommit(false);
+		} catch (SQLException e) {
+			throw new IllegalStateException("Can't open the database " + url,
+					e);
+		}
+	}
+
+	@Override
+	public synchronized void finalize() {
+		closePayloadStore();
+		closeBlobStore();
+		closeMetricStore();
+		closeEventLog();
+		try {
+			if (reader != null) {
+				reader.close();
+				reader = null;
+			}
+			if (!client.isClosed()) {
+				client.commit();
+				client.close();
+			}
+		} catch (SQLException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception while closing the database", e);
+		}
+	}
+
+	@Override
+	public synchronized void save(String collection, String profileUUID,
+			String type, String path) {
+		path = path == null ? "" : path;
+		Savepoint savepoint = null;
+		try {
+			// a failed save is rolled back without the rest of the batch
+			savepoint = client.setSavepoint();
+			long snapshotId;
+			try (PreparedStatement statement = client.prepareStatement(
+					"INSERT INTO snapshots(profile_uuid, path, type, saved, "
+							+ "snapshot) VALUES (?, ?, ?, ?, ?)",
+					Statement.RETURN_GENERATED_KEYS)) {
+				statement.setString(1, profileUUID);
+				statement.setString(2, path);
+				statement.setString(3, type);
+				statement.setTimestamp(4,
+						new Timestamp(System.currentTimeMillis()));
+				statement.setString(5, collection);
+				statement.executeUpdate();
+				snapshotId = getGeneratedKey(statement);
+			}
+			saveResults(snapshotId, profileUUID, path, collection);
+			client.releaseSavepoint(savepoint);
+			if (++uncommitted >= COMMIT_BATCH) {
+				commit();
+			}
+		} catch (SQLException | IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception while saving the results", e);
+			if (savepoint != null) {
+				try {
+					client.rollback(savepoint);
+				} catch (SQLException rollback) {
+					EXCEPTION_LOGGER.log(Level.SEVERE,
+							"Exception while rolling back the results",
+							rollback);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Inserts the extraction results of a snapshot and their key-value pairs.
+	 */
+	private void saveResults(long snapshotId, String profileUUID,
+			String path, String collection) throws SQLException, IOException {
+		String resolved = getPayloadStore().resolve(collection);
+		JsonNode extractionResults = JsonMappers.TREE.<JsonNode> readValue(
+				resolved).path("extractionResults");
+		if (!extractionResults.isArray()) {
+			return;
+		}
+		try (PreparedStatement results = client.prepareStatement(
+				"INSERT INTO results(snapshot_id, profile_uuid, path, "
+						+ "module_name, module_version, extraction_date, "
+						+ "header, row_values, result) "
+						+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+				Statement.RETURN_GENERATED_KEYS);
+				PreparedStatement keyValues = client
+						.prepareStatement("INSERT INTO key_values(result_id, "
+								+ "result_key, result_value) VALUES (?, ?, ?)")) {
+			for (JsonNode result : extractionResults) {
+				results.setLong(1, snapshotId);
+				results.setString(2, profileUUID);
+				results.setString(3, path);
+				results.setString(4, getText(result.get("moduleName")));
+				results.setString(5, getText(result.get("moduleVersion")));
+				results.setTimestamp(6,
+						getTimestamp(result.get("extractionDate")));
+				results.setString(7, JsonMappers.COMPACT
+						.writeValueAsString(getHeader(result)));
+				results.setString(8, JsonMappers.COMPACT
+						.writeValueAsString(getColumn(result)));
+				results.setString(9,
+						JsonMappers.COMPACT.writeValueAsString(result));
+				results.executeUpdate();
+				long resultId = getGeneratedKey(results);
+				keyValues.setLong(1, resultId);
+				addKeyValues(keyValues, result.get("results"));
+				keyValues.executeBatch();
+			}
+		}
+	}
+
+	/**
+	 * Adds all scalar fields of a result to the batch, with the field name as
+	 * key.
+	 */
+	private static void addKeyValues(PreparedStatement keyValues,
+			JsonNode node) throws SQLException {
+		if (node == null) {
+			return;
+		}
+		if (node.isArray()) {
+			for (JsonNode child : node) {
+				addKeyValues(keyValues, child);
+			}
+			return;
+		}
+		Iterator<Entry<String, JsonNode>> fields = node.fields();
+		while (fields.hasNext()) {
+			Entry<String, JsonNode> field = fields.next();
+			if (field.getValue().isValueNode()) {
+				keyValues.setString(2, field.getKey());
+				keyValues.setString(3, getText(field.getValue()));
+				keyValues.addBatch();
+			} else {
+				addKeyValues(keyValues, field.getValue());
+			}
+		}
+	}
+
+	private static String getText(JsonNode node) {
+		return node == null || node.isNull() ? null : node.asText();
+	}
+
+	private static Timestamp getTimestamp(JsonNode date) {
+		Date parsed = parseDate(date);
+		return parsed == null ? null : new Timestamp(parsed.getTime());
+	}
+
+	private static long getGeneratedKey(Statement statement)
+			throws SQLException {
+		try (ResultSet keys = statement.getGeneratedKeys()) {
+			keys.next();
+			return keys.getLong(1);
+		}
+	}
+
+	@Override
+	protected synchronized void flushWrites() {
+		commit();
+	}
+
+	@Override
+	public synchronized void deleteAllMetadata() {
+		try (Statement statement = client.createStatement()) {
+			statement.execute("TRUNCATE TABLE key_values");
+			statement.execute("TRUNCATE TABLE results");
+			statement.execute("TRUNCATE TABLE snapshots");
+			client.commit();
+			uncommitted = 0;
+		} catch (SQLException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception while deleting the results", e);
+		}
+		resetPayloadStore();
+		resetBlobStore();
+		resetMetricStore();
+		resetEventLog();
+		invalidateResultCache();
+	}
+
+	/**
+	 * Logic to get the data to fill the InformationChangeTable.
+	 * 
+	 * @return data to fill the InformationChangeTable
+	 */
+	@Override
+	public synchronized String[] getRawResults(ExtractionResultCollection coll) {
+		String path = getPath(coll);
+		if (path == null) {
+			return null;
+		}
+		List<String> snapshots = new ArrayList<String>();
+		try (PreparedStatement statement = client
+				.prepareStatement("SELECT snapshot FROM snapshots "
+						+ "WHERE profile_uuid = ? AND path = ? ORDER BY id")) {
+			statement.setString(1, coll.profileUUID);
+			statement.setString(2, path);
+			try (ResultSet rows = statement.executeQuery()) {
+				while (rows.next()) {
+					snapshots.add(rows.getString(1));
+				}
+			}
+		} catch (SQLException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception while reading the stored results", e);
+		}
+		return resolvePayloads(snapshots.toArray(new String[0]));
+	}
+
+	@Override
+	public synchronized ResultTable getResultTable(
+			ExtractionResultCollection coll, String moduleName) {
+		String path = getPath(coll);
+		String[] header = null;
+		ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+		if (path == null) {
+			return new ResultTable(header, rows);
+		}
+		try (PreparedStatement statement = client
+				.prepareStatement("SELECT header, row_values FROM results "
+						+ "WHERE profile_uuid = ? AND path = ? "
+						+ "AND module_name = ? ORDER BY snapshot_id, id")) {
+			statement.setString(1, coll.profileUUID);
+			statement.setString(2, path);
+			statement.setString(3, moduleName);
+			try (ResultSet results = statement.executeQuery()) {
+				while (results.next()) {
+					if (header == null) {
+						ArrayList<String> headerStrings = new ArrayList<String>();
+						headerStrings.add("Extraction Date");
+						headerStrings.addAll(JsonMappers.TREE
+								.<ArrayList<String>> withType(STRING_LIST)
+								.<ArrayList<String>> readValue(
+										results.getString(1)));
+						header = headerStrings.toArray(new String[0]);
+					}
+					rows.add(JsonMappers.TREE
+							.<ArrayList<String>> withType(STRING_LIST)
+							.<ArrayList<String>> readValue(
+									results.getString(2)));
+				}
+			}
+			if (header == null && hasSnapshots(coll.profileUUID, path)) {
+				header = new String[] { "Extraction Date" };
+			}
+		} catch (SQLException | IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at reading the results", e);
+		}
+		return new ResultTable(header, rows);
+	}
+
+	private boolean hasSnapshots(String profileUUID, String path)
+			throws SQLException {
+		try (PreparedStatement statement = client
+				.prepareStatement("SELECT 1 FROM snapshots "
+						+ "WHERE profile_uuid = ? AND path = ? LIMIT 1")) {
+			statement.setString(1, profileUUID);
+			statement.setString(2, path);
+			try (ResultSet rows = statement.executeQuery()) {
+				return rows.next();
+			}
+		}
+	}
+
+	@Override
+	public synchronized HashSet<String> getAllUsedModules(
+			ExtractionResultCollection collection) {
+		HashSet<String> moduleNames = new HashSet<String>();
+		String path = getPath(collection);
+		if (path == null) {
+			return moduleNames;
+		}
+		try (PreparedStatement statement = client
+				.prepareStatement("SELECT DISTINCT module_name FROM results "
+						+ "WHERE profile_uuid = ? AND path = ? "
+						+ "AND module_name IS NOT NULL")) {
+			statement.setString(1, collection.profileUUID);
+			statement.setString(2, path);
+			try (ResultSet rows = statement.executeQuery()) {
+				while (rows.next()) {
+					moduleNames.add(rows.getString(1));
+				}
+			}
+		} catch (SQLException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at reading the module names", e);
+		}
+		return moduleNames;
+	}
+
+	@Override
+	public synchronized String getStringResults(
+			ExtractionResultCollection collection, String moduleName) {
+		StringBuffer data = new StringBuffer();
+		String path = getPath(collection);
+		if (path == null) {
+			return data.toString();
+		}
+		try (PreparedStatement statement = client
+				.prepareStatement("SELECT result FROM results "
+						+ "WHERE profile_uuid = ? AND path = ? "
+						+ "AND module_name = ? ORDER BY snapshot_id, id")) {
+			statement.setString(1, collection.profileUUID);
+			statement.setString(2, path);
+			statement.setString(3, moduleName);
+			try (ResultSet results = statement.executeQuery()) {
+				while (results.next()) {
+					JsonNode result = JsonMappers.TREE
+							.<JsonNode> readValue(results.getString(1));
+					data.append(getTimestamp(result.fields()) + " : ");
+					data.append(JsonMappers.PRETTY.writeValueAsString(result));
+					data.append(",\n");
+				}
+			}
+		} catch (SQLException | IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at reading the results", e);
+		}
+		return data.toString();
+	}
+
+	@Override
+	public boolean isQuerySupported() {
+		return true;
+	}
+
+	/**
+	 * Runs the query with a user that may only read the result tables. The
+	 * pending saves are committed before, to be visible to the query.
+	 */
+	@Override
+	public synchronized ResultTable query(String sql, int maxRows)
+			throws SQLException {
+		commit();
+		try (Statement statement = getReader().createStatement()) {
+			statement.setMaxRows(maxRows);
+			statement.setQueryTimeout(QUERY_TIMEOUT);
+			try (ResultSet rows = statement.executeQuery(sql)) {
+				ResultSetMetaData meta = rows.getMetaData();
+				String[] header = new String[meta.getColumnCount()];
+				for (int i = 0; i < header.length; i++) {
+					header[i] = meta.getColumnLabel(i + 1);
+				}
+				ArrayList<ArrayList<String>> table = new ArrayList<ArrayList<String>>();
+				while (rows.next()) {
+					ArrayList<String> row = new ArrayList<String>();
+					for (int i = 1; i <= header.length; i++) {
+						row.add(rows.getString(i));
+					}
+					table.add(row);
+				}
+				return new ResultTable(header, table);
+			}
+		}
+	}
+
+	/**
+	 * Opens the read-only connection. The user is (re-)created with a new
+	 * password for each start and has only the SELECT right on the result
+	 * tables.
+	 */
+	private Connection getReader() throws SQLException {
+		if (reader == null || reader.isClosed()) {
+			if (readerPassword == null) {
+				readerPassword = UUID.randomUUID().toString();
+				try (Statement statement = client.createStatement()) {
+					statement.execute("CREATE USER IF NOT EXISTS " + READER
+							+ " PASSWORD '" + readerPassword + "'");
+					statement.execute("ALTER USER " + READER
+							+ " SET PASSWORD '" + readerPassword + "'");
+					statement.execute("GRANT SELECT ON snapshots, results, "
+							+ "key_values TO " + READER);
+				}
+				client.commit();
+			}
+			reader = DriverManager.getConnection(url, READER, readerPassword);
+			reader.setReadOnly(true);
+		}
+		return reader;
+	}
+
+	private static String getPath(ExtractionResultCollection coll) {
+		if (coll instanceof Part) {
+			return ((Part) coll).getPath();
+		} else if (coll instanceof Environment) {
+			return "";
+		}
+		return null;
+	}
+
+	/**
+	 * Commits the changes, if there are uncommitted saves.
+	 */
+	private synchronized void commit() {
+		try {
+			if (uncommitted > 0 && !client.isClosed()) {
+				client.commit();
+				uncommitted = 0;
+			}
+		} catch (SQLException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception while committing the results", e);
+		}
+	}
+}
@@ -0,0 +1,319 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static configuration.Log.EXCEPTION_LOGGER;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+
+import model.ExtractionResult;
+import model.ExtractionResultCollection;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Embedded Lucene index over the extraction results, to search them without
+ * reading every stored snapshot.
+ * <p>
+ * Each {@link ExtractionResult} is one document with the fields
+ * {@value #PROFILE}, {@value #PATH} (empty for environment information),
+ * {@value #MODULE}, {@value #TYPE} and {@value #DATE}. The values of the
+ * result object, e.g. the entries of a {@link model.KeyValueResult}, are
+ * indexed as text fields named by their keys, and all together in the
+ * default field {@value #CONTENT}. Queries use the Lucene query syntax, for
+ * example: <code>moduleName:PDFFontModule AND embedded:false</code>
+ */
+public class SearchIndex {
+	public static final String PROFILE = "profileUUID";
+	public static final String PATH = "path";
+	public static final String MODULE = "moduleName";
+	public static final String TYPE = "type";
+	public static final String DATE = "extractionDate";
+	public static final String CONTENT = "content";
+	/** Number of added documents after which the index is committed */
+	private static final int COMMIT_BATCH = 1000;
+	private static final Version VERSION = Version.LUCENE_4_10_4;
+
+	private final IndexWriter writer;
+	private final SearcherManager searcherManager;
+	private final Analyzer analyzer;
+	private int uncommitted = 0;
+
+	/**
+	 * Opens or creates the index.
+	 * 
+	 * @param directory
+	 *            folder of the index files
+	 * @throws IOException
+	 */
+	public SearchIndex(File directory) throws IOException {
+		Map<String, Analyzer> keywordFields = new HashMap<String, Analyzer>();
+		keywordFields.put(PROFILE, new KeywordAnalyzer());
+		keywordFields.put(PATH, new KeywordAnalyzer());
+		keywordFields.put(MODULE, new KeywordAnalyzer());
+		keywordFields.put(TYPE, new KeywordAnalyzer());
+		analyzer = new PerFieldAnalyzerWrapper(new StandardAnalyzer(),
+				keywordFields);
+		writer = new IndexWriter(FSDirectory.open(directory),
+				new IndexWriterConfig(VERSION, analyzer));
+		searcherManager = new SearcherManager(writer, true, null);
+	}
+
+	/**
+	 * Indexes all extraction results of a collection.
+	 * 
+	 * @param collection
+	 * @param profileUUID
+	 * @param type
+	 *            "environment" or "file-dependent"
+	 * @param path
+	 *            path of the part, or null for the environment
+	 */
+	public void add(ExtractionResultCollection collection, String profileUUID,
+			String type, String path) {
+		try {
+			for (ExtractionResult result : collection.extractionResults) {
+				writer.addDocument(createDocument(result, profileUUID, type,
+						path));
+			}
+			synchronized (this) {
+				uncommitted += collection.extractionResults.size();
+				if (uncommitted >= COMMIT_BATCH) {
+					commit();
+				}
+			}
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at indexing extraction results", e);
+		}
+	}
+
+	/**
+	 * Deletes the documents of the extraction results of a part or an
+	 * environment, e.g. before the results of its remaining snapshots are
+	 * added again.
+	 * 
+	 * @param profileUUID
+	 * @param type
+	 *            "environment" or "file-dependent"
+	 * @param path
+	 *            path of the part, or null for the environment
+	 */
+	public void delete(String profileUUID, String type, String path) {
+		BooleanQuery query = new BooleanQuery();
+		query.add(new TermQuery(new Term(PROFILE, profileUUID)), Occur.MUST);
+		query.add(new TermQuery(new Term(TYPE, type)), Occur.MUST);
+		query.add(new TermQuery(new Term(PATH, path == null ? "" : path)),
+				Occur.MUST);
+		try {
+			writer.deleteDocuments(query);
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at deleting indexed extraction results", e);
+		}
+	}
+
+	/**
+	 * Deletes all documents, before the index is rebuilt.
+	 */
+	public void deleteAll() {
+		try {
+			writer.deleteAll();
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at clearing the search index", e);
+		}
+	}
+
+	/**
+	 * Searches the extraction results.
+	 * 
+	 * @param query
+	 *            query in Lucene syntax
+	 * @param from
+	 *            earliest extraction date, or null
+	 * @param to
+	 *            latest extraction date, or null
+	 * @param maxHits
+	 *            maximal number of returned hits
+	 * @return hits ordered by relevance
+	 * @throws IllegalArgumentException
+	 *             if the query can't be parsed
+	 */
+	public List<SearchHit> search(String query, Date from, Date to,
+			int maxHits) {
+		List<SearchHit> hits = new ArrayList<SearchHit>();
+		Query parsed;
+		try {
+			parsed = new QueryParser(CONTENT, analyzer).parse(query);
+		} catch (ParseException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+		if (from != null || to != null) {
+			BooleanQuery bool = new BooleanQuery();
+			bool.add(parsed, Occur.MUST);
+			bool.add(NumericRangeQuery.newLongRange(DATE,
+					from == null ? null : from.getTime(),
+					to == null ? null : to.getTime(), true, true), Occur.MUST);
+			parsed = bool;
+		}
+		IndexSearcher searcher = null;
+		try {
+			searcherManager.maybeRefresh();
+			searcher = searcherManager.acquire();
+			for (ScoreDoc scoreDoc : searcher.search(parsed, maxHits).scoreDocs) {
+				Document document = searcher.doc(scoreDoc.doc);
+				SearchHit hit = new SearchHit();
+				hit.profileUUID = document.get(PROFILE);
+				hit.path = document.get(PATH).isEmpty() ? null : document
+						.get(PATH);
+				hit.moduleName = document.get(MODULE);
+				IndexableField date = document.getField(DATE);
+				if (date != null) {
+					hit.extractionDate = new Date(date.numericValue()
+							.longValue());
+				}
+				hit.score = scoreDoc.score;
+				hits.add(hit);
+			}
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE, "Exception at search", e);
+		} finally {
+			if (searcher != null) {
+				try {
+					searcherManager.release(searcher);
+				} catch (IOException e) {
+					EXCEPTION_LOGGER.log(Level.SEVERE,
+							"Exception at search", e);
+				}
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * Makes the added documents durable.
+	 */
+	public synchronized void commit() {
+		try {
+			writer.commit();
+			uncommitted = 0;
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at committing the search index", e);
+		}
+	}
+
+	/**
+	 * Commits and closes the index.
+	 */
+	public synchronized void close() {
+		try {
+			searcherManager.close();
+			writer.close();
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at closing the search index", e);
+		}
+	}
+
+	private static Document createDocument(ExtractionResult result,
+			String profileUUID, String type, String path) {
+		Document document = new Document();
+		document.add(new StringField(PROFILE, profileUUID, Field.Store.YES));
+		document.add(new StringField(PATH, path == null ? "" : path,
+				Field.Store.YES));
+		document.add(new StringField(TYPE, type, Field.Store.NO));
+		if (result.moduleName != null) {
+			document.add(new StringField(MODULE, result.moduleName,
+					Field.Store.YES));
+		}
+		if (result.extractionDate != null) {
+			document.add(new LongField(DATE,
+					result.extractionDate.getTime(), Field.Store.YES));
+		}
+		if (result.results != null) {
+			addValues(document, null, JsonMappers.valueToTree(result.results));
+		}
+		return document;
+	}
+
+	/**
+	 * Adds all values of a result tree as text fields named by their keys.
+	 */
+	private static void addValues(Document document, String name,
+			JsonNode node) {
+		if (node.isObject()) {
+			Iterator<Entry<String, JsonNode>> fields = node.fields();
+			while (fields.hasNext()) {
+				Entry<String, JsonNode> field = fields.next();
+				addValues(document, field.getKey(), field.getValue());
+			}
+		} else if (node.isArray()) {
+			for (JsonNode element : node) {
+				addValues(document, name, element);
+			}
+		} else if (!node.isNull()) {
+			String value = node.asText();
+			if (name != null && !isReserved(name)) {
+				document.add(new TextField(name, value, Field.Store.NO));
+			}
+			document.add(new TextField(CONTENT, value, Field.Store.NO));
+		}
+	}
+
+	private static boolean isReserved(String name) {
+		return name.equals(PROFILE) || name.equals(PATH)
+				|| name.equals(MODULE) || name.equals(TYPE)
+				|| name.equals(DATE) || name.equals(CONTENT);
+	}
+}
@@ -0,0 +1,507 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static configuration.Log.EXCEPTION_LOGGER;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+
+import model.Environment;
+import model.ExtractionResultCollection;
+import model.Part;
+import utility.FileUtils;
+import configuration.Constants;
+
+/**
+ * Storage backend that appends the serialized collections as compact records
+ * to rolling segment files, instead of writing one file per snapshot.
+ * <p>
+ * A small offset index maps each (profile, part) and each profile environment
+ * to the positions of its records, so that {@link #getRawResults} reads the
+ * snapshots directly. The index is persisted as append-only journal. Records
+ * that were written to the last segment, but not to the index before a crash,
+ * are recovered at the next start. Index entries of records that didn't reach
+ * their segment before a crash are dropped.
+ */
+public class SegmentedLogStorageInterface extends GeneralStorage {
+	/** Size at which a new segment file is started */
+	public static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+	private static final int RECORD_MAGIC = 0x50455431;
+	private static final String SEGMENT_PREFIX = "segment";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String INDEX_FILE = "index";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File directory;
+	/** maps profile UUID and path to the locations of the records */
+	private final Map<String, List<Location>> index = new HashMap<String, List<Location>>();
+	private final Map<Integer, FileChannel> readers = new HashMap<Integer, FileChannel>();
+	private DataOutputStream indexOut;
+	private DataOutputStream segmentOut;
+	private int segment;
+	private long position;
+
+	/**
+	 * Position and length of a stored record payload.
+	 */
+	private static class Location {
+		final int segment;
+		final long offset;
+		final int length;
+
+		Location(int segment, long offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	public SegmentedLogStorageInterface() {
+		this(new File(Constants.OUTPUT_DIRECTORY, "segments"));
+	}
+
+	/**
+	 * @param directory
+	 *            folder of the segments and of the index
+	 */
+	public SegmentedLogStorageInterface(File directory) {
+		this.directory = directory;
+		open();
+	}
+
+	@Override
+	protected boolean isIndentedOutput() {
+		return false;
+	}
+
+	@Override
+	public void save(String collection, String profileUUID, String type,
+			String path) throws Exception {
+		append(collection.getBytes(UTF8), getKey(profileUUID, path));
+	}
+
+	@Override
+	protected void save(byte[] collection, String profileUUID, String type,
+			String path) throws Exception {
+		append(collection, getKey(profileUUID, path));
+	}
+
+	@Override
+	public boolean isBinaryFormatSupported() {
+		return true;
+	}
+
+	@Override
+	protected File getTypeDictionaryFile() {
+		return new File(directory, "typenames.dict");
+	}
+
+	@Override
+	protected File getPayloadFile() {
+		return new File(directory, "payloads.log");
+	}
+
+	/**
+	 * Appends a record to the current segment and adds it to the index.
+	 */
+	private synchronized void append(byte[] payload, String key)
+			throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+				payload.length + 128);
+		DataOutputStream record = new DataOutputStream(buffer);
+		record.writeInt(RECORD_MAGIC);
+		record.writeUTF(key);
+		record.writeInt(payload.length);
+		int headerLength = record.size();
+		record.write(payload);
+		record.flush();
+
+		if (position > 0 && position + buffer.size() > SEGMENT_SIZE) {
+			segmentOut.close();
+			segment++;
+			position = 0;
+			segmentOut = openSegment(segment);
+		}
+		buffer.writeTo(segmentOut);
+		Location location = new Location(segment, position + headerLength,
+				payload.length);
+		position += buffer.size();
+		addToIndex(key, location);
+		writeIndexEntry(key, location);
+	}
+
+	/**
+	 * Flushes the appended records and index entries to the files.
+	 */
+	@Override
+	protected synchronized void flushWrites() {
+		try {
+			if (segmentOut != null) {
+				segmentOut.flush();
+			}
+			if (indexOut != null) {
+				indexOut.flush();
+			}
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception while flushing the segment log", e);
+		}
+	}
+
+	@Override
+	public synchronized String[] getRawResults(ExtractionResultCollection coll) {
+		String key;
+		if (coll instanceof Part) {
+			key = getKey(coll.profileUUID, ((Part) coll).getPath());
+		} else if (coll instanceof Environment) {
+			key = getKey(coll.profileUUID, null);
+		} else {
+			return null;
+		}
+		List<Location> locations = index.get(key);
+		if (locations == null) {
+			return new String[0];
+		}
+		flushWrites();
+		List<String> results = new ArrayList<String>(locations.size());
+		for (Location location : locations) {
+			try {
+				results.add(read(location));
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE,
+						"Exception at getRawResults", e);
+			}
+		}
+		return resolvePayloads(results.toArray(new String[0]));
+	}
+
+	@Override
+	public synchronized void deleteAllMetadata() {
+		close();
+		index.clear();
+		resetPayloadStore();
+		resetBlobStore();
+		resetMetricStore();
+		resetEventLog();
+		invalidateResultCache();
+		FileUtils.deleteDirectory(directory.getPath());
+		resetCodec();
+		open();
+	}
+
+	@Override
+	public synchronized void finalize() {
+		close();
+		closePayloadStore();
+		closeBlobStore();
+		closeMetricStore();
+		closeEventLog();
+	}
+
+	/**
+	 * Reads the payload of a record.
+	 */
+	private String read(Location location) throws IOException {
+		FileChannel channel = readers.get(location.segment);
+		if (channel == null) {
+			channel = new RandomAccessFile(getSegmentFile(location.segment),
+					"r").getChannel();
+			readers.put(location.segment, channel);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(location.length);
+		long offset = location.offset;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, offset);
+			if (read < 0) {
+				throw new EOFException("Truncated record in segment "
+						+ location.segment);
+			}
+			offset += read;
+		}
+		if (SmileCodec.isSmile(buffer.array())) {
+			return getCodec().toJson(buffer.array(), isIndentedOutput());
+		}
+		return new String(buffer.array(), UTF8);
+	}
+
+	/**
+	 * Loads the index, recovers records that are missing in the index and
+	 * opens the current segment for appending.
+	 */
+	private void open() {
+		FileUtils.createDirectory(directory.toPath());
+		segment = 0;
+		position = 0;
+		try {
+			File indexFile = new File(directory, INDEX_FILE);
+			Set<Integer> damaged = new TreeSet<Integer>();
+			long validLength = loadIndex(indexFile, damaged);
+			truncate(indexFile, validLength);
+			indexOut = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(indexFile, true)));
+			int[] segments = getSegmentNumbers();
+			if (segments.length > 0) {
+				segment = segments[segments.length - 1];
+			}
+			if (validLength == 0) {
+				// no index: rebuild it from all segments
+				for (int s : segments) {
+					recover(s, 0);
+				}
+			} else {
+				damaged.add(segment);
+				for (int s : damaged) {
+					recover(s, getIndexedEnd(s));
+				}
+			}
+			position = getSegmentFile(segment).length();
+			segmentOut = openSegment(segment);
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at opening the segment storage", e);
+		}
+	}
+
+	private void close() {
+		try {
+			if (segmentOut != null) {
+				segmentOut.close();
+				segmentOut = null;
+			}
+			if (indexOut != null) {
+				indexOut.close();
+				indexOut = null;
+			}
+			for (FileChannel channel : readers.values()) {
+				channel.close();
+			}
+			readers.clear();
+		} catch (IOException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Exception at closing the segment storage", e);
+		}
+	}
+
+	/**
+	 * Reads the index journal. The segments and the index are buffered
+	 * separately, so after a crash the index may have entries of records that
+	 * didn't reach their segment. These entries are dropped and the index is
+	 * rewritten, so that new records aren't appended at the offsets they point
+	 * to.
+	 * 
+	 * @param damaged
+	 *            receives the segments with dropped entries
+	 * @return length of the complete index entries
+	 */
+	private long loadIndex(File indexFile, Set<Integer> damaged)
+			throws IOException {
+		if (!indexFile.isFile()) {
+			return 0;
+		}
+		long validLength = 0;
+		Map<Integer, Long> segmentLengths = new HashMap<Integer, Long>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(indexFile)))) {
+			while (true) {
+				String key = in.readUTF();
+				Location location = new Location(in.readInt(), in.readLong(),
+						in.readInt());
+				validLength += 2 + PathIdIndex.utfLength(key) + 16;
+				Long segmentLength = segmentLengths.get(location.segment);
+				if (segmentLength == null) {
+					segmentLength = getSegmentFile(location.segment).length();
+					segmentLengths.put(location.segment, segmentLength);
+				}
+				if (location.offset + location.length > segmentLength) {
+					damaged.add(location.segment);
+				} else {
+					addToIndex(key, location);
+				}
+			}
+		} catch (EOFException e) {
+			// end of the index, or an incomplete last entry
+		}
+		if (damaged.isEmpty()) {
+			return validLength;
+		}
+		EXCEPTION_LOGGER.log(Level.WARNING,
+				"Dropping index entries beyond the end of the segments "
+						+ damaged);
+		return rewriteIndex(indexFile);
+	}
+
+	/**
+	 * Replaces the index journal with the entries of the index.
+	 * 
+	 * @return length of the new journal
+	 */
+	private long rewriteIndex(File indexFile) throws IOException {
+		File temp = new File(directory, INDEX_FILE + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp)));
+		try {
+			for (Map.Entry<String, List<Location>> entry : index.entrySet()) {
+				for (Location location : entry.getValue()) {
+					writeIndexEntry(out, entry.getKey(), location);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), indexFile.toPath(),
+				StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		return indexFile.length();
+	}
+
+	/**
+	 * Scans a segment from an offset and adds all complete records to the
+	 * index. An incomplete record at the end of the segment is cut off.
+	 */
+	private void recover(int segmentNumber, long offset) throws IOException {
+		File segmentFile = getSegmentFile(segmentNumber);
+		if (!segmentFile.isFile() || segmentFile.length() <= offset) {
+			return;
+		}
+		long validEnd = offset;
+		try (RandomAccessFile file = new RandomAccessFile(segmentFile, "r")) {
+			file.seek(offset);
+			while (true) {
+				if (file.readInt() != RECORD_MAGIC) {
+					break;
+				}
+				String key = file.readUTF();
+				int length = file.readInt();
+				long payloadOffset = file.getFilePointer();
+				if (payloadOffset + length > file.length()) {
+					break;
+				}
+				file.seek(payloadOffset + length);
+				Location location = new Location(segmentNumber,
+						payloadOffset, length);
+				addToIndex(key, location);
+				writeIndexEntry(key, location);
+				validEnd = payloadOffset + length;
+			}
+		} catch (EOFException e) {
+			// incomplete record at the end of the segment
+		}
+		indexOut.flush();
+		truncate(segmentFile, validEnd);
+	}
+
+	private long getIndexedEnd(int segmentNumber) {
+		long end = 0;
+		for (List<Location> locations : index.values()) {
+			for (Location location : locations) {
+				if (location.segment == segmentNumber) {
+					end = Math.max(end, location.offset + location.length);
+				}
+			}
+		}
+		return end;
+	}
+
+	private void addToIndex(String key, Location location) {
+		List<Location> locations = index.get(key);
+		if (locations == null) {
+			locations = new ArrayList<Location>(4);
+			index.put(key, locations);
+		}
+		locations.add(location);
+	}
+
+	private void writeIndexEntry(String key, Location location)
+			throws IOException {
+		writeIndexEntry(indexOut, key, location);
+	}
+
+	private static void writeIndexEntry(DataOutputStream out, String key,
+			Location location) throws IOException {
+		out.writeUTF(key);
+		out.writeInt(location.segment);
+		out.writeLong(location.offset);
+		out.writeInt(location.length);
+	}
+
+	private DataOutputStream openSegment(int segmentNumber) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(getSegmentFile(segmentNumber), true)));
+	}
+
+	private File getSegmentFile(int segmentNumber) {
+		return new File(directory, SEGMENT_PREFIX
+				+ String.format("%08d", segmentNumber) + SEGMENT_SUFFIX);
+	}
+
+	private int[] getSegmentNumbers() {
+		String[] names = directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX)
+						&& name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (names == null) {
+			return new int[0];
+		}
+		int[] numbers = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			numbers[i] = Integer.parseInt(names[i].substring(
+					SEGMENT_PREFIX.length(),
+					names[i].length() - SEGMENT_SUFFIX.length()));
+		}
+		Arrays.sort(numbers);
+		return numbers;
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		if (file.isFile() && file.length() > length) {
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(length);
+			}
+		}
+	}
+
+	private static String getKey(String profileUUID, String path) {
+		return profileUUID + "\t" + (path == null ? "" : path);
+	}
+}
@@ -0,0 +1,186 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static configuration.Log.EXCEPTION_LOGGER;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Places the snapshot histories of profiles and parts on several storage
+ * roots, e.g. directories on different disks.
+ * <p>
+ * Each history is placed with rendezvous hashing: the root with the highest
+ * hash of root and history wins. The placement of a history only depends on
+ * the set of roots, and when a root is added, only the histories that the new
+ * root wins move to it.
+ * <p>
+ * The first root is the primary root, that holds the journals of the storage.
+ * It is the output directory of PET, and the histories are stored directly in
+ * it. The other roots may hold other data, so the histories are only stored
+ * in their {@link #SNAPSHOT_DIRECTORY}, and nothing outside of it is read,
+ * moved or deleted. The other roots are saved in a file at the primary root,
+ * so that they are used at the next start, too.
+ */
+public class ShardLayout {
+	/** File at the primary root listing the other roots */
+	public static final String ROOTS_FILE = "storage_roots.txt";
+	/** Directory of the histories at the roots other than the primary root */
+	public static final String SNAPSHOT_DIRECTORY = "pet-snapshots";
+
+	private static final HashFunction HASH = Hashing.murmur3_128();
+
+	private final List<File> roots;
+
+	/**
+	 * @param roots
+	 *            the primary root first
+	 */
+	public ShardLayout(List<File> roots) {
+		Set<File> unique = new LinkedHashSet<File>();
+		for (File root : roots) {
+			unique.add(root.getAbsoluteFile());
+		}
+		this.roots = Collections.unmodifiableList(new ArrayList<File>(unique));
+	}
+
+	/**
+	 * Reads the roots saved at the primary root.
+	 * 
+	 * @param primary
+	 * @return the layout, with only the primary root if none were saved
+	 */
+	public static ShardLayout load(File primary) {
+		List<File> roots = new ArrayList<File>();
+		roots.add(primary);
+		File file = new File(primary, ROOTS_FILE);
+		if (file.isFile()) {
+			try {
+				for (String line : Files.readAllLines(file.toPath(),
+						StandardCharsets.UTF_8)) {
+					if (!line.trim().isEmpty()) {
+						roots.add(new File(line.trim()));
+					}
+				}
+			} catch (IOException e) {
+				EXCEPTION_LOGGER.log(Level.SEVERE, "Exception at reading "
+						+ file, e);
+			}
+		}
+		return new ShardLayout(roots);
+	}
+
+	/**
+	 * Saves the roots other than the primary root at the primary root.
+	 * 
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		StringBuilder lines = new StringBuilder();
+		for (File root : roots.subList(1, roots.size())) {
+			lines.append(root.getPath()).append('\n');
+		}
+		File file = new File(getPrimary(), ROOTS_FILE);
+		File temp = new File(getPrimary(), ROOTS_FILE + ".tmp");
+		Files.write(temp.toPath(),
+				lines.toString().getBytes(StandardCharsets.UTF_8));
+		Files.move(temp.toPath(), file.toPath(),
+				StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	public List<File> getRoots() {
+		return roots;
+	}
+
+	public File getPrimary() {
+		return roots.get(0);
+	}
+
+	/**
+	 * @param root
+	 *            one of the roots
+	 * @return the directory of the histories at the root
+	 */
+	public File getSnapshotDirectory(File root) {
+		File absolute = root.getAbsoluteFile();
+		if (absolute.equals(getPrimary())) {
+			return absolute;
+		}
+		return new File(absolute, SNAPSHOT_DIRECTORY);
+	}
+
+	/**
+	 * @return the directories of the histories at all roots, the primary root
+	 *         first
+	 */
+	public List<File> getSnapshotDirectories() {
+		List<File> directories = new ArrayList<File>();
+		for (File root : roots) {
+			directories.add(getSnapshotDirectory(root));
+		}
+		return directories;
+	}
+
+	public boolean isSharded() {
+		return roots.size() > 1;
+	}
+
+	/**
+	 * @param history
+	 *            the profile UUID for an environment, or the profile UUID and
+	 *            the id of a part
+	 * @return the directory of the histories at the root of the history
+	 */
+	public File place(String history) {
+		if (!isSharded()) {
+			return getPrimary();
+		}
+		File best = null;
+		long bestHash = 0;
+		for (File root : roots) {
+			long hash = HASH.newHasher()
+					.putString(root.getPath(), StandardCharsets.UTF_8)
+					.putByte((byte) 0)
+					.putString(history, StandardCharsets.UTF_8).hash()
+					.asLong();
+			if (best == null || hash > bestHash) {
+				best = root;
+				bestHash = hash;
+			}
+		}
+		return getSnapshotDirectory(best);
+	}
+
+	@Override
+	public String toString() {
+		return roots.toString();
+	}
+}
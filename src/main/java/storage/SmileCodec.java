@@ -0,0 +1,273 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+/**
+ * Encodes stored collections in the binary Smile format, as alternative to
+ * JSON text.
+ * <p>
+ * Smile already shares repeated names and values inside a record. The Java
+ * class names, which are written as type ids into every record, are further
+ * replaced by numbers of a type name dictionary file, which is shared by all
+ * records of a storage backend. Decoding replaces them back, so the decoded
+ * JSON is the same as the one written by the JSON storage.
+ */
+public class SmileCodec {
+	private static final char MARKER = '\u0000';
+	private static final String MODULE_CLASS = "moduleClass";
+	private static final Pattern CLASS_NAME = Pattern
+			.compile("[A-Za-z_$][\\w$]*(\\.[A-Za-z_$][\\w$]*)+");
+	private static final SmileFactory smileFactory = new SmileFactory();
+	private static final JsonFactory jsonFactory = new JsonFactory();
+	static {
+		smileFactory.enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+	}
+
+	private final TypeNameDictionary dictionary;
+
+	/**
+	 * @param dictionaryFile
+	 *            file of the type name dictionary
+	 */
+	public SmileCodec(File dictionaryFile) {
+		dictionary = new TypeNameDictionary(dictionaryFile);
+	}
+
+	/**
+	 * @param data
+	 *            stored record
+	 * @return true, if the record starts with the Smile header
+	 */
+	public static boolean isSmile(byte[] data) {
+		return data.length >= 3 && data[0] == ':' && data[1] == ')'
+				&& data[2] == '\n';
+	}
+
+	/**
+	 * Serializes an object to Smile.
+	 * 
+	 * @param value
+	 * @return Smile encoded record
+	 * @throws IOException
+	 */
+	public byte[] encode(Object value) throws IOException {
+		TokenBuffer buffer = new TokenBuffer(null);
+		JsonMappers.COMPACT.writeValue(buffer, value);
+		return encode(buffer.asParser());
+	}
+
+	/**
+	 * Converts a JSON record to Smile.
+	 * 
+	 * @param json
+	 * @return Smile encoded record
+	 * @throws IOException
+	 */
+	public byte[] encode(String json) throws IOException {
+		return encode(jsonFactory.createParser(json));
+	}
+
+	/**
+	 * Converts a Smile record to JSON text.
+	 * 
+	 * @param data
+	 *            Smile encoded record
+	 * @param pretty
+	 *            true for indented JSON
+	 * @return JSON text
+	 * @throws IOException
+	 */
+	public String toJson(byte[] data, boolean pretty) throws IOException {
+		StringWriter writer = new StringWriter(data.length * 2);
+		try (JsonParser parser = smileFactory.createParser(data);
+				JsonGenerator generator = jsonFactory.createGenerator(writer)) {
+			if (pretty) {
+				generator.useDefaultPrettyPrinter();
+			}
+			copy(parser, generator, false);
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Deserializes a Smile record.
+	 * 
+	 * @param data
+	 *            Smile encoded record
+	 * @param type
+	 *            class of the record
+	 * @return deserialized record
+	 * @throws IOException
+	 */
+	public <T> T decode(byte[] data, Class<T> type) throws IOException {
+		TokenBuffer buffer = new TokenBuffer(null);
+		try (JsonParser parser = smileFactory.createParser(data)) {
+			copy(parser, buffer, false);
+		}
+		return JsonMappers.reader(type).readValue(buffer.asParser());
+	}
+
+	private byte[] encode(JsonParser parser) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (JsonGenerator generator = smileFactory.createGenerator(out)) {
+			copy(parser, generator, true);
+		} finally {
+			parser.close();
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Copies all tokens and replaces type names with dictionary ids, or the
+	 * other way around.
+	 */
+	private void copy(JsonParser parser, JsonGenerator generator,
+			boolean encode) throws IOException {
+		String fieldName = null;
+		JsonToken token;
+		while ((token = parser.nextToken()) != null) {
+			if (token == JsonToken.FIELD_NAME) {
+				fieldName = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				boolean typeName = value == JsonToken.START_OBJECT
+						|| value == JsonToken.START_ARRAY;
+				generator.writeFieldName(encode ? encodeName(fieldName,
+						typeName) : decodeName(fieldName));
+				token = value;
+			}
+			if (token == JsonToken.VALUE_STRING
+					&& MODULE_CLASS.equals(fieldName)) {
+				String text = parser.getText();
+				generator.writeString(encode ? encodeName(text, true)
+						: decodeName(text));
+			} else {
+				generator.copyCurrentEvent(parser);
+			}
+			fieldName = null;
+		}
+	}
+
+	private String encodeName(String name, boolean typeName)
+			throws IOException {
+		if (!name.isEmpty() && name.charAt(0) == MARKER) {
+			return MARKER + name;
+		}
+		if (typeName && CLASS_NAME.matcher(name).matches()) {
+			return MARKER + Integer.toString(dictionary.getId(name));
+		}
+		return name;
+	}
+
+	private String decodeName(String name) throws IOException {
+		if (name.isEmpty() || name.charAt(0) != MARKER) {
+			return name;
+		}
+		if (name.length() > 1 && name.charAt(1) == MARKER) {
+			return name.substring(1);
+		}
+		return dictionary.getName(Integer.parseInt(name.substring(1)));
+	}
+
+	/**
+	 * Append-only list of type names, one per line. The line number is the
+	 * id of a name.
+	 */
+	private static class TypeNameDictionary {
+		private static final Charset UTF8 = Charset.forName("UTF-8");
+		private final File file;
+		private final List<String> names = new ArrayList<String>();
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+		private boolean loaded = false;
+
+		TypeNameDictionary(File file) {
+			this.file = file;
+		}
+
+		synchronized int getId(String name) throws IOException {
+			load();
+			Integer id = ids.get(name);
+			if (id == null) {
+				// the name must be durable before records use it
+				file.getAbsoluteFile().getParentFile().mkdirs();
+				Files.write(file.toPath(), (name + "\n").getBytes(UTF8),
+						StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+				id = names.size();
+				names.add(name);
+				ids.put(name, id);
+			}
+			return id;
+		}
+
+		synchronized String getName(int id) throws IOException {
+			load();
+			if (id < 0 || id >= names.size()) {
+				throw new IOException("Unknown type name id " + id + " in "
+						+ file);
+			}
+			return names.get(id);
+		}
+
+		private void load() throws IOException {
+			if (loaded) {
+				return;
+			}
+			if (file.isFile()) {
+				byte[] content = Files.readAllBytes(file.toPath());
+				int complete = content.length;
+				while (complete > 0 && content[complete - 1] != '\n') {
+					complete--;
+				}
+				if (complete < content.length) {
+					// cut off a name, that was not completely written
+					try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+						raf.setLength(complete);
+					}
+				}
+				String text = new String(content, 0, complete, UTF8);
+				for (String name : text.split("\n")) {
+					if (!name.isEmpty()) {
+						ids.put(name, names.size());
+						names.add(name);
+					}
+				}
+			}
+			loaded = true;
+		}
+	}
+}
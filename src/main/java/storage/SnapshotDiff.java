@@ -0,0 +1,298 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Structural difference between two snapshots of a part or an environment.
+ * <p>
+ * The extraction results are matched by their module name, the results of
+ * several instances of a module by their configuration hash, and compared
+ * key by key, so that the cost depends on the size of the results and not on
+ * the length of their text. The extraction date is ignored, as it differs at
+ * every extraction.
+ */
+public class SnapshotDiff {
+	/** Values longer than this are shortened for the display */
+	public static final int MAX_VALUE_LENGTH = 500;
+
+	public enum Kind {
+		ADDED, REMOVED, CHANGED
+	}
+
+	/**
+	 * One added, removed or changed value.
+	 */
+	public static class Change {
+		public final Kind kind;
+		/** Module name of the extraction result */
+		public final String module;
+		/** Keys from the extraction result to the value, separated by '/' */
+		public final String path;
+		/** Previous value, or null if it was added */
+		public final String oldValue;
+		/** New value, or null if it was removed */
+		public final String newValue;
+
+		public Change(Kind kind, String module, String path, String oldValue,
+				String newValue) {
+			this.kind = kind;
+			this.module = module;
+			this.path = path;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+		}
+
+		@Override
+		public String toString() {
+			String key = path.isEmpty() ? module : module + "/" + path;
+			switch (kind) {
+			case ADDED:
+				return "ADDED " + key + ": " + newValue;
+			case REMOVED:
+				return "REMOVED " + key + ": " + oldValue;
+			default:
+				return "CHANGED " + key + ": " + oldValue + " -> " + newValue;
+			}
+		}
+	}
+
+	/** Extraction date of the newer snapshot, if known */
+	public final String extractionDate;
+	public final List<Change> changes;
+
+	public SnapshotDiff(String extractionDate, List<Change> changes) {
+		this.extractionDate = extractionDate;
+		this.changes = Collections.unmodifiableList(changes);
+	}
+
+	public boolean isEmpty() {
+		return changes.isEmpty();
+	}
+
+	/**
+	 * Compares two serialized {@link model.ExtractionResultCollection}s.
+	 * 
+	 * @param older
+	 * @param newer
+	 * @return the changes from the older to the newer snapshot
+	 */
+	public static SnapshotDiff compare(JsonNode older, JsonNode newer) {
+		Map<String, List<JsonNode>> oldResults = resultsByModule(older);
+		Map<String, List<JsonNode>> newResults = resultsByModule(newer);
+		List<Change> changes = new ArrayList<Change>();
+		String date = null;
+		for (Entry<String, List<JsonNode>> entry : newResults.entrySet()) {
+			String name = entry.getKey();
+			List<JsonNode> newList = entry.getValue();
+			List<JsonNode> oldList = new ArrayList<JsonNode>();
+			if (oldResults.containsKey(name)) {
+				oldList.addAll(oldResults.get(name));
+			}
+			boolean instances = newList.size() > 1 || oldList.size() > 1;
+			JsonNode[] pairs = pair(oldList, newList);
+			for (int i = 0; i < pairs.length; i++) {
+				JsonNode newResult = newList.get(i);
+				if (date == null && newResult.has("extractionDate")) {
+					date = newResult.get("extractionDate").asText();
+				}
+				String module = getLabel(name, newResult, instances);
+				if (pairs[i] == null) {
+					changes.add(new Change(Kind.ADDED, module, "", null,
+							shorten(newResult.get("results"))));
+				} else {
+					compareFields(module, "", pairs[i], newResult, changes);
+				}
+			}
+			for (JsonNode oldResult : oldList) {
+				changes.add(new Change(Kind.REMOVED, getLabel(name,
+						oldResult, instances), "", shorten(oldResult
+						.get("results")), null));
+			}
+		}
+		for (Entry<String, List<JsonNode>> entry : oldResults.entrySet()) {
+			if (!newResults.containsKey(entry.getKey())) {
+				boolean instances = entry.getValue().size() > 1;
+				for (JsonNode oldResult : entry.getValue()) {
+					changes.add(new Change(Kind.REMOVED, getLabel(
+							entry.getKey(), oldResult, instances), "",
+							shorten(oldResult.get("results")), null));
+				}
+			}
+		}
+		return new SnapshotDiff(date, changes);
+	}
+
+	/**
+	 * @return the results of each module name, one per configured instance
+	 */
+	private static Map<String, List<JsonNode>> resultsByModule(
+			JsonNode snapshot) {
+		Map<String, List<JsonNode>> results = new LinkedHashMap<String, List<JsonNode>>();
+		JsonNode list = snapshot == null ? null : snapshot
+				.get("extractionResults");
+		if (list != null) {
+			for (JsonNode result : list) {
+				JsonNode name = result.get("moduleName");
+				String key = name == null ? "" : name.asText();
+				List<JsonNode> instances = results.get(key);
+				if (instances == null) {
+					instances = new ArrayList<JsonNode>();
+					results.put(key, instances);
+				}
+				instances.add(result);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Pairs the results of the instances of a module, by their configuration
+	 * hash and the remaining ones by their position.
+	 * 
+	 * @param oldList
+	 *            results of the older snapshot, the paired ones are removed
+	 * @param newList
+	 *            results of the newer snapshot
+	 * @return the paired older result of each newer result, or null
+	 */
+	private static JsonNode[] pair(List<JsonNode> oldList,
+			List<JsonNode> newList) {
+		JsonNode[] pairs = new JsonNode[newList.size()];
+		for (int i = 0; i < pairs.length; i++) {
+			String hash = getHash(newList.get(i));
+			Iterator<JsonNode> candidates = oldList.iterator();
+			while (hash != null && candidates.hasNext()) {
+				JsonNode candidate = candidates.next();
+				if (hash.equals(getHash(candidate))) {
+					pairs[i] = candidate;
+					candidates.remove();
+					break;
+				}
+			}
+		}
+		for (int i = 0; i < pairs.length && !oldList.isEmpty(); i++) {
+			if (pairs[i] == null) {
+				pairs[i] = oldList.remove(0);
+			}
+		}
+		return pairs;
+	}
+
+	private static String getHash(JsonNode result) {
+		JsonNode hash = result.get("configurationHash");
+		return isMissing(hash) ? null : hash.asText();
+	}
+
+	/**
+	 * @return the module name, with the start of the configuration hash if
+	 *         the module has several instances
+	 */
+	private static String getLabel(String name, JsonNode result,
+			boolean instances) {
+		String hash = getHash(result);
+		if (!instances || hash == null) {
+			return name;
+		}
+		return name + " [" + hash.substring(0, Math.min(8, hash.length()))
+				+ "]";
+	}
+
+	private static void compareFields(String module, String path,
+			JsonNode oldNode, JsonNode newNode, List<Change> changes) {
+		Iterator<Entry<String, JsonNode>> fields = newNode.fields();
+		while (fields.hasNext()) {
+			Entry<String, JsonNode> field = fields.next();
+			if (path.isEmpty() && field.getKey().equals("extractionDate")) {
+				continue;
+			}
+			compare(module, append(path, field.getKey()),
+					oldNode.get(field.getKey()), field.getValue(), changes);
+		}
+		fields = oldNode.fields();
+		while (fields.hasNext()) {
+			Entry<String, JsonNode> field = fields.next();
+			if (!newNode.has(field.getKey())) {
+				compare(module, append(path, field.getKey()),
+						field.getValue(), null, changes);
+			}
+		}
+	}
+
+	private static void compare(String module, String path, JsonNode oldNode,
+			JsonNode newNode, List<Change> changes) {
+		if (isMissing(oldNode)) {
+			if (!isMissing(newNode)) {
+				changes.add(new Change(Kind.ADDED, module, path, null,
+						shorten(newNode)));
+			}
+		} else if (isMissing(newNode)) {
+			changes.add(new Change(Kind.REMOVED, module, path,
+					shorten(oldNode), null));
+		} else if (oldNode.equals(newNode)) {
+			return;
+		} else if (oldNode.isObject() && newNode.isObject()) {
+			compareFields(module, path, oldNode, newNode, changes);
+		} else if (oldNode.isArray() && newNode.isArray()) {
+			int common = Math.min(oldNode.size(), newNode.size());
+			for (int i = 0; i < common; i++) {
+				compare(module, append(path, Integer.toString(i)),
+						oldNode.get(i), newNode.get(i), changes);
+			}
+			for (int i = common; i < newNode.size(); i++) {
+				compare(module, append(path, Integer.toString(i)), null,
+						newNode.get(i), changes);
+			}
+			for (int i = common; i < oldNode.size(); i++) {
+				compare(module, append(path, Integer.toString(i)),
+						oldNode.get(i), null, changes);
+			}
+		} else {
+			changes.add(new Change(Kind.CHANGED, module, path,
+					shorten(oldNode), shorten(newNode)));
+		}
+	}
+
+	private static boolean isMissing(JsonNode node) {
+		return node == null || node.isNull() || node.isMissingNode();
+	}
+
+	private static String append(String path, String key) {
+		return path.isEmpty() ? key : path + "/" + key;
+	}
+
+	private static String shorten(JsonNode node) {
+		if (node == null) {
+			return null;
+		}
+		String text = node.isValueNode() ? node.asText() : node.toString();
+		if (text.length() > MAX_VALUE_LENGTH) {
+			return text.substring(0, MAX_VALUE_LENGTH) + "... ("
+					+ text.length() + " characters)";
+		}
+		return text;
+	}
+}
@@ -0,0 +1,318 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Numeric samples of one metric, kept in ring buffers of primitive arrays at
+ * several resolutions, like a round-robin database.
+ * <p>
+ * Each archive aggregates the samples of a time bucket into count, sum,
+ * minimum and maximum. The slot of a bucket is its number modulo the
+ * capacity, so a new bucket overwrites the oldest one without moving data.
+ * The default archives keep one hour of seconds, two days of minutes and 90
+ * days of hours.
+ * <p>
+ * The file format is fixed-size: a header with the resolutions and
+ * capacities, followed by the slots of all archives with
+ * {@link #SLOT_BYTES} each. {@link #write(FileChannel)} writes only the
+ * slots changed since the last write.
+ */
+public class TimeSeries {
+	/** Milliseconds per bucket of the archives, finest first */
+	public static final long[] RESOLUTIONS = { 1000, 60 * 1000,
+			60 * 60 * 1000 };
+	/** Number of buckets of the archives */
+	public static final int[] CAPACITIES = { 60 * 60, 2 * 24 * 60, 90 * 24 };
+	/** Bytes per slot: time, count, sum, minimum, maximum */
+	static final int SLOT_BYTES = 40;
+
+	private static final int MAGIC = 0x54534442;
+	private static final int VERSION = 1;
+
+	/**
+	 * Aggregated samples of one bucket.
+	 */
+	public static class Sample {
+		/** Start of the bucket */
+		public long time;
+		public long count;
+		public double average;
+		public double min;
+		public double max;
+
+		@Override
+		public String toString() {
+			return time + " avg " + average + " min " + min + " max " + max;
+		}
+	}
+
+	private static class Archive {
+		final long resolution;
+		final int capacity;
+		final long[] times;
+		final long[] counts;
+		final double[] sums;
+		final double[] mins;
+		final double[] maxs;
+		final BitSet dirty;
+
+		Archive(long resolution, int capacity) {
+			this.resolution = resolution;
+			this.capacity = capacity;
+			times = new long[capacity];
+			counts = new long[capacity];
+			sums = new double[capacity];
+			mins = new double[capacity];
+			maxs = new double[capacity];
+			dirty = new BitSet(capacity);
+		}
+
+		int slot(long bucket) {
+			return (int) ((bucket / resolution) % capacity);
+		}
+
+		void add(long time, double value) {
+			long bucket = time - time % resolution;
+			int slot = slot(bucket);
+			if (times[slot] != bucket || counts[slot] == 0) {
+				times[slot] = bucket;
+				counts[slot] = 0;
+				sums[slot] = 0;
+				mins[slot] = value;
+				maxs[slot] = value;
+			}
+			counts[slot]++;
+			sums[slot] += value;
+			mins[slot] = Math.min(mins[slot], value);
+			maxs[slot] = Math.max(maxs[slot], value);
+			dirty.set(slot);
+		}
+
+		/**
+		 * @return the oldest time still kept, relative to the last sample
+		 */
+		long getOldest(long lastTime) {
+			return lastTime - lastTime % resolution - (capacity - 1)
+					* resolution;
+		}
+	}
+
+	private final Archive[] archives;
+	private long lastTime = -1;
+
+	public TimeSeries() {
+		this(RESOLUTIONS, CAPACITIES);
+	}
+
+	/**
+	 * @param resolutions
+	 *            milliseconds per bucket of the archives, finest first
+	 * @param capacities
+	 *            number of buckets of the archives
+	 */
+	public TimeSeries(long[] resolutions, int[] capacities) {
+		archives = new Archive[resolutions.length];
+		for (int i = 0; i < archives.length; i++) {
+			archives[i] = new Archive(resolutions[i], capacities[i]);
+		}
+	}
+
+	/**
+	 * Adds a sample to all archives.
+	 * 
+	 * @param time
+	 *            milliseconds since the epoch
+	 * @param value
+	 */
+	public synchronized void add(long time, double value) {
+		for (Archive archive : archives) {
+			archive.add(time, value);
+		}
+		lastTime = Math.max(lastTime, time);
+	}
+
+	/**
+	 * @return time of the newest sample, or -1 if there are no samples
+	 */
+	public synchronized long getLastTime() {
+		return lastTime;
+	}
+
+	/**
+	 * Returns the buckets of a time range from the finest archive that still
+	 * keeps the start of the range and returns at most the given number of
+	 * buckets. If there is no such archive, the coarsest archive is used.
+	 * 
+	 * @param from
+	 *            start of the range, inclusive
+	 * @param to
+	 *            end of the range, inclusive
+	 * @param maxPoints
+	 *            maximal number of buckets
+	 * @return the buckets with samples, in chronological order
+	 */
+	public synchronized List<Sample> query(long from, long to, int maxPoints) {
+		List<Sample> samples = new ArrayList<Sample>();
+		if (lastTime < 0 || from > to) {
+			return samples;
+		}
+		Archive archive = archives[archives.length - 1];
+		for (Archive candidate : archives) {
+			if (from >= candidate.getOldest(lastTime)
+					&& (to - from) / candidate.resolution < maxPoints) {
+				archive = candidate;
+				break;
+			}
+		}
+		long last = to - to % archive.resolution;
+		long first = Math.max(from - from % archive.resolution,
+				archive.getOldest(lastTime));
+		first = Math.max(first, last - (long) (maxPoints - 1)
+				* archive.resolution);
+		for (long bucket = first; bucket <= last; bucket += archive.resolution) {
+			int slot = archive.slot(bucket);
+			if (archive.times[slot] == bucket && archive.counts[slot] > 0) {
+				Sample sample = new Sample();
+				sample.time = bucket;
+				sample.count = archive.counts[slot];
+				sample.average = archive.sums[slot] / archive.counts[slot];
+				sample.min = archive.mins[slot];
+				sample.max = archive.maxs[slot];
+				samples.add(sample);
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * @return size of the file of the series
+	 */
+	long getFileSize() {
+		long size = getHeaderSize();
+		for (Archive archive : archives) {
+			size += (long) archive.capacity * SLOT_BYTES;
+		}
+		return size;
+	}
+
+	private int getHeaderSize() {
+		return 12 + archives.length * 12;
+	}
+
+	/**
+	 * Writes the changed slots. The header is written, if the file doesn't
+	 * have the size of the series.
+	 * 
+	 * @param channel
+	 *            file of the series
+	 * @throws IOException
+	 */
+	synchronized void write(FileChannel channel) throws IOException {
+		if (channel.size() != getFileSize()) {
+			ByteBuffer header = ByteBuffer.allocate(getHeaderSize());
+			header.putInt(MAGIC).putInt(VERSION).putInt(archives.length);
+			for (Archive archive : archives) {
+				header.putLong(archive.resolution).putInt(archive.capacity);
+				archive.dirty.set(0, archive.capacity);
+			}
+			header.flip();
+			channel.truncate(0);
+			channel.write(header, 0);
+		}
+		ByteBuffer slotBuffer = ByteBuffer.allocate(SLOT_BYTES);
+		long offset = getHeaderSize();
+		for (Archive archive : archives) {
+			for (int slot = archive.dirty.nextSetBit(0); slot >= 0; slot = archive.dirty
+					.nextSetBit(slot + 1)) {
+				slotBuffer.clear();
+				slotBuffer.putLong(archive.times[slot])
+						.putLong(archive.counts[slot])
+						.putDouble(archive.sums[slot])
+						.putDouble(archive.mins[slot])
+						.putDouble(archive.maxs[slot]);
+				slotBuffer.flip();
+				channel.write(slotBuffer, offset + (long) slot * SLOT_BYTES);
+			}
+			archive.dirty.clear();
+			offset += (long) archive.capacity * SLOT_BYTES;
+		}
+	}
+
+	/**
+	 * Reads a series from its file.
+	 * 
+	 * @param channel
+	 *            file of the series
+	 * @return the series, or null if the file isn't a valid series file
+	 * @throws IOException
+	 */
+	static TimeSeries read(FileChannel channel) throws IOException {
+		ByteBuffer start = ByteBuffer.allocate(12);
+		if (channel.read(start, 0) < 12) {
+			return null;
+		}
+		start.flip();
+		if (start.getInt() != MAGIC || start.getInt() != VERSION) {
+			return null;
+		}
+		int count = start.getInt();
+		if (count <= 0 || count > 16) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.allocate(count * 12);
+		channel.read(header, 12);
+		header.flip();
+		long[] resolutions = new long[count];
+		int[] capacities = new int[count];
+		for (int i = 0; i < count; i++) {
+			resolutions[i] = header.getLong();
+			capacities[i] = header.getInt();
+			if (resolutions[i] <= 0 || capacities[i] <= 0) {
+				return null;
+			}
+		}
+		TimeSeries series = new TimeSeries(resolutions, capacities);
+		if (channel.size() != series.getFileSize()) {
+			return null;
+		}
+		ByteBuffer data = ByteBuffer.allocate((int) (channel.size() - series
+				.getHeaderSize()));
+		channel.read(data, series.getHeaderSize());
+		data.flip();
+		for (Archive archive : series.archives) {
+			for (int slot = 0; slot < archive.capacity; slot++) {
+				archive.times[slot] = data.getLong();
+				archive.counts[slot] = data.getLong();
+				archive.sums[slot] = data.getDouble();
+				archive.mins[slot] = data.getDouble();
+				archive.maxs[slot] = data.getDouble();
+				if (archive.counts[slot] > 0) {
+					series.lastTime = Math.max(series.lastTime,
+							archive.times[slot]);
+				}
+			}
+		}
+		return series;
+	}
+}
@@ -0,0 +1,275 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static configuration.Log.EXCEPTION_LOGGER;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import model.ExtractionResultCollection;
+
+/**
+ * Write-behind stage between the extraction and the storage backend.
+ * <p>
+ * Collections to save are put into bounded queues and are serialized and
+ * written by writer threads, in batches of up to {@link #BATCH_SIZE}
+ * collections or {@link #MAX_DELAY} milliseconds. After each batch the
+ * backend is flushed. If a queue is full, the extraction thread blocks until
+ * the writer has caught up, which slows the extraction down to the speed of
+ * the storage.
+ * <p>
+ * The collections of the same part or environment always go to the same
+ * writer, so that their snapshots are stored in order.
+ */
+public class WriteBehindQueue {
+	/** Capacity of the queue of each writer */
+	public static final int CAPACITY = 256;
+	/** Maximal number of collections written before a flush */
+	public static final int BATCH_SIZE = 64;
+	/** Maximal milliseconds a collection waits for its batch */
+	public static final long MAX_DELAY = 1000;
+
+	private final GeneralStorage storage;
+	private final List<BlockingQueue<Job>> queues = new ArrayList<BlockingQueue<Job>>();
+	private final List<Thread> writers = new ArrayList<Thread>();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong producerWaits = new AtomicLong();
+	private volatile boolean stopped = false;
+
+	/**
+	 * A collection to save, or a barrier if the collection is null.
+	 */
+	private static class Job {
+		final ExtractionResultCollection collection;
+		final String profileUUID;
+		final String type;
+		final String path;
+		final Barrier barrier;
+
+		Job(ExtractionResultCollection collection, String profileUUID,
+				String type, String path, Barrier barrier) {
+			this.collection = collection;
+			this.profileUUID = profileUUID;
+			this.type = type;
+			this.path = path;
+			this.barrier = barrier;
+		}
+	}
+
+	/**
+	 * Action to run, after all writers have written the jobs before the
+	 * barrier.
+	 */
+	private static class Barrier {
+		final AtomicInteger remaining;
+		final Runnable action;
+
+		Barrier(int writers, Runnable action) {
+			this.remaining = new AtomicInteger(writers);
+			this.action = action;
+		}
+
+		void reached() {
+			if (remaining.decrementAndGet() == 0) {
+				action.run();
+			}
+		}
+	}
+
+	/**
+	 * Starts the writer threads.
+	 * 
+	 * @param storage
+	 *            backend to write to
+	 * @param writerCount
+	 *            number of writer threads
+	 */
+	public WriteBehindQueue(GeneralStorage storage, int writerCount) {
+		this.storage = storage;
+		for (int i = 0; i < Math.max(1, writerCount); i++) {
+			final BlockingQueue<Job> queue = new ArrayBlockingQueue<Job>(
+					CAPACITY);
+			queues.add(queue);
+			Thread writer = new Thread("Storage writer " + (i + 1)) {
+				@Override
+				public void run() {
+					write(queue);
+				}
+			};
+			writer.setDaemon(true);
+			writers.add(writer);
+			writer.start();
+		}
+	}
+
+	/**
+	 * Queues a collection to be saved. Blocks while the queue of its writer
+	 * is full.
+	 * 
+	 * @param collection
+	 *            detached collection, that isn't changed anymore
+	 * @param profileUUID
+	 * @param type
+	 * @param path
+	 *            path of the part, or null for the environment
+	 * @throws InterruptedException
+	 */
+	public void put(ExtractionResultCollection collection, String profileUUID,
+			String type, String path) throws InterruptedException {
+		if (stopped) {
+			throw new IllegalStateException("Write-behind queue is stopped");
+		}
+		String key = profileUUID + (path == null ? "" : path);
+		BlockingQueue<Job> queue = queues.get((key.hashCode() & 0x7fffffff)
+				% queues.size());
+		Job job = new Job(collection, profileUUID, type, path, null);
+		if (!queue.offer(job)) {
+			producerWaits.incrementAndGet();
+			queue.put(job);
+		}
+	}
+
+	/**
+	 * Runs an action after all collections queued so far are written and
+	 * flushed.
+	 * 
+	 * @param action
+	 * @throws InterruptedException
+	 */
+	public void afterWrites(Runnable action) throws InterruptedException {
+		Barrier barrier = new Barrier(queues.size(), action);
+		for (BlockingQueue<Job> queue : queues) {
+			queue.put(new Job(null, null, null, null, barrier));
+		}
+	}
+
+	/**
+	 * Writes all queued collections and stops the writer threads.
+	 */
+	public void stop() {
+		if (stopped) {
+			return;
+		}
+		stopped = true;
+		try {
+			for (BlockingQueue<Job> queue : queues) {
+				// an empty barrier job ends the writer
+				queue.put(new Job(null, null, null, null, null));
+			}
+			for (Thread writer : writers) {
+				writer.join();
+			}
+		} catch (InterruptedException e) {
+			EXCEPTION_LOGGER.log(Level.SEVERE,
+					"Interrupted while stopping the storage writers", e);
+		}
+	}
+
+	/**
+	 * @return number of collections waiting to be written
+	 */
+	public int getQueued() {
+		int queued = 0;
+		for (BlockingQueue<Job> queue : queues) {
+			queued += queue.size();
+		}
+		return queued;
+	}
+
+	/**
+	 * @return number of written collections
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * @return how often the extraction had to wait for a full queue
+	 */
+	public long getProducerWaits() {
+		return producerWaits.get();
+	}
+
+	/**
+	 * @return number of writer threads
+	 */
+	public int getWriterCount() {
+		return writers.size();
+	}
+
+	private void write(BlockingQueue<Job> queue) {
+		List<Job> batch = new ArrayList<Job>(BATCH_SIZE);
+		boolean running = true;
+		while (running) {
+			try {
+				Job first = queue.take();
+				batch.add(first);
+				long deadline = System.currentTimeMillis() + MAX_DELAY;
+				// write barriers and the end without delay
+				while (first.collection != null && batch.size() < BATCH_SIZE) {
+					long wait = deadline - System.currentTimeMillis();
+					Job job = wait > 0 ? queue.poll(wait,
+							TimeUnit.MILLISECONDS) : queue.poll();
+					if (job == null) {
+						break;
+					}
+					batch.add(job);
+					if (job.collection == null) {
+						break;
+					}
+				}
+			} catch (InterruptedException e) {
+				running = false;
+			}
+			for (Job job : batch) {
+				if (job.collection != null) {
+					try {
+						storage.write(job.collection, job.profileUUID,
+								job.type, job.path);
+						written.incrementAndGet();
+					} catch (Exception e) {
+						EXCEPTION_LOGGER.log(Level.SEVERE,
+								"Exception while saving results", e);
+					}
+				}
+			}
+			storage.flushWrites();
+			for (Job job : batch) {
+				if (job.collection == null) {
+					if (job.barrier == null) {
+						running = false;
+					} else {
+						try {
+							job.barrier.reached();
+						} catch (Exception e) {
+							EXCEPTION_LOGGER.log(Level.SEVERE,
+									"Exception after saving results", e);
+						}
+					}
+				}
+			}
+			batch.clear();
+		}
+	}
+}
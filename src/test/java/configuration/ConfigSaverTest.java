@@ -17,6 +17,7 @@
 package configuration;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static utility.FileUtils.createFile;
@@ -28,6 +29,8 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 
 import model.Part;
@@ -86,6 +89,28 @@ public class ConfigSaverTest {
 		assertTrue(loadedPaths.contains(path2.toAbsolutePath()));
 	}
 
+	@Test
+	public void pathJournalTest() {
+		String fileName = "pathJournalTest";
+		Path a = Paths.get("a").toAbsolutePath();
+		Path b = Paths.get("b").toAbsolutePath();
+		HashSet<Path> paths = new HashSet<Path>();
+		paths.add(a);
+		ConfigSaver.savePathSet(paths, fileName);
+		ConfigSaver.appendPathChanges(Arrays.asList(b), Arrays.asList(a),
+				fileName);
+		ConfigSaver.appendPathChanges(Arrays.asList(a),
+				Collections.<Path> emptyList(), fileName);
+		HashSet<Path> loaded = ConfigSaver.loadPathSet(fileName);
+		assertEquals(2, loaded.size());
+		assertTrue(loaded.contains(a) && loaded.contains(b));
+		// saving the whole set deletes the journal
+		ConfigSaver.savePathSet(paths, fileName);
+		assertFalse(new File(fileName + ConfigSaver.JOURNAL_SUFFIX).exists());
+		assertEquals(paths, ConfigSaver.loadPathSet(fileName));
+		deleteFile(fileName);
+	}
+
 //	@Test
 //	public void saveAndLoadConfiguration() throws JsonGenerationException,
 //			JsonMappingException, IOException {
@@ -0,0 +1,113 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import model.Event;
+
+import org.junit.Test;
+
+public class EventControllerTest {
+
+	/**
+	 * Records the order of the events of each file.
+	 */
+	private static class RecordingProcessor implements EventProcessorInterface {
+		final List<List<Integer>> files = new ArrayList<List<Integer>>();
+		final CountDownLatch done;
+
+		RecordingProcessor(int fileCount, int events) {
+			for (int i = 0; i < fileCount; i++) {
+				files.add(new ArrayList<Integer>());
+			}
+			done = new CountDownLatch(events);
+		}
+
+		@Override
+		public boolean processevent(Event e) {
+			files.get(Integer.parseInt(e.fileName)).add((Integer) e.data);
+			done.countDown();
+			return true;
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void perFileOrderTest() throws InterruptedException {
+		EventController controller = new EventController(null, 10000,
+				OverloadPolicy.BLOCK, 4);
+		RecordingProcessor processor = new RecordingProcessor(8, 800);
+		controller.addProcessor(processor);
+		for (int i = 0; i < 100; i++) {
+			for (int file = 0; file < 8; file++) {
+				controller.submitEvent(new Event(i, false, "test", ""
+						+ file));
+			}
+		}
+		assertTrue(processor.done.await(5, TimeUnit.SECONDS));
+		for (List<Integer> file : processor.files) {
+			assertEquals(100, file.size());
+			for (int i = 0; i < 100; i++) {
+				assertEquals(i, file.get(i).intValue());
+			}
+		}
+		assertEquals(4, controller.getQueues().size());
+	}
+
+	@Test(timeout = 10000)
+	public void slowProcessorTest() throws InterruptedException {
+		EventController controller = new EventController(null, 10000,
+				OverloadPolicy.BLOCK, 2);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		EventProcessorInterface slow = new EventProcessorInterface() {
+			@Override
+			public boolean processevent(Event e) {
+				try {
+					blocked.await();
+				} catch (InterruptedException x) {
+					Thread.currentThread().interrupt();
+				}
+				return true;
+			}
+		};
+		RecordingProcessor fast = new RecordingProcessor(1, 1500);
+		controller.addProcessor(slow);
+		controller.addProcessor(fast);
+		// the fast processor gets all events, while the slow one is stuck
+		for (int i = 0; i < 1500; i++) {
+			controller.submitEvent(new Event(i, false, "test", "0"));
+			if (i % 100 == 99) {
+				while (fast.done.getCount() > 1500 - i - 1) {
+					Thread.sleep(1);
+				}
+			}
+		}
+		assertTrue(fast.done.await(5, TimeUnit.SECONDS));
+		assertEquals(1500, fast.files.get(0).size());
+		EventQueue slowQueue = controller.getProcessorQueues().get(slow);
+		assertTrue(slowQueue.getDropped() > 0);
+		blocked.countDown();
+		controller.removeProcessor(slow);
+		assertEquals(1, controller.getProcessorQueues().size());
+	}
+}
@@ -0,0 +1,103 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import model.Event;
+
+import org.junit.Test;
+
+public class EventQueueTest {
+
+	private static Event event(String reporter, String fileName) {
+		Event event = new Event(null, false, reporter, fileName);
+		event.type = "ENTRY_CREATE";
+		return event;
+	}
+
+	@Test
+	public void dropOldestTest() throws InterruptedException {
+		EventQueue queue = new EventQueue(2, OverloadPolicy.DROP_OLDEST);
+		Event first = event("a", "1");
+		Event second = event("a", "2");
+		Event third = event("a", "3");
+		queue.submit(first);
+		queue.submit(second);
+		assertTrue(queue.submit(third));
+		assertEquals(1, queue.getDropped());
+		assertSame(second, queue.take());
+		assertSame(third, queue.take());
+	}
+
+	@Test
+	public void coalesceTest() throws InterruptedException {
+		EventQueue queue = new EventQueue(10, OverloadPolicy.COALESCE);
+		Event first = event("a", "1");
+		assertTrue(queue.submit(first));
+		assertFalse(queue.submit(event("a", "1")));
+		assertTrue(queue.submit(event("b", "1")));
+		assertEquals(1, queue.getCoalesced());
+		assertEquals(2, queue.size());
+		assertSame(first, queue.take());
+		// after the event was processed, the same event is queued again
+		assertTrue(queue.submit(event("a", "1")));
+	}
+
+	@Test
+	public void sampleTest() throws InterruptedException {
+		EventQueue queue = new EventQueue(10, OverloadPolicy.SAMPLE);
+		for (int i = 0; i < 5; i++) {
+			queue.submit(event("busy", "file" + i));
+		}
+		// above half of the capacity, every 10th event per reporter
+		for (int i = 0; i < 20; i++) {
+			queue.submit(event("busy", "more" + i));
+		}
+		assertTrue(queue.submit(event("quiet", "x")));
+		assertEquals(18, queue.getSampled());
+		assertEquals(8, queue.size());
+		assertEquals(0, queue.getDropped());
+	}
+
+	@Test(timeout = 5000)
+	public void blockTest() throws InterruptedException {
+		final EventQueue queue = new EventQueue(1, OverloadPolicy.BLOCK);
+		queue.submit(event("a", "1"));
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					queue.submit(event("a", "2"));
+				} catch (InterruptedException e) {
+					// test failed
+				}
+			}
+		};
+		producer.start();
+		while (queue.getProducerWaits() == 0) {
+			Thread.sleep(5);
+		}
+		assertEquals("1", queue.take().fileName);
+		producer.join();
+		assertEquals("2", queue.take().fileName);
+		assertEquals(0, queue.getDropped());
+	}
+}
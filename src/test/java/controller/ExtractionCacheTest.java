@@ -0,0 +1,111 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import modules.ChecksumFileModule;
+import modules.configuration.ChecksumFileModuleConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExtractionCacheTest {
+
+	private File journal;
+	private Path file;
+	private ChecksumFileModule module;
+
+	@Before
+	public void setUp() throws IOException {
+		journal = File.createTempFile("extractionCacheTest", ".journal");
+		journal.delete();
+		file = Files.createTempFile("extractionCacheTest", ".txt");
+		module = new ChecksumFileModule();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		journal.delete();
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void hitAndMissTest() throws IOException {
+		ExtractionCache cache = new ExtractionCache(journal);
+		ExtractionCache.Key key = cache.check("profile", file, module);
+		assertNotNull(key);
+		cache.put(key);
+		assertNull(cache.check("profile", file, module));
+		assertNotNull(cache.check("otherProfile", file, module));
+		Files.setLastModifiedTime(file,
+				FileTime.fromMillis(System.currentTimeMillis() + 10000));
+		assertNotNull(cache.check("profile", file, module));
+		assertEquals(1, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+
+	@Test
+	public void configuredInstancesTest() {
+		ChecksumFileModule sha = new ChecksumFileModule();
+		((ChecksumFileModuleConfig) sha.getConfig()).algorithm = "SHA-1";
+		ExtractionCache cache = new ExtractionCache(journal);
+		cache.put(cache.check("profile", file, module));
+		cache.put(cache.check("profile", file, sha));
+		assertEquals(2, cache.size());
+		assertNull(cache.check("profile", file, module));
+		assertNull(cache.check("profile", file, sha));
+	}
+
+	@Test
+	public void persistenceTest() {
+		ExtractionCache cache = new ExtractionCache(journal);
+		cache.put(cache.check("profile", file, module));
+		cache.flush();
+		cache.close();
+		ExtractionCache loaded = new ExtractionCache(journal);
+		assertEquals(1, loaded.size());
+		assertNull(loaded.check("profile", file, module));
+		loaded.clear();
+		assertEquals(0, new ExtractionCache(journal).size());
+	}
+
+	@Test
+	public void pendingTest() {
+		ExtractionCache cache = new ExtractionCache(journal);
+		cache.put(cache.check("profile", file, module));
+		List<ExtractionCache.Key> stored = cache.takePending();
+		cache.put(cache.check("otherProfile", file, module));
+		// the results of the second extraction weren't stored
+		cache.write(stored);
+		cache.close();
+		ExtractionCache loaded = new ExtractionCache(journal);
+		assertEquals(1, loaded.size());
+		assertNull(loaded.check("profile", file, module));
+		assertNotNull(loaded.check("otherProfile", file, module));
+	}
+}
@@ -16,6 +16,7 @@
 */
 package controller;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
@@ -43,4 +44,10 @@ public class ExtractionControllerBuilderTest {
 	public void createTest() {
 		assertTrue(builder.create() instanceof ExtractionController);
 	}
+
+	@Test
+	public void threadsTest() {
+		ExtractionController controller = builder.threads(4).create();
+		assertEquals(4, controller.extractor.getThreads());
+	}
 }
@@ -0,0 +1,74 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package controller;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import modules.AbstractModule;
+import modules.PosixModule;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModuleConcurrencyLimiterTest {
+
+	private ModuleConcurrencyLimiter limiter;
+
+	/**
+	 * Module that is not thread-safe, but can be extracted with copies.
+	 */
+	public static class PooledModule extends PosixModule {
+		@Override
+		public boolean isThreadSafe() {
+			return false;
+		}
+
+		@Override
+		public int getMaxParallelism() {
+			return 2;
+		}
+	}
+
+	@Before
+	public void setUp() {
+		limiter = new ModuleConcurrencyLimiter(4);
+	}
+
+	@Test
+	public void threadSafeModuleTest() throws InterruptedException {
+		AbstractModule module = new PosixModule();
+		AbstractModule first = limiter.acquire(module);
+		AbstractModule second = limiter.acquire(module);
+		assertSame(module, first);
+		assertSame(module, second);
+		limiter.release(module, first);
+		limiter.release(module, second);
+	}
+
+	@Test
+	public void pooledModuleTest() throws InterruptedException {
+		AbstractModule module = new PooledModule();
+		AbstractModule first = limiter.acquire(module);
+		AbstractModule second = limiter.acquire(module);
+		assertNotSame(first, second);
+		assertSame(module.getConfig(), first.getConfig());
+		assertSame(module.getConfig(), second.getConfig());
+		limiter.release(module, first);
+		assertSame(first, limiter.acquire(module));
+	}
+}
@@ -106,6 +106,44 @@ public class ProfileTest {
 		deleteDirectory(EXTRACTION_PROFILES_DIRECTORY + "testUUID");
 	}
 
+	@Test
+	public void incrementalSaveTest() {
+		String directory = EXTRACTION_PROFILES_DIRECTORY + "testUUID"
+				+ File.separator;
+		deleteDirectory(directory);
+		profile.removeAllModules();
+		profile.removeAllParts();
+		profile.addPart(testPart1);
+		profile.addPart(testPart2);
+		profile.addModule(testModule1);
+		profile.save();
+		assertTrue(new File(directory + "PARTS").isFile());
+		assertFalse(new File(directory + "PARTS.log").exists());
+		// only the removed part is appended to the journal
+		profile.removePart(testPart2);
+		profile.save();
+		assertTrue(new File(directory + "PARTS.log").isFile());
+		long journalLength = new File(directory + "PARTS.log").length();
+		profile.save();
+		assertEquals(journalLength,
+				new File(directory + "PARTS.log").length());
+		// the configuration of a removed module is deleted
+		profile.removeAllModules();
+		profile.addModule(testModule2);
+		profile.save();
+		assertEquals(4, new File(directory).list().length);
+
+		profile.removeAllParts();
+		profile.removeAllModules();
+		profile.loadModules();
+		profile.loadParts();
+		assertEquals(1, profile.getParts().size());
+		assertEquals(testPart1.getFile(), profile.getParts().iterator()
+				.next().getFile());
+		assertEquals(1, profile.getModules().size());
+		deleteDirectory(directory);
+	}
+
 	@Test
 	public void addRemoveModuleTest() {
 		int profileSize = profile.getModules().size();
@@ -0,0 +1,94 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import utility.FileUtils;
+
+public class BlobStoreTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("blobTest").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteDirectory(directory.getPath());
+	}
+
+	@Test
+	public void deduplicationTest() throws IOException {
+		BlobStore store = new BlobStore(directory);
+		byte[] data = "screenshot".getBytes("UTF-8");
+		String id = store.put(data);
+		assertTrue(BlobStore.ID_PATTERN.matcher(id).matches());
+		assertEquals(id, store.put(data));
+		assertEquals(1, store.getBlobCount());
+		assertEquals(data.length, store.getBlobBytes());
+		assertEquals(1, store.getDeduplicatedPuts());
+
+		try (InputStream in = store.open(id)) {
+			assertArrayEquals(data, IOUtils.toByteArray(in));
+		}
+		try (FileChannel channel = store.openChannel(id)) {
+			ByteBuffer buffer = ByteBuffer.allocate(data.length);
+			channel.read(buffer);
+			assertArrayEquals(data, buffer.array());
+		}
+		assertNull(store.open("not a blob"));
+	}
+
+	@Test
+	public void referenceCountTest() throws IOException {
+		BlobStore store = new BlobStore(directory);
+		String id = store.put("a".getBytes("UTF-8"));
+		store.put("a".getBytes("UTF-8"));
+		String other = store.put("b".getBytes("UTF-8"));
+		store.close();
+
+		// the reference counts are read from the journal
+		store = new BlobStore(directory);
+		assertEquals(1, store.releaseAll("{\"imageContentsId\":\"" + id
+				+ "\"}"));
+		assertTrue(store.contains(id));
+		store.release(id);
+		assertFalse(store.contains(id));
+		assertTrue(store.contains(other));
+		assertEquals(1, store.getBlobCount());
+		assertEquals(1, store.getBlobBytes());
+	}
+}
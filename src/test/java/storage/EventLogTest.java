@@ -0,0 +1,194 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import utility.FileUtils;
+
+public class EventLogTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private File directory;
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("eventLogTest").toFile();
+		file = new File(directory, "events.json");
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteDirectory(directory.getPath());
+	}
+
+	private static byte[] event(long timestamp) {
+		return event(timestamp, "test", "test reporter");
+	}
+
+	private static byte[] event(long timestamp, String type,
+			String reporterName) {
+		return ("{\"reporterName\":\"" + reporterName + "\",\"timestamp\":"
+				+ timestamp + ",\"type\":\"" + type + "\"}\n").getBytes(UTF8);
+	}
+
+	@Test
+	public void compressedAppendTest() throws IOException {
+		for (Compression compression : Compression.values()) {
+			EventLog log = new EventLog(file);
+			assertNull(log.readLines());
+			log.setCompression(compression);
+			for (int i = 0; i < 100; i++) {
+				log.append(event(i));
+			}
+			List<String> lines = log.readLines();
+			assertEquals(100, lines.size());
+			assertEquals(new String(event(42), UTF8).trim(), lines.get(42));
+			FileUtils.deleteDirectory(new File(directory, "events").getPath());
+		}
+	}
+
+	@Test
+	public void incompleteFrameTest() throws IOException {
+		EventLog log = new EventLog(file);
+		log.setCompression(Compression.GZIP);
+		log.append(event(1));
+		log.append(event(2));
+		File compressed = log.getSegment(1, Compression.GZIP);
+		try (RandomAccessFile raf = new RandomAccessFile(compressed, "rw")) {
+			raf.setLength(raf.length() - 3);
+		}
+		assertEquals(1, log.readLines().size());
+
+		// a new process cuts the incomplete frame before it appends
+		log = new EventLog(file);
+		log.setCompression(Compression.GZIP);
+		log.append(event(3));
+		assertEquals(Arrays.asList(new String(event(1), UTF8).trim(),
+				new String(event(3), UTF8).trim()), log.readLines());
+	}
+
+	@Test
+	public void queryTest() throws IOException {
+		long hour = 60L * 60 * 1000;
+		for (Compression compression : Compression.values()) {
+			EventLog log = new EventLog(file);
+			log.setCompression(compression);
+			// three days of events, every hour, appended in batches of ten
+			ByteArrayOutputStream batch = new ByteArrayOutputStream();
+			for (int i = 0; i < 72; i++) {
+				batch.write(event(i * hour, i == 50 ? "rare" : "test", "r"
+						+ i % 3));
+				if (i % 10 == 9) {
+					log.append(batch.toByteArray());
+					batch.reset();
+				}
+			}
+			log.append(batch.toByteArray());
+			// a segment per hour
+			assertEquals(72,
+					new File(directory, "events").listFiles().length / 2);
+
+			List<String> lines = log.query(20 * hour, 29 * hour, null, null, 0);
+			assertEquals(10, lines.size());
+			assertEquals(new String(event(20 * hour, "test", "r2"), UTF8)
+					.trim(), lines.get(0));
+			assertEquals(5, log.query(20 * hour, 29 * hour, null, null, 5)
+					.size());
+			assertEquals(24, log.query(0, 71 * hour, "r0", null, 0).size());
+			assertEquals(
+					Arrays.asList(new String(event(50 * hour, "rare", "r2"),
+							UTF8).trim()), log.query(0, 71 * hour, null, "rare", 0));
+
+			// a lost index is rebuilt from the segment
+			log = new EventLog(file);
+			new File(log.getSegment(0, compression).getPath() + ".idx")
+					.delete();
+			assertEquals(24, log.query(0, 23 * hour, null, null, 0).size());
+			FileUtils.deleteDirectory(new File(directory, "events").getPath());
+		}
+	}
+
+	@Test
+	public void incompleteLineTest() throws IOException {
+		EventLog log = new EventLog(file);
+		log.append(event(1));
+		log.append(event(2));
+		File segment = log.getSegment(1, Compression.NONE);
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+			raf.setLength(raf.length() - 3);
+		}
+
+		// a new process cuts the incomplete line before it appends
+		log = new EventLog(file);
+		log.append(event(3));
+		assertEquals(Arrays.asList(new String(event(1), UTF8).trim(),
+				new String(event(3), UTF8).trim()), log.readLines());
+		assertEquals(2, log.query(0, 3, null, null, 0).size());
+	}
+
+	@Test
+	public void legacyLogTest() throws IOException {
+		Files.write(file.toPath(), event(1));
+		EventLog log = new EventLog(file);
+		log.append(event(2));
+		assertEquals(Arrays.asList(new String(event(1), UTF8).trim(),
+				new String(event(2), UTF8).trim()), log.readLines());
+		assertEquals(2, log.query(0, 2, null, "test", 0).size());
+	}
+
+	@Test
+	public void compactTest() throws IOException {
+		// a minute later, so that the events don't age during the test
+		long now = System.currentTimeMillis() + 60 * 1000;
+		long day = 24L * 60 * 60 * 1000;
+		for (Compression compression : Compression.values()) {
+			EventLog log = new EventLog(file);
+			log.setCompression(compression);
+			for (int i = 10; i > 0; i--) {
+				log.append(event(now - i * day));
+			}
+			RetentionPolicies policies = new RetentionPolicies();
+			policies.maxEventAgeDays = 5;
+			CompactionReport report = new CompactionReport();
+			log.compact(policies, report);
+			assertEquals(compression.name(), 5, report.deletedEvents);
+			assertTrue(report.reclaimedEventBytes > 0);
+			List<String> lines = log.readLines();
+			assertEquals(5, lines.size());
+			assertEquals(new String(event(now - 5 * day), UTF8).trim(),
+					lines.get(0));
+			FileUtils.deleteDirectory(new File(directory, "events").getPath());
+		}
+	}
+}
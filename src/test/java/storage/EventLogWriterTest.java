@@ -0,0 +1,80 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EventLogWriterTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static byte[] event(long timestamp) {
+		return ("{\"timestamp\":" + timestamp + ",\"type\":\"test\"}\n")
+				.getBytes(UTF8);
+	}
+
+	@Test
+	public void batchTest() throws IOException {
+		File file = new File(folder.getRoot(), "events.json");
+		EventLog log = new EventLog(file);
+		log.setCompression(Compression.LZ4);
+		EventLogWriter writer = new EventLogWriter(log);
+		writer.setSync(EventLogWriter.Sync.BATCH);
+		File compressed = log.getSegment(0, Compression.LZ4);
+		for (int i = 0; i < EventLogWriter.BATCH_EVENTS - 1; i++) {
+			writer.append(event(i));
+		}
+		assertFalse(compressed.exists());
+		assertEquals(EventLogWriter.BATCH_EVENTS - 1, writer.getBuffered());
+		writer.append(event(EventLogWriter.BATCH_EVENTS));
+		assertEquals(0, writer.getBuffered());
+		// one frame for the whole batch
+		long length = compressed.length();
+		assertTrue(length > 0);
+		assertTrue(length < EventLogWriter.BATCH_EVENTS * 10);
+
+		writer.append(event(-1));
+		writer.close();
+		assertEquals(EventLogWriter.BATCH_EVENTS + 1, log.readLines().size());
+	}
+
+	@Test(timeout = 10000)
+	public void delayTest() throws Exception {
+		File file = new File(folder.getRoot(), "events.json");
+		EventLog log = new EventLog(file);
+		EventLogWriter writer = new EventLogWriter(log);
+		writer.append(event(1));
+		while (writer.getBuffered() > 0) {
+			Thread.sleep(50);
+		}
+		assertEquals(event(1).length, log.getSegment(1, Compression.NONE)
+				.length());
+		writer.close();
+	}
+}
@@ -0,0 +1,91 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import model.Environment;
+import model.Part;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import utility.FileUtils;
+
+public class MAPDBStorageInterfaceTest {
+
+	private File directory;
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("mapdbTest").toFile();
+		file = Files.createTempFile("mapdbTest", ".txt");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory.getPath());
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void rangeScanTest() {
+		File db = new File(directory, "metadata.mapdb");
+		Part part = Part.create(file, "profile");
+		MAPDBStorageInterface storage = new MAPDBStorageInterface(db);
+		storage.save("{\"a\":1}", "profile", "file-dependent", part.getPath());
+		storage.save("{\"a\":2}", "profile", "file-dependent", part.getPath());
+		storage.save("{\"b\":1}", "profile", "file-dependent", "/other");
+		storage.save("{\"e\":1}", "profile", "environment", null);
+		storage.save("{\"e\":2}", "otherProfile", "environment", null);
+		assertArrayEquals(new String[] { "{\"a\":1}", "{\"a\":2}" },
+				storage.getRawResults(part));
+		storage.finalize();
+
+		storage = new MAPDBStorageInterface(db);
+		assertArrayEquals(new String[] { "{\"e\":1}" },
+				storage.getRawResults(new Environment("profile")));
+		storage.deleteAllMetadata();
+		assertEquals(0, storage.getRawResults(part).length);
+		storage.finalize();
+	}
+
+	@Test
+	public void extractionDateKeyTest() {
+		File db = new File(directory, "metadata.mapdb");
+		MAPDBStorageInterface storage = new MAPDBStorageInterface(db);
+		String newer = "{\"extractionResults\":[{\"extractionDate\":"
+				+ "\"2015-01-02T00:00:00.000+0000\"}]}";
+		String older = "{\"extractionResults\":[{\"extractionDate\":"
+				+ "\"2015-01-01T00:00:00.000+0000\"}]}";
+		// written behind in another order than extracted
+		storage.save(newer, "profile", "environment", null);
+		storage.save(older, "profile", "environment", null);
+		storage.save(older, "profile", "environment", null);
+		assertArrayEquals(new String[] { older, older, newer },
+				storage.getRawResults(new Environment("profile")));
+		storage.finalize();
+	}
+}
@@ -0,0 +1,101 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PathIdIndexTest {
+
+	private File journal;
+
+	@Before
+	public void setUp() throws IOException {
+		journal = File.createTempFile("pathIdIndexTest", ".journal");
+		journal.delete();
+	}
+
+	@After
+	public void tearDown() {
+		journal.delete();
+	}
+
+	@Test
+	public void putGetReopenTest() {
+		PathIdIndex index = new PathIdIndex(journal);
+		for (int i = 0; i < 5000; i++) {
+			index.put("/data/file" + i, "id" + i);
+		}
+		assertEquals("id42", index.get("/data/file42"));
+		assertNull(index.get("/data/missing"));
+		// no close, like after a kill
+		PathIdIndex reopened = new PathIdIndex(journal);
+		assertEquals(5000, reopened.size());
+		assertEquals("id4999", reopened.get("/data/file4999"));
+		reopened.clear();
+		assertEquals(0, new PathIdIndex(journal).size());
+		index.close();
+	}
+
+	@Test
+	public void tornEntryTest() throws IOException {
+		PathIdIndex index = new PathIdIndex(journal);
+		index.put("/data/a", "idA");
+		index.put("/data/b", "idB");
+		index.close();
+		try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+			raf.setLength(raf.length() - 2);
+		}
+		index = new PathIdIndex(journal);
+		assertEquals(1, index.size());
+		assertNull(index.get("/data/b"));
+		index.put("/data/c", "idC");
+		index.close();
+		index = new PathIdIndex(journal);
+		assertEquals("idA", index.get("/data/a"));
+		assertEquals("idC", index.get("/data/c"));
+		index.close();
+	}
+
+	@Test
+	public void corruptEntryTest() throws IOException {
+		PathIdIndex index = new PathIdIndex(journal);
+		index.put("/data/a", "idA");
+		index.close();
+		// a path of two bytes with a torn three byte UTF-8 sequence
+		try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+			raf.seek(raf.length());
+			raf.write(new byte[] { 0, 2, (byte) 0xE2, (byte) 0x82 });
+		}
+		index = new PathIdIndex(journal);
+		assertEquals(1, index.size());
+		index.put("/data/b", "idB");
+		index.close();
+		index = new PathIdIndex(journal);
+		assertEquals("idA", index.get("/data/a"));
+		assertEquals("idB", index.get("/data/b"));
+		index.close();
+	}
+}
@@ -0,0 +1,150 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import model.ExtractionResult;
+import model.ExtractionResultCollection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import utility.FileUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class PayloadStoreTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("payloadTest").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteDirectory(directory.getPath());
+	}
+
+	@SuppressWarnings("deprecation")
+	private static ExtractionResultCollection createCollection(String value) {
+		ExtractionResultCollection collection = new ExtractionResultCollection(
+				"profile");
+		for (int i = 0; i < 2; i++) {
+			ExtractionResult result = new ExtractionResult();
+			result.moduleName = "module" + i;
+			result.extractionDate = new Date();
+			Map<String, Object> results = new LinkedHashMap<String, Object>();
+			results.put("value", value);
+			results.put("results", i);
+			result.setResults(results);
+			collection.extractionResults.add(result);
+		}
+		return collection;
+	}
+
+	@Test
+	public void deduplicateAndResolveTest() throws IOException {
+		PayloadStore store = new PayloadStore(new File(directory,
+				"payloads.log"));
+		ExtractionResultCollection collection = createCollection("a");
+		JsonNode snapshot = store.deduplicate(collection);
+		assertEquals(2, store.size());
+		String saved = JsonMappers.COMPACT.writeValueAsString(snapshot);
+		assertFalse(saved.contains("\"value\""));
+
+		// the same results are stored only once
+		store.deduplicate(createCollection("a"));
+		assertEquals(2, store.size());
+		store.deduplicate(createCollection("b"));
+		assertEquals(4, store.size());
+
+		store.close();
+		String resolved = store.resolve(saved);
+		assertEquals(JsonMappers.valueToTree(collection),
+				JsonMappers.TREE.readValue(resolved));
+
+		// snapshots without references are not changed
+		String plain = JsonMappers.COMPACT.writeValueAsString(collection);
+		assertEquals(plain, store.resolve(plain));
+	}
+
+	@Test
+	public void truncatedJournalTest() throws IOException {
+		File journal = new File(directory, "payloads.log");
+		PayloadStore store = new PayloadStore(journal);
+		String first = store.put("{\"a\":1}");
+		String second = store.put("{\"a\":2}");
+		store.close();
+		try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+			file.setLength(file.length() - 2);
+		}
+		store = new PayloadStore(journal);
+		assertEquals("{\"a\":1}", store.get(first));
+		assertNull(store.get(second));
+		assertEquals(second, store.put("{\"a\":2}"));
+		store.close();
+		assertEquals("{\"a\":2}", new PayloadStore(journal).get(second));
+	}
+
+	@Test
+	public void collectGarbageTest() throws IOException {
+		File journal = new File(directory, "payloads.log");
+		PayloadStore store = new PayloadStore(journal);
+		String kept = JsonMappers.COMPACT.writeValueAsString(store
+				.deduplicate(createCollection("a")));
+		store.deduplicate(createCollection("b"));
+		assertEquals(4, store.size());
+
+		Set<String> referenced = new HashSet<String>();
+		PayloadStore.collectReferences(kept, referenced);
+		assertEquals(2, referenced.size());
+		store.startTracking();
+		// stored during the collection, before its snapshot is saved
+		String stored = store.put("{\"c\":1}");
+		long length = journal.length();
+		long reclaimed = store.collectGarbage(referenced);
+		assertTrue(reclaimed > 0);
+		assertEquals(length - reclaimed, journal.length());
+		assertEquals(3, store.size());
+		assertEquals("{\"c\":1}", store.get(stored));
+		assertEquals(JsonMappers.valueToTree(createCollection("a")).path(
+				"extractionResults").get(1).path("results"),
+				JsonMappers.TREE.<JsonNode> readValue(store.resolve(kept)).path(
+						"extractionResults").get(1).path("results"));
+		// the tracking ends with the collection
+		assertTrue(store.collectGarbage(referenced) > 0);
+		assertEquals(2, store.size());
+		store.close();
+	}
+}
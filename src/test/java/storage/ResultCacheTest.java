@@ -0,0 +1,197 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import model.Environment;
+import model.ExtractionResult;
+import model.ExtractionResultCollection;
+import model.KeyValueResult;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResultCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Keeps the snapshots in memory and counts the reads.
+	 */
+	private class CountingStorage extends GeneralStorage {
+		final List<String> snapshots = new ArrayList<String>();
+		int reads = 0;
+
+		@Override
+		public String[] getRawResults(ExtractionResultCollection coll) {
+			reads++;
+			return resolvePayloads(snapshots.toArray(new String[0]));
+		}
+
+		@Override
+		public void save(String collection, String profileUUID, String type,
+				String path) {
+			snapshots.add(collection);
+		}
+
+		@Override
+		protected File getPayloadFile() {
+			return new File(folder.getRoot(), "payloads.log");
+		}
+
+		@Override
+		public synchronized SearchIndex getSearchIndex() {
+			return null;
+		}
+
+		@Override
+		public void finalize() {
+			closePayloadStore();
+		}
+
+		@Override
+		public void deleteAllMetadata() {
+			snapshots.clear();
+			invalidateResultCache();
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private static Environment environment(String module, String value) {
+		Environment environment = new Environment("profile");
+		ExtractionResult result = new ExtractionResult();
+		result.moduleName = module;
+		result.extractionDate = new Date(0);
+		KeyValueResult keyValue = new KeyValueResult("name");
+		keyValue.add("key", value);
+		result.setResults(keyValue);
+		environment.addExtractionResult(result);
+		return environment;
+	}
+
+	@Test
+	public void invalidateOnWriteTest() throws Exception {
+		CountingStorage storage = new CountingStorage();
+		Environment key = new Environment("profile");
+		storage.write(environment("ModuleA", "1"), "profile", "environment",
+				null);
+		assertEquals(1, storage.getSnapshots(key).length);
+		assertEquals(1, storage.getSnapshots(key).length);
+		ResultTable table = storage.getResultTable(key, "ModuleA");
+		assertSame(table, storage.getResultTable(key, "ModuleA"));
+		assertEquals(1, storage.reads);
+		assertTrue(storage.getResultCache().getStats().hitCount() >= 2);
+
+		assertEquals(1, storage.getAllUsedModules(key).size());
+
+		storage.write(environment("ModuleB", "2"), "profile", "environment",
+				null);
+		assertEquals(2, storage.getSnapshots(key).length);
+		assertEquals(2, storage.getAllUsedModules(key).size());
+		assertEquals(1, storage.getResultTable(key, "ModuleB").rows.size());
+
+		storage.deleteAllMetadata();
+		assertEquals(0, storage.getSnapshots(key).length);
+		assertEquals(2, storage.reads);
+		storage.finalize();
+	}
+
+	@Test
+	public void incrementalDiffTest() throws Exception {
+		CountingStorage storage = new CountingStorage();
+		Environment key = new Environment("profile");
+		storage.write(environment("ModuleA", "1"), "profile", "environment",
+				null);
+		storage.write(environment("ModuleA", "2"), "profile", "environment",
+				null);
+		assertEquals(1, storage.getDiffs(key).size());
+		storage.write(environment("ModuleA", "3"), "profile", "environment",
+				null);
+		assertEquals(2, storage.getDiffs(key).size());
+		assertEquals("3", storage.getDiffs(key).get(1).changes.get(0).newValue);
+		assertEquals(3, storage.getSnapshots(key).length);
+		// the new snapshot was appended without reading the backend again
+		assertEquals(1, storage.reads);
+		storage.finalize();
+	}
+
+	@Test
+	public void staleReadTest() {
+		ResultCache cache = new ResultCache();
+		long generation = cache.getGeneration();
+		cache.invalidate("a");
+		cache.put("a", new String[] { "old" }, generation);
+		assertNull(cache.getIfPresent("a"));
+		cache.put("a", new String[] { "new" }, cache.getGeneration());
+		assertEquals("new", cache.getIfPresent("a").snapshots[0]);
+	}
+
+	@Test
+	public void readDuringWriteTest() {
+		ResultCache cache = new ResultCache();
+		cache.put("a", new String[] { "1" }, cache.getGeneration());
+		ResultCache.Write write = cache.beginWrite("a");
+		cache.endWrite(write, "2", null);
+		assertEquals(2, cache.getIfPresent("a").snapshots.length);
+
+		write = cache.beginWrite("a");
+		// a reader misses the cache and reads the backend after the save
+		long generation = cache.getGeneration();
+		assertNull(cache.getIfPresent("a"));
+		cache.put("a", new String[] { "1", "2", "3" }, generation);
+		cache.endWrite(write, "3", null);
+		// the snapshot is not appended a second time
+		assertNull(cache.getIfPresent("a"));
+
+		// a reader that read before the end of the write doesn't cache
+		cache.put("a", new String[] { "1", "2", "3" }, cache.getGeneration());
+		write = cache.beginWrite("a");
+		generation = cache.getGeneration();
+		cache.endWrite(write, "4", null);
+		cache.put("a", new String[] { "1", "2", "3" }, generation);
+		assertEquals(4, cache.getIfPresent("a").snapshots.length);
+	}
+
+	@Test
+	public void evictionTest() {
+		StringBuilder big = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			big.append("0123456789");
+		}
+		ResultCache cache = new ResultCache(50000);
+		for (int i = 0; i < 10; i++) {
+			cache.put("key" + i, new String[] { big.toString() },
+					cache.getGeneration());
+		}
+		assertTrue(cache.size() < 10);
+		assertTrue(cache.getWeight() <= cache.getMaximumWeight());
+		assertNotNull(cache.getIfPresent("key9"));
+		assertTrue(cache.getStats().evictionCount() > 0);
+	}
+}
@@ -0,0 +1,99 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import model.Environment;
+import model.ExtractionResult;
+import model.ExtractionResultCollection;
+import model.KeyValueResult;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class ResultStreamReaderTest {
+
+	@SuppressWarnings("deprecation")
+	private static String snapshot(String value) throws Exception {
+		Environment environment = new Environment("profile");
+		for (String module : new String[] { "ModuleA", "ModuleB" }) {
+			ExtractionResult result = new ExtractionResult();
+			result.moduleName = module;
+			result.extractionDate = new Date(0);
+			KeyValueResult keyValue = new KeyValueResult("name");
+			keyValue.add("key", module + value);
+			result.setResults(keyValue);
+			environment.addExtractionResult(result);
+		}
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.enable(SerializationFeature.INDENT_OUTPUT);
+		mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+		return mapper.writeValueAsString(environment);
+	}
+
+	@Test
+	public void readModuleResultsTest() throws Exception {
+		List<ObjectNode> results = ResultStreamReader.readModuleResults(
+				snapshot("1"), "ModuleB");
+		assertEquals(1, results.size());
+		assertEquals("ModuleB", results.get(0).get("moduleName").asText());
+		HashSet<String> names = new HashSet<String>();
+		ResultStreamReader.readModuleNames(snapshot("1"), names);
+		assertEquals(new HashSet<String>(Arrays.asList("ModuleA", "ModuleB")),
+				names);
+	}
+
+	@Test
+	public void resultTableTest() throws Exception {
+		final String[] snapshots = { snapshot("1"), snapshot("2") };
+		GeneralStorage storage = new GeneralStorage() {
+			@Override
+			public String[] getRawResults(ExtractionResultCollection coll) {
+				return snapshots;
+			}
+
+			@Override
+			public void save(String collection, String profileUUID,
+					String type, String path) {
+			}
+
+			@Override
+			public void finalize() {
+			}
+
+			@Override
+			public void deleteAllMetadata() {
+			}
+		};
+		ResultTable table = storage.getResultTable(new Environment("profile"),
+				"ModuleA");
+		assertArrayEquals(new String[] { "Extraction Date", "name", "key" },
+				table.header);
+		assertEquals(2, table.rows.size());
+		assertEquals("\"ModuleA2\"", table.rows.get(1).get(2));
+	}
+}
@@ -0,0 +1,181 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import model.Environment;
+import model.ExtractionResult;
+import model.ExtractionResultCollection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import utility.FileUtils;
+
+import com.google.common.base.Strings;
+
+import configuration.Constants;
+
+public class RetentionPolicyTest {
+	private static final long HOUR = 60 * 60 * 1000;
+	private static final long DAY = 24 * HOUR;
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("retentionTest").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteDirectory(directory.getPath());
+		new Constants(null);
+	}
+
+	@Test
+	public void keepLastTest() {
+		RetentionPolicy policy = new RetentionPolicy(2, 0);
+		assertEquals("[false, false, true, true]",
+				Arrays.toString(policy.select(new long[] { 1, 2, 3, 4 }, 5)));
+		assertEquals("[true]", Arrays.toString(new RetentionPolicy().select(
+				new long[] { 1 }, 5)));
+	}
+
+	@Test
+	public void dailyAfterDaysTest() {
+		long now = 100 * DAY;
+		// two snapshots on each of two old days, and two recent ones
+		long day = 60 * DAY + 12 * HOUR;
+		long[] times = { day, day + HOUR, day + DAY, day + DAY + HOUR,
+				now - HOUR, now - 1 };
+		boolean[] keep = new RetentionPolicy(0, 30).select(times, now);
+		assertEquals("[false, true, false, true, true, true]",
+				Arrays.toString(keep));
+	}
+
+	@Test
+	public void compactFileStorageTest() throws IOException {
+		new Constants(directory.getPath());
+		FileStorageInterface storage = new FileStorageInterface();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 5; i++) {
+			storage.save("{\"profileUUID\":\"p\",\"extractionResults\":["
+					+ "{\"moduleName\":\"a\",\"results\":{}},"
+					+ "{\"moduleName\":\"b\",\"results\":{}}]}", "p",
+					"environment", null);
+		}
+		File[] files = new File(Constants.OUTPUT_DIRECTORY, "p").listFiles();
+		for (File file : files) {
+			file.setLastModified(now - DAY);
+		}
+		new File(Constants.OUTPUT_DIRECTORY, "p/environment00000004.json")
+				.setLastModified(now);
+
+		RetentionPolicies policies = new RetentionPolicies();
+		policies.defaultPolicy.keepLast = 3;
+		policies.modules.put("b", new RetentionPolicy(1, 0));
+		CompactionReport report = storage.compact(policies);
+		assertEquals(2, report.deletedSnapshots);
+		assertEquals(2, report.rewrittenSnapshots);
+		assertEquals(2, report.removedResults);
+
+		String[] snapshots = storage.getRawResults(new Environment("p"));
+		assertEquals(3, snapshots.length);
+		assertFalse(snapshots[0].contains("\"b\""));
+		assertFalse(snapshots[1].contains("\"b\""));
+		assertTrue(snapshots[2].contains("\"b\""));
+		// the rewritten snapshots keep their time
+		assertEquals(
+				(now - DAY) / 1000,
+				new File(Constants.OUTPUT_DIRECTORY,
+						"p/environment00000002.json").lastModified() / 1000);
+		storage.finalize();
+	}
+
+	@Test
+	public void compactPayloadsTest() throws Exception {
+		new Constants(directory.getPath());
+		FileStorageInterface storage = new FileStorageInterface();
+		for (int i = 0; i < 5; i++) {
+			storage.write(createCollection(i), "p", "environment", null);
+		}
+		File journal = storage.getPayloadFile();
+		long length = journal.length();
+
+		RetentionPolicies policies = new RetentionPolicies();
+		policies.defaultPolicy.keepLast = 2;
+		CompactionReport report = storage.compact(policies);
+		assertEquals(3, report.deletedSnapshots);
+		assertTrue(journal.length() < length / 2);
+		String[] snapshots = storage.getRawResults(new Environment("p"));
+		assertEquals(2, snapshots.length);
+		assertTrue(snapshots[1].contains("\"value4\""));
+
+		// the byte cap counts the referenced results
+		policies.defaultPolicy.keepLast = 0;
+		policies.maxTotalBytes = journal.length();
+		storage.compact(policies);
+		assertEquals(1, storage.getRawResults(new Environment("p")).length);
+		storage.finalize();
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void compactSearchIndexTest() throws Exception {
+		new Constants(directory.getPath());
+		FileStorageInterface storage = new FileStorageInterface();
+		for (int i = 0; i < 5; i++) {
+			storage.write(createCollection(i), "p", "environment", null);
+		}
+		assertEquals(1, storage.search("value0:x*", 10).size());
+
+		RetentionPolicies policies = new RetentionPolicies();
+		policies.defaultPolicy.keepLast = 2;
+		storage.compact(policies);
+		// the results of the deleted snapshots aren't found anymore
+		assertEquals(0, storage.search("value0:x*", 10).size());
+		assertEquals(1, storage.search("value4:x*", 10).size());
+		storage.closeSearchIndex();
+		storage.finalize();
+	}
+
+	private static ExtractionResultCollection createCollection(int value) {
+		ExtractionResultCollection collection = new ExtractionResultCollection(
+				"p");
+		ExtractionResult result = new ExtractionResult();
+		result.moduleName = "a";
+		result.extractionDate = new Date();
+		Map<String, Object> results = new LinkedHashMap<String, Object>();
+		results.put("value" + value, Strings.repeat("x", 1000));
+		result.setResults(results);
+		collection.extractionResults.add(result);
+		return collection;
+	}
+}
@@ -0,0 +1,158 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.Date;
+
+import model.Environment;
+import model.ExtractionResult;
+import model.KeyValueResult;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SQLStorageInterfaceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Keeps the payloads in the temporary folder.
+	 */
+	private class TestStorage extends SQLStorageInterface {
+		TestStorage() {
+			super(new File(folder.getRoot(), "metadata"));
+		}
+
+		@Override
+		protected File getPayloadFile() {
+			return new File(folder.getRoot(), "payloads.log");
+		}
+
+		@Override
+		public synchronized SearchIndex getSearchIndex() {
+			return null;
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private static Environment environment(String module, String value) {
+		Environment environment = new Environment("profile");
+		ExtractionResult result = new ExtractionResult();
+		result.moduleName = module;
+		result.extractionDate = new Date(0);
+		KeyValueResult keyValue = new KeyValueResult("name");
+		keyValue.add("key", value);
+		result.setResults(keyValue);
+		environment.addExtractionResult(result);
+		return environment;
+	}
+
+	@Test
+	public void rangeScanTest() {
+		TestStorage storage = new TestStorage();
+		storage.save("{\"a\":1}", "profile", "file-dependent", "/part");
+		storage.save("{\"e\":1}", "profile", "environment", null);
+		storage.save("{\"e\":2}", "otherProfile", "environment", null);
+		storage.finalize();
+
+		storage = new TestStorage();
+		assertArrayEquals(new String[] { "{\"e\":1}" },
+				storage.getRawResults(new Environment("profile")));
+		storage.deleteAllMetadata();
+		assertEquals(0,
+				storage.getRawResults(new Environment("profile")).length);
+		storage.finalize();
+	}
+
+	@Test
+	public void indexedResultsTest() throws Exception {
+		TestStorage storage = new TestStorage();
+		Environment key = new Environment("profile");
+		storage.write(environment("ModuleA", "1"), "profile", "environment",
+				null);
+		storage.write(environment("ModuleA", "2"), "profile", "environment",
+				null);
+		storage.write(environment("ModuleB", "3"), "profile", "environment",
+				null);
+		String[] snapshots = storage.getRawResults(key);
+		assertEquals(3, snapshots.length);
+
+		for (String module : new String[] { "ModuleA", "ModuleB", "ModuleC" }) {
+			ResultTable expected = GeneralStorage.createResultTable(
+					snapshots, module);
+			ResultTable table = storage.getResultTable(key, module);
+			assertArrayEquals(expected.header, table.header);
+			assertEquals(expected.rows, table.rows);
+		}
+		assertEquals(2, storage.getResults(key, "ModuleA").size());
+		assertEquals(2, storage.getAllUsedModules(key).size());
+
+		ResultTable values = storage.query("SELECT r.module_name, "
+				+ "k.result_value FROM results r JOIN key_values k "
+				+ "ON k.result_id = r.id WHERE k.result_key = 'key' "
+				+ "ORDER BY k.result_value", 10);
+		assertEquals(3, values.rows.size());
+		assertEquals("ModuleB", values.rows.get(2).get(0));
+		assertEquals("3", values.rows.get(2).get(1));
+		assertEquals(1, storage.query("SELECT * FROM results", 1).rows
+				.size());
+		storage.finalize();
+	}
+
+	@Test
+	public void readOnlyQueryTest() throws Exception {
+		TestStorage storage = new TestStorage();
+		storage.write(environment("ModuleA", "1"), "profile", "environment",
+				null);
+		for (String sql : new String[] { "DELETE FROM snapshots",
+				"DROP TABLE results", "CREATE TABLE t(a INT)" }) {
+			try {
+				storage.query(sql, 10);
+				fail(sql);
+			} catch (SQLException e) {
+				// expected
+			}
+		}
+		assertEquals(1,
+				storage.getRawResults(new Environment("profile")).length);
+		storage.finalize();
+	}
+
+	@Test
+	public void failedSaveTest() throws Exception {
+		TestStorage storage = new TestStorage();
+		storage.write(environment("ModuleA", "1"), "profile", "environment",
+				null);
+		// the snapshot row is inserted, before its results fail to parse
+		storage.save("{\"extractionResults\":[", "profile", "environment",
+				null);
+		storage.flushWrites();
+		assertEquals("1", storage.query("SELECT COUNT(*) FROM snapshots", 1)
+				.rows.get(0).get(0));
+		assertEquals(1,
+				storage.getRawResults(new Environment("profile")).length);
+		storage.finalize();
+	}
+}
@@ -0,0 +1,106 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.List;
+
+import model.Environment;
+import model.ExtractionResult;
+import model.KeyValueResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import utility.FileUtils;
+
+public class SearchIndexTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("searchIndexTest").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteDirectory(directory.getPath());
+	}
+
+	@SuppressWarnings("deprecation")
+	private static ExtractionResult result(String module, String key,
+			String value) {
+		ExtractionResult result = new ExtractionResult();
+		result.moduleName = module;
+		result.extractionDate = new Date(1000);
+		KeyValueResult keyValue = new KeyValueResult("fonts");
+		keyValue.add(key, value);
+		result.setResults(keyValue);
+		return result;
+	}
+
+	@Test
+	public void searchTest() throws IOException {
+		SearchIndex index = new SearchIndex(directory);
+		Environment collection = new Environment("profile");
+		collection.addExtractionResult(result("FontModule", "embedded",
+				"false"));
+		index.add(collection, "profile", "file-dependent", "/data/a.pdf");
+		collection.extractionResults.clear();
+		collection.addExtractionResult(result("FontModule", "embedded",
+				"true"));
+		collection.addExtractionResult(result("OtherModule", "embedded",
+				"false"));
+		index.add(collection, "profile", "environment", null);
+
+		List<SearchHit> hits = index.search(
+				"moduleName:FontModule AND embedded:false", null, null, 10);
+		assertEquals(1, hits.size());
+		assertEquals("/data/a.pdf", hits.get(0).path);
+		assertEquals(new Date(1000), hits.get(0).extractionDate);
+		hits = index.search("false", null, null, 10);
+		assertEquals(2, hits.size());
+		assertEquals(0,
+				index.search("embedded:true", new Date(2000), null, 10)
+						.size());
+		index.close();
+
+		index = new SearchIndex(directory);
+		hits = index.search("moduleName:OtherModule", null, null, 10);
+		assertEquals(1, hits.size());
+		assertNull(hits.get(0).path);
+		index.close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidQueryTest() throws IOException {
+		SearchIndex index = new SearchIndex(directory);
+		try {
+			index.search("moduleName:(", null, null, 10);
+		} finally {
+			index.close();
+		}
+	}
+}
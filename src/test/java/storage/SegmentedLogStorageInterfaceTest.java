@@ -0,0 +1,133 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import model.Environment;
+import model.Part;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import utility.FileUtils;
+
+public class SegmentedLogStorageInterfaceTest {
+
+	private File directory;
+	private Path file;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("segmentedLogTest").toFile();
+		file = Files.createTempFile("segmentedLogTest", ".txt");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory.getPath());
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void saveAndReopenTest() throws Exception {
+		Part part = Part.create(file, "profile");
+		SegmentedLogStorageInterface storage = new SegmentedLogStorageInterface(
+				directory);
+		storage.save("{\"a\":1}", "profile", "file-dependent", part.getPath());
+		storage.save("{\"a\":2}", "profile", "file-dependent", part.getPath());
+		storage.save("{\"e\":1}", "profile", "environment", null);
+		assertArrayEquals(new String[] { "{\"a\":1}", "{\"a\":2}" },
+				storage.getRawResults(part));
+		storage.finalize();
+
+		storage = new SegmentedLogStorageInterface(directory);
+		assertArrayEquals(new String[] { "{\"a\":1}", "{\"a\":2}" },
+				storage.getRawResults(part));
+		assertArrayEquals(new String[] { "{\"e\":1}" },
+				storage.getRawResults(new Environment("profile")));
+		storage.deleteAllMetadata();
+		assertEquals(0, storage.getRawResults(part).length);
+		storage.finalize();
+	}
+
+	@Test
+	public void recoveryTest() throws Exception {
+		Part part = Part.create(file, "profile");
+		SegmentedLogStorageInterface storage = new SegmentedLogStorageInterface(
+				directory);
+		storage.save("{\"a\":1}", "profile", "file-dependent", part.getPath());
+		storage.save("{\"a\":2}", "profile", "file-dependent", part.getPath());
+		storage.finalize();
+		// lose the index entry of the last record and tear its last byte off
+		File index = new File(directory, "index");
+		File segment = new File(directory, "segment00000000.log");
+		try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+			raf.setLength(raf.length() / 2 + 3);
+		}
+		long segmentLength = segment.length();
+		try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+			raf.setLength(segmentLength - 1);
+		}
+		storage = new SegmentedLogStorageInterface(directory);
+		assertArrayEquals(new String[] { "{\"a\":1}" },
+				storage.getRawResults(part));
+		storage.save("{\"a\":3}", "profile", "file-dependent", part.getPath());
+		storage.finalize();
+
+		storage = new SegmentedLogStorageInterface(directory);
+		assertArrayEquals(new String[] { "{\"a\":1}", "{\"a\":3}" },
+				storage.getRawResults(part));
+		storage.finalize();
+	}
+
+	@Test
+	public void staleIndexTest() throws Exception {
+		Part part = Part.create(file, "profile");
+		SegmentedLogStorageInterface storage = new SegmentedLogStorageInterface(
+				directory);
+		storage.save("{\"a\":1}", "profile", "file-dependent", part.getPath());
+		// flushes the first record
+		storage.getRawResults(part);
+		long firstEnd = new File(directory, "segment00000000.log").length();
+		storage.save("{\"a\":2}", "profile", "file-dependent", part.getPath());
+		storage.finalize();
+		// the index entry of the last record was written, its record not
+		try (RandomAccessFile raf = new RandomAccessFile(new File(directory,
+				"segment00000000.log"), "rw")) {
+			raf.setLength(firstEnd);
+		}
+		storage = new SegmentedLogStorageInterface(directory);
+		assertArrayEquals(new String[] { "{\"a\":1}" },
+				storage.getRawResults(part));
+		storage.save("{\"b\":3}", "profile", "file-dependent", part.getPath());
+		storage.finalize();
+
+		storage = new SegmentedLogStorageInterface(directory);
+		assertArrayEquals(new String[] { "{\"a\":1}", "{\"b\":3}" },
+				storage.getRawResults(part));
+		storage.finalize();
+	}
+}
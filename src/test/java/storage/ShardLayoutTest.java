@@ -0,0 +1,165 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import model.Environment;
+import model.Part;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import utility.FileUtils;
+import configuration.Constants;
+
+public class ShardLayoutTest {
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("shardTest").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		FileUtils.deleteDirectory(directory.getPath());
+		new Constants(null);
+	}
+
+	@Test
+	public void stablePlacementTest() {
+		File a = new File(directory, "a");
+		File b = new File(directory, "b");
+		File c = new File(directory, "c");
+		ShardLayout two = new ShardLayout(Arrays.asList(a, b));
+		ShardLayout three = new ShardLayout(Arrays.asList(a, b, c));
+		int moved = 0;
+		for (int i = 0; i < 300; i++) {
+			File before = two.place("history" + i);
+			File after = three.place("history" + i);
+			assertEquals(before, two.place("history" + i));
+			if (!before.equals(after)) {
+				// only moves to the new root
+				assertEquals(new File(c.getAbsoluteFile(),
+						ShardLayout.SNAPSHOT_DIRECTORY), after);
+				moved++;
+			}
+		}
+		assertTrue(moved > 50 && moved < 150);
+	}
+
+	@Test
+	public void saveAndLoadTest() throws IOException {
+		File primary = new File(directory, "primary");
+		primary.mkdirs();
+		new ShardLayout(Arrays.asList(primary, new File(directory, "disk2")))
+				.save();
+		ShardLayout loaded = ShardLayout.load(primary);
+		assertEquals(2, loaded.getRoots().size());
+		assertEquals(new File(directory, "disk2").getAbsoluteFile(), loaded
+				.getRoots().get(1));
+	}
+
+	@Test
+	public void rebalanceTest() throws Exception {
+		new Constants(directory.getPath());
+		File disk2 = new File(directory, "disk2");
+		FileStorageInterface storage = new FileStorageInterface();
+		File file = new File(directory, "part.txt");
+		file.createNewFile();
+		Part part = Part.create(file.toPath(), "p0");
+		part.path = file.getPath();
+		List<String> profiles = new ArrayList<String>();
+		for (int i = 0; i < 20; i++) {
+			profiles.add("p" + i);
+			save(storage, "p" + i, null);
+		}
+		save(storage, "p0", part.path);
+
+		storage.setStorageRoots(Collections.singletonList(disk2));
+		for (String profile : profiles) {
+			// the histories stay where they are until the rebalancing
+			save(storage, profile, null);
+			assertEquals(2,
+					storage.getRawResults(new Environment(profile)).length);
+		}
+		save(storage, "p0", part.path);
+		assertEquals(2, storage.getRawResults(part).length);
+
+		assertTrue(storage.rebalance() > 0);
+		int onDisk2 = 0;
+		for (String profile : profiles) {
+			assertEquals(2,
+					storage.getRawResults(new Environment(profile)).length);
+			if (new File(new File(disk2, ShardLayout.SNAPSHOT_DIRECTORY),
+					profile).isDirectory()) {
+				onDisk2++;
+			}
+		}
+		assertTrue(onDisk2 > 0 && onDisk2 < profiles.size());
+		assertEquals(2, storage.getRawResults(part).length);
+		assertEquals(0, storage.rebalance());
+
+		// the roots are used at the next start, too
+		storage.finalize();
+		storage = new FileStorageInterface();
+		assertEquals(2, storage.getStorageRoots().size());
+		assertEquals(2, storage.getRawResults(new Environment("p5")).length);
+		storage.finalize();
+	}
+
+	@Test
+	public void deleteAllMetadataTest() throws Exception {
+		new Constants(new File(directory, "output").getPath());
+		File disk2 = new File(directory, "disk2");
+		File foreign = new File(disk2, "foreign.txt");
+		disk2.mkdirs();
+		foreign.createNewFile();
+		FileStorageInterface storage = new FileStorageInterface();
+		storage.setStorageRoots(Collections.singletonList(disk2));
+		for (int i = 0; i < 10; i++) {
+			save(storage, "p" + i, null);
+		}
+		File snapshots = new File(disk2, ShardLayout.SNAPSHOT_DIRECTORY);
+		assertTrue(snapshots.list().length > 0);
+
+		storage.deleteAllMetadata();
+		// data at the root that PET didn't write is kept
+		assertTrue(foreign.isFile());
+		assertEquals(0, snapshots.list().length);
+		assertEquals(2, storage.getStorageRoots().size());
+		storage.finalize();
+	}
+
+	private static void save(FileStorageInterface storage, String profile,
+			String path) {
+		storage.save("{\"profileUUID\":\"" + profile
+				+ "\",\"extractionResults\":[]}", profile,
+				path == null ? "environment" : "file-dependent", path);
+	}
+}
@@ -0,0 +1,95 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Date;
+
+import model.Environment;
+import model.ExtractionResult;
+import model.ExtractionResultCollection;
+import model.KeyValueResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SmileCodecTest {
+
+	private File dictionary;
+
+	@Before
+	public void setUp() throws IOException {
+		dictionary = File.createTempFile("smileCodecTest", ".dict");
+		dictionary.delete();
+	}
+
+	@After
+	public void tearDown() {
+		dictionary.delete();
+	}
+
+	@SuppressWarnings("deprecation")
+	private static Environment createEnvironment() {
+		Environment environment = new Environment("profile");
+		ExtractionResult result = new ExtractionResult();
+		result.moduleName = "Module";
+		result.moduleClass = "modules.PosixModule";
+		result.extractionDate = new Date(0);
+		KeyValueResult keyValue = new KeyValueResult("name");
+		keyValue.add("dc.title", "value");
+		result.setResults(keyValue);
+		environment.addExtractionResult(result);
+		return environment;
+	}
+
+	@Test
+	public void roundTripTest() throws IOException {
+		Environment environment = createEnvironment();
+		String json = JsonMappers.COMPACT.writeValueAsString(environment);
+		SmileCodec codec = new SmileCodec(dictionary);
+		byte[] encoded = codec.encode(environment);
+		assertTrue(SmileCodec.isSmile(encoded));
+		assertFalse(SmileCodec.isSmile(json.getBytes("UTF-8")));
+		assertEquals(json, codec.toJson(encoded, false));
+		// the type names are only stored in the dictionary
+		assertFalse(new String(encoded, "ISO-8859-1")
+				.contains("model.KeyValueResult"));
+		String names = new String(Files.readAllBytes(dictionary.toPath()),
+				Charset.forName("UTF-8"));
+		assertTrue(names.contains("model.KeyValueResult\n"));
+		assertTrue(names.contains("modules.PosixModule\n"));
+		assertFalse(names.contains("dc.title"));
+
+		SmileCodec reloaded = new SmileCodec(dictionary);
+		assertEquals(json, reloaded.toJson(encoded, false));
+		ExtractionResultCollection decoded = reloaded.decode(encoded,
+				ExtractionResultCollection.class);
+		KeyValueResult keyValue = (KeyValueResult) decoded.extractionResults
+				.get(0).results;
+		assertEquals("value", keyValue.results.get("dc.title"));
+		assertArrayEquals(encoded, reloaded.encode(json));
+	}
+}
@@ -0,0 +1,121 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import model.Environment;
+import model.ExtractionResult;
+import model.KeyValueResult;
+import storage.SnapshotDiff.Change;
+import storage.SnapshotDiff.Kind;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class SnapshotDiffTest {
+
+	@SuppressWarnings("deprecation")
+	private static JsonNode snapshot(long date, String... modulesAndValues) {
+		Environment environment = new Environment("profile");
+		for (int i = 0; i < modulesAndValues.length; i += 2) {
+			ExtractionResult result = new ExtractionResult();
+			result.moduleName = modulesAndValues[i];
+			result.extractionDate = new Date(date);
+			KeyValueResult keyValue = new KeyValueResult("name");
+			keyValue.add("key", modulesAndValues[i + 1]);
+			result.setResults(keyValue);
+			environment.addExtractionResult(result);
+		}
+		return JsonMappers.valueToTree(environment);
+	}
+
+	@Test
+	public void unchangedTest() {
+		SnapshotDiff diff = SnapshotDiff.compare(snapshot(0, "A", "1"),
+				snapshot(1000, "A", "1"));
+		assertTrue(diff.isEmpty());
+	}
+
+	@Test
+	public void changedKeyTest() {
+		SnapshotDiff diff = SnapshotDiff.compare(
+				snapshot(0, "A", "1", "B", "x"), snapshot(0, "A", "2", "B", "x"));
+		assertEquals(1, diff.changes.size());
+		Change change = diff.changes.get(0);
+		assertEquals(Kind.CHANGED, change.kind);
+		assertEquals("A", change.module);
+		assertEquals("results/model.KeyValueResult/results/key", change.path);
+		assertEquals("1", change.oldValue);
+		assertEquals("2", change.newValue);
+	}
+
+	@Test
+	public void addedAndRemovedModuleTest() {
+		SnapshotDiff diff = SnapshotDiff.compare(snapshot(0, "A", "1"),
+				snapshot(0, "B", "1"));
+		assertEquals(2, diff.changes.size());
+		assertEquals(Kind.ADDED, diff.changes.get(0).kind);
+		assertEquals("B", diff.changes.get(0).module);
+		assertEquals(Kind.REMOVED, diff.changes.get(1).kind);
+		assertEquals("A", diff.changes.get(1).module);
+	}
+
+	@Test
+	public void longValueTest() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			text.append('a');
+		}
+		SnapshotDiff diff = SnapshotDiff.compare(snapshot(0, "A", "1"),
+				snapshot(0, "A", text.toString()));
+		assertTrue(diff.changes.get(0).newValue.endsWith("(1000 characters)"));
+	}
+
+	@Test
+	public void moduleInstancesTest() {
+		JsonNode older = snapshot(0, "A", "1", "A", "x");
+		JsonNode newer = snapshot(0, "A", "1", "A", "y");
+		setHashes(older, "11111111aa", "22222222bb");
+		// the instances are matched by their configuration, not their order
+		setHashes(newer, "22222222bb", "11111111aa");
+		SnapshotDiff diff = SnapshotDiff.compare(older, newer);
+		assertEquals(2, diff.changes.size());
+		Change change = diff.changes.get(0);
+		assertEquals(Kind.CHANGED, change.kind);
+		assertEquals("A [22222222]", change.module);
+		assertEquals("x", change.oldValue);
+		assertEquals("1", change.newValue);
+		change = diff.changes.get(1);
+		assertEquals("A [11111111]", change.module);
+		assertEquals("1", change.oldValue);
+		assertEquals("y", change.newValue);
+		assertTrue(SnapshotDiff.compare(older, older).isEmpty());
+	}
+
+	private static void setHashes(JsonNode snapshot, String... hashes) {
+		for (int i = 0; i < hashes.length; i++) {
+			((ObjectNode) snapshot.get("extractionResults").get(i)).put(
+					"configurationHash", hashes[i]);
+		}
+	}
+}
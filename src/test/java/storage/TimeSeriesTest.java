@@ -0,0 +1,113 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TimeSeriesTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final long START = 1000L * 60 * 60 * 24 * 365 * 45;
+
+	@Test
+	public void rollupTest() {
+		TimeSeries series = new TimeSeries();
+		// two hours of samples, every 500 milliseconds
+		for (long t = 0; t < 2 * 60 * 60 * 1000; t += 500) {
+			series.add(START + t, t % 60000 < 30000 ? 1 : 3);
+		}
+		long end = START + 2 * 60 * 60 * 1000 - 1;
+
+		// the last minute from the seconds
+		List<TimeSeries.Sample> seconds = series.query(end - 59999, end, 100);
+		assertEquals(60, seconds.size());
+		assertEquals(2, seconds.get(0).count);
+		assertEquals(1, seconds.get(0).average, 0);
+
+		// the seconds are only kept for an hour, so minutes are returned
+		List<TimeSeries.Sample> minutes = series.query(START, end, 1000);
+		assertEquals(120, minutes.size());
+		TimeSeries.Sample minute = minutes.get(0);
+		assertEquals(START, minute.time);
+		assertEquals(120, minute.count);
+		assertEquals(2, minute.average, 0);
+		assertEquals(1, minute.min, 0);
+		assertEquals(3, minute.max, 0);
+
+		// too many minutes for 10 points, so hours are returned
+		List<TimeSeries.Sample> hours = series.query(START, end, 10);
+		assertEquals(2, hours.size());
+		assertEquals(7200, hours.get(0).count);
+	}
+
+	@Test
+	public void ringBufferTest() {
+		TimeSeries series = new TimeSeries(new long[] { 1000 },
+				new int[] { 10 });
+		for (int i = 0; i < 25; i++) {
+			series.add(START + i * 1000, i);
+		}
+		List<TimeSeries.Sample> samples = series.query(START, START + 25000,
+				100);
+		assertEquals(10, samples.size());
+		assertEquals(15, samples.get(0).average, 0);
+		assertEquals(24, samples.get(9).average, 0);
+	}
+
+	@Test
+	public void persistenceTest() {
+		File directory = new File(folder.getRoot(), "metrics");
+		MetricStore store = new MetricStore(directory);
+		for (int i = 0; i < 10; i++) {
+			store.add("cpu.combined", START + i * 1000, i);
+		}
+		store.flush();
+		store.add("cpu.combined", START + 10000, 10);
+		store.close();
+		long size = new File(directory, "cpu.combined.tsdb").length();
+
+		store = new MetricStore(directory);
+		assertEquals("[cpu.combined]", store.getMetrics().toString());
+		assertEquals(START + 10000, store.getLastTime("cpu.combined"));
+		assertEquals(11, store.query("cpu.combined", START, START + 10000, 100)
+				.size());
+		// the files don't grow with the samples
+		for (int i = 11; i < 5000; i++) {
+			store.add("cpu.combined", START + i * 1000, i);
+		}
+		store.close();
+		assertEquals(size, new File(directory, "cpu.combined.tsdb").length());
+
+		store.clear();
+		assertTrue(store.getMetrics().isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidNameTest() {
+		new MetricStore(folder.getRoot()).add("../cpu", START, 1);
+	}
+}
@@ -0,0 +1,137 @@
+/**
+* Copyright (c) 2014, Fabio Corubolo - University of Liverpool and Anna Eggers - Göttingen State and University Library
+* The work has been developed in the PERICLES Project by Members of the PERICLES Consortium.
+* This work was supported by the European Commission Seventh Framework Programme under Grant Agreement Number FP7- 601138 PERICLES.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at:   http://www.apache.org/licenses/LICENSE-2.0
+* Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+* an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied, including without
+* limitation, any warranties or conditions of TITLE, NON-INFRINGEMENT, MERCHANTIBITLY, or FITNESS FOR A PARTICULAR
+* PURPOSE. In no event and under no legal theory, whether in tort (including negligence), contract, or otherwise,
+* unless required by applicable law or agreed to in writing, shall any Contributor be liable for damages, including
+* any direct, indirect, special, incidental, or consequential damages of any character arising as a result of this
+* License or out of the use or inability to use the Work.
+* See the License for the specific language governing permissions and limitation under the License.
+*/
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import model.ExtractionResultCollection;
+
+import org.junit.Test;
+
+public class WriteBehindQueueTest {
+
+	/**
+	 * Records the saved collections in memory.
+	 */
+	private static class RecordingStorage extends GeneralStorage {
+		final List<String> saved = Collections
+				.synchronizedList(new ArrayList<String>());
+		int flushes = 0;
+
+		@Override
+		public String[] getRawResults(ExtractionResultCollection coll) {
+			return new String[0];
+		}
+
+		@Override
+		public void save(String collection, String profileUUID, String type,
+				String path) {
+		}
+
+		@Override
+		void write(ExtractionResultCollection collection, String profileUUID,
+				String type, String path) {
+			saved.add(path + "/" + collection.petVersion);
+		}
+
+		@Override
+		protected synchronized void flushWrites() {
+			flushes++;
+		}
+
+		@Override
+		public synchronized SearchIndex getSearchIndex() {
+			return null;
+		}
+
+		@Override
+		public void finalize() {
+		}
+
+		@Override
+		public void deleteAllMetadata() {
+		}
+	}
+
+	@Test
+	public void writeInOrderTest() throws InterruptedException {
+		RecordingStorage storage = new RecordingStorage();
+		WriteBehindQueue queue = new WriteBehindQueue(storage, 2);
+		final AtomicBoolean written = new AtomicBoolean();
+		for (int i = 0; i < 500; i++) {
+			ExtractionResultCollection collection = new ExtractionResultCollection(
+					"profile");
+			collection.petVersion = String.valueOf(i);
+			queue.put(collection, "profile", "file-dependent", "/" + (i % 3));
+		}
+		final RecordingStorage recorded = storage;
+		queue.afterWrites(new Runnable() {
+			@Override
+			public void run() {
+				written.set(recorded.saved.size() == 500);
+			}
+		});
+		queue.stop();
+		assertTrue(written.get());
+		assertEquals(500, queue.getWritten());
+		assertEquals(0, queue.getQueued());
+		assertTrue(storage.flushes > 0);
+		// the collections of one path are written in order
+		int[] last = { -1, -1, -1 };
+		for (String path : storage.saved) {
+			String[] parts = path.split("/");
+			int key = Integer.parseInt(parts[1]);
+			int number = Integer.parseInt(parts[2]);
+			assertTrue(number > last[key]);
+			last[key] = number;
+		}
+	}
+
+	@Test
+	public void idleBarrierTest() throws InterruptedException {
+		WriteBehindQueue queue = new WriteBehindQueue(new RecordingStorage(),
+				2);
+		final CountDownLatch reached = new CountDownLatch(1);
+		queue.afterWrites(new Runnable() {
+			@Override
+			public void run() {
+				reached.countDown();
+			}
+		});
+		// the barrier doesn't wait for more jobs on an idle queue
+		assertTrue(reached.await(WriteBehindQueue.MAX_DELAY / 2,
+				TimeUnit.MILLISECONDS));
+		queue.stop();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void putAfterStopTest() throws InterruptedException {
+		WriteBehindQueue queue = new WriteBehindQueue(new RecordingStorage(),
+				1);
+		queue.stop();
+		queue.put(new ExtractionResultCollection("profile"), "profile",
+				"environment", null);
+	}
+}